@@ -0,0 +1,84 @@
+package library.benchmark;
+
+import library.data.RecordFilters;
+import library.data.Transaction;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+/**
+ * Benchmarks a single filter pass over each table, using the {@link RecordFilters} that the Books, Patrons, and
+ * Transactions views filter with.
+ *
+ * @author Srikavin Ramkumar
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FilterBenchmark {
+    /**
+     * The text entered into the filter field
+     */
+    @Param({"an", "title 12"})
+    public String filterText;
+    private List<Transaction> transactions;
+
+    /**
+     * Rebuilds the transactions once, as the Transactions view does when it is opened
+     *
+     * @param state The library to filter
+     */
+    @Setup(Level.Trial)
+    public void setUp(LibraryState state) {
+        transactions = state.library.getTransactions();
+    }
+
+    /**
+     * Measures filtering the Books view
+     *
+     * @param state The library to filter
+     *
+     * @return The number of matching books
+     */
+    @Benchmark
+    public int filterBooks(LibraryState state) {
+        return count(state.library.getBooks(), RecordFilters.books(filterText.toLowerCase()));
+    }
+
+    /**
+     * Measures filtering the Patrons view
+     *
+     * @param state The library to filter
+     *
+     * @return The number of matching patrons
+     */
+    @Benchmark
+    public int filterPatrons(LibraryState state) {
+        return count(state.library.getPatrons(), RecordFilters.patrons(filterText.toLowerCase()));
+    }
+
+    /**
+     * Measures filtering the Transactions view
+     *
+     * @return The number of matching transactions
+     */
+    @Benchmark
+    public int filterTransactions() {
+        return count(transactions, RecordFilters.transactions(filterText.toLowerCase()));
+    }
+
+    private static <T> int count(List<T> list, Predicate<T> predicate) {
+        int matches = 0;
+        for (T e : list) {
+            if (predicate.test(e)) {
+                matches++;
+            }
+        }
+        return matches;
+    }
+}
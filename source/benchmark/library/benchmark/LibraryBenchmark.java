@@ -0,0 +1,129 @@
+package library.benchmark;
+
+import library.data.Book;
+import library.data.Library;
+import library.data.Patron;
+import library.data.Transaction;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks loading, saving, and looking up records in a {@link Library}.
+ *
+ * @author Srikavin Ramkumar
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class LibraryBenchmark {
+    /**
+     * Per-thread state used to cycle through lookup keys and to hold a directory to save into
+     */
+    @State(Scope.Thread)
+    public static class ThreadState {
+        int cursor;
+        Path saveDirectory;
+
+        /**
+         * Creates the directory to save into
+         *
+         * @throws IOException If the directory cannot be created
+         */
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            saveDirectory = Files.createTempDirectory("bookkeeper-benchmark-save");
+        }
+
+        /**
+         * Removes the directory that was saved into
+         *
+         * @throws IOException If the directory cannot be deleted
+         */
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            Files.deleteIfExists(saveDirectory.resolve("data.txt"));
+            Files.deleteIfExists(saveDirectory);
+        }
+
+        int next() {
+            return cursor++ & 1023;
+        }
+    }
+
+    /**
+     * Measures {@link Library#Library(Path)}. The loaded library is closed, so that its store does not keep the data
+     * directory open.
+     *
+     * @param state     The saved library
+     * @param blackhole Consumes the loaded library
+     *
+     * @throws IOException If the library cannot be loaded
+     */
+    @Benchmark
+    public void load(LibraryState state, Blackhole blackhole) throws IOException {
+        Library library = new Library(state.dataDirectory);
+        blackhole.consume(library);
+        library.close();
+    }
+
+    /**
+     * Measures {@link Library#writeCopy(Path)}, which leaves the shared library saved to its own directory
+     *
+     * @param state       The library to save
+     * @param threadState The directory to save into
+     *
+     * @throws IOException If the library cannot be saved
+     */
+    @Benchmark
+    public void save(LibraryState state, ThreadState threadState) throws IOException {
+        state.library.writeCopy(threadState.saveDirectory);
+    }
+
+    /**
+     * Measures {@link Library#getBookFromID(library.data.Identifier)}
+     *
+     * @param state       The library to search
+     * @param threadState The lookup key cursor
+     *
+     * @return The book that was found
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public Book getBookFromID(LibraryState state, ThreadState threadState) {
+        return state.library.getBookFromID(state.bookIds[threadState.next()]);
+    }
+
+    /**
+     * Measures {@link Library#getPatronFromID(library.data.Identifier)}
+     *
+     * @param state       The library to search
+     * @param threadState The lookup key cursor
+     *
+     * @return The patron that was found
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public Patron getPatronFromID(LibraryState state, ThreadState threadState) {
+        return state.library.getPatronFromID(state.patronIds[threadState.next()]);
+    }
+
+    /**
+     * Measures {@link Library#getTransactions()}
+     *
+     * @param state The library to get the transactions of
+     *
+     * @return The transactions of the library
+     */
+    @Benchmark
+    public List<Transaction> getTransactions(LibraryState state) {
+        return state.library.getTransactions();
+    }
+}
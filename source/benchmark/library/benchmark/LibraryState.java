@@ -0,0 +1,121 @@
+package library.benchmark;
+
+import library.data.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * Shared benchmark state containing a populated {@link Library}. The library contains {@link #catalogSize} books and
+ * as many transactions, with one patron for every ten books. A copy of the library is saved to a temporary directory
+ * so that loading can be measured.
+ *
+ * @author Srikavin Ramkumar
+ */
+@State(Scope.Benchmark)
+public class LibraryState {
+    /**
+     * The number of books (and transactions) in the library
+     */
+    @Param({"10000", "100000", "1000000", "10000000"})
+    public int catalogSize;
+    /**
+     * The populated library
+     */
+    public Library library;
+    /**
+     * The directory containing the saved library
+     */
+    public Path dataDirectory;
+    /**
+     * Identifiers of books to look up, in a random order
+     */
+    public Identifier[] bookIds;
+    /**
+     * Identifiers of patrons to look up, in a random order
+     */
+    public Identifier[] patronIds;
+
+    private static final long SEED = 2018;
+    private static final int LOOKUP_KEYS = 1024;
+
+    /**
+     * Creates and saves the library
+     *
+     * @throws IOException If the library cannot be saved
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        Random random = new Random(SEED);
+        library = new Library((Path) null);
+
+        List<PatronType> patronTypes = library.getPatronTypes();
+        patronTypes.add(new PatronType(new Identifier(2), "Student", 25, 10));
+        patronTypes.add(new PatronType(new Identifier(3), "Teacher", 45, 15));
+
+        int patronCount = Math.max(catalogSize / 10, 1);
+        List<Patron> patrons = library.getPatrons();
+        for (int i = 0; i < patronCount; i++) {
+            PatronType type = patronTypes.get(random.nextInt(patronTypes.size()));
+            patrons.add(new Patron(new Identifier(i), "First" + i, "Last" + random.nextInt(patronCount), type));
+        }
+
+        Instant now = Instant.now();
+        List<Book> books = library.getBooks();
+        for (int i = 0; i < catalogSize; i++) {
+            //Roughly three copies per title
+            int title = i / 3;
+            String isbn = String.format("978%010d", title);
+            if (random.nextInt(10) < 3) {
+                Patron patron = patrons.get(random.nextInt(patronCount));
+                Instant checkOutDate = now.minus(Duration.ofDays(random.nextInt(60)));
+                books.add(new Book(new Identifier(i), "Title " + title, "Author " + (title % 5000), isbn,
+                        BookStatus.CHECKED_OUT, patron, checkOutDate));
+            } else {
+                books.add(new Book(new Identifier(i), "Title " + title, "Author " + (title % 5000), isbn,
+                        BookStatus.AVAILABLE, null, null));
+            }
+        }
+
+        List<Transaction> transactions = new ArrayList<>();
+        Instant start = now.minus(Duration.ofDays(365));
+        long secondsPerTransaction = Math.max(Duration.ofDays(365).getSeconds() / catalogSize, 1);
+        for (int i = 0; i < catalogSize; i++) {
+            Transaction.Action action = i % 2 == 0 ? Transaction.Action.CHECKOUT : Transaction.Action.RETURN;
+            transactions.add(new Transaction(new Identifier(i), patrons.get(random.nextInt(patronCount)),
+                    books.get(random.nextInt(catalogSize)), action, start.plusSeconds(i * secondsPerTransaction)));
+        }
+        library.addTransactions(transactions);
+
+        bookIds = new Identifier[LOOKUP_KEYS];
+        patronIds = new Identifier[LOOKUP_KEYS];
+        for (int i = 0; i < LOOKUP_KEYS; i++) {
+            bookIds[i] = new Identifier(random.nextInt(catalogSize));
+            patronIds[i] = new Identifier(random.nextInt(patronCount));
+        }
+
+        dataDirectory = Files.createTempDirectory("bookkeeper-benchmark");
+        library.saveTo(dataDirectory);
+    }
+
+    /**
+     * Removes the saved library
+     *
+     * @throws IOException If the saved files cannot be deleted
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(dataDirectory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package library.benchmark;
+
+import library.data.Book;
+import library.data.BookStatus;
+import library.data.ReportGenerator;
+import library.data.Transaction;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks every report of the {@link ReportGenerator}.
+ *
+ * @author Srikavin Ramkumar
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ReportGeneratorBenchmark {
+    /**
+     * Holds the report generator and the book lists that are formatted
+     */
+    @State(Scope.Benchmark)
+    public static class ReportState {
+        ReportGenerator reportGenerator;
+        List<Book> checkedOutBooks;
+        Book chartedBook;
+        LocalDate start;
+        LocalDate end;
+        Writer discard;
+
+        /**
+         * Creates the report generator for the shared library
+         *
+         * @param state The shared library
+         */
+        @Setup(Level.Trial)
+        public void setUp(LibraryState state) {
+            reportGenerator = state.library.getReportGenerator();
+            //Measure generating the reports rather than reading cached results
+            reportGenerator.setCachingEnabled(false);
+            checkedOutBooks = reportGenerator.getCheckedOutBooks();
+            chartedBook = state.library.getBooks().get(0);
+            end = LocalDate.now();
+            start = end.minusDays(60);
+            discard = new Writer() {
+                @Override
+                public void write(char[] cbuf, int off, int len) {
+                }
+
+                @Override
+                public void write(String str, int off, int len) {
+                }
+
+                @Override
+                public void flush() {
+                }
+
+                @Override
+                public void close() {
+                }
+            };
+        }
+    }
+
+    /**
+     * Measures {@link ReportGenerator#getBookStatusTotals()}
+     *
+     * @param state The report generator
+     *
+     * @return The totals of each book status
+     */
+    @Benchmark
+    public Map<BookStatus, Integer> getBookStatusTotals(ReportState state) {
+        return state.reportGenerator.getBookStatusTotals();
+    }
+
+    /**
+     * Measures {@link ReportGenerator#formatByPatron(List)}
+     *
+     * @param state The report generator
+     *
+     * @return The formatted report
+     */
+    @Benchmark
+    public String formatByPatron(ReportState state) {
+        return state.reportGenerator.formatByPatron(state.checkedOutBooks);
+    }
+
+    /**
+     * Measures {@link ReportGenerator#formatByItems(List)}
+     *
+     * @param state The report generator
+     *
+     * @return The formatted report
+     */
+    @Benchmark
+    public String formatByItems(ReportState state) {
+        return state.reportGenerator.formatByItems(state.checkedOutBooks);
+    }
+
+    /**
+     * Measures {@link ReportGenerator#formatByPatron(List, Appendable)} written to a discarding output
+     *
+     * @param state The report generator
+     *
+     * @throws IOException Never; the output discards everything written to it
+     */
+    @Benchmark
+    public void streamByPatron(ReportState state) throws IOException {
+        state.reportGenerator.formatByPatron(state.checkedOutBooks, state.discard);
+    }
+
+    /**
+     * Measures {@link ReportGenerator#formatByItems(List, Appendable)} written to a discarding output
+     *
+     * @param state The report generator
+     *
+     * @throws IOException Never; the output discards everything written to it
+     */
+    @Benchmark
+    public void streamByItems(ReportState state) throws IOException {
+        state.reportGenerator.formatByItems(state.checkedOutBooks, state.discard);
+    }
+
+    /**
+     * Measures {@link ReportGenerator#getCheckoutsBetweenDates(LocalDate, LocalDate, Book, Transaction.Action)}
+     * for all books
+     *
+     * @param state The report generator
+     *
+     * @return The number of checkouts on each day
+     */
+    @Benchmark
+    public Map<String, Integer> getCheckoutsBetweenDates(ReportState state) {
+        return state.reportGenerator.getCheckoutsBetweenDates(state.start, state.end, null, Transaction.Action.CHECKOUT);
+    }
+
+    /**
+     * Measures {@link ReportGenerator#getCheckoutsBetweenDates(LocalDate, LocalDate, Book, Transaction.Action)}
+     * for the copies of a single book
+     *
+     * @param state The report generator
+     *
+     * @return The number of checkouts of the book on each day
+     */
+    @Benchmark
+    public Map<String, Integer> getCheckoutsBetweenDatesForBook(ReportState state) {
+        return state.reportGenerator.getCheckoutsBetweenDates(state.start, state.end, state.chartedBook, Transaction.Action.CHECKOUT);
+    }
+
+    /**
+     * Measures {@link ReportGenerator#getFines()}
+     *
+     * @param state The report generator
+     *
+     * @return The formatted fines report
+     */
+    @Benchmark
+    public String getFines(ReportState state) {
+        return state.reportGenerator.getFines();
+    }
+
+    /**
+     * Measures {@link ReportGenerator#writeFines(Appendable)} written to a discarding output
+     *
+     * @param state The report generator
+     *
+     * @throws IOException Never; the output discards everything written to it
+     */
+    @Benchmark
+    public void streamFines(ReportState state) throws IOException {
+        state.reportGenerator.writeFines(state.discard);
+    }
+
+    /**
+     * Measures {@link ReportGenerator#getCheckedOutBooks()}
+     *
+     * @param state The report generator
+     *
+     * @return The checked out books
+     */
+    @Benchmark
+    public List<Book> getCheckedOutBooks(ReportState state) {
+        return state.reportGenerator.getCheckedOutBooks();
+    }
+
+    /**
+     * Measures {@link ReportGenerator#getOverdueBooks()}
+     *
+     * @param state The report generator
+     *
+     * @return The overdue books
+     */
+    @Benchmark
+    public List<Book> getOverdueBooks(ReportState state) {
+        return state.reportGenerator.getOverdueBooks();
+    }
+}
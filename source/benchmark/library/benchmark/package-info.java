@@ -0,0 +1,7 @@
+/**
+ * This package includes the JMH benchmarks of BookKeeper. It measures the operations of the model layer in
+ * {@link library.data} at different catalog sizes.
+ * The benchmarks are only compiled with the {@code benchmark} Maven profile.
+ * @author Srikavin Ramkumar
+ */
+package library.benchmark;
@@ -1,6 +1,7 @@
 package library;
 
 import javafx.application.Application;
+import library.cli.CommandLineRunner;
 import library.ui.FXInitializer;
 
 /**
@@ -11,10 +12,20 @@ import library.ui.FXInitializer;
 public class Main {
     /**
      * The application entry point -- this is where the application will begin.
+     * If any arguments are given, they are run as a headless command by {@link CommandLineRunner} and JavaFX is never
+     * initialized.
      *
      * @param args Any command line arguments that are passed to the program
      */
     public static void main(String[] args) {
+        if (args.length > 0) {
+            //Run a batch command without a display
+            System.exit(CommandLineRunner.run(args));
+        }
+        launchGui();
+    }
+
+    private static void launchGui() {
         //Start the JavaFX GUI
         Application.launch(FXInitializer.class);
     }
@@ -0,0 +1,647 @@
+package library.backup;
+
+import library.metrics.Counter;
+import library.metrics.MetricsRegistry;
+import library.metrics.Timer;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.*;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Keeps past versions of the files of a library data directory, such as data.txt and preferences.txt, in the
+ * {@code backups} folder of the directory.
+ * <p>
+ * Files are split into chunks at positions chosen by their content, using a rolling hash of the preceding bytes, so
+ * an edit to one part of a file only changes the chunks around it. Each chunk is compressed and stored once under the
+ * SHA-256 hash of its content, and a snapshot is a small manifest listing the chunks of each file. Saving a library
+ * with a few changes therefore only writes the few chunks that changed. A snapshot whose files are identical to the
+ * previous snapshot is not stored at all.
+ * <p>
+ * Old snapshots are removed by the retention policy: the most recent snapshots are kept, along with the last snapshot
+ * of each recent day. Chunks no longer used by any snapshot are then deleted.
+ * <p>
+ * Backups can run on a background thread through {@link #backupLater(String...)}, so saving the library does not
+ * wait for them.
+ *
+ * @author Srikavin Ramkumar
+ */
+public class BackupStore implements AutoCloseable {
+    /**
+     * The default number of most recent snapshots kept
+     */
+    public static final int DEFAULT_KEEP_LAST = 20;
+    /**
+     * The default number of days the last snapshot of each day is kept for
+     */
+    public static final int DEFAULT_KEEP_DAYS = 30;
+    private static final int MIN_CHUNK = 2 * 1024;
+    private static final int MAX_CHUNK = 64 * 1024;
+    /**
+     * A chunk ends where the top 13 bits of the rolling hash are zero, which makes chunks 8 KiB long on average. The
+     * top bits are used because they depend on the last 64 bytes, while the low bits only depend on the last few.
+     */
+    private static final long BOUNDARY_MASK = 0x1FFFL << 51;
+    /**
+     * Random values for each byte, mixed into the rolling hash. The seed is fixed so that chunk boundaries stay the
+     * same between runs.
+     */
+    private static final long[] GEAR = new long[256];
+    private static final DateTimeFormatter SNAPSHOT_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd-HHmmss-SSS")
+            .withZone(ZoneOffset.UTC);
+    private static final int READ_ATTEMPTS = 3;
+    private static final MetricsRegistry METRICS = MetricsRegistry.getDefault();
+    private static final Timer BACKUP_TIMER = METRICS.timer("backup.snapshot");
+    private static final Timer RESTORE_TIMER = METRICS.timer("backup.restore");
+    private static final Counter CHUNKS_WRITTEN = METRICS.counter("backup.chunks.written");
+    private static final Counter CHUNKS_REUSED = METRICS.counter("backup.chunks.reused");
+    private static final Counter BYTES_WRITTEN = METRICS.counter("backup.bytes.written");
+    private static final Counter BACKUP_ERRORS = METRICS.counter("backup.errors");
+
+    static {
+        Random random = new Random(0x6B6565706572L);
+        for (int i = 0; i < GEAR.length; i++) {
+            GEAR[i] = random.nextLong();
+        }
+    }
+
+    private final Path directory;
+    private final Path chunkDirectory;
+    private final Path snapshotDirectory;
+    private int keepLast = DEFAULT_KEEP_LAST;
+    private int keepDays = DEFAULT_KEEP_DAYS;
+    private ZoneId zone = ZoneId.systemDefault();
+    /**
+     * Guards the executor separately from this store, so requesting a backup never waits for a running backup
+     */
+    private final Object executorLock = new Object();
+    private ExecutorService executor;
+    private volatile Consumer<Exception> onError = (e) ->
+            System.err.println("Could not back up " + getDirectory() + ": " + e);
+
+    /**
+     * Creates a store for the backups of a library data directory. Nothing is written until the first backup.
+     *
+     * @param directory The data directory whose files are backed up
+     */
+    public BackupStore(Path directory) {
+        this.directory = directory;
+        this.chunkDirectory = directory.resolve("backups").resolve("chunks");
+        this.snapshotDirectory = directory.resolve("backups").resolve("snapshots");
+    }
+
+    /**
+     * Gets the data directory whose files are backed up
+     *
+     * @return The data directory of this store
+     */
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Sets which snapshots are kept when old snapshots are removed
+     *
+     * @param keepLast The number of most recent snapshots to keep; at least 1
+     * @param keepDays The number of days to keep the last snapshot of each day for, including today
+     *
+     * @throws IllegalArgumentException If fewer than 1 recent snapshot or fewer than 0 days are kept
+     */
+    public synchronized void setRetention(int keepLast, int keepDays) {
+        if (keepLast < 1 || keepDays < 0) {
+            throw new IllegalArgumentException("Invalid retention: keep " + keepLast + " snapshots and " + keepDays + " days");
+        }
+        this.keepLast = keepLast;
+        this.keepDays = keepDays;
+    }
+
+    /**
+     * Sets the time zone that snapshots are grouped into days in. Defaults to the system time zone.
+     *
+     * @param zone The time zone of the retention policy
+     */
+    public synchronized void setZone(ZoneId zone) {
+        this.zone = zone;
+    }
+
+    /**
+     * Sets the handler of failed background backups, such as one that shows them to the user. By default, they are
+     * printed to the standard error stream. Backups run on the calling thread throw their errors instead.
+     *
+     * @param onError Receives each error of a background backup, on the backup thread
+     */
+    public void setOnError(Consumer<Exception> onError) {
+        this.onError = onError;
+    }
+
+    /**
+     * Backs up the given files on a background thread. Backups are run one at a time in the order they were requested.
+     * Errors are passed to the {@linkplain #setOnError(Consumer) error handler}, as there is usually nobody waiting for
+     * the result; use the returned future to wait for the backup.
+     *
+     * @param fileNames The names of the files in the data directory to back up
+     *
+     * @return The future result of {@link #backup(Instant, String...)}
+     */
+    public Future<Snapshot> backupLater(String... fileNames) {
+        return backupLater(null, fileNames);
+    }
+
+    /**
+     * Writes a file on a background thread, then backs up the given files on it
+     *
+     * @param preparation Writes one of the files before it is backed up, such as a copy of a database that cannot be
+     *                    read while it is open; null if every file is already written
+     * @param fileNames   The names of the files in the data directory to back up
+     *
+     * @return The future result of {@link #backup(Instant, String...)}
+     *
+     * @see #backupLater(String...)
+     */
+    public Future<Snapshot> backupLater(Preparation preparation, String... fileNames) {
+        Instant time = Instant.now();
+        synchronized (executorLock) {
+            if (executor == null) {
+                executor = Executors.newSingleThreadExecutor(runnable -> {
+                    Thread thread = new Thread(runnable, "backup");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+            }
+            return executor.submit(() -> {
+                try {
+                    if (preparation != null) {
+                        preparation.prepare();
+                    }
+                    return backup(time, fileNames);
+                } catch (IOException | RuntimeException e) {
+                    BACKUP_ERRORS.increment();
+                    onError.accept(e);
+                    throw e;
+                }
+            });
+        }
+    }
+
+    /**
+     * Writes a file of the data directory right before it is backed up
+     */
+    @FunctionalInterface
+    public interface Preparation {
+        /**
+         * Writes the file
+         *
+         * @throws IOException If the file cannot be written; the backup is not taken
+         */
+        void prepare() throws IOException;
+    }
+
+    /**
+     * Waits for the backups requested through {@link #backupLater(String...)} to finish, and stops the background
+     * thread
+     */
+    @Override
+    public void close() {
+        ExecutorService running;
+        synchronized (executorLock) {
+            running = executor;
+            executor = null;
+        }
+        if (running == null) {
+            return;
+        }
+        running.shutdown();
+        try {
+            if (!running.awaitTermination(1, TimeUnit.MINUTES)) {
+                BACKUP_ERRORS.increment();
+                onError.accept(new IOException("Gave up waiting for backups of " + directory));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Backs up the given files on the calling thread, then removes snapshots that are no longer kept by the retention
+     * policy. Files that do not exist are skipped.
+     *
+     * @param time      The time of the snapshot
+     * @param fileNames The names of the files in the data directory to back up
+     *
+     * @return The new snapshot, or the previous snapshot if none of the files changed since it was taken
+     *
+     * @throws IOException If a file cannot be read, or the backup cannot be written
+     */
+    public synchronized Snapshot backup(Instant time, String... fileNames) throws IOException {
+        return backup(time, true, fileNames);
+    }
+
+    private Snapshot backup(Instant time, boolean prune, String... fileNames) throws IOException {
+        return BACKUP_TIMER.time(() -> {
+            List<FileEntry> files = new ArrayList<>();
+            for (String e : fileNames) {
+                Path file = directory.resolve(e);
+                if (Files.isRegularFile(file)) {
+                    files.add(store(e, file));
+                }
+            }
+
+            List<Snapshot> snapshots = getSnapshots();
+            Snapshot last = snapshots.isEmpty() ? null : snapshots.get(snapshots.size() - 1);
+            if (last != null && last.files.equals(files)) {
+                return last;
+            }
+
+            //Snapshots are named by their time, so move a snapshot taken in the same millisecond as the last one
+            Instant taken = last != null && !time.isAfter(last.time) ? last.time.plusMillis(1) : time;
+            Snapshot snapshot = new Snapshot(SNAPSHOT_FORMATTER.format(taken), taken, files);
+            Files.createDirectories(snapshotDirectory);
+            Path temp = snapshotDirectory.resolve(snapshot.id + ".tmp");
+            try (Writer writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+                for (FileEntry e : files) {
+                    writer.write(e.name + "," + e.size + "," + e.hash + "," + String.join(";", e.chunks) + "\n");
+                }
+            }
+            move(temp, snapshotDirectory.resolve(snapshot.id + ".txt"));
+
+            snapshots.add(snapshot);
+            if (prune) {
+                prune(snapshots, taken);
+            }
+            return snapshot;
+        });
+    }
+
+    /**
+     * Gets the snapshots of this store
+     *
+     * @return A new list of the snapshots, from oldest to newest
+     *
+     * @throws IOException If the snapshots cannot be read
+     */
+    public synchronized List<Snapshot> getSnapshots() throws IOException {
+        List<Snapshot> snapshots = new ArrayList<>();
+        if (!Files.isDirectory(snapshotDirectory)) {
+            return snapshots;
+        }
+        try (Stream<Path> files = Files.list(snapshotDirectory)) {
+            for (Path e : files.collect(Collectors.toList())) {
+                String name = e.getFileName().toString();
+                if (name.endsWith(".txt")) {
+                    snapshots.add(readSnapshot(name.substring(0, name.length() - 4)));
+                }
+            }
+        }
+        snapshots.sort(Comparator.comparing(Snapshot::getTime));
+        return snapshots;
+    }
+
+    /**
+     * Finds a snapshot by its identifier, or the last snapshot taken at or before a time
+     *
+     * @param idOrTime The identifier of a snapshot, or an ISO-8601 instant such as 2018-03-20T18:00:00Z
+     *
+     * @return The snapshot, or null if there is no such snapshot
+     *
+     * @throws IOException If the snapshots cannot be read
+     */
+    public synchronized Snapshot findSnapshot(String idOrTime) throws IOException {
+        Instant time;
+        try {
+            time = Instant.parse(idOrTime);
+        } catch (DateTimeParseException e) {
+            for (Snapshot snapshot : getSnapshots()) {
+                if (snapshot.id.equals(idOrTime)) {
+                    return snapshot;
+                }
+            }
+            return null;
+        }
+        Snapshot found = null;
+        for (Snapshot snapshot : getSnapshots()) {
+            if (!snapshot.time.isAfter(time)) {
+                found = snapshot;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Writes the files of a snapshot to a directory, replacing the files with the same names. Each file is written to a
+     * temporary file first and checked against the hash recorded in the snapshot before it replaces the existing file.
+     * When restoring into the data directory itself, the files being replaced are backed up first, so that the restore
+     * can be undone.
+     *
+     * @param snapshot The snapshot to restore
+     * @param target   The directory to restore the files into; it is created if it does not exist
+     *
+     * @throws IOException If a chunk of the snapshot is missing or damaged, or the files cannot be written
+     */
+    public synchronized void restore(Snapshot snapshot, Path target) throws IOException {
+        RESTORE_TIMER.time(() -> {
+            if (Files.isDirectory(target) && Files.isSameFile(target, directory)) {
+                //Old snapshots are not removed here, as the snapshot being restored may be one of them
+                backup(Instant.now(), false, snapshot.getFileSizes().keySet().toArray(new String[0]));
+            }
+            Files.createDirectories(target);
+            for (FileEntry e : snapshot.files) {
+                Path temp = target.resolve(e.name + ".restore.tmp");
+                //Files in folders of the data directory, such as the transaction archive, are restored into them
+                Files.createDirectories(temp.toAbsolutePath().getParent());
+                MessageDigest digest = sha256();
+                try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(temp), 1 << 16)) {
+                    for (String chunk : e.chunks) {
+                        byte[] data = readChunk(chunk);
+                        digest.update(data);
+                        out.write(data);
+                    }
+                }
+                if (!hex(digest.digest()).equals(e.hash)) {
+                    Files.delete(temp);
+                    throw new IOException("The backup of " + e.name + " in snapshot " + snapshot.id + " is damaged");
+                }
+                move(temp, target.resolve(e.name));
+            }
+        });
+    }
+
+    /**
+     * Splits a file into chunks and stores the chunks that are not stored yet. The file is read again if it changes
+     * while it is being read, such as when the library is saved again.
+     */
+    private FileEntry store(String name, Path file) throws IOException {
+        for (int attempt = 1; ; attempt++) {
+            long modified = Files.getLastModifiedTime(file).toMillis();
+            long size = Files.size(file);
+            FileEntry entry = chunk(name, file);
+            if (entry.size == size && entry.size == Files.size(file) && Files.getLastModifiedTime(file).toMillis() == modified) {
+                return entry;
+            }
+            if (attempt == READ_ATTEMPTS) {
+                throw new IOException(file + " kept changing while it was backed up");
+            }
+        }
+    }
+
+    private FileEntry chunk(String name, Path file) throws IOException {
+        MessageDigest fileDigest = sha256();
+        List<String> chunks = new ArrayList<>();
+        long size = 0;
+        byte[] buffer = new byte[1 << 16];
+        byte[] chunk = new byte[MAX_CHUNK];
+        int length = 0;
+        long hash = 0;
+        try (InputStream in = Files.newInputStream(file)) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                fileDigest.update(buffer, 0, read);
+                size += read;
+                for (int i = 0; i < read; i++) {
+                    chunk[length++] = buffer[i];
+                    hash = (hash << 1) + GEAR[buffer[i] & 0xFF];
+                    if ((length >= MIN_CHUNK && (hash & BOUNDARY_MASK) == 0) || length == MAX_CHUNK) {
+                        chunks.add(writeChunk(chunk, length));
+                        length = 0;
+                        hash = 0;
+                    }
+                }
+            }
+        }
+        if (length > 0) {
+            chunks.add(writeChunk(chunk, length));
+        }
+        return new FileEntry(name, size, hex(fileDigest.digest()), chunks);
+    }
+
+    private String writeChunk(byte[] chunk, int length) throws IOException {
+        MessageDigest digest = sha256();
+        digest.update(chunk, 0, length);
+        String hash = hex(digest.digest());
+        Path path = chunkPath(hash);
+        if (Files.exists(path)) {
+            CHUNKS_REUSED.increment();
+            return hash;
+        }
+        Files.createDirectories(path.getParent());
+        Path temp = path.resolveSibling(hash + ".tmp");
+        try (OutputStream out = new DeflaterOutputStream(Files.newOutputStream(temp), new Deflater(Deflater.BEST_SPEED))) {
+            out.write(chunk, 0, length);
+        }
+        move(temp, path);
+        CHUNKS_WRITTEN.increment();
+        BYTES_WRITTEN.add(Files.size(path));
+        return hash;
+    }
+
+    private byte[] readChunk(String hash) throws IOException {
+        Path path = chunkPath(hash);
+        if (!Files.exists(path)) {
+            throw new IOException("The backup chunk " + hash + " is missing");
+        }
+        ByteArrayOutputStream data = new ByteArrayOutputStream(MAX_CHUNK);
+        try (InputStream in = new InflaterInputStream(Files.newInputStream(path))) {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                data.write(buffer, 0, read);
+            }
+        }
+        byte[] bytes = data.toByteArray();
+        MessageDigest digest = sha256();
+        if (!hex(digest.digest(bytes)).equals(hash)) {
+            throw new IOException("The backup chunk " + hash + " is damaged");
+        }
+        return bytes;
+    }
+
+    /**
+     * Removes the snapshots that are not kept by the retention policy, then deletes the chunks that are no longer used
+     *
+     * @param snapshots Every snapshot of this store, from oldest to newest
+     * @param now       The current time
+     */
+    private void prune(List<Snapshot> snapshots, Instant now) throws IOException {
+        Set<Snapshot> kept = new HashSet<>(snapshots.subList(Math.max(0, snapshots.size() - keepLast), snapshots.size()));
+        LocalDate today = now.atZone(zone).toLocalDate();
+        Set<LocalDate> days = new HashSet<>();
+        for (int i = snapshots.size() - 1; i >= 0; i--) {
+            Snapshot snapshot = snapshots.get(i);
+            LocalDate day = snapshot.time.atZone(zone).toLocalDate();
+            //The newest snapshot of each day is seen first
+            if (day.isAfter(today.minusDays(keepDays)) && days.add(day)) {
+                kept.add(snapshot);
+            }
+        }
+        if (kept.size() == snapshots.size()) {
+            return;
+        }
+
+        Set<String> usedChunks = new HashSet<>();
+        for (Snapshot e : snapshots) {
+            if (kept.contains(e)) {
+                for (FileEntry file : e.files) {
+                    usedChunks.addAll(file.chunks);
+                }
+            } else {
+                Files.deleteIfExists(snapshotDirectory.resolve(e.id + ".txt"));
+            }
+        }
+        if (!Files.isDirectory(chunkDirectory)) {
+            return;
+        }
+        try (Stream<Path> chunks = Files.walk(chunkDirectory)) {
+            for (Path e : chunks.filter(Files::isRegularFile).collect(Collectors.toList())) {
+                if (!usedChunks.contains(e.getFileName().toString())) {
+                    Files.delete(e);
+                }
+            }
+        }
+    }
+
+    private Snapshot readSnapshot(String id) throws IOException {
+        Instant time;
+        try {
+            time = Instant.from(SNAPSHOT_FORMATTER.parse(id));
+        } catch (DateTimeParseException e) {
+            throw new IOException("Invalid snapshot name: " + id, e);
+        }
+        List<FileEntry> files = new ArrayList<>();
+        for (String line : Files.readAllLines(snapshotDirectory.resolve(id + ".txt"), StandardCharsets.UTF_8)) {
+            String[] data = line.split(",", -1);
+            if (data.length != 4) {
+                throw new IOException("Invalid line in snapshot " + id + ": " + line);
+            }
+            List<String> chunks = data[3].isEmpty() ? new ArrayList<>() : Arrays.asList(data[3].split(";"));
+            files.add(new FileEntry(data[0], Long.parseLong(data[1]), data[2], chunks));
+        }
+        return new Snapshot(id, time, files);
+    }
+
+    private Path chunkPath(String hash) {
+        return chunkDirectory.resolve(hash.substring(0, 2)).resolve(hash);
+    }
+
+    private static void move(Path from, Path to) throws IOException {
+        try {
+            Files.move(from, to, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(from, to, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            //Every Java platform is required to support SHA-256
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder text = new StringBuilder(bytes.length * 2);
+        for (byte e : bytes) {
+            text.append(Character.forDigit((e >> 4) & 0xF, 16)).append(Character.forDigit(e & 0xF, 16));
+        }
+        return text.toString();
+    }
+
+    /**
+     * A backed up version of the files of a data directory
+     */
+    public static class Snapshot {
+        private final String id;
+        private final Instant time;
+        private final List<FileEntry> files;
+
+        private Snapshot(String id, Instant time, List<FileEntry> files) {
+            this.id = id;
+            this.time = time;
+            this.files = files;
+        }
+
+        /**
+         * Gets the identifier of this snapshot, which is its time in UTC
+         *
+         * @return The identifier, such as 2018-03-20-181710-000
+         */
+        public String getId() {
+            return id;
+        }
+
+        /**
+         * Gets the time this snapshot was taken
+         *
+         * @return The time of the backup
+         */
+        public Instant getTime() {
+            return time;
+        }
+
+        /**
+         * Gets the size of each file of this snapshot
+         *
+         * @return The size in bytes of each backed up file, by file name
+         */
+        public Map<String, Long> getFileSizes() {
+            Map<String, Long> sizes = new LinkedHashMap<>();
+            for (FileEntry e : files) {
+                sizes.put(e.name, e.size);
+            }
+            return sizes;
+        }
+    }
+
+    /**
+     * A backed up file and the chunks of its content
+     */
+    private static class FileEntry {
+        private final String name;
+        private final long size;
+        private final String hash;
+        private final List<String> chunks;
+
+        private FileEntry(String name, long size, String hash, List<String> chunks) {
+            this.name = name;
+            this.size = size;
+            this.hash = hash;
+            this.chunks = chunks;
+        }
+
+        /**
+         * Files are equal if they have the same name and content
+         */
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof FileEntry)) {
+                return false;
+            }
+            FileEntry other = (FileEntry) obj;
+            return name.equals(other.name) && hash.equals(other.hash);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public int hashCode() {
+            return name.hashCode() * 31 + hash.hashCode();
+        }
+    }
+}
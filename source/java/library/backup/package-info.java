@@ -0,0 +1,8 @@
+/**
+ * This package includes the backups of BookKeeper.
+ * It is used to keep past versions of the data and preference files of a library in a deduplicated store, and to
+ * restore them, from both the GUI and the headless command-line interface. Nothing in this package may depend on
+ * JavaFX.
+ * @author Srikavin Ramkumar
+ */
+package library.backup;
@@ -0,0 +1,61 @@
+package library.cli;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The arguments given to a {@link Command}: the data directory, the positional arguments after it, and the options
+ * given as {@code --name value}
+ *
+ * @author Srikavin Ramkumar
+ */
+final class Arguments {
+    private final String target;
+    private final List<String> positional;
+    private final Map<String, String> options;
+
+    Arguments(String target, List<String> positional, Map<String, String> options) {
+        this.target = target;
+        this.positional = Collections.unmodifiableList(positional);
+        this.options = Collections.unmodifiableMap(options);
+    }
+
+    /**
+     * Gets the first argument after the command, as it was given
+     *
+     * @return The data directory, or the list of branches of a district
+     */
+    String getTarget() {
+        return target;
+    }
+
+    /**
+     * Gets the data directory the command runs on
+     *
+     * @return The first argument after the command as a path
+     */
+    Path getDirectory() {
+        return Paths.get(target);
+    }
+
+    /**
+     * Gets the arguments after the data directory that are not options
+     *
+     * @return The positional arguments, in the order they were given
+     */
+    List<String> getPositional() {
+        return positional;
+    }
+
+    /**
+     * Gets the options that were given, without their {@code --} prefix
+     *
+     * @return The value of each option by its name
+     */
+    Map<String, String> getOptions() {
+        return options;
+    }
+}
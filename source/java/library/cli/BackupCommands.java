@@ -0,0 +1,102 @@
+package library.cli;
+
+import library.backup.BackupStore;
+import library.data.Library;
+import library.data.SqlLibraryStore;
+import library.ui.PreferenceManager;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The {@code backup}, {@code backups}, and {@code restore} commands of the backups of a data directory
+ *
+ * @author Srikavin Ramkumar
+ */
+class BackupCommands extends CommandGroup {
+    /**
+     * The files of a data directory that are backed up, as in the GUI
+     */
+    private static final String[] BACKUP_FILES = {"data.txt", "preferences.txt"};
+
+    BackupCommands(Writer out, PrintStream err) {
+        super(out, err);
+    }
+
+    @Override
+    void register(Map<String, Command> commands) {
+        commands.put("backup", this::backup);
+        commands.put("backups", this::listBackups);
+        commands.put("restore", this::restore);
+    }
+
+    private BackupStore openBackupStore(Path directory) throws IOException {
+        PreferenceManager preferences = new PreferenceManager(directory);
+        BackupStore backupStore = new BackupStore(directory);
+        backupStore.setRetention(
+                preferences.getValueAsNumber("backup_keep_last", BackupStore.DEFAULT_KEEP_LAST).intValue(),
+                preferences.getValueAsNumber("backup_keep_days", BackupStore.DEFAULT_KEEP_DAYS).intValue());
+        return backupStore;
+    }
+
+    private int backup(Arguments arguments) throws IOException {
+        Path directory = arguments.getDirectory();
+        List<String> files = new ArrayList<>(Arrays.asList(BACKUP_FILES));
+        Library library = openLibrary(directory);
+        try {
+            if (library.getStore() instanceof SqlLibraryStore) {
+                //The database is backed up as a script of its contents, as it cannot be copied while it is open
+                ((SqlLibraryStore) library.getStore()).writeBackupScript();
+                files.add(SqlLibraryStore.BACKUP_SCRIPT);
+            }
+        } finally {
+            library.close();
+        }
+        files.addAll(Library.getArchiveFiles(directory));
+        BackupStore.Snapshot snapshot = openBackupStore(directory).backup(Instant.now(), files.toArray(new String[0]));
+        out.write("Backed up to snapshot " + snapshot.getId() + "\n");
+        return 0;
+    }
+
+    private int listBackups(Arguments arguments) throws IOException {
+        for (BackupStore.Snapshot e : openBackupStore(arguments.getDirectory()).getSnapshots()) {
+            out.write(e.getId() + "  " + e.getTime());
+            for (Map.Entry<String, Long> file : e.getFileSizes().entrySet()) {
+                out.write("  " + file.getKey() + " " + file.getValue() + " bytes");
+            }
+            out.write("\n");
+        }
+        return 0;
+    }
+
+    private int restore(Arguments arguments) throws IOException {
+        if (arguments.getPositional().isEmpty()) {
+            err.println("A snapshot id or time is required.");
+            return 2;
+        }
+        String snapshotId = arguments.getPositional().get(0);
+        Path directory = arguments.getDirectory();
+        BackupStore backupStore = openBackupStore(directory);
+        BackupStore.Snapshot snapshot = backupStore.findSnapshot(snapshotId);
+        if (snapshot == null) {
+            err.println("No backup matches " + snapshotId);
+            return 1;
+        }
+        Map<String, String> options = arguments.getOptions();
+        Path target = options.containsKey("to") ? Paths.get(options.get("to")) : directory;
+        backupStore.restore(snapshot, target);
+        if (snapshot.getFileSizes().containsKey(SqlLibraryStore.BACKUP_SCRIPT)) {
+            SqlLibraryStore.restoreBackupScript(target);
+        }
+        out.write("Restored snapshot " + snapshot.getId() + " to " + target + "\n");
+        return 0;
+    }
+}
@@ -0,0 +1,22 @@
+package library.cli;
+
+import java.io.IOException;
+
+/**
+ * A single command of the command-line interface, such as {@code overdue}
+ *
+ * @author Srikavin Ramkumar
+ */
+@FunctionalInterface
+interface Command {
+    /**
+     * Runs the command
+     *
+     * @param arguments The data directory and options the command was given
+     *
+     * @return The exit status: 0 on success, 1 if the command failed, and 2 if the arguments were invalid
+     *
+     * @throws IOException If the library or another file cannot be read or written
+     */
+    int run(Arguments arguments) throws IOException;
+}
@@ -0,0 +1,118 @@
+package library.cli;
+
+import library.data.Book;
+import library.data.Library;
+import library.data.ReportGenerator;
+import library.data.SqlLibraryStore;
+import library.ui.PreferenceManager;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The commands of a single subsystem, such as fines or backups, along with the helpers shared by every command
+ *
+ * @author Srikavin Ramkumar
+ */
+abstract class CommandGroup {
+    static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ISO_LOCAL_DATE.withZone(ZoneId.systemDefault());
+
+    /**
+     * The writer command output is written to
+     */
+    final Writer out;
+    /**
+     * The stream errors are written to
+     */
+    final PrintStream err;
+
+    /**
+     * Creates a group of commands that write to the given writer and stream
+     *
+     * @param out The writer to write command output to
+     * @param err The stream to write errors to
+     */
+    CommandGroup(Writer out, PrintStream err) {
+        this.out = out;
+        this.err = err;
+    }
+
+    /**
+     * Adds the commands of this group by their names
+     *
+     * @param commands The commands of the command-line interface
+     */
+    abstract void register(Map<String, Command> commands);
+
+    /**
+     * Opens the library in a data directory, with the transaction history preference saved by the GUI
+     *
+     * @param directory The data directory
+     *
+     * @return The library
+     *
+     * @throws IOException If the directory has no library or it cannot be read
+     */
+    Library openLibrary(Path directory) throws IOException {
+        if (!Files.isRegularFile(directory.resolve("data.txt")) &&
+                !Files.isRegularFile(directory.resolve(SqlLibraryStore.DATABASE_FILE))) {
+            throw new FileNotFoundException(directory.resolve("data.txt").toString());
+        }
+        //Transactions older than this many days are read from the data file when they are needed
+        int historyDays = new PreferenceManager(directory).getValueAsNumber("transaction_history_days", 0).intValue();
+        Library library = new Library(directory, historyDays > 0 ? Duration.ofDays(historyDays) : null);
+        if (library.getRecoveredFrom() != null) {
+            err.println("Could not load " + directory.resolve("data.txt") + " (" + library.getRecoveryCause() +
+                    "); loaded " + library.getRecoveredFrom() + " instead");
+        }
+        return library;
+    }
+
+    /**
+     * Writes a report of books grouped by patron, or by item if the {@code by} option is {@code item}
+     */
+    void printBooks(ReportGenerator reportGenerator, List<Book> books, Map<String, String> options, Appendable out) throws IOException {
+        if (options.getOrDefault("by", "patron").equals("item")) {
+            reportGenerator.formatByItems(books, out);
+        } else {
+            reportGenerator.formatByPatron(books, out);
+        }
+    }
+
+    /**
+     * Uses the fine settings saved by the GUI unless they are given as options
+     */
+    static void applyFineSettings(Path directory, ReportGenerator reportGenerator, Map<String, String> options) throws IOException {
+        PreferenceManager preferences = new PreferenceManager(directory);
+        double rate = preferences.getValueAsNumber("fine_rate", reportGenerator.getFineRate()).doubleValue();
+        double limit = preferences.getValueAsNumber("fine_limit", reportGenerator.getFineLimit()).doubleValue();
+        reportGenerator.setFineRate(options.containsKey("rate") ? Double.parseDouble(options.get("rate")) : rate);
+        reportGenerator.setFineLimit(options.containsKey("limit") ? Double.parseDouble(options.get("limit")) : limit);
+    }
+
+    /**
+     * Writes a row of comma separated values, quoting the values that need it
+     */
+    void writeCsv(String... values) throws IOException {
+        for (int i = 0; i < values.length; i++) {
+            String value = values[i];
+            if (value.contains(",") || value.contains("\"") || value.contains("\n")) {
+                out.write('"');
+                out.write(value.replace("\"", "\"\""));
+                out.write('"');
+            } else {
+                out.write(value);
+            }
+            out.write(i == values.length - 1 ? '\n' : ',');
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package library.cli;
+
+import library.metrics.MetricsRegistry;
+import library.transfer.LibraryExporter;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Runs batch operations on a library data directory without initializing JavaFX. Used for nightly jobs on servers
+ * without a display. Output is written to standard output as it is produced.
+ * <p>
+ * Usage: {@code java -cp BookKeeper.jar library.cli.CommandLineRunner <command> <data directory> [options]}; starting
+ * {@link library.Main} with any arguments also runs this class.
+ * <p>
+ * The commands of each subsystem, such as fines or backups, are kept in a {@link CommandGroup}; this class only parses
+ * the arguments and runs the command they name.
+ *
+ * @author Srikavin Ramkumar
+ */
+public class CommandLineRunner {
+    private static final String USAGE = String.join("\n",
+            "Usage: <command> <data directory> [options]",
+            "",
+            "Commands:",
+            "  overdue <dir> [--by patron|item]        Print the overdue books",
+            "  checked-out <dir> [--by patron|item]    Print the checked out books",
+            "  fines <dir> [--format text|csv]         Print or export the fines charged on overdue books; run accrue first",
+            "  accrue <dir> [--rate <$/day>] [--limit <$>]",
+            "                                          Charge today's fines to the ledger and save the library",
+            "  balances <dir>                          Print the fine balance of each patron",
+            "  holds <dir>                             Print the holds on each title, in the order they will be filled",
+            "  pay <dir> <patron id> <amount>          Record a payment against a patron's balance",
+            "  notices <dir> [--at HH:mm[,HH:mm...]]   Write notices for newly overdue books, once or daily at the given times",
+            "  compact <dir>                           Rewrite the data file, dropping unresolvable transactions",
+            "  archive <dir> [--months <n>]            Move transactions older than n whole months (12) into monthly archive files",
+            "  convert <dir> --to sql|text             Move the library into a SQL database or back into a data file",
+            "  import <dir> <file> [--existing add|skip] [--batch <n>]",
+            "                                          Add books from a CSV or TSV file of title,author,isbn[,copies]",
+            "                                          or a MARC text (.mrk) file",
+            "  backup <dir>                            Back up the data and preference files now",
+            "  backups <dir>                           List the backups of the data directory",
+            "  restore <dir> <snapshot id|ISO time> [--to <dir>]",
+            "                                          Restore a backup, or the last backup taken before a time",
+            "  export <dir> <output dir> [--format csv|jsonl|columnar] [--compress gzip|none] [--datasets <name,...>]",
+            "                                          Export datasets for other tools: " + String.join(", ", LibraryExporter.getDatasets()),
+            "  district <name=dir,...> status|overdue|checked-out|holds|balances|find <text> [--by patron|item]",
+            "                                          Report on or search the libraries of several branches at once",
+            "  replicate <dir> [--replicas <n>] [--operations <n>]",
+            "                                          Check out and return books on a primary with replicas on localhost,",
+            "                                          then compare the replicas with it and print their lag; nothing is saved",
+            "  generate <dir> [--seed <n>] [--types <n>] [--patrons <n>] [--books <n>] [--transactions <n>] [--years <n>]",
+            "                                          Write a synthetic data file for testing",
+            "  help                                    Print this message",
+            "");
+
+    private final PrintStream err;
+    /**
+     * The command of each name, from the {@link CommandGroup} of its subsystem
+     */
+    private final Map<String, Command> commands = new HashMap<>();
+
+    /**
+     * Creates a runner that writes its output to the given writer
+     *
+     * @param out The writer to write command output to
+     * @param err The stream to write errors and usage information to
+     */
+    public CommandLineRunner(Writer out, PrintStream err) {
+        this.err = err;
+        MetricsRegistry.getDefault().setOnError((e) -> err.println("Could not publish the metrics: " + e));
+        for (CommandGroup e : Arrays.asList(new ReportCommands(out, err), new FineCommands(out, err),
+                new NoticeCommands(out, err), new StorageCommands(out, err), new BackupCommands(out, err),
+                new TransferCommands(out, err), new DistrictCommands(out, err), new ReplicationCommands(out, err))) {
+            e.register(commands);
+        }
+    }
+
+    /**
+     * The entry point of the command-line interface
+     *
+     * @param args The command, data directory, and options
+     */
+    public static void main(String[] args) {
+        System.exit(run(args));
+    }
+
+    /**
+     * Runs a command and writes its output to standard output
+     *
+     * @param args The command, data directory, and options
+     *
+     * @return The exit status: 0 on success, 1 if the command failed, and 2 if the arguments were invalid
+     */
+    public static int run(String[] args) {
+        Writer out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8), 1 << 16);
+        try {
+            return new CommandLineRunner(out, System.err).execute(args);
+        } finally {
+            try {
+                out.flush();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Runs a single command
+     *
+     * @param args The command, data directory, and options
+     *
+     * @return The exit status: 0 on success, 1 if the command failed, and 2 if the arguments were invalid
+     */
+    public int execute(String[] args) {
+        if (args.length == 0 || args[0].equals("help") || args[0].equals("--help")) {
+            err.print(USAGE);
+            return args.length == 0 ? 2 : 0;
+        }
+        if (args.length < 2) {
+            err.println("A data directory is required.");
+            err.print(USAGE);
+            return 2;
+        }
+
+        Command command = commands.get(args[0]);
+        if (command == null) {
+            err.println("Unknown command: " + args[0]);
+            err.print(USAGE);
+            return 2;
+        }
+        List<String> positional = new ArrayList<>();
+        Map<String, String> options = new HashMap<>();
+        for (int i = 2; i < args.length; i++) {
+            if (args[i].startsWith("--")) {
+                if (i + 1 >= args.length) {
+                    err.println("Missing value for " + args[i]);
+                    return 2;
+                }
+                options.put(args[i].substring(2), args[++i]);
+            } else {
+                positional.add(args[i]);
+            }
+        }
+
+        try {
+            return command.run(new Arguments(args[1], positional, options));
+        } catch (NumberFormatException e) {
+            err.println("Invalid number: " + e.getLocalizedMessage());
+            return 2;
+        } catch (IOException | RuntimeException e) {
+            err.println("The command failed: " + e);
+            return 1;
+        }
+    }
+}
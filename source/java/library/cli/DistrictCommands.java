@@ -0,0 +1,99 @@
+package library.cli;
+
+import library.data.Book;
+import library.data.BookStatus;
+import library.federation.LibraryFederation;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The {@code district} command, which reports on or searches the libraries of several branches at once
+ *
+ * @author Srikavin Ramkumar
+ */
+class DistrictCommands extends CommandGroup {
+    DistrictCommands(Writer out, PrintStream err) {
+        super(out, err);
+    }
+
+    @Override
+    void register(Map<String, Command> commands) {
+        commands.put("district", this::district);
+    }
+
+    private int district(Arguments arguments) throws IOException {
+        List<String> positional = arguments.getPositional();
+        Map<String, String> options = arguments.getOptions();
+        if (positional.isEmpty()) {
+            err.println("A report is required.");
+            return 2;
+        }
+        //Each branch is given as name=directory, or as a directory named after the branch
+        Map<String, Path> directories = new LinkedHashMap<>();
+        for (String branch : arguments.getTarget().split(",")) {
+            int separator = branch.indexOf('=');
+            Path directory = Paths.get(separator < 0 ? branch : branch.substring(separator + 1));
+            String name = separator < 0 ? String.valueOf(directory.toAbsolutePath().normalize().getFileName()) :
+                    branch.substring(0, separator);
+            if (directories.put(name, directory) != null) {
+                err.println("Two branches are named " + name);
+                return 2;
+            }
+        }
+
+        String report = positional.get(0);
+        if (!Arrays.asList("status", "overdue", "checked-out", "holds", "balances", "find").contains(report)) {
+            err.println("Unknown district report: " + report);
+            return 2;
+        }
+        if (report.equals("find") && positional.size() < 2) {
+            err.println("Text to find is required.");
+            return 2;
+        }
+        try (LibraryFederation federation = LibraryFederation.open(directories, this::openLibrary)) {
+            switch (report) {
+                case "status":
+                    for (Map.Entry<BookStatus, Integer> e : federation.getBookStatusTotals().entrySet()) {
+                        out.write(e.getKey() + ": " + e.getValue() + "\n");
+                    }
+                    return 0;
+                case "overdue":
+                    federation.writeReport((library, text) -> printBooks(library.getReportGenerator(),
+                            library.getReportGenerator().getOverdueBooks(), options, text), out);
+                    return 0;
+                case "checked-out":
+                    federation.writeReport((library, text) -> printBooks(library.getReportGenerator(),
+                            library.getReportGenerator().getCheckedOutBooks(), options, text), out);
+                    return 0;
+                case "holds":
+                    federation.writeReport((library, text) -> library.getReportGenerator().writeHolds(text), out);
+                    return 0;
+                case "balances":
+                    federation.writeReport((library, text) -> {
+                        applyFineSettings(library.getStore().getDirectory(), library.getReportGenerator(), options);
+                        library.getReportGenerator().writeBalances(text);
+                    }, out);
+                    return 0;
+                case "find":
+                    writeCsv("id", "title", "author", "isbn", "status");
+                    for (Map.Entry<String, List<Book>> e : federation.searchBooks(positional.get(1)).entrySet()) {
+                        for (Book book : e.getValue()) {
+                            writeCsv(LibraryFederation.getFederatedId(e.getKey(), book), book.getTitle(),
+                                    book.getAuthor(), book.getIsbn(), book.getStatus().name());
+                        }
+                    }
+                    return 0;
+                default:
+                    throw new IllegalStateException(report);
+            }
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package library.cli;
+
+import library.data.*;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Map;
+
+/**
+ * The {@code fines}, {@code accrue}, {@code balances}, and {@code pay} commands, which report on and change the fine
+ * ledger of a library
+ *
+ * @author Srikavin Ramkumar
+ */
+class FineCommands extends CommandGroup {
+    FineCommands(Writer out, PrintStream err) {
+        super(out, err);
+    }
+
+    @Override
+    void register(Map<String, Command> commands) {
+        commands.put("fines", this::fines);
+        commands.put("accrue", this::accrue);
+        commands.put("balances", this::balances);
+        commands.put("pay", this::pay);
+    }
+
+    private int fines(Arguments arguments) throws IOException {
+        Map<String, String> options = arguments.getOptions();
+        //Only the fines already in the ledger are printed; an accrue job charges the day's fines
+        Library library = openLibrary(arguments.getDirectory());
+        ReportGenerator reportGenerator = library.getReportGenerator();
+
+        if (!options.getOrDefault("format", "text").equals("csv")) {
+            reportGenerator.writeFines(out);
+            return 0;
+        }
+
+        FineLedger ledger = library.getFineLedger();
+        writeCsv("patron_id", "last_name", "first_name", "book_id", "title", "author", "due_date", "fine");
+        for (Book book : ledger.getFinedBooks()) {
+            Patron patron = book.getCurrentPatron();
+            Instant dueDate = reportGenerator.getDueDate(book);
+            writeCsv(patron.getIdentifier().getId(), patron.getLastName(), patron.getFirstName(),
+                    book.getIdentifier().getId(), book.getTitle(), book.getAuthor(), DATE_FORMATTER.format(dueDate),
+                    ReportGenerator.formatCents(ledger.getLoanFine(book)));
+        }
+        return 0;
+    }
+
+    private int accrue(Arguments arguments) throws IOException {
+        Path directory = arguments.getDirectory();
+        Library library = openLibrary(directory);
+        ReportGenerator reportGenerator = library.getReportGenerator();
+        applyFineSettings(directory, reportGenerator, arguments.getOptions());
+
+        int charged = library.getFineLedger().accrue(Instant.now(), reportGenerator.getFineRate(), reportGenerator.getFineLimit());
+        if (charged > 0) {
+            library.saveTo(directory);
+        }
+        out.write("Charged " + charged + " fines; " + library.getFineLedger().getBalances().size() + " patrons have a balance\n");
+        return 0;
+    }
+
+    private int balances(Arguments arguments) throws IOException {
+        openLibrary(arguments.getDirectory()).getReportGenerator().writeBalances(out);
+        return 0;
+    }
+
+    private int pay(Arguments arguments) throws IOException {
+        if (arguments.getPositional().size() < 2) {
+            err.println("A patron id and an amount are required.");
+            return 2;
+        }
+        String patronId = arguments.getPositional().get(0);
+        String amount = arguments.getPositional().get(1);
+        Path directory = arguments.getDirectory();
+        Library library = openLibrary(directory);
+        Patron patron = library.getPatronFromID(new Identifier(patronId));
+        if (patron == null) {
+            err.println("No patron has the id " + patronId);
+            return 1;
+        }
+        long cents = new BigDecimal(amount).movePointRight(2).setScale(0, RoundingMode.HALF_UP).longValueExact();
+        if (cents <= 0) {
+            err.println("The amount must be positive: " + amount);
+            return 2;
+        }
+
+        FineLedger ledger = library.getFineLedger();
+        ledger.recordPayment(patron, cents);
+        library.saveTo(directory);
+        out.write("Recorded a payment of " + ReportGenerator.formatCents(cents) + " from " + patron.getFirstName() + " " +
+                patron.getLastName() + "; balance " + ReportGenerator.formatCents(ledger.getBalance(patron)) + "\n");
+        return 0;
+    }
+}
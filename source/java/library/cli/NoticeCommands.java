@@ -0,0 +1,85 @@
+package library.cli;
+
+import library.data.Library;
+import library.notices.OverdueSweeper;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.LocalTime;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * The {@code notices} command, which writes overdue notices once or on a daily schedule
+ *
+ * @author Srikavin Ramkumar
+ */
+class NoticeCommands extends CommandGroup {
+    NoticeCommands(Writer out, PrintStream err) {
+        super(out, err);
+    }
+
+    @Override
+    void register(Map<String, Command> commands) {
+        commands.put("notices", this::notices);
+    }
+
+    private int notices(Arguments arguments) throws IOException {
+        Path directory = arguments.getDirectory();
+        Map<String, String> options = arguments.getOptions();
+        Library library = openLibrary(directory);
+        applyFineSettings(directory, library.getReportGenerator(), options);
+        //Nothing else changes the library, so it is read on the sweeper thread
+        OverdueSweeper sweeper = new OverdueSweeper(library, directory.resolve("notices"), Runnable::run);
+
+        if (!options.containsKey("at")) {
+            List<Path> written = sweeper.sweep(Instant.now());
+            if (library.isModified()) {
+                library.saveTo(directory);
+            }
+            out.write("Wrote " + written.size() + " notices\n");
+            return 0;
+        }
+
+        List<LocalTime> times;
+        try {
+            times = OverdueSweeper.parseTimes(options.get("at"));
+        } catch (IllegalArgumentException e) {
+            err.println(e.getLocalizedMessage());
+            return 2;
+        }
+        if (times.isEmpty()) {
+            err.println("At least one time is required.");
+            return 2;
+        }
+        sweeper.setTimes(times);
+        sweeper.setOnSweep((written) -> {
+            try {
+                //The sweep may have charged fines
+                if (library.isModified()) {
+                    library.saveTo(directory);
+                }
+                out.write(Instant.now() + ": wrote " + written.size() + " notices\n");
+                out.flush();
+            } catch (IOException e) {
+                err.println("Could not save the library: " + e);
+            }
+        });
+        sweeper.start();
+        out.write("Writing notices daily at " + options.get("at") + "; next at " + sweeper.getNextRun() + "\n");
+        out.flush();
+
+        //Run until the process is stopped; the sweeper thread is a daemon and does not keep the process alive
+        try {
+            new CountDownLatch(1).await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        sweeper.close();
+        return 0;
+    }
+}
@@ -0,0 +1,163 @@
+package library.cli;
+
+import library.data.*;
+import library.metrics.MetricsRegistry;
+import library.metrics.Timer;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The {@code replicate} command, which checks that replicas on localhost keep up with a primary
+ *
+ * @author Srikavin Ramkumar
+ */
+class ReplicationCommands extends CommandGroup {
+    ReplicationCommands(Writer out, PrintStream err) {
+        super(out, err);
+    }
+
+    @Override
+    void register(Map<String, Command> commands) {
+        commands.put("replicate", this::replicate);
+    }
+
+    private int replicate(Arguments arguments) throws IOException {
+        Map<String, String> options = arguments.getOptions();
+        int replicaCount = Integer.parseInt(options.getOrDefault("replicas", "1"));
+        int operations = Integer.parseInt(options.getOrDefault("operations", "1000"));
+        if (replicaCount < 1 || operations < 0) {
+            err.println("--replicas must be positive and --operations must not be negative");
+            return 2;
+        }
+        Library library = openLibrary(arguments.getDirectory());
+        //Circulation runs on a single thread, which the primary reads the library on, as the GUI does
+        ExecutorService circulation = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "circulation");
+            thread.setDaemon(true);
+            return thread;
+        });
+        List<ReplicationReplica> replicas = new ArrayList<>();
+        try (ReplicationPrimary primary = new ReplicationPrimary(library, circulation)) {
+            primary.start(0);
+            InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), primary.getPort());
+            for (int i = 0; i < replicaCount; i++) {
+                ReplicationReplica replica = new ReplicationReplica(address, Runnable::run);
+                replica.start();
+                replicas.add(replica);
+            }
+            if (!awaitReplicas(primary, replicas)) {
+                return 1;
+            }
+            out.write("Replicas received a snapshot of " + library.getBooks().size() + " books and " +
+                    library.getTransactionHistory().size() + " transactions\n");
+
+            long start = System.nanoTime();
+            Random random = new Random(operations);
+            int checkouts = 0;
+            int returns = 0;
+            for (int i = 0; i < operations; i++) {
+                Book book = library.getBooks().get(random.nextInt(library.getBooks().size()));
+                Patron patron = library.getPatrons().get(random.nextInt(library.getPatrons().size()));
+                if (book.getStatus() == BookStatus.AVAILABLE) {
+                    circulation.submit(() -> library.checkout(book, patron, book.getVersion())).get();
+                    checkouts++;
+                } else if (book.getStatus() == BookStatus.CHECKED_OUT) {
+                    circulation.submit(() -> library.returnBook(book, book.getVersion())).get();
+                    returns++;
+                }
+            }
+            primary.publish();
+            if (!awaitReplicas(primary, replicas)) {
+                return 1;
+            }
+            long elapsed = System.nanoTime() - start;
+            out.write("Replicated " + checkouts + " checkouts and " + returns + " returns in " + primary.getSequence() +
+                    " entries to " + replicaCount + " replicas in " + TimeUnit.NANOSECONDS.toMillis(elapsed) + " ms\n");
+
+            String expected = circulation.submit(() -> fingerprint(library)).get();
+            for (int i = 0; i < replicas.size(); i++) {
+                Library copy = replicas.get(i).getLibrary();
+                if (!fingerprint(copy).equals(expected)) {
+                    err.println("Replica " + (i + 1) + " does not match the primary");
+                    return 1;
+                }
+                try {
+                    copy.modify();
+                    err.println("Replica " + (i + 1) + " can be changed");
+                    return 1;
+                } catch (IllegalStateException e) {
+                    //Replicas are read-only
+                }
+            }
+            MetricsRegistry metrics = MetricsRegistry.getDefault();
+            for (String name : new String[]{"replication.replica.lag", "replication.primary.ack", "replication.replica.apply"}) {
+                Timer timer = metrics.timer(name);
+                out.write(String.format("%-28s median %.1f ms, 99th percentile %.1f ms, max %.1f ms%n", name,
+                        timer.getMedianMillis(), timer.get99thPercentileMillis(), timer.getMaxMillis()));
+            }
+            out.write("All replicas match the primary\n");
+            return 0;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            err.println("Interrupted");
+            return 1;
+        } catch (ExecutionException e) {
+            err.println("A circulation operation failed: " + e.getCause());
+            return 1;
+        } finally {
+            for (ReplicationReplica replica : replicas) {
+                replica.close();
+            }
+            circulation.shutdownNow();
+            library.close();
+        }
+    }
+
+    /**
+     * Waits for every replica to apply the last entry of the primary
+     *
+     * @return True if they did within a minute
+     */
+    private boolean awaitReplicas(ReplicationPrimary primary, List<ReplicationReplica> replicas) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MINUTES.toNanos(1);
+        while (System.nanoTime() < deadline) {
+            boolean caughtUp = primary.getReplicaCount() == replicas.size();
+            for (ReplicationReplica replica : replicas) {
+                caughtUp &= replica.getAppliedSequence() == primary.getSequence();
+            }
+            if (caughtUp) {
+                return true;
+            }
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+        err.println("The replicas did not catch up with the primary within a minute");
+        return false;
+    }
+
+    /**
+     * Lists the records of a library as rows in a stable order, to compare a replica with its primary
+     */
+    private static String fingerprint(Library library) {
+        List<String> rows = new ArrayList<>();
+        for (List<? extends LibraryData> records : Arrays.asList(library.getPatronTypes(), library.getPatrons(),
+                library.getBooks(), library.getHoldQueue().getHolds(), library.getFineLedger().getEntries())) {
+            for (LibraryData e : records) {
+                rows.add(e.getClass().getSimpleName() + "," + String.join(",", e.asData()));
+            }
+        }
+        Collections.sort(rows);
+        for (Transaction e : library.getTransactionHistory()) {
+            rows.add(String.join(",", e.asData()));
+        }
+        return String.join("\n", rows);
+    }
+}
@@ -0,0 +1,45 @@
+package library.cli;
+
+import library.data.Library;
+import library.data.ReportGenerator;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.util.Map;
+
+/**
+ * The {@code overdue}, {@code checked-out}, and {@code holds} reports
+ *
+ * @author Srikavin Ramkumar
+ */
+class ReportCommands extends CommandGroup {
+    ReportCommands(Writer out, PrintStream err) {
+        super(out, err);
+    }
+
+    @Override
+    void register(Map<String, Command> commands) {
+        commands.put("overdue", this::overdue);
+        commands.put("checked-out", this::checkedOut);
+        commands.put("holds", this::holds);
+    }
+
+    private int overdue(Arguments arguments) throws IOException {
+        ReportGenerator reportGenerator = openLibrary(arguments.getDirectory()).getReportGenerator();
+        printBooks(reportGenerator, reportGenerator.getOverdueBooks(), arguments.getOptions(), out);
+        return 0;
+    }
+
+    private int checkedOut(Arguments arguments) throws IOException {
+        ReportGenerator reportGenerator = openLibrary(arguments.getDirectory()).getReportGenerator();
+        printBooks(reportGenerator, reportGenerator.getCheckedOutBooks(), arguments.getOptions(), out);
+        return 0;
+    }
+
+    private int holds(Arguments arguments) throws IOException {
+        Library library = openLibrary(arguments.getDirectory());
+        library.getReportGenerator().writeHolds(out);
+        return 0;
+    }
+}
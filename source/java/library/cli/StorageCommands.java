@@ -0,0 +1,118 @@
+package library.cli;
+
+import library.data.*;
+import library.ui.PreferenceManager;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.Map;
+
+/**
+ * The {@code compact}, {@code archive}, {@code convert}, and {@code generate} commands, which rewrite or create the
+ * stored library of a data directory
+ *
+ * @author Srikavin Ramkumar
+ */
+class StorageCommands extends CommandGroup {
+    StorageCommands(Writer out, PrintStream err) {
+        super(out, err);
+    }
+
+    @Override
+    void register(Map<String, Command> commands) {
+        commands.put("compact", this::compact);
+        commands.put("archive", this::archive);
+        commands.put("convert", this::convert);
+        commands.put("generate", this::generate);
+    }
+
+    private int compact(Arguments arguments) throws IOException {
+        Path directory = arguments.getDirectory();
+        Library library = openLibrary(directory);
+        int before = library.getTransactionHistory().size();
+        library.saveTo(directory);
+        out.write("Compacted " + directory.resolve("data.txt") + ": " + library.getBooks().size() + " books, " +
+                library.getPatrons().size() + " patrons, " + before + " transactions\n");
+        return 0;
+    }
+
+    private int archive(Arguments arguments) throws IOException {
+        Path directory = arguments.getDirectory();
+        Map<String, String> options = arguments.getOptions();
+        int months = options.containsKey("months") ? Integer.parseInt(options.get("months")) :
+                new PreferenceManager(directory).getValueAsNumber("transaction_archive_months", 12).intValue();
+        if (months < 0) {
+            err.println("--months must not be negative: " + months);
+            return 2;
+        }
+        Library library = openLibrary(directory);
+        int archived = library.archiveTransactions(ZonedDateTime.now(ZoneOffset.UTC).minusMonths(months).toInstant());
+        if (archived > 0 || library.isModified()) {
+            library.saveTo(directory);
+        }
+        out.write("Archived " + archived + " transactions; " + library.getTransactions().size() +
+                " transactions are active\n");
+        return 0;
+    }
+
+    private int convert(Arguments arguments) throws IOException {
+        Path directory = arguments.getDirectory();
+        String to = arguments.getOptions().getOrDefault("to", "");
+        if (!to.equals("sql") && !to.equals("text")) {
+            err.println("--to must be sql or text: " + to);
+            return 2;
+        }
+        Library library = openLibrary(directory);
+        int transactions = library.getTransactionHistory().size();
+        try {
+            LibraryStore source = library.getStore();
+            if (source instanceof SqlLibraryStore == to.equals("sql")) {
+                out.write(directory + " is already stored as " + to + "\n");
+                return 0;
+            }
+            try (LibraryStore target = to.equals("sql") ? new SqlLibraryStore(directory, null) :
+                    new TextLibraryStore(directory, null)) {
+                target.write(library);
+            }
+        } finally {
+            library.close();
+        }
+        //Keep the previous file, so that it is not opened instead of the new one
+        Path previous = directory.resolve(to.equals("sql") ? TextLibraryStore.DATA_FILE : SqlLibraryStore.DATABASE_FILE);
+        Files.move(previous, previous.resolveSibling(previous.getFileName() + ".old"), StandardCopyOption.REPLACE_EXISTING);
+        out.write("Converted " + directory + " to " + to + ": " + library.getBooks().size() + " books, " +
+                library.getPatrons().size() + " patrons, " + transactions + " transactions\n");
+        return 0;
+    }
+
+    private int generate(Arguments arguments) throws IOException {
+        Path directory = arguments.getDirectory();
+        Map<String, String> options = arguments.getOptions();
+        LibraryGenerator generator = new LibraryGenerator(Long.parseLong(options.getOrDefault("seed", "2018")));
+        if (options.containsKey("types")) {
+            generator.setPatronTypeCount(Integer.parseInt(options.get("types")));
+        }
+        if (options.containsKey("patrons")) {
+            generator.setPatronCount(Integer.parseInt(options.get("patrons")));
+        }
+        if (options.containsKey("books")) {
+            generator.setBookCount(Integer.parseInt(options.get("books")));
+        }
+        if (options.containsKey("transactions")) {
+            generator.setTransactionCount(Long.parseLong(options.get("transactions")));
+        }
+        if (options.containsKey("years")) {
+            generator.setYears(Integer.parseInt(options.get("years")));
+        }
+        Files.createDirectories(directory);
+        generator.writeTo(directory);
+        out.write("Generated " + directory.resolve("data.txt") + "\n");
+        return 0;
+    }
+}
@@ -0,0 +1,104 @@
+package library.cli;
+
+import library.data.Library;
+import library.transfer.CatalogImporter;
+import library.transfer.LibraryExporter;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The {@code import} and {@code export} commands, which move records between a library and the files of other tools
+ *
+ * @author Srikavin Ramkumar
+ */
+class TransferCommands extends CommandGroup {
+    TransferCommands(Writer out, PrintStream err) {
+        super(out, err);
+    }
+
+    @Override
+    void register(Map<String, Command> commands) {
+        commands.put("import", this::importBooks);
+        commands.put("export", this::export);
+    }
+
+    private int importBooks(Arguments arguments) throws IOException {
+        if (arguments.getPositional().isEmpty()) {
+            err.println("A file to import is required.");
+            return 2;
+        }
+        Path directory = arguments.getDirectory();
+        Path file = Paths.get(arguments.getPositional().get(0));
+        Map<String, String> options = arguments.getOptions();
+        Library library = openLibrary(directory);
+        CatalogImporter importer = new CatalogImporter(library);
+        String existing = options.getOrDefault("existing", "add");
+        if (!existing.equals("add") && !existing.equals("skip")) {
+            err.println("--existing must be add or skip: " + existing);
+            return 2;
+        }
+        importer.setSkipExisting(existing.equals("skip"));
+        if (options.containsKey("batch")) {
+            importer.setBatchSize(Integer.parseInt(options.get("batch")));
+        }
+        importer.setOnReject((rejection) -> err.println("Line " + rejection.getLine() + " rejected: " + rejection.getReason()));
+
+        CatalogImporter.Result result = importer.importFile(file);
+        if (result.getCopiesAdded() > 0) {
+            library.saveTo(directory);
+        }
+        out.write(result + "\n");
+        return result.getRowsRejected() == 0 ? 0 : 1;
+    }
+
+    private int export(Arguments arguments) throws IOException {
+        if (arguments.getPositional().isEmpty()) {
+            err.println("An output directory is required.");
+            return 2;
+        }
+        Path output = Paths.get(arguments.getPositional().get(0));
+        Map<String, String> options = arguments.getOptions();
+        LibraryExporter.Format format;
+        switch (options.getOrDefault("format", "csv")) {
+            case "csv":
+                format = LibraryExporter.Format.CSV;
+                break;
+            case "jsonl":
+                format = LibraryExporter.Format.JSON_LINES;
+                break;
+            case "columnar":
+                format = LibraryExporter.Format.COLUMNAR;
+                break;
+            default:
+                err.println("--format must be csv, jsonl, or columnar: " + options.get("format"));
+                return 2;
+        }
+        String compress = options.getOrDefault("compress", "none");
+        if (!compress.equals("gzip") && !compress.equals("none")) {
+            err.println("--compress must be gzip or none: " + compress);
+            return 2;
+        }
+        List<String> datasets = options.containsKey("datasets") ?
+                Arrays.asList(options.get("datasets").split(",")) : LibraryExporter.getDatasets();
+        for (String e : datasets) {
+            if (!LibraryExporter.getDatasets().contains(e)) {
+                err.println("Unknown dataset: " + e);
+                return 2;
+            }
+        }
+
+        LibraryExporter exporter = new LibraryExporter(openLibrary(arguments.getDirectory()));
+        exporter.setCompress(compress.equals("gzip"));
+        for (Map.Entry<String, Long> e : exporter.exportAll(datasets, format, output).entrySet()) {
+            out.write("Exported " + e.getValue() + " rows of " + e.getKey() + "\n");
+        }
+        return 0;
+    }
+}
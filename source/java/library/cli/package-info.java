@@ -0,0 +1,7 @@
+/**
+ * This package includes the headless command-line interface of BookKeeper.
+ * It is used to run batch operations, such as overdue reports and fine exports, on the model layer in
+ * {@link library.data} without starting the GUI. Nothing in this package may depend on JavaFX.
+ * @author Srikavin Ramkumar
+ */
+package library.cli;
@@ -2,25 +2,44 @@ package library.data;
 
 import java.time.Instant;
 import java.util.Objects;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
- * Represents a single library book. Includes a title, author, and ISBN.
+ * Represents a single physical copy of a library book. The title, author, and ISBN are kept in the {@link Title} record
+ * shared by every copy of the book.
  * Also stores the patron currently holding this book, the current status of this book,
  * and the checkout date (if this book is checked out).
+ * <p>
+ * The circulation fields (status, current patron, and checkout date) are stored together in a single immutable state
+ * that carries a version stamp. Each change to them increments the version, which allows desks to detect concurrent
+ * changes through {@link #compareAndSetCirculation(long, BookStatus, Patron, Instant)} without holding a lock while
+ * they decide. A change of status is applied under the lock of the book, which also guards its title record, so the
+ * copy counts of a title are never moved for a book that has just left it.
  *
  * @author Srikavin Ramkumar
  */
 public class Book implements LibraryData {
     private Identifier identifier;
-    private String isbn;
-    private String title;
-    private String author;
-    private BookStatus status;
-    private Patron currentPatron;
-    private Instant checkOutDate;
+    private volatile Title titleRecord;
+    /**
+     * True while this book is in a library and counted by its title record
+     */
+    private boolean catalogued;
+    /**
+     * The catalog of the library this book is in, which the deprecated title setters intern their titles in; null while
+     * it is not in a library
+     */
+    private Catalog catalog;
+    /**
+     * The events of the library this book is in, which are told about changes to its status; null while it is not in
+     * a library
+     */
+    private volatile LibraryEventBus events;
+    private final AtomicReference<CirculationState> circulation;
 
     /**
-     * Creates an instance of this class.
+     * Creates an instance of this class with its own title record. The book shares the record of its
+     * {@link Catalog} once it is added to a library.
      *
      * @param identifier    Identifier representing this object
      * @param title         The title of the book
@@ -31,28 +50,52 @@ public class Book implements LibraryData {
      * @param currentPatron The current patron holding this book
      */
     public Book(Identifier identifier, String title, String author, String isbn, BookStatus status, Patron currentPatron, Instant checkOutDate) {
+        this(identifier, new Title(null, title, author, isbn), status, currentPatron, checkOutDate);
+    }
+
+    /**
+     * Creates a copy of the given title.
+     *
+     * @param identifier    Identifier representing this object
+     * @param titleRecord   The title this book is a copy of, from {@link Catalog#intern(String, String, String)}
+     * @param status        The current status of this book
+     * @param checkOutDate  The checked out date of this book, can be null if it is not currently checked out
+     * @param currentPatron The current patron holding this book
+     */
+    public Book(Identifier identifier, Title titleRecord, BookStatus status, Patron currentPatron, Instant checkOutDate) {
         this.identifier = identifier;
-        this.isbn = isbn;
-        this.status = status;
-        this.title = title;
-        this.author = author;
-        this.currentPatron = currentPatron;
-        this.checkOutDate = checkOutDate;
+        this.titleRecord = titleRecord;
+        this.circulation = new AtomicReference<>(new CirculationState(status, currentPatron, checkOutDate, 0));
     }
 
     /**
-     * Initialize this object using saved data from {@link #asData()}.
+     * Initialize this object using saved data from {@link #asData()}. Rows saved before titles were kept separately,
+     * which repeat the title, author, and ISBN of every copy, are also accepted.
      *
      * @param library A library to resolve the PatronType {@link Identifier} to a {@link PatronType}
      * @param data    A string array in the same format as returned by {@link #asData()}
      */
     public Book(String[] data, Library library) {
-        this(new Identifier(data[0]), data[1], data[2], data[3], BookStatus.valueOf(data[4]),
-                data[5].equals("null") || data[5].isEmpty() ? null : library.getPatronFromID(new Identifier(data[5])),
-                data[6].equals("null") || data[6].isEmpty() ? null : Instant.parse(data[6]));
-        if (data.length != 7) {
+        this(new Identifier(data[0]), readTitle(data, library), BookStatus.valueOf(data[data.length - 3]),
+                data[data.length - 2].equals("null") || data[data.length - 2].isEmpty() ? null
+                        : library.getPatronFromID(new Identifier(data[data.length - 2])),
+                data[data.length - 1].equals("null") || data[data.length - 1].isEmpty() ? null
+                        : Instant.parse(data[data.length - 1]));
+    }
+
+    private static Title readTitle(String[] data, Library library) {
+        if (data.length == 7) {
+            //Migrate a row with its own title, author, and ISBN to the shared title record
+            return library.getCatalog().intern(data[1], data[2], data[3]);
+        }
+        if (data.length != 5) {
             throw new RuntimeException("Invalid data type!");
         }
+        Title title = library.getCatalog().getTitle(new Identifier(data[1]));
+        if (title == null) {
+            throw new RuntimeException("Book " + data[0] + " refers to a title that does not exist: " + data[1]);
+        }
+        return title;
     }
 
     /**
@@ -67,17 +110,124 @@ public class Book implements LibraryData {
         if (book == null) {
             return false;
         }
-        if (this == book) {
+        if (this == book || titleRecord == book.titleRecord) {
             return true;
         }
-        return Objects.equals(isbn, book.isbn) &&
-                Objects.equals(title, book.title) &&
-                Objects.equals(author, book.author);
+        return Objects.equals(getIsbn(), book.getIsbn()) &&
+                Objects.equals(getTitle(), book.getTitle()) &&
+                Objects.equals(getAuthor(), book.getAuthor());
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(isbn, title, author, status);
+        return Objects.hash(getIsbn(), getTitle(), getAuthor(), getStatus());
+    }
+
+    /**
+     * Gets the title record this book is a copy of
+     *
+     * @return The title of this book
+     */
+    public Title getTitleRecord() {
+        return titleRecord;
+    }
+
+    /**
+     * Makes this book a copy of another title, such as when its title, author, or ISBN are corrected
+     *
+     * @param titleRecord The new title of this book, from {@link Catalog#intern(String, String, String)}
+     */
+    public synchronized void setTitleRecord(Title titleRecord) {
+        if (catalogued) {
+            BookStatus status = getStatus();
+            this.titleRecord.removeCopy(status);
+            titleRecord.addCopy(status);
+        }
+        this.titleRecord = titleRecord;
+    }
+
+    /**
+     * Counts this book as a copy of its title, after it has been added to a library
+     *
+     * @param catalog The catalog of the library, which provides the shared title record
+     * @param events  The events of the library, which are told about changes to the status of this book
+     */
+    synchronized void catalogue(Catalog catalog, LibraryEventBus events) {
+        titleRecord = catalog.intern(titleRecord);
+        titleRecord.addCopy(getStatus());
+        catalogued = true;
+        this.catalog = catalog;
+        this.events = events;
+    }
+
+    /**
+     * Stops counting this book as a copy of its title, after it has been removed from a library
+     */
+    synchronized void uncatalogue() {
+        titleRecord.removeCopy(getStatus());
+        catalogued = false;
+        catalog = null;
+        events = null;
+    }
+
+    /**
+     * Makes this book a copy of the title with the given fields, interned in the catalog of its library if it is in one
+     */
+    private synchronized void retitle(String title, String author, String isbn) {
+        setTitleRecord(catalog == null ? new Title(null, title, author, isbn) : catalog.intern(title, author, isbn));
+    }
+
+    /**
+     * Moves this book between the copy counts of its title. Must be called while holding the lock of this book, in the
+     * same block that changed the status.
+     */
+    private void countStatusChange(BookStatus from, BookStatus to) {
+        if (catalogued) {
+            titleRecord.moveCopy(from, to);
+        }
+    }
+
+    private void publishStatusChange(BookStatus from, BookStatus to) {
+        LibraryEventBus bus = events;
+        if (bus != null && from != to) {
+            bus.publish(LibraryEvent.statusChanged(this, from, to));
+        }
+    }
+
+    /**
+     * Gets the version stamp of the circulation state (status, current patron, and checkout date) of this book. The
+     * version is incremented every time any of these fields change.
+     *
+     * @return The current version of the circulation state of this book
+     */
+    public long getVersion() {
+        return circulation.get().version;
+    }
+
+    /**
+     * Atomically replaces the status, current patron, and checkout date of this book if, and only if, the version of
+     * this book is still the expected version. The version is incremented if the update succeeds.
+     *
+     * @param expectedVersion The version of this book that was read before deciding on the update
+     * @param status          The new status of this book
+     * @param currentPatron   The new patron holding this book; may be null
+     * @param checkOutDate    The new checkout date of this book; may be null
+     *
+     * @return True if the update was applied; false if this book was changed since the expected version
+     */
+    public boolean compareAndSetCirculation(long expectedVersion, BookStatus status, Patron currentPatron, Instant checkOutDate) {
+        CirculationState current = circulation.get();
+        if (current.version != expectedVersion) {
+            return false;
+        }
+        synchronized (this) {
+            if (!circulation.compareAndSet(current, new CirculationState(status, currentPatron, checkOutDate, expectedVersion + 1))) {
+                return false;
+            }
+            countStatusChange(current.status, status);
+        }
+        publishStatusChange(current.status, status);
+        return true;
     }
 
     /**
@@ -86,7 +236,7 @@ public class Book implements LibraryData {
      * @return The patron that currently has this book checked out; will be null if it is not checked out
      */
     public Patron getCurrentPatron() {
-        return currentPatron;
+        return circulation.get().currentPatron;
     }
 
     /**
@@ -94,9 +244,17 @@ public class Book implements LibraryData {
      * Can be set to null to indicate that nobody has this book checked out
      *
      * @param currentPatron The patron this book should be checked out to
+     *
+     * @deprecated Overwrites changes made by other desks since this book was read. Use
+     * {@link #compareAndSetCirculation(long, BookStatus, Patron, Instant)} with the version that was read instead.
      */
+    @Deprecated
     public void setCurrentPatron(Patron currentPatron) {
-        this.currentPatron = currentPatron;
+        CirculationState current;
+        do {
+            current = circulation.get();
+        } while (!circulation.compareAndSet(current,
+                new CirculationState(current.status, currentPatron, current.checkOutDate, current.version + 1)));
     }
 
     /**
@@ -106,17 +264,25 @@ public class Book implements LibraryData {
      * @return An {@link Instant} object indicating the time and date this book was checked out; may be null
      */
     public Instant getCheckOutDate() {
-        return checkOutDate;
+        return circulation.get().checkOutDate;
     }
 
     /**
-     * Get the time and date this book was checked out.
+     * Set the time and date this book was checked out.
      * This value may be null.
      *
      * @param checkOutDate An {@link Instant} object indicating the time and date this book was checked out; may be null
+     *
+     * @deprecated Overwrites changes made by other desks since this book was read. Use
+     * {@link #compareAndSetCirculation(long, BookStatus, Patron, Instant)} with the version that was read instead.
      */
+    @Deprecated
     public void setCheckOutDate(Instant checkOutDate) {
-        this.checkOutDate = checkOutDate;
+        CirculationState current;
+        do {
+            current = circulation.get();
+        } while (!circulation.compareAndSet(current,
+                new CirculationState(current.status, current.currentPatron, checkOutDate, current.version + 1)));
     }
 
     /**
@@ -141,12 +307,13 @@ public class Book implements LibraryData {
      */
     @Override
     public String[] asData() {
+        CirculationState state = circulation.get();
+        Patron currentPatron = state.currentPatron;
+        Instant checkOutDate = state.checkOutDate;
         return new String[]{
                 identifier.getId(),
-                title,
-                author,
-                isbn,
-                status.name(),
+                titleRecord.getIdentifier().getId(),
+                state.status.name(),
                 currentPatron != null ? currentPatron.getIdentifier().getId() : "null",
                 checkOutDate != null ? checkOutDate.toString() : "null"
         };
@@ -158,15 +325,19 @@ public class Book implements LibraryData {
      * @return An Valid 10 or 13 digit ISBN number matching this book
      */
     public String getIsbn() {
-        return isbn;
+        return titleRecord.getIsbn();
     }
 
     /**
      * Update the ISBN of this book.
      *
      * @param isbn A valid 10 or 13 digit ISBN.
+     *
+     * @deprecated The ISBN belongs to the title shared by every copy. Use {@link #setTitleRecord(Title)} with a title
+     * from {@link Catalog#intern(String, String, String)} instead.
      */
-    public void setIsbn(String isbn) {
+    @Deprecated
+    public synchronized void setIsbn(String isbn) {
         int isbnChars = 0;
         for (char e : isbn.toCharArray()) {
             if (Character.isDigit(e) || Character.isAlphabetic(e)) {
@@ -176,7 +347,7 @@ public class Book implements LibraryData {
         if (isbnChars != 10 && isbnChars != 13) {
             throw new RuntimeException("Invalid ISBN!");
         }
-        this.isbn = isbn;
+        retitle(getTitle(), getAuthor(), isbn);
     }
 
     /**
@@ -185,16 +356,28 @@ public class Book implements LibraryData {
      * @return A {@link BookStatus} representing the current status of this book
      */
     public BookStatus getStatus() {
-        return status;
+        return circulation.get().status;
     }
 
     /**
      * Set the current status of this book
      *
      * @param status A {@link BookStatus} value indicating the new state of this book
+     *
+     * @deprecated Overwrites changes made by other desks since this book was read. Use
+     * {@link #compareAndSetCirculation(long, BookStatus, Patron, Instant)} with the version that was read instead.
      */
+    @Deprecated
     public void setStatus(BookStatus status) {
-        this.status = status;
+        CirculationState current;
+        synchronized (this) {
+            do {
+                current = circulation.get();
+            } while (!circulation.compareAndSet(current,
+                    new CirculationState(status, current.currentPatron, current.checkOutDate, current.version + 1)));
+            countStatusChange(current.status, status);
+        }
+        publishStatusChange(current.status, status);
     }
 
     /**
@@ -203,17 +386,20 @@ public class Book implements LibraryData {
      * @return The title of this book
      */
     public String getTitle() {
-        return title;
+        return titleRecord.getTitle();
     }
 
     /**
-     * Get the title of this book
+     * Set the title of this book
      *
      * @param title The title of the book this object represents
+     *
+     * @deprecated The title belongs to the title record shared by every copy. Use {@link #setTitleRecord(Title)} with a
+     * title from {@link Catalog#intern(String, String, String)} instead.
      */
-
-    public void setTitle(String title) {
-        this.title = title;
+    @Deprecated
+    public synchronized void setTitle(String title) {
+        retitle(title, getAuthor(), getIsbn());
     }
 
     /**
@@ -222,15 +408,36 @@ public class Book implements LibraryData {
      * @return The name of the author of the book represented by this object
      */
     public String getAuthor() {
-        return author;
+        return titleRecord.getAuthor();
     }
 
     /**
      * Set the author's name of this book
      *
      * @param author The author's name as a {@link String}
+     *
+     * @deprecated The author belongs to the title shared by every copy. Use {@link #setTitleRecord(Title)} with a
+     * title from {@link Catalog#intern(String, String, String)} instead.
+     */
+    @Deprecated
+    public synchronized void setAuthor(String author) {
+        retitle(getTitle(), author, getIsbn());
+    }
+
+    /**
+     * An immutable snapshot of the circulation fields of a book, along with the version stamp of the snapshot.
      */
-    public void setAuthor(String author) {
-        this.author = author;
+    private static final class CirculationState {
+        final BookStatus status;
+        final Patron currentPatron;
+        final Instant checkOutDate;
+        final long version;
+
+        CirculationState(BookStatus status, Patron currentPatron, Instant checkOutDate, long version) {
+            this.status = status;
+            this.currentPatron = currentPatron;
+            this.checkOutDate = checkOutDate;
+            this.version = version;
+        }
     }
 }
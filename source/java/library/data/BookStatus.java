@@ -14,6 +14,10 @@ public enum BookStatus {
      * Indicates that the book is not available and is checked out
      */
     CHECKED_OUT("Checked out"),
+    /**
+     * Indicates that the book has been returned and put aside for the patron with the next {@link Hold} on its title
+     */
+    ON_HOLD("On hold"),
     /**
      * Indicates that the book is not available and it is lost
      */
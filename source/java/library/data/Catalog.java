@@ -0,0 +1,111 @@
+package library.data;
+
+import java.util.*;
+
+/**
+ * Keeps the {@link Title}s of a {@link Library}. Every copy of a book refers to the single title record with its title,
+ * author, and ISBN, which is found or created through {@link #intern(String, String, String)}.
+ * <p>
+ * The titles are saved with the library in the TITLES section of the data file. Titles without any copies are not
+ * saved.
+ *
+ * @author Srikavin Ramkumar
+ */
+public class Catalog {
+    private final Map<String, Title> titlesByKey = new HashMap<>();
+    private final Map<Identifier, Title> titlesById = new HashMap<>();
+    private int nextTitleId = 1;
+
+    /**
+     * Creates an empty catalog
+     */
+    Catalog() {
+    }
+
+    /**
+     * Adds a saved title to this catalog
+     *
+     * @param title The title loaded from the data file
+     *
+     * @throws IllegalArgumentException If a title with the same identifier is already in this catalog
+     */
+    synchronized void add(Title title) {
+        if (titlesById.containsKey(title.getIdentifier())) {
+            throw new IllegalArgumentException("Duplicate title identifier: " + title.getIdentifier());
+        }
+        titlesById.put(title.getIdentifier(), title);
+        titlesByKey.putIfAbsent(key(title.getTitle(), title.getAuthor(), title.getIsbn()), title);
+        try {
+            nextTitleId = Math.max(nextTitleId, Integer.parseInt(title.getIdentifier().getId()) + 1);
+        } catch (NumberFormatException ignored) {
+            //Identifiers are not required to be numeric
+        }
+    }
+
+    /**
+     * Removes every title from this catalog
+     */
+    synchronized void clear() {
+        titlesById.clear();
+        titlesByKey.clear();
+        nextTitleId = 1;
+    }
+
+    /**
+     * Gets the title record with the given title, author, and ISBN, creating it if this catalog does not have one
+     *
+     * @param title  The title of the book
+     * @param author The author's name
+     * @param isbn   The ISBN of the book
+     *
+     * @return The title record shared by all copies of the book
+     */
+    public synchronized Title intern(String title, String author, String isbn) {
+        return titlesByKey.computeIfAbsent(key(title, author, isbn), (key) -> {
+            Title created = new Title(new Identifier(nextTitleId++), title, author, isbn);
+            titlesById.put(created.getIdentifier(), created);
+            return created;
+        });
+    }
+
+    /**
+     * Gets the record in this catalog for the given title, which may have been created outside of this catalog
+     *
+     * @param title A title record
+     *
+     * @return The given title if it belongs to this catalog; otherwise the record of this catalog with the same title,
+     * author, and ISBN
+     */
+    synchronized Title intern(Title title) {
+        if (title.getIdentifier() != null && titlesById.get(title.getIdentifier()) == title) {
+            return title;
+        }
+        return intern(title.getTitle(), title.getAuthor(), title.getIsbn());
+    }
+
+    /**
+     * Resolves a {@link Title} from a specified identifier
+     *
+     * @param identifier The identifier to resolve
+     *
+     * @return The title with the identifier, or null if not found
+     */
+    public synchronized Title getTitle(Identifier identifier) {
+        return titlesById.get(identifier);
+    }
+
+    /**
+     * Gets every title of this catalog, including titles without any copies
+     *
+     * @return A new list of the titles, sorted by identifier
+     */
+    public synchronized List<Title> getTitles() {
+        List<Title> titles = new ArrayList<>(titlesById.values());
+        titles.sort(Comparator.comparing(Title::getIdentifier));
+        return titles;
+    }
+
+    private static String key(String title, String author, String isbn) {
+        return isbn + '\u0000' + title + '\u0000' + author;
+    }
+}
@@ -0,0 +1,47 @@
+package library.data;
+
+/**
+ * Thrown when a checkout or return cannot be committed because the {@link Book} was changed by someone else after it
+ * was read. The operation has not been applied; the caller should re-read the book and decide again.
+ *
+ * @author Srikavin Ramkumar
+ */
+public class CirculationConflictException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+    /**
+     * Books are not serializable; the book is not kept if this exception is serialized
+     */
+    private final transient Book book;
+    private final long expectedVersion;
+
+    /**
+     * Creates an instance of this exception for the given book.
+     *
+     * @param book            The book that was changed concurrently
+     * @param expectedVersion The version of the book the caller expected to update
+     */
+    public CirculationConflictException(Book book, long expectedVersion) {
+        super("Book " + book.getIdentifier() + " was changed by another desk (expected version " + expectedVersion +
+                ", found version " + book.getVersion() + ")");
+        this.book = book;
+        this.expectedVersion = expectedVersion;
+    }
+
+    /**
+     * Gets the book that was changed concurrently
+     *
+     * @return The book that could not be updated
+     */
+    public Book getBook() {
+        return book;
+    }
+
+    /**
+     * Gets the version of the book the caller expected to update
+     *
+     * @return The expected version of the book
+     */
+    public long getExpectedVersion() {
+        return expectedVersion;
+    }
+}
@@ -0,0 +1,184 @@
+package library.data;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A fixed width row layout compiled once from a format string. Rows are padded and truncated directly into a reusable
+ * buffer, which avoids parsing the format string and allocating a {@link java.util.Formatter} for every row.
+ * <p>
+ * Only left-justified string columns ({@code %-8s} or {@code %-30.30s}) and line separators ({@code %n}) are
+ * supported. Rows are written exactly as {@link String#format(String, Object...)} would write them.
+ *
+ * @author Srikavin Ramkumar
+ */
+final class ColumnFormat {
+    private final int[] widths;
+    private final int[] precisions;
+    private final boolean lineSeparator;
+    private final int rowLength;
+
+    private ColumnFormat(int[] widths, int[] precisions, boolean lineSeparator) {
+        this.widths = widths;
+        this.precisions = precisions;
+        this.lineSeparator = lineSeparator;
+
+        int length = lineSeparator ? System.lineSeparator().length() : 0;
+        for (int width : widths) {
+            length += width;
+        }
+        this.rowLength = length;
+    }
+
+    /**
+     * Compiles a format string consisting of {@code %-<width>s} or {@code %-<width>.<precision>s} columns, optionally
+     * followed by a single {@code %n}.
+     *
+     * @param format The format string to compile
+     *
+     * @return The compiled layout
+     *
+     * @throws IllegalArgumentException If the format string contains anything other than the supported conversions
+     */
+    static ColumnFormat compile(String format) {
+        List<int[]> columns = new ArrayList<>();
+        boolean lineSeparator = false;
+        int i = 0;
+        while (i < format.length()) {
+            if (lineSeparator) {
+                throw new IllegalArgumentException("%n must end the format: " + format);
+            }
+            if (format.startsWith("%n", i)) {
+                lineSeparator = true;
+                i += 2;
+                continue;
+            }
+            if (!format.startsWith("%-", i)) {
+                throw new IllegalArgumentException("Unsupported format at index " + i + ": " + format);
+            }
+            i += 2;
+            int start = i;
+            while (i < format.length() && Character.isDigit(format.charAt(i))) {
+                i++;
+            }
+            int width = Integer.parseInt(format.substring(start, i));
+            int precision = -1;
+            if (i < format.length() && format.charAt(i) == '.') {
+                start = ++i;
+                while (i < format.length() && Character.isDigit(format.charAt(i))) {
+                    i++;
+                }
+                precision = Integer.parseInt(format.substring(start, i));
+            }
+            if (i >= format.length() || format.charAt(i) != 's') {
+                throw new IllegalArgumentException("Unsupported format at index " + i + ": " + format);
+            }
+            i++;
+            columns.add(new int[]{width, precision});
+        }
+
+        int[] widths = new int[columns.size()];
+        int[] precisions = new int[columns.size()];
+        for (int c = 0; c < columns.size(); c++) {
+            widths[c] = columns.get(c)[0];
+            precisions[c] = columns.get(c)[1];
+        }
+        return new ColumnFormat(widths, precisions, lineSeparator);
+    }
+
+    /**
+     * Creates a writer of rows in this layout. Writers keep a row buffer and are not safe for use by multiple threads;
+     * create one for each report.
+     *
+     * @param out The output to write rows to
+     *
+     * @return A new row writer
+     */
+    RowWriter writer(Appendable out) {
+        return new RowWriter(out);
+    }
+
+    /**
+     * Writes rows of a {@link ColumnFormat} to an output, one cell at a time.
+     */
+    final class RowWriter {
+        private final Appendable out;
+        private char[] buffer = new char[rowLength];
+        private int length;
+        private int column;
+
+        private RowWriter(Appendable out) {
+            this.out = out;
+        }
+
+        /**
+         * Adds the next cell to the current row, truncating and padding it to the width of its column. A
+         * {@code null} value is written as "null".
+         *
+         * @param value The value of the cell
+         *
+         * @return This writer
+         */
+        RowWriter cell(String value) {
+            if (column == widths.length) {
+                throw new IllegalStateException("Row already has " + widths.length + " columns");
+            }
+            if (value == null) {
+                value = "null";
+            }
+            int count = value.length();
+            int precision = precisions[column];
+            if (precision != -1 && precision < count) {
+                count = precision;
+            }
+            int width = Math.max(widths[column], count);
+            ensureCapacity(length + width);
+
+            value.getChars(0, count, buffer, length);
+            for (int i = length + count; i < length + width; i++) {
+                buffer[i] = ' ';
+            }
+            length += width;
+            column++;
+            return this;
+        }
+
+        /**
+         * Writes the current row to the output and starts a new row
+         *
+         * @throws IOException If the output cannot be written to
+         */
+        void endRow() throws IOException {
+            if (column != widths.length) {
+                throw new IllegalStateException("Row has " + column + " of " + widths.length + " columns");
+            }
+            if (lineSeparator) {
+                String separator = System.lineSeparator();
+                ensureCapacity(length + separator.length());
+                separator.getChars(0, separator.length(), buffer, length);
+                length += separator.length();
+            }
+
+            if (out instanceof Writer) {
+                ((Writer) out).write(buffer, 0, length);
+            } else if (out instanceof StringBuilder) {
+                ((StringBuilder) out).append(buffer, 0, length);
+            } else {
+                out.append(CharBuffer.wrap(buffer, 0, length));
+            }
+            length = 0;
+            column = 0;
+        }
+
+        private void ensureCapacity(int capacity) {
+            if (capacity > buffer.length) {
+                char[] larger = new char[Math.max(capacity, buffer.length * 2)];
+                System.arraycopy(buffer, 0, larger, 0, length);
+                buffer = larger;
+            }
+        }
+    }
+}
@@ -0,0 +1,569 @@
+package library.data;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.zip.CRC32;
+
+/**
+ * Writes and verifies the sections of a library data file.
+ * <p>
+ * A data file is written to a temporary file next to it, forced to disk, and then renamed over the data file, so a
+ * crash in the middle of a save leaves the previous data file in place. The last section of the file, CHECKSUMS, has
+ * a row for each of the other sections with its position in the file, its length in bytes, its number of rows, and
+ * the CRC-32 of its bytes:
+ * <pre>
+ * --------CHECKSUMS
+ * TYPES,0,98,3,5d1b9a2c
+ * </pre>
+ * The sections are verified in parallel when the file is opened. Files without the footer, written by older versions,
+ * cannot be verified.
+ *
+ * @author Srikavin Ramkumar
+ */
+final class DataFile {
+    /**
+     * The name of the section holding the checksums of the other sections
+     */
+    static final String CHECKSUM_SECTION = "CHECKSUMS";
+    private static final String SEPARATOR = "--------";
+    private static final int BUFFER_SIZE = 1 << 16;
+    /**
+     * The most bytes read from the end of a file to find its footer, which has a short row for each section
+     */
+    private static final int MAX_FOOTER = 1 << 16;
+
+    private DataFile() {
+    }
+
+    /**
+     * Checks every section of a data file against the checksums in its footer. The sections are read in parallel on
+     * the common {@link ForkJoinPool}.
+     *
+     * @param file The data file to verify
+     *
+     * @return True if the file was verified; false if it has no footer, as it was written by an older version
+     *
+     * @throws IOException If a section does not match its checksum, the footer is damaged, or the file cannot be read
+     */
+    static boolean verify(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            List<Section> sections = readSections(channel, file);
+            if (sections == null) {
+                return false;
+            }
+
+            ForkJoinPool pool = ForkJoinPool.commonPool();
+            List<ForkJoinTask<Long>> tasks = new ArrayList<>();
+            for (Section e : sections) {
+                tasks.add(pool.submit(() -> checksum(channel, e.offset, e.length)));
+            }
+            for (int i = 0; i < sections.size(); i++) {
+                long crc;
+                try {
+                    crc = tasks.get(i).join();
+                } catch (UncheckedIOException e) {
+                    throw e.getCause();
+                }
+                if (crc != sections.get(i).crc) {
+                    throw new IOException("Section " + sections.get(i).name + " of " + file.getFileName() + " is damaged");
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Reads the footer of a data file without verifying the sections
+     *
+     * @param channel The open data file
+     * @param file    The path of the data file, used in error messages
+     *
+     * @return The sections listed in the footer, in the order they are in the file; null if the file has no footer, as
+     * it was written by an older version
+     *
+     * @throws IOException If the footer is damaged or the file cannot be read
+     */
+    static List<Section> readSections(FileChannel channel, Path file) throws IOException {
+        long size = channel.size();
+        int tailLength = (int) Math.min(size, MAX_FOOTER);
+        ByteBuffer tail = ByteBuffer.allocate(tailLength);
+        readFully(channel, tail, size - tailLength);
+        byte[] bytes = tail.array();
+
+        //The footer starts at the last CHECKSUMS header of the file
+        byte[] header = (SEPARATOR + CHECKSUM_SECTION + "\n").getBytes(StandardCharsets.US_ASCII);
+        int footerStart = -1;
+        for (int i = bytes.length - header.length; i >= 0 && footerStart < 0; i--) {
+            if ((i == 0 ? size == tailLength : bytes[i - 1] == '\n') && startsWith(bytes, i, header)) {
+                footerStart = i;
+            }
+        }
+        if (footerStart < 0) {
+            return null;
+        }
+        long footerOffset = size - tailLength + footerStart;
+        if (bytes[bytes.length - 1] != '\n') {
+            throw new IOException(file.getFileName() + " ends in the middle of its checksums");
+        }
+        String footer = new String(bytes, footerStart + header.length, bytes.length - footerStart - header.length,
+                StandardCharsets.US_ASCII);
+
+        //The sections must cover the file up to the footer without gaps
+        List<Section> sections = new ArrayList<>();
+        long expectedOffset = 0;
+        for (String row : footer.split("\n")) {
+            Section section = Section.parse(row);
+            if (section.offset != expectedOffset) {
+                throw new IOException("The checksums of " + file.getFileName() + " do not match its sections");
+            }
+            expectedOffset += section.length;
+            sections.add(section);
+        }
+        if (expectedOffset != footerOffset) {
+            throw new IOException("The checksums of " + file.getFileName() + " do not match its sections");
+        }
+        return sections;
+    }
+
+    /**
+     * Reads part of a data file, such as a section, and checks it against a checksum
+     *
+     * @param channel The open data file
+     * @param offset  The position to start reading at
+     * @param length  The number of bytes to read
+     * @param crc     The CRC-32 the bytes must have, or -1 to not check them
+     *
+     * @return The bytes read, decoded as UTF-8
+     *
+     * @throws IOException If the bytes do not match the checksum or cannot be read
+     */
+    static String read(FileChannel channel, long offset, long length, long crc) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int) length);
+        readFully(channel, buffer, offset);
+        if (crc >= 0) {
+            CRC32 checksum = new CRC32();
+            checksum.update(buffer.array(), 0, buffer.limit());
+            if (checksum.getValue() != crc) {
+                throw new IOException("A section of the data file does not match its checksum");
+            }
+        }
+        return new String(buffer.array(), 0, buffer.limit(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Receives the lines of a file along with the number of bytes each one takes up in it
+     */
+    interface LineAction {
+        /**
+         * @param line   The line, without its line terminator
+         * @param length The number of bytes of the line in the file, including its line terminator
+         *
+         * @throws IOException If the line cannot be handled
+         */
+        void accept(String line, int length) throws IOException;
+    }
+
+    /**
+     * Reads the lines of UTF-8 text, which may end in "\n" or "\r\n". The lengths of the lines are counted from the
+     * bytes read rather than from the decoded lines, so they can be used as positions in a file edited on Windows.
+     *
+     * @param in     The text to read, which is not closed
+     * @param action Called with each line and its length
+     *
+     * @throws IOException If the text cannot be read, or by the action
+     */
+    static void readLines(InputStream in, LineAction action) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        //The start of a line that continues past the end of the buffer
+        byte[] partial = new byte[256];
+        int partialLength = 0;
+        int read;
+        while ((read = in.read(buffer)) >= 0) {
+            int start = 0;
+            for (int i = 0; i < read; i++) {
+                if (buffer[i] != '\n') {
+                    continue;
+                }
+                if (partialLength == 0) {
+                    acceptLine(buffer, start, i - start, i - start + 1, action);
+                } else {
+                    partial = append(partial, partialLength, buffer, start, i - start);
+                    partialLength += i - start;
+                    acceptLine(partial, 0, partialLength, partialLength + 1, action);
+                    partialLength = 0;
+                }
+                start = i + 1;
+            }
+            partial = append(partial, partialLength, buffer, start, read - start);
+            partialLength += read - start;
+        }
+        if (partialLength > 0) {
+            acceptLine(partial, 0, partialLength, partialLength, action);
+        }
+    }
+
+    private static void acceptLine(byte[] bytes, int offset, int count, int length, LineAction action)
+            throws IOException {
+        if (count > 0 && bytes[offset + count - 1] == '\r') {
+            count--;
+        }
+        action.accept(new String(bytes, offset, count, StandardCharsets.UTF_8), length);
+    }
+
+    private static byte[] append(byte[] to, int toLength, byte[] from, int offset, int count) {
+        if (toLength + count > to.length) {
+            to = Arrays.copyOf(to, Math.max(to.length * 2, toLength + count));
+        }
+        System.arraycopy(from, offset, to, toLength, count);
+        return to;
+    }
+
+    /**
+     * Computes the CRC-32 of part of a data file
+     *
+     * @param channel The open data file
+     * @param offset  The position to start at
+     * @param length  The number of bytes to include
+     *
+     * @return The CRC-32 of the bytes
+     *
+     * @throws IOException If the file cannot be read
+     */
+    static long checksumOf(FileChannel channel, long offset, long length) throws IOException {
+        try {
+            return checksum(channel, offset, length);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static long checksum(FileChannel channel, long offset, long length) {
+        CRC32 crc = new CRC32();
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        try {
+            long position = offset;
+            long end = offset + length;
+            while (position < end) {
+                buffer.clear();
+                buffer.limit((int) Math.min(BUFFER_SIZE, end - position));
+                int read = channel.read(buffer, position);
+                if (read < 0) {
+                    throw new EOFException("Unexpected end of the data file");
+                }
+                crc.update(buffer.array(), 0, read);
+                position += read;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return crc.getValue();
+    }
+
+    private static boolean startsWith(byte[] bytes, int offset, byte[] prefix) {
+        for (int i = 0; i < prefix.length; i++) {
+            if (bytes[offset + i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                throw new EOFException("Unexpected end of the data file");
+            }
+        }
+        buffer.flip();
+    }
+
+    /**
+     * The position, length, and checksum of a section of a data file
+     */
+    static class Section {
+        private final String name;
+        private final long offset;
+        private final long length;
+        private final long rows;
+        private final long crc;
+
+        private Section(String name, long offset, long length, long rows, long crc) {
+            this.name = name;
+            this.offset = offset;
+            this.length = length;
+            this.rows = rows;
+            this.crc = crc;
+        }
+
+        private static Section parse(String row) throws IOException {
+            String[] data = row.split(",");
+            if (data.length != 5) {
+                throw new IOException("Invalid checksum row: " + row);
+            }
+            try {
+                return new Section(data[0], Long.parseLong(data[1]), Long.parseLong(data[2]), Long.parseLong(data[3]),
+                        Long.parseLong(data[4], 16));
+            } catch (NumberFormatException e) {
+                throw new IOException("Invalid checksum row: " + row, e);
+            }
+        }
+
+        private String format() {
+            return name + "," + offset + "," + length + "," + rows + "," + Long.toHexString(crc);
+        }
+
+        /**
+         * Gets the name of this section
+         *
+         * @return The name of the section, such as BOOKS
+         */
+        String getName() {
+            return name;
+        }
+
+        /**
+         * Gets the position of this section in the file
+         *
+         * @return The position of the section header
+         */
+        long getOffset() {
+            return offset;
+        }
+
+        /**
+         * Gets the length of this section
+         *
+         * @return The length in bytes, including the section header
+         */
+        long getLength() {
+            return length;
+        }
+
+        /**
+         * Gets the checksum of this section
+         *
+         * @return The CRC-32 of the bytes of the section
+         */
+        long getCrc() {
+            return crc;
+        }
+
+        /**
+         * Checks if this section has the same position and contents as another, going by their checksums
+         *
+         * @param other The section to compare with
+         *
+         * @return True if both sections have the same name, position, length, and checksum
+         */
+        boolean matches(Section other) {
+            return other != null && name.equals(other.name) && offset == other.offset && length == other.length &&
+                    crc == other.crc;
+        }
+    }
+
+    /**
+     * Writes a data file one section at a time, keeping the checksum of each section. Nothing replaces the data file
+     * until {@link #commit()} is called; closing the output without committing deletes the temporary file.
+     */
+    static class Output implements Closeable {
+        private final Path file;
+        private final Path temp;
+        private final FileChannel channel;
+        private final SectionStream sectionStream;
+        private final Writer writer;
+        private final List<Section> sections = new ArrayList<>();
+        private String section;
+        private long rows;
+        private boolean committed;
+
+        /**
+         * Starts writing a data file
+         *
+         * @param file The data file to replace when the output is committed
+         *
+         * @throws IOException If the temporary file cannot be created
+         */
+        Output(Path file) throws IOException {
+            this.file = file;
+            this.temp = file.resolveSibling(file.getFileName() + ".tmp");
+            this.channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            this.sectionStream = new SectionStream(new BufferedOutputStream(Channels.newOutputStream(channel), BUFFER_SIZE));
+            this.writer = new BufferedWriter(new OutputStreamWriter(sectionStream, StandardCharsets.UTF_8), BUFFER_SIZE);
+        }
+
+        /**
+         * Ends the current section and starts a new one
+         *
+         * @param name The name of the section, such as BOOKS
+         *
+         * @throws IOException If the section cannot be written
+         */
+        void startSection(String name) throws IOException {
+            endSection();
+            section = name;
+            Library.writeSectionHeader(name, writer);
+        }
+
+        /**
+         * Writes a row of the current section
+         *
+         * @param data The values of the row, in the format of {@link LibraryData#asData()}
+         *
+         * @throws IOException If the row cannot be written
+         */
+        void writeRecord(String[] data) throws IOException {
+            Library.writeRecord(writer, data);
+            rows++;
+        }
+
+        /**
+         * Copies rows of the current section from another data file without parsing them
+         *
+         * @param source The file to copy from
+         * @param offset The position of the first row in the source file
+         * @param length The number of bytes to copy, which must end at the end of a row
+         * @param rows   The number of rows copied
+         *
+         * @return The position of the copied rows in this file
+         *
+         * @throws IOException If the rows cannot be read or written
+         */
+        long copy(Path source, long offset, long length, long rows) throws IOException {
+            writer.flush();
+            long position = sectionStream.offset;
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            try (FileChannel channel = FileChannel.open(source, StandardOpenOption.READ)) {
+                long copied = 0;
+                while (copied < length) {
+                    buffer.clear();
+                    buffer.limit((int) Math.min(BUFFER_SIZE, length - copied));
+                    int read = channel.read(buffer, offset + copied);
+                    if (read < 0) {
+                        throw new EOFException("Unexpected end of " + source.getFileName());
+                    }
+                    sectionStream.write(buffer.array(), 0, read);
+                    copied += read;
+                }
+            }
+            this.rows += rows;
+            return position;
+        }
+
+        /**
+         * Gets the position in this file that the next row will be written at
+         *
+         * @return The number of bytes written so far
+         *
+         * @throws IOException If the buffered rows cannot be written
+         */
+        long position() throws IOException {
+            writer.flush();
+            return sectionStream.offset;
+        }
+
+        private void endSection() throws IOException {
+            if (section == null) {
+                return;
+            }
+            //Push the buffered characters through the encoder so the checksum covers the whole section
+            writer.flush();
+            sections.add(new Section(section, sectionStream.offset - sectionStream.length, sectionStream.length, rows,
+                    sectionStream.crc.getValue()));
+            sectionStream.crc.reset();
+            sectionStream.length = 0;
+            section = null;
+            rows = 0;
+        }
+
+        /**
+         * Writes the checksums, forces the file to disk, and renames it over the data file
+         *
+         * @throws IOException If the file cannot be written or renamed; the previous data file is left in place
+         */
+        void commit() throws IOException {
+            endSection();
+            Library.writeSectionHeader(CHECKSUM_SECTION, writer);
+            for (Section e : sections) {
+                writer.write(e.format());
+                writer.write('\n');
+            }
+            writer.flush();
+            channel.force(true);
+            writer.close();
+            try {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+            committed = true;
+            //Make the rename itself durable; directories cannot be opened for this on some platforms
+            try (FileChannel directory = FileChannel.open(file.toAbsolutePath().getParent(), StandardOpenOption.READ)) {
+                directory.force(true);
+            } catch (IOException ignored) {
+                //The rename is still atomic, it may just be lost if the power fails right after the save
+            }
+        }
+
+        /**
+         * Gets the sections written to this file, which are listed in its footer once it is committed
+         *
+         * @return The sections written so far
+         */
+        List<Section> getSections() {
+            return Collections.unmodifiableList(new ArrayList<>(sections));
+        }
+
+        /**
+         * Closes the file, deleting it if it was not committed
+         */
+        @Override
+        public void close() throws IOException {
+            if (committed) {
+                return;
+            }
+            try {
+                writer.close();
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        }
+    }
+
+    /**
+     * Counts the bytes written through it and keeps their checksum
+     */
+    private static class SectionStream extends FilterOutputStream {
+        private final CRC32 crc = new CRC32();
+        private long offset;
+        private long length;
+
+        private SectionStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            crc.update(b);
+            offset++;
+            length++;
+        }
+
+        @Override
+        public void write(byte[] bytes, int off, int len) throws IOException {
+            out.write(bytes, off, len);
+            crc.update(bytes, off, len);
+            offset += len;
+            length += len;
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package library.data;
+
+import java.time.Instant;
+import java.util.Arrays;
+
+/**
+ * A single entry of the {@link FineLedger}. Entries are only ever appended; the balance of a patron is the sum of the
+ * amounts of all of their entries. Accruals are positive, while payments and waivers are negative.
+ * <p>
+ * Entries refer to patrons and books by their {@link Identifier}s, so that entries of deleted patrons and books are
+ * kept in the ledger.
+ *
+ * @author Srikavin Ramkumar
+ */
+public class FineEntry implements LibraryData {
+    private final Identifier identifier;
+    private final Identifier patronId;
+    private final Identifier bookId;
+    private final Type type;
+    private final long amountCents;
+    private final Instant timestamp;
+    private final Instant loanStart;
+
+    /**
+     * Creates a ledger entry
+     *
+     * @param identifier  The identifier of this entry
+     * @param patronId    The identifier of the patron whose balance is changed
+     * @param bookId      The identifier of the overdue book, for accruals; null for payments and waivers
+     * @param type        The kind of entry
+     * @param amountCents The change to the balance of the patron, in cents
+     * @param timestamp   The time this entry was recorded
+     * @param loanStart   The checkout date of the loan the fine accrued on, for accruals; null otherwise
+     */
+    public FineEntry(Identifier identifier, Identifier patronId, Identifier bookId, Type type, long amountCents,
+                     Instant timestamp, Instant loanStart) {
+        this.identifier = identifier;
+        this.patronId = patronId;
+        this.bookId = bookId;
+        this.type = type;
+        this.amountCents = amountCents;
+        this.timestamp = timestamp;
+        this.loanStart = loanStart;
+    }
+
+    /**
+     * Creates a ledger entry from the given data
+     *
+     * @param data The data object returned from {@link #asData()}
+     */
+    public FineEntry(String[] data) {
+        if (data.length != 7) {
+            throw new RuntimeException("Invalid data array passed to create a FineEntry object: " + Arrays.toString(data));
+        }
+        identifier = new Identifier(data[0]);
+        patronId = new Identifier(data[1]);
+        bookId = data[2].equals("null") || data[2].isEmpty() ? null : new Identifier(data[2]);
+        type = Type.valueOf(data[3]);
+        amountCents = Long.parseLong(data[4]);
+        timestamp = Instant.parse(data[5]);
+        loanStart = data[6].equals("null") || data[6].isEmpty() ? null : Instant.parse(data[6]);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String[] asData() {
+        return new String[]{identifier.getId(),
+                patronId.getId(),
+                bookId == null ? "null" : bookId.getId(),
+                type.name(),
+                Long.toString(amountCents),
+                timestamp.toString(),
+                loanStart == null ? "null" : loanStart.toString()};
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Identifier getIdentifier() {
+        return identifier;
+    }
+
+    /**
+     * Gets the identifier of the patron whose balance this entry changes
+     *
+     * @return The identifier of the patron
+     */
+    public Identifier getPatronId() {
+        return patronId;
+    }
+
+    /**
+     * Gets the identifier of the overdue book a fine accrued on
+     *
+     * @return The identifier of the book, or null if this is not an accrual
+     */
+    public Identifier getBookId() {
+        return bookId;
+    }
+
+    /**
+     * Gets the kind of this entry
+     *
+     * @return The type of this entry
+     */
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * Gets the change to the balance of the patron
+     *
+     * @return The amount of this entry in cents; negative for payments and waivers
+     */
+    public long getAmountCents() {
+        return amountCents;
+    }
+
+    /**
+     * Gets the time this entry was recorded
+     *
+     * @return The time this entry was recorded
+     */
+    public Instant getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * Gets the checkout date of the loan a fine accrued on. Together with the book, this identifies the loan, so that
+     * the fine of a single loan can be capped at the fine limit.
+     *
+     * @return The checkout date of the loan, or null if this is not an accrual
+     */
+    public Instant getLoanStart() {
+        return loanStart;
+    }
+
+    /**
+     * The kinds of ledger entries
+     */
+    public enum Type {
+        /**
+         * A fine charged by the daily sweep for an overdue book
+         */
+        ACCRUAL,
+        /**
+         * A payment made by the patron
+         */
+        PAYMENT,
+        /**
+         * A fine forgiven by the library
+         */
+        WAIVER
+    }
+}
@@ -0,0 +1,368 @@
+package library.data;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.temporal.ChronoUnit;
+import java.util.*;
+
+/**
+ * Keeps the fines of a {@link Library} as an append-only list of {@link FineEntry}s. Fines are charged by a sweep that
+ * runs at most once a day, which accrues the fine of every overdue loan up to the fine limit. The balance of each
+ * patron and the fine of each open loan are kept up to date as entries are appended, so reading them does not
+ * recompute any fines.
+ * <p>
+ * The entries are saved with the library in the FINES section of the data file.
+ *
+ * @author Srikavin Ramkumar
+ */
+public class FineLedger {
+    private final Library library;
+    private final List<FineEntry> entries = new ArrayList<>();
+    /**
+     * The balance of every patron with a non-zero balance, in cents
+     */
+    private final Map<Identifier, Long> balances = new HashMap<>();
+    /**
+     * The patrons with a balance, used to show balances without searching the patrons of the library
+     */
+    private final Map<Identifier, Patron> patrons = new HashMap<>();
+    /**
+     * The fines accrued on the current loan of each overdue book
+     */
+    private final Map<Identifier, Loan> loans = new HashMap<>();
+    private int nextEntryId = 1;
+    /**
+     * Increases whenever an entry is appended or the entries are replaced
+     */
+    private long changeCount;
+    private LocalDate lastSweep;
+
+    /**
+     * Creates an empty ledger for the given library
+     *
+     * @param library The library whose loans are charged
+     */
+    FineLedger(Library library) {
+        this.library = library;
+    }
+
+    /**
+     * Replaces the entries of this ledger with the saved entries, and rebuilds the balances and open loans from them
+     *
+     * @param rows The saved entries, in the format of {@link FineEntry#asData()}
+     */
+    synchronized void load(List<String[]> rows) {
+        changeCount++;
+        entries.clear();
+        balances.clear();
+        patrons.clear();
+        loans.clear();
+
+        Map<Identifier, Patron> patronsById = new HashMap<>();
+        for (Patron e : library.getPatrons()) {
+            patronsById.put(e.getIdentifier(), e);
+        }
+        Map<Identifier, Book> booksById = new HashMap<>();
+        for (Book e : library.getBooks()) {
+            booksById.put(e.getIdentifier(), e);
+        }
+
+        int maxId = 0;
+        for (String[] row : rows) {
+            FineEntry entry = new FineEntry(row);
+            try {
+                maxId = Math.max(maxId, Integer.parseInt(entry.getIdentifier().getId()));
+            } catch (NumberFormatException ignored) {
+                //Identifiers are not required to be numeric
+            }
+            entries.add(entry);
+            apply(entry, patronsById.get(entry.getPatronId()),
+                    entry.getBookId() == null ? null : booksById.get(entry.getBookId()));
+            if (entry.getType() == FineEntry.Type.ACCRUAL) {
+                LocalDate day = toLocalDate(entry.getTimestamp());
+                if (lastSweep == null || day.isAfter(lastSweep)) {
+                    lastSweep = day;
+                }
+            }
+        }
+        nextEntryId = maxId + 1;
+
+        //Loans that have been returned since their last accrual no longer accrue fines
+        loans.values().removeIf(loan -> !loan.isOpen());
+    }
+
+    /**
+     * Charges fines for overdue loans, if no sweep has run yet on the current day
+     *
+     * @param now   The current time
+     * @param rate  The fine per day overdue, in dollars
+     * @param limit The maximum fine of a single loan, in dollars
+     *
+     * @return The number of entries appended
+     */
+    public synchronized int accrueIfDue(Instant now, double rate, double limit) {
+        LocalDate today = toLocalDate(now);
+        if (lastSweep != null && !lastSweep.isBefore(today)) {
+            return 0;
+        }
+        return accrue(now, rate, limit);
+    }
+
+    /**
+     * Charges fines for overdue loans. The fine of each loan is raised to the fine it would have at the given time,
+     * {@code min(daysLate * rate, limit)}, by appending an accrual for the difference. Running the sweep again at the
+     * same time appends nothing, and fines that have already been charged are never lowered.
+     *
+     * @param now   The current time
+     * @param rate  The fine per day overdue, in dollars
+     * @param limit The maximum fine of a single loan, in dollars
+     *
+     * @return The number of entries appended
+     */
+    public synchronized int accrue(Instant now, double rate, double limit) {
+        long limitCents = Math.round(limit * 100);
+        int appended = 0;
+        //Copy the books so that a sweep on a background thread is not interrupted by edits on the application thread
+        for (Book book : new ArrayList<>(library.getBooks())) {
+            if (charge(book, now, rate, limitCents)) {
+                appended++;
+            }
+        }
+        loans.values().removeIf(loan -> !loan.isOpen());
+        lastSweep = toLocalDate(now);
+        if (appended > 0) {
+            library.modify();
+        }
+        return appended;
+    }
+
+    /**
+     * Charges the fine of a loan that has just ended up to the given time, in the same way as
+     * {@link #accrue(Instant, double, double)}. Used when a book is returned, so that the days it was overdue since the
+     * last sweep are charged; the book no longer holds the patron and checkout date of the loan, so they are given.
+     *
+     * @param book         The returned book
+     * @param patron       The patron the book was checked out to
+     * @param checkOutDate The date the book was checked out
+     * @param now          The time the book was returned
+     * @param rate         The fine per day overdue, in dollars
+     * @param limit        The maximum fine of a single loan, in dollars
+     *
+     * @return True if an entry was appended
+     */
+    synchronized boolean accrueReturn(Book book, Patron patron, Instant checkOutDate, Instant now, double rate, double limit) {
+        if (patron == null || checkOutDate == null || !charge(book, patron, checkOutDate, now, rate, Math.round(limit * 100))) {
+            return false;
+        }
+        library.modify();
+        return true;
+    }
+
+    private boolean charge(Book book, Instant now, double rate, long limitCents) {
+        Patron patron = book.getCurrentPatron();
+        Instant checkOutDate = book.getCheckOutDate();
+        if (book.getStatus() != BookStatus.CHECKED_OUT || patron == null || checkOutDate == null) {
+            return false;
+        }
+        return charge(book, patron, checkOutDate, now, rate, limitCents);
+    }
+
+    private boolean charge(Book book, Patron patron, Instant checkOutDate, Instant now, double rate, long limitCents) {
+        long daysLate = ChronoUnit.DAYS.between(library.getReportGenerator().getDueDate(patron, checkOutDate), now);
+        if (daysLate <= 0) {
+            return false;
+        }
+        long fineCents = Math.min(Math.round(daysLate * rate * 100), limitCents);
+
+        Loan loan = loans.get(book.getIdentifier());
+        long accrued = loan != null && loan.isLoan(book, patron, checkOutDate) ? loan.accruedCents : 0;
+        if (fineCents <= accrued) {
+            return false;
+        }
+        append(new FineEntry(new Identifier(nextEntryId++), patron.getIdentifier(), book.getIdentifier(),
+                FineEntry.Type.ACCRUAL, fineCents - accrued, now, checkOutDate), patron, book);
+        return true;
+    }
+
+    /**
+     * Records a payment made by a patron, lowering their balance
+     *
+     * @param patron      The patron making the payment
+     * @param amountCents The amount paid, in cents
+     *
+     * @return The appended entry
+     *
+     * @throws IllegalArgumentException If the amount is not positive
+     */
+    public FineEntry recordPayment(Patron patron, long amountCents) {
+        return recordCredit(patron, amountCents, FineEntry.Type.PAYMENT);
+    }
+
+    /**
+     * Records fines forgiven by the library, lowering the balance of a patron
+     *
+     * @param patron      The patron whose fines are forgiven
+     * @param amountCents The amount forgiven, in cents
+     *
+     * @return The appended entry
+     *
+     * @throws IllegalArgumentException If the amount is not positive
+     */
+    public FineEntry recordWaiver(Patron patron, long amountCents) {
+        return recordCredit(patron, amountCents, FineEntry.Type.WAIVER);
+    }
+
+    private FineEntry recordCredit(Patron patron, long amountCents, FineEntry.Type type) {
+        if (amountCents <= 0) {
+            throw new IllegalArgumentException("The amount must be positive: " + amountCents);
+        }
+        FineEntry entry;
+        synchronized (this) {
+            entry = new FineEntry(new Identifier(nextEntryId++), patron.getIdentifier(), null, type, -amountCents,
+                    Instant.now(), null);
+            append(entry, patron, null);
+        }
+        library.modify();
+        return entry;
+    }
+
+    /**
+     * Gets the balance of a patron
+     *
+     * @param patron The patron to look up
+     *
+     * @return The amount the patron owes, in cents; negative if the patron has paid in advance
+     */
+    public synchronized long getBalance(Patron patron) {
+        return balances.getOrDefault(patron.getIdentifier(), 0L);
+    }
+
+    /**
+     * Gets the balance of every patron with a non-zero balance. Patrons that have been deleted since their entries
+     * were recorded are not included.
+     *
+     * @return A new map of each patron with a balance to their balance in cents
+     */
+    public synchronized Map<Patron, Long> getBalances() {
+        Map<Patron, Long> result = new HashMap<>();
+        for (Map.Entry<Identifier, Long> e : balances.entrySet()) {
+            Patron patron = patrons.get(e.getKey());
+            if (patron != null) {
+                result.put(patron, e.getValue());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Gets the books whose current loan has been charged a fine and is still open
+     *
+     * @return A new list of the fined books, sorted by identifier
+     */
+    public synchronized List<Book> getFinedBooks() {
+        List<Book> books = new ArrayList<>();
+        for (Loan loan : loans.values()) {
+            if (loan.isOpen()) {
+                books.add(loan.book);
+            }
+        }
+        books.sort(Comparator.comparing(Book::getIdentifier));
+        return books;
+    }
+
+    /**
+     * Gets the fine charged so far on the current loan of a book
+     *
+     * @param book The book to look up
+     *
+     * @return The fine of the current loan in cents, or 0 if none has been charged
+     */
+    public synchronized long getLoanFine(Book book) {
+        Loan loan = loans.get(book.getIdentifier());
+        if (loan == null || !loan.isLoan(book, book.getCurrentPatron(), book.getCheckOutDate())) {
+            return 0;
+        }
+        return loan.accruedCents;
+    }
+
+    /**
+     * Gets a count that increases whenever an entry is appended or the entries are replaced, so that a copy of the
+     * ledger can tell if it is out of date without comparing the entries
+     *
+     * @return The number of changes made to this ledger
+     */
+    synchronized long getChangeCount() {
+        return changeCount;
+    }
+
+    /**
+     * Gets all entries of this ledger, in the order they were recorded
+     *
+     * @return A copy of the entries of this ledger
+     */
+    public synchronized List<FineEntry> getEntries() {
+        return new ArrayList<>(entries);
+    }
+
+    private void append(FineEntry entry, Patron patron, Book book) {
+        changeCount++;
+        entries.add(entry);
+        apply(entry, patron, book);
+    }
+
+    private void apply(FineEntry entry, Patron patron, Book book) {
+        Identifier patronId = entry.getPatronId();
+        long balance = balances.getOrDefault(patronId, 0L) + entry.getAmountCents();
+        if (balance == 0) {
+            balances.remove(patronId);
+            patrons.remove(patronId);
+        } else {
+            balances.put(patronId, balance);
+            if (patron != null) {
+                patrons.put(patronId, patron);
+            }
+        }
+
+        if (entry.getType() == FineEntry.Type.ACCRUAL && book != null && entry.getLoanStart() != null) {
+            Loan loan = loans.get(book.getIdentifier());
+            if (loan == null || !loan.loanStart.equals(entry.getLoanStart()) || !loan.patronId.equals(patronId)) {
+                loan = new Loan(book, patronId, entry.getLoanStart());
+                loans.put(book.getIdentifier(), loan);
+            }
+            loan.accruedCents += entry.getAmountCents();
+        }
+    }
+
+    private static LocalDate toLocalDate(Instant instant) {
+        return instant.atZone(ZoneId.systemDefault()).toLocalDate();
+    }
+
+    /**
+     * The fines accrued on a single loan of a book
+     */
+    private static final class Loan {
+        private final Book book;
+        private final Identifier patronId;
+        private final Instant loanStart;
+        private long accruedCents;
+
+        private Loan(Book book, Identifier patronId, Instant loanStart) {
+            this.book = book;
+            this.patronId = patronId;
+            this.loanStart = loanStart;
+        }
+
+        private boolean isLoan(Book book, Patron patron, Instant checkOutDate) {
+            return this.book == book && patron != null && patronId.equals(patron.getIdentifier())
+                    && loanStart.equals(checkOutDate);
+        }
+
+        /**
+         * Checks if the book is still checked out on this loan
+         */
+        private boolean isOpen() {
+            return book.getStatus() == BookStatus.CHECKED_OUT && isLoan(book, book.getCurrentPatron(), book.getCheckOutDate());
+        }
+    }
+}
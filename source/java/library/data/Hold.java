@@ -0,0 +1,158 @@
+package library.data;
+
+import java.time.Instant;
+import java.util.Arrays;
+
+/**
+ * A patron's reservation of a title. Holds are placed on a title rather than a single copy; the title is identified by
+ * its ISBN, so the hold can be filled by any copy of the book. A hold waits in the {@link HoldQueue} of its title until
+ * a copy is returned, at which point the copy is put aside for the patron and the hold becomes ready for pickup.
+ * <p>
+ * This object is identified by an {@link Identifier}.
+ *
+ * @author Srikavin Ramkumar
+ */
+public class Hold implements LibraryData {
+    private final Identifier identifier;
+    private final Patron patron;
+    private final Book requestedBook;
+    private String isbn;
+    private final Instant placed;
+    private Book readyBook;
+    private Instant readyDate;
+
+    /**
+     * Creates a hold that is waiting for a copy of the requested book
+     *
+     * @param identifier    The identifier of this hold
+     * @param patron        The patron placing the hold
+     * @param requestedBook The copy the patron asked for; any copy with the same ISBN can fill the hold
+     * @param placed        The time the hold was placed
+     */
+    public Hold(Identifier identifier, Patron patron, Book requestedBook, Instant placed) {
+        this.identifier = identifier;
+        this.patron = patron;
+        this.requestedBook = requestedBook;
+        this.isbn = requestedBook.getIsbn();
+        this.placed = placed;
+    }
+
+    /**
+     * Creates a hold from the given data
+     *
+     * @param data    The data object returned from {@link #asData()}
+     * @param library The library to resolve references to {@link Patron}s and {@link Book}s
+     */
+    public Hold(String[] data, Library library) {
+        if (data.length != 7) {
+            throw new RuntimeException("Invalid data array passed to create a Hold object: " + Arrays.toString(data));
+        }
+        identifier = new Identifier(data[0]);
+        patron = library.getPatronFromID(new Identifier(data[1]));
+        requestedBook = library.getBookFromID(new Identifier(data[2]));
+        isbn = data[3];
+        placed = Instant.parse(data[4]);
+        readyBook = data[5].equals("null") || data[5].isEmpty() ? null : library.getBookFromID(new Identifier(data[5]));
+        readyDate = data[6].equals("null") || data[6].isEmpty() ? null : Instant.parse(data[6]);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String[] asData() {
+        return new String[]{identifier.getId(),
+                patron.getIdentifier().getId(),
+                requestedBook == null ? "null" : requestedBook.getIdentifier().getId(),
+                isbn,
+                placed.toString(),
+                readyBook == null ? "null" : readyBook.getIdentifier().getId(),
+                readyDate == null ? "null" : readyDate.toString()};
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Identifier getIdentifier() {
+        return identifier;
+    }
+
+    /**
+     * Gets the patron that placed this hold
+     *
+     * @return The patron waiting for the title; null if the patron has been deleted
+     */
+    public Patron getPatron() {
+        return patron;
+    }
+
+    /**
+     * Gets the copy the patron asked for when placing this hold
+     *
+     * @return The requested copy; null if it has been deleted
+     */
+    public Book getRequestedBook() {
+        return requestedBook;
+    }
+
+    /**
+     * Gets the ISBN of the title this hold is placed on
+     *
+     * @return The ISBN that identifies the title
+     */
+    public String getIsbn() {
+        return isbn;
+    }
+
+    /**
+     * Gets the time this hold was placed. Holds on the same title are filled in the order they were placed.
+     *
+     * @return The time this hold was placed
+     */
+    public Instant getPlaced() {
+        return placed;
+    }
+
+    /**
+     * Checks if a copy has been put aside for this hold
+     *
+     * @return True if a copy is waiting to be picked up; false if the hold is still waiting for a copy
+     */
+    public boolean isReady() {
+        return readyBook != null;
+    }
+
+    /**
+     * Gets the copy put aside for this hold
+     *
+     * @return The copy waiting to be picked up, or null if the hold is still waiting
+     */
+    public Book getReadyBook() {
+        return readyBook;
+    }
+
+    /**
+     * Gets the time a copy was put aside for this hold
+     *
+     * @return The time the hold became ready, or null if the hold is still waiting
+     */
+    public Instant getReadyDate() {
+        return readyDate;
+    }
+
+    /**
+     * Moves this hold to another title, such as when the ISBN of its copies was corrected
+     */
+    void setIsbn(String isbn) {
+        this.isbn = isbn;
+    }
+
+    /**
+     * Puts a copy aside for this hold, or returns the hold to waiting if the copy is null
+     */
+    void setReady(Book readyBook, Instant readyDate) {
+        this.readyBook = readyBook;
+        this.readyDate = readyDate;
+    }
+}
@@ -0,0 +1,329 @@
+package library.data;
+
+import java.time.Instant;
+import java.util.*;
+
+/**
+ * Keeps the {@link Hold}s placed on the titles of a {@link Library}. Each title, identified by its ISBN, has its own
+ * priority queue of waiting holds ordered by the time they were placed, so the next patron in line for a returned copy
+ * is found without searching the other holds, and removed from the queue in O(log n). Holds that have a copy put aside
+ * for them are kept separately, by the copy, until the copy is picked up.
+ * <p>
+ * Holds are placed, filled, and cancelled through the {@link Library}, which changes the status of the copies along
+ * with the queues. The library also cancels the holds of patrons as they are deleted, and moves the queue of a title
+ * to its new ISBN once every copy of it was corrected. The holds are saved with the library in the HOLDS section of the
+ * data file.
+ *
+ * @author Srikavin Ramkumar
+ */
+public class HoldQueue {
+    private static final Comparator<Hold> QUEUE_ORDER = Comparator.comparing(Hold::getPlaced)
+            .thenComparing(Hold::getIdentifier);
+    private final Library library;
+    /**
+     * The waiting holds of each title, by ISBN
+     */
+    private final Map<String, PriorityQueue<Hold>> waiting = new HashMap<>();
+    /**
+     * The holds with a copy put aside for them, by the identifier of the copy
+     */
+    private final Map<Identifier, Hold> ready = new HashMap<>();
+    /**
+     * The waiting and ready holds on each title by patron, by ISBN, so that the hold of a patron on a title is found
+     * without looking at their other holds
+     */
+    private final Map<String, Map<Patron, Hold>> holdsByTitle = new HashMap<>();
+    private int nextHoldId = 1;
+    /**
+     * Increases whenever a hold is added, changed, or removed
+     */
+    private long changeCount;
+
+    /**
+     * Creates an empty queue for the given library
+     *
+     * @param library The library whose titles are held
+     */
+    HoldQueue(Library library) {
+        this.library = library;
+    }
+
+    /**
+     * Replaces the holds of this queue with the saved holds. Holds of deleted patrons are dropped, and holds whose
+     * copy is no longer on the hold shelf for the patron go back to waiting.
+     *
+     * @param rows The saved holds, in the format of {@link Hold#asData()}
+     */
+    synchronized void load(List<String[]> rows) {
+        changeCount++;
+        waiting.clear();
+        ready.clear();
+        holdsByTitle.clear();
+
+        int maxId = 0;
+        for (String[] row : rows) {
+            Hold hold = new Hold(row, library);
+            try {
+                maxId = Math.max(maxId, Integer.parseInt(hold.getIdentifier().getId()));
+            } catch (NumberFormatException ignored) {
+                //Identifiers are not required to be numeric
+            }
+            if (hold.getPatron() == null) {
+                continue;
+            }
+            Book copy = hold.getReadyBook();
+            if (copy != null && copy.getStatus() == BookStatus.ON_HOLD && copy.getCurrentPatron() == hold.getPatron()) {
+                ready.put(copy.getIdentifier(), hold);
+            } else {
+                hold.setReady(null, null);
+                enqueue(hold);
+            }
+            index(hold);
+        }
+        nextHoldId = maxId + 1;
+    }
+
+    /**
+     * Creates a hold and adds it to the end of the queue of its title
+     *
+     * @throws IllegalArgumentException If the patron already has a hold on the title
+     */
+    synchronized Hold add(Patron patron, Book title, Instant placed) {
+        if (getHold(patron, title.getIsbn()) != null) {
+            throw new IllegalArgumentException(patron.getFirstName() + " " + patron.getLastName() +
+                    " already has a hold on " + title.getTitle());
+        }
+        Hold hold = new Hold(new Identifier(nextHoldId++), patron, title, placed);
+        changeCount++;
+        enqueue(hold);
+        index(hold);
+        return hold;
+    }
+
+    /**
+     * Gets the next hold in line for a copy of the given title, without removing it from the queue
+     *
+     * @return The oldest waiting hold on the title, or null if nobody is waiting
+     */
+    synchronized Hold peek(String isbn) {
+        PriorityQueue<Hold> queue = waiting.get(isbn);
+        return queue == null ? null : queue.peek();
+    }
+
+    /**
+     * Removes the next hold in line for its title from the queue, and puts the given copy aside for it. The hold must
+     * be the one returned by {@link #peek(String)}.
+     */
+    synchronized void markReady(Hold hold, Book copy, Instant now) {
+        PriorityQueue<Hold> queue = waiting.get(hold.getIsbn());
+        if (queue == null || queue.peek() != hold) {
+            throw new IllegalStateException("Hold " + hold.getIdentifier() + " is not next in line");
+        }
+        queue.poll();
+        if (queue.isEmpty()) {
+            waiting.remove(hold.getIsbn());
+        }
+        changeCount++;
+        hold.setReady(copy, now);
+        ready.put(copy.getIdentifier(), hold);
+    }
+
+    /**
+     * Removes the hold that the given copy was put aside for, if any
+     *
+     * @return The hold the copy was put aside for, or null if the copy was not on the hold shelf
+     */
+    synchronized Hold takeReady(Book copy) {
+        Hold hold = ready.remove(copy.getIdentifier());
+        if (hold != null) {
+            changeCount++;
+            unindex(hold);
+        }
+        return hold;
+    }
+
+    /**
+     * Returns a hold whose copy was given to another patron to its place in the queue of its title
+     */
+    synchronized void requeue(Hold hold) {
+        changeCount++;
+        hold.setReady(null, null);
+        enqueue(hold);
+        index(hold);
+    }
+
+    /**
+     * Gets the hold of the given patron on the given title
+     *
+     * @return The waiting or ready hold of the patron, or null if the patron has no hold on the title
+     */
+    synchronized Hold getHold(Patron patron, String isbn) {
+        Map<Patron, Hold> holds = holdsByTitle.get(isbn);
+        return holds == null ? null : holds.get(patron);
+    }
+
+    /**
+     * Removes a hold, whether it is waiting or ready
+     *
+     * @return True if the hold was removed; false if it had already been filled or cancelled
+     */
+    synchronized boolean remove(Hold hold) {
+        if (hold.isReady()) {
+            if (!ready.remove(hold.getReadyBook().getIdentifier(), hold)) {
+                return false;
+            }
+            changeCount++;
+            unindex(hold);
+            return true;
+        }
+        PriorityQueue<Hold> queue = waiting.get(hold.getIsbn());
+        if (queue == null || !queue.remove(hold)) {
+            return false;
+        }
+        if (queue.isEmpty()) {
+            waiting.remove(hold.getIsbn());
+        }
+        changeCount++;
+        unindex(hold);
+        return true;
+    }
+
+    /**
+     * Moves the holds on titles that no copy belongs to anymore to the title of the copy they were placed with, such as
+     * after the ISBN of every copy of a title was corrected. Holds whose copy was deleted are left where they are.
+     *
+     * @param shelved The ISBNs of the copies in the library
+     *
+     * @return The holds that were not moved because their patron already holds the title of their copy
+     */
+    synchronized List<Hold> retitle(Set<String> shelved) {
+        List<Hold> duplicates = new ArrayList<>();
+        for (String isbn : new ArrayList<>(holdsByTitle.keySet())) {
+            if (shelved.contains(isbn)) {
+                continue;
+            }
+            for (Hold hold : new ArrayList<>(holdsByTitle.get(isbn).values())) {
+                Book requested = hold.getRequestedBook();
+                String moved = requested == null ? null : requested.getIsbn();
+                if (moved == null || moved.equals(isbn) || !shelved.contains(moved)) {
+                    continue;
+                }
+                if (getHold(hold.getPatron(), moved) != null) {
+                    duplicates.add(hold);
+                    continue;
+                }
+                changeCount++;
+                unindex(hold);
+                if (hold.isReady()) {
+                    hold.setIsbn(moved);
+                } else {
+                    PriorityQueue<Hold> queue = waiting.get(isbn);
+                    queue.remove(hold);
+                    if (queue.isEmpty()) {
+                        waiting.remove(isbn);
+                    }
+                    hold.setIsbn(moved);
+                    enqueue(hold);
+                }
+                index(hold);
+            }
+        }
+        return duplicates;
+    }
+
+    private void enqueue(Hold hold) {
+        waiting.computeIfAbsent(hold.getIsbn(), (isbn) -> new PriorityQueue<>(QUEUE_ORDER)).add(hold);
+    }
+
+    private void index(Hold hold) {
+        holdsByTitle.computeIfAbsent(hold.getIsbn(), (isbn) -> new IdentityHashMap<>()).put(hold.getPatron(), hold);
+    }
+
+    private void unindex(Hold hold) {
+        Map<Patron, Hold> holds = holdsByTitle.get(hold.getIsbn());
+        if (holds != null && holds.remove(hold.getPatron(), hold) && holds.isEmpty()) {
+            holdsByTitle.remove(hold.getIsbn());
+        }
+    }
+
+    /**
+     * Gets the holds waiting for a copy of the given title
+     *
+     * @param title Any copy of the title
+     *
+     * @return A new list of the waiting holds, in the order they will be filled
+     */
+    public synchronized List<Hold> getWaiting(Book title) {
+        PriorityQueue<Hold> queue = waiting.get(title.getIsbn());
+        if (queue == null) {
+            return new ArrayList<>();
+        }
+        List<Hold> holds = new ArrayList<>(queue);
+        holds.sort(QUEUE_ORDER);
+        return holds;
+    }
+
+    /**
+     * Gets the number of holds waiting for a copy of the given title
+     *
+     * @param title Any copy of the title
+     *
+     * @return The number of patrons waiting for the title
+     */
+    public synchronized int getQueueLength(Book title) {
+        PriorityQueue<Hold> queue = waiting.get(title.getIsbn());
+        return queue == null ? 0 : queue.size();
+    }
+
+    /**
+     * Gets the hold that the given copy has been put aside for
+     *
+     * @param copy The copy to look up
+     *
+     * @return The hold waiting to pick up the copy, or null if the copy is not on the hold shelf
+     */
+    public synchronized Hold getReadyHold(Book copy) {
+        return ready.get(copy.getIdentifier());
+    }
+
+    /**
+     * Gets the holds of a patron
+     *
+     * @param patron The patron to look up
+     *
+     * @return A new list of the waiting and ready holds of the patron, sorted by identifier
+     */
+    public synchronized List<Hold> getHolds(Patron patron) {
+        List<Hold> holds = new ArrayList<>();
+        for (Hold e : getHolds()) {
+            if (e.getPatron() == patron) {
+                holds.add(e);
+            }
+        }
+        return holds;
+    }
+
+    /**
+     * Gets a count that increases whenever a hold is added, changed, or removed, so that a copy of the holds can tell
+     * if it is out of date without comparing them
+     *
+     * @return The number of changes made to this queue
+     */
+    synchronized long getChangeCount() {
+        return changeCount;
+    }
+
+    /**
+     * Gets every hold of this queue
+     *
+     * @return A new list of the waiting and ready holds, sorted by identifier
+     */
+    public synchronized List<Hold> getHolds() {
+        List<Hold> holds = new ArrayList<>(ready.values());
+        for (PriorityQueue<Hold> queue : waiting.values()) {
+            holds.addAll(queue);
+        }
+        holds.sort(Comparator.comparing(Hold::getIdentifier));
+        return holds;
+    }
+}
@@ -46,6 +46,14 @@ public class Identifier implements Comparable<Identifier> {
         return this == o || (o instanceof Identifier && Objects.equals(id, ((Identifier) o).id));
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(id);
+    }
+
     /**
      * {@inheritDoc}
      */
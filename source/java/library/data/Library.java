@@ -1,19 +1,28 @@
 package library.data;
 
-import java.io.BufferedWriter;
+import library.metrics.Counter;
+import library.metrics.FlightRecorderEvents;
+import library.metrics.MetricsRegistry;
+import library.metrics.Timer;
+
 import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
 import java.io.Writer;
-import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.ArrayList;
-import java.util.Comparator;
-import java.util.List;
-import java.util.concurrent.atomic.AtomicReference;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
 
 /**
  * Base class that contains all of the {@link LibraryData} objects including {@link Patron}s, {@link PatronType}s, and
- * {@link Book}s. This class also manages saving and loading library data from a data file. {@link ReportGenerator}s can
- * be created using an instance of this class.
+ * {@link Book}s. This class also manages saving and loading library data through a {@link LibraryStore}, which is a
+ * data file unless the data directory has a database. {@link ReportGenerator}s can be created using an instance of this
+ * class.
  *
  * @author Srikavin Ramkumar
  */
@@ -22,15 +31,63 @@ public class Library {
      * Used to separate different data types (patrons, books, etc.) in the data file.
      */
     private final static String dataTypeSeparator = "--------";
+    private final static MetricsRegistry metrics = MetricsRegistry.getDefault();
+    private final static Timer loadTimer = metrics.timer("library.load");
+    private final static Timer saveTimer = metrics.timer("library.save");
+    private final static Timer transactionsTimer = metrics.timer("library.getTransactions");
+    private final static Counter bookLookupMisses = metrics.counter("library.lookup.book.miss");
+    private final static Counter patronLookupMisses = metrics.counter("library.lookup.patron.miss");
+    private final static Timer checkoutTimer = metrics.timer("library.checkout");
+    private final static Timer returnTimer = metrics.timer("library.return");
+    private final static Counter holdsRouted = metrics.counter("library.holds.routed");
+    private final static Counter circulationConflicts = metrics.counter("library.circulation.conflict");
+    /**
+     * The sections of a library, in the order they are loaded and saved
+     */
+    static final String[] SECTIONS = {"TYPES", "PATRONS", "TITLES", "BOOKS", "TRANSACTIONS", "HOLDS", "FINES"};
     private List<Patron> patrons = new ArrayList<>();
     private List<PatronType> patronTypes = new ArrayList<>();
-    private List<Book> books = new ArrayList<>();
+    private final Catalog catalog = new Catalog();
+    private final LibraryEventBus events = new LibraryEventBus();
+    /**
+     * Books are counted by their title records while they are in this list, however the list is changed
+     */
+    private final List<Book> books;
     private List<Transaction> transactions = new ArrayList<>();
+    /**
+     * The store this library was loaded from and is saved to, or null for an in-memory library
+     */
+    private LibraryStore store;
+    /**
+     * Ledger entries are applied once the books and patrons they refer to are loaded
+     */
+    private final List<String[]> holdRows = new ArrayList<>();
+    private final List<String[]> fineRows = new ArrayList<>();
+    private final FineLedger fineLedger = new FineLedger(this);
+    private final HoldQueue holdQueue = new HoldQueue(this);
     private ReportGenerator reportGenerator;
+    /**
+     * The next identifier to use for transactions created by {@link #checkout(Book, Patron, long)} and
+     * {@link #returnBook(Book, long)}.
+     */
+    private final AtomicInteger nextTransactionId = new AtomicInteger();
     /**
      * Used to identify when changes are made to this library that are not saved.
      */
-    private boolean modified = false;
+    private volatile boolean modified = false;
+    /**
+     * The backup that was loaded because the data file was damaged, or null
+     */
+    private String recoveredFrom;
+    private Exception recoveryCause;
+    /**
+     * Increases on every modification, so that results computed from this library can tell if they are out of date.
+     */
+    private final AtomicLong modificationVersion = new AtomicLong();
+    /**
+     * Set on the library of a replica, which is only changed by the entries it receives from its primary
+     */
+    private volatile boolean readOnly;
 
     /**
      * Creates a library object from the saved data in the provided file path. The file will be parsed and loaded into
@@ -41,80 +98,908 @@ public class Library {
      * @throws IOException If an error occurs while reading the file, an IOException will be thrown
      */
     public Library(Path dataFilePath) throws IOException {
-        if (dataFilePath == null) {
+        this(dataFilePath, null);
+    }
+
+    /**
+     * Creates a library object from the saved data in the provided file path, loading only the recent transactions into
+     * memory. Older transactions are left in the data file or database, and are read from it a page at a time when
+     * they are needed through {@link #getTransactions(Instant, Instant)} and {@link #getTransactionHistory()}. Data
+     * files written by older versions, and backups loaded because the data file is damaged, are loaded completely.
+     *
+     * @param dataFilePath  The file to load library data from; can be null to create an in-memory instance
+     * @param recentHistory How far back transactions are loaded into memory; null to load all transactions
+     *
+     * @throws IOException If an error occurs while reading the file, an IOException will be thrown
+     */
+    public Library(Path dataFilePath, Duration recentHistory) throws IOException {
+        this(dataFilePath == null ? null : LibraryStore.open(dataFilePath, recentHistory));
+    }
+
+    /**
+     * Creates a library object from the data in a store. The store is used to save the library, and is closed by
+     * {@link #close()}. The store can be null to create an in-memory library instance that will not be saved to disk.
+     *
+     * @param store The store to load library data from; can be null to create an in-memory instance
+     *
+     * @throws IOException If the store cannot be read; the store is closed
+     */
+    public Library(LibraryStore store) throws IOException {
+        //Built here rather than in the field, as the javac of JDK 8 rejects a lambda field initializer in a class
+        //whose constructor returns early
+        books = new TrackedList<>(added -> added.catalogue(catalog, events), Book::uncatalogue);
+        //Holds refer to patrons and titles, so they follow deleted patrons and corrected ISBNs as they are changed
+        events.subscribe(EnumSet.of(LibraryEvent.Type.UPDATED, LibraryEvent.Type.REMOVED), Runnable::run,
+                this::updateHolds);
+        if (store == null) {
             PatronType patronType = new PatronType(new Identifier(1), "default", 25, 3);
             patronTypes.add(patronType);
+            nextTransactionId.set(1);
             return;
         }
-        //Load the data file
-        Path dataFile = dataFilePath.resolve("data.txt");
-
-        //Check if the file exists
-        boolean fileExists = Files.isRegularFile(dataFile);
-        if (fileExists) {
-            AtomicReference<String> current = new AtomicReference<>("");
-            Files.lines(dataFile).forEach((line) -> {
-                if (line.startsWith(dataTypeSeparator)) {
-                    current.set(line.substring(dataTypeSeparator.length()));
-                    return;
-                }
+        this.store = store;
+        try {
+            loadTimer.time(() -> store.load(this));
+        } catch (IOException | RuntimeException e) {
+            store.close();
+            throw e;
+        }
+
+        //Continue numbering transactions after the largest saved identifier
+        int maxTransactionId = 0;
+        for (Transaction e : transactions) {
+            if (e.getAction() == Transaction.Action.CHECKOUT && e.getChangedBook() != null) {
+                e.getChangedBook().getTitleRecord().recordCheckout();
+            }
+            try {
+                maxTransactionId = Math.max(maxTransactionId, Integer.parseInt(e.getIdentifier().getId()));
+            } catch (NumberFormatException ignored) {
+                //Identifiers are not required to be numeric
+            }
+        }
+        skipTransactionIds(maxTransactionId);
+
+        //Create a report generator using this as its data source
+        reportGenerator = new ReportGenerator(this);
+    }
+
+    /**
+     * Adds a record read by a {@link LibraryStore} to this library
+     *
+     * @param section The section the record belongs to, such as BOOKS
+     * @param data    The values of the record, in the format of {@link LibraryData#asData()}
+     */
+    void loadRecord(String section, String[] data) {
+        switch (section) {
+            case "TYPES":
+                PatronType patronType = new PatronType(data);
+                patronTypes.add(patronType);
+                break;
+            case "PATRONS":
+                Patron patron = new Patron(data, this);
+                patrons.add(patron);
+                break;
+            case "TITLES":
+                catalog.add(new Title(data));
+                break;
+            case "BOOKS":
+                Book book = new Book(data, this);
+                books.add(book);
+                break;
+            case "TRANSACTIONS":
+                Transaction transaction = new Transaction(data, this);
+                transactions.add(transaction);
+                break;
+            case "HOLDS":
+                holdRows.add(data);
+                break;
+            case "FINES":
+                fineRows.add(data);
+                break;
+        }
+    }
+
+    /**
+     * Finishes loading the records added by {@link #loadRecord(String, String[])}, applying the holds and fines now
+     * that the books and patrons they refer to are loaded
+     */
+    void endLoad() {
+        holdQueue.load(holdRows);
+        fineLedger.load(fineRows);
+        holdRows.clear();
+        fineRows.clear();
+    }
+
+    /**
+     * Applies records that another program changed in the data directory to this library. Records are matched to the
+     * loaded ones by their identifiers and changed in place, so the rest of the library keeps referring to the same
+     * objects. Records that are no longer saved are removed, unless this library has unsaved changes, as they may have
+     * been added here. Holds and fines are replaced as a whole.
+     * <p>
+     * The library is not marked as modified, but its {@linkplain #getModificationVersion() modification version}
+     * advances so that results computed from it are recomputed.
+     *
+     * @param records      The rows of each changed section, such as BOOKS
+     * @param transactions The rows of the transactions added to the end of the saved transactions
+     */
+    void applyChanges(Map<String, List<String[]>> records, List<String[]> transactions) {
+        applyChanges(records, null, transactions);
+    }
 
-                //Split only on commas not inside of quotes
-                //Matches -> |  author, name, string
-                //No Match-> |  "Book title, also part of book title"
-                //-1 makes sure all elements are returned
-                String[] data = line.split(",(?=(?:[^\"]*\"[^\"]*\")*[^\"]*$)", -1);
-
-                //Remove unnecessary quotes from saved fields and empty fields
-                for (int i = 0; i < data.length; i++) {
-                    String s = data[i];
-                    if (s == null || s.isEmpty()) {
-                        data[i] = "";
-                        continue;
+    /**
+     * Applies the records a replica received from its primary to this library. Only the records that were added,
+     * changed, or removed are given, and they are matched to the loaded ones by their identifiers and changed in place.
+     * Holds and fines are replaced as a whole, so all of their rows are given when they change. The transactions are
+     * the ones recorded since the previous changes, and are not checked against the loaded ones.
+     *
+     * @param records      The rows of the added and changed records of each changed section, such as BOOKS
+     * @param removed      The identifiers of the removed records of each changed section
+     * @param transactions The rows of the transactions recorded since the previous changes
+     */
+    void applyDelta(Map<String, List<String[]>> records, Map<String, List<String>> removed, List<String[]> transactions) {
+        applyChanges(records, removed, transactions);
+    }
+
+    private void applyChanges(Map<String, List<String[]>> records, Map<String, List<String>> removed, List<String[]> transactions) {
+        events.batch(() -> applySections(records, removed, transactions));
+        modificationVersion.incrementAndGet();
+    }
+
+    private void applySections(Map<String, List<String[]>> records, Map<String, List<String>> removed, List<String[]> transactions) {
+        boolean keepUnsaved = modified;
+        for (String section : SECTIONS) {
+            List<String[]> rows = records.get(section);
+            if (section.equals("TRANSACTIONS")) {
+                applyTransactions(transactions, removed == null);
+                continue;
+            }
+            List<String> removedIds = removed == null ? null : removed.getOrDefault(section, Collections.emptyList());
+            if (rows == null && (removedIds == null || removedIds.isEmpty())) {
+                continue;
+            }
+            if (rows == null) {
+                rows = Collections.emptyList();
+            }
+            switch (section) {
+                case "TYPES":
+                    applyRecords(patronTypes, rows, removedIds, PatronType::new, (existing, saved) -> {
+                        existing.setName(saved.getName());
+                        existing.setMaxCheckoutDays(saved.getMaxCheckoutDays());
+                        existing.setMaxCheckedOutBooks(saved.getMaxCheckedOutBooks());
+                    }, keepUnsaved);
+                    break;
+                case "PATRONS":
+                    applyRecords(patrons, rows, removedIds, (data) -> new Patron(data, this), (existing, saved) -> {
+                        existing.setFirstName(saved.getFirstName());
+                        existing.setLastName(saved.getLastName());
+                        existing.setPatronType(saved.getPatronType());
+                    }, keepUnsaved);
+                    break;
+                case "TITLES":
+                    //Titles do not change once they are created; books move to a new title instead
+                    for (String[] row : rows) {
+                        if (catalog.getTitle(new Identifier(row[0])) == null) {
+                            catalog.add(new Title(row));
+                        }
                     }
-                    if (s.contains(",") && s.charAt(0) == '"' && s.charAt(s.length() - 1) == '"') {
-                        data[i] = s.substring(1, s.length() - 1);
+                    break;
+                case "BOOKS":
+                    applyRecords(books, rows, removedIds, (data) -> new Book(data, this), (existing, saved) -> {
+                        if (existing.getTitleRecord() != saved.getTitleRecord()) {
+                            existing.setTitleRecord(saved.getTitleRecord());
+                        }
+                        if (existing.getStatus() != saved.getStatus() || existing.getCurrentPatron() != saved.getCurrentPatron()
+                                || !Objects.equals(existing.getCheckOutDate(), saved.getCheckOutDate())) {
+                            existing.compareAndSetCirculation(existing.getVersion(), saved.getStatus(),
+                                    saved.getCurrentPatron(), saved.getCheckOutDate());
+                        }
+                    }, keepUnsaved);
+                    break;
+                case "HOLDS":
+                    holdQueue.load(rows);
+                    break;
+                case "FINES":
+                    fineLedger.load(rows);
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Replaces the contents of a list of records with the saved rows, keeping the loaded objects of the records that
+     * are still saved. If the identifiers of the removed records are given, the rows only change the records they
+     * refer to, and the other records are left as they are. An event is published for each record that was added,
+     * changed, or removed.
+     */
+    private <T extends LibraryData> void applyRecords(List<T> live, List<String[]> rows, List<String> removedIds,
+                                                      Function<String[], T> parser, BiConsumer<T, T> updater,
+                                                      boolean keepUnsaved) {
+        boolean publish = events.hasSubscribers();
+        if (removedIds != null) {
+            Map<Identifier, T> loaded = new HashMap<>(live.size() * 2);
+            for (T e : live) {
+                loaded.putIfAbsent(e.getIdentifier(), e);
+            }
+            for (String[] row : rows) {
+                T saved = parser.apply(row);
+                T existing = loaded.get(saved.getIdentifier());
+                if (existing == null) {
+                    live.add(saved);
+                    publishChange(publish, LibraryEvent.Type.ADDED, saved);
+                } else {
+                    update(existing, saved, updater, publish);
+                }
+            }
+            if (!removedIds.isEmpty()) {
+                Set<String> ids = new HashSet<>(removedIds);
+                live.removeIf(e -> {
+                    if (!ids.contains(e.getIdentifier().getId())) {
+                        return false;
                     }
+                    publishChange(publish, LibraryEvent.Type.REMOVED, e);
+                    return true;
+                });
+            }
+            return;
+        }
+        Map<Identifier, T> loaded = new LinkedHashMap<>();
+        for (T e : live) {
+            loaded.putIfAbsent(e.getIdentifier(), e);
+        }
+        List<T> applied = new ArrayList<>(rows.size());
+        for (String[] row : rows) {
+            T saved = parser.apply(row);
+            T existing = loaded.remove(saved.getIdentifier());
+            if (existing == null) {
+                applied.add(saved);
+                publishChange(publish, LibraryEvent.Type.ADDED, saved);
+            } else {
+                update(existing, saved, updater, publish);
+                applied.add(existing);
+            }
+        }
+        if (keepUnsaved) {
+            applied.addAll(loaded.values());
+        } else {
+            for (T e : loaded.values()) {
+                publishChange(publish, LibraryEvent.Type.REMOVED, e);
+            }
+        }
+        live.clear();
+        live.addAll(applied);
+    }
+
+    private <T extends LibraryData> void update(T existing, T saved, BiConsumer<T, T> updater, boolean publish) {
+        if (!publish) {
+            updater.accept(existing, saved);
+            return;
+        }
+        //Only records whose saved fields changed are published as updated
+        String[] before = existing.asData();
+        updater.accept(existing, saved);
+        if (!Arrays.equals(before, existing.asData())) {
+            events.publish(LibraryEvent.of(LibraryEvent.Type.UPDATED, existing));
+        }
+    }
+
+    private void publishChange(boolean publish, LibraryEvent.Type type, LibraryData record) {
+        if (publish) {
+            events.publish(LibraryEvent.of(type, record));
+        }
+    }
+
+    private void applyTransactions(List<String[]> rows, boolean skipLoaded) {
+        if (rows.isEmpty()) {
+            return;
+        }
+        int maxId = 0;
+        synchronized (transactions) {
+            Set<Identifier> loaded = new HashSet<>();
+            if (skipLoaded) {
+                for (Transaction e : transactions) {
+                    loaded.add(e.getIdentifier());
                 }
+            }
+            for (String[] row : rows) {
+                Transaction transaction = new Transaction(row, this);
+                if (skipLoaded && !loaded.add(transaction.getIdentifier())) {
+                    continue;
+                }
+                transactions.add(transaction);
+                if (transaction.getAction() == Transaction.Action.CHECKOUT && transaction.getChangedBook() != null) {
+                    transaction.getChangedBook().getTitleRecord().recordCheckout();
+                }
+                events.publish(LibraryEvent.of(LibraryEvent.Type.ADDED, transaction));
+                try {
+                    maxId = Math.max(maxId, Integer.parseInt(row[0]));
+                } catch (NumberFormatException ignored) {
+                    //Identifiers are not required to be numeric
+                }
+            }
+        }
+        skipTransactionIds(maxId);
+    }
 
-                switch (current.get()) {
-                    case "TYPES":
-                        PatronType patronType = new PatronType(data);
-                        patronTypes.add(patronType);
-                        break;
-                    case "PATRONS":
-                        Patron patron = new Patron(data, this);
-                        patrons.add(patron);
-                        break;
-                    case "BOOKS":
-                        Book book = new Book(data, this);
-                        books.add(book);
-                        break;
-                    case "TRANSACTIONS":
-                        Transaction transaction = new Transaction(data, this);
-                        transactions.add(transaction);
+    /**
+     * Gets the records of a section of this library to be saved. Transactions kept by the store are not included.
+     *
+     * @param section The section, such as BOOKS
+     *
+     * @return The records of the section
+     */
+    List<? extends LibraryData> getRecords(String section) {
+        switch (section) {
+            case "TYPES":
+                return patronTypes;
+            case "PATRONS":
+                return patrons;
+            case "TITLES":
+                //Titles are written before the books that refer to them
+                List<Title> titles = catalog.getTitles();
+                titles.removeIf(title -> title.getCopies() == 0);
+                return titles;
+            case "BOOKS":
+                return books;
+            case "TRANSACTIONS":
+                return transactions;
+            case "HOLDS":
+                return holdQueue.getHolds();
+            case "FINES":
+                return fineLedger.getEntries();
+            default:
+                throw new IllegalArgumentException("Unknown section: " + section);
+        }
+    }
+
+    /**
+     * Gets the transactions of this library that are in memory, without rebuilding them
+     *
+     * @return The list of transactions in memory, which is synchronized on when it is changed
+     */
+    List<Transaction> getTransactionList() {
+        return transactions;
+    }
+
+    /**
+     * Makes sure transactions created by this library are numbered after the given identifier
+     *
+     * @param maxId The largest identifier of a saved transaction
+     */
+    void skipTransactionIds(int maxId) {
+        nextTransactionId.accumulateAndGet(maxId + 1, Math::max);
+    }
+
+    /**
+     * Splits a row of the data file into its values
+     *
+     * @param line The row to split
+     *
+     * @return The values of the row, in the format of {@link LibraryData#asData()}
+     */
+    static String[] parseRecord(String line) {
+        //Split only on commas not inside of quotes
+        //Matches -> |  author, name, string
+        //No Match-> |  "Book title, also part of book title"
+        //-1 makes sure all elements are returned
+        String[] data = line.split(",(?=(?:[^\"]*\"[^\"]*\")*[^\"]*$)", -1);
+
+        //Remove unnecessary quotes from saved fields and empty fields
+        for (int i = 0; i < data.length; i++) {
+            String s = data[i];
+            if (s == null || s.isEmpty()) {
+                data[i] = "";
+                continue;
+            }
+            if (s.contains(",") && s.charAt(0) == '"' && s.charAt(s.length() - 1) == '"') {
+                data[i] = s.substring(1, s.length() - 1);
+            }
+        }
+        return data;
+    }
+
+    /**
+     * Removes everything loaded from a store, so that another file can be loaded
+     */
+    void reset() {
+        patronTypes.clear();
+        patrons.clear();
+        books.clear();
+        transactions.clear();
+        holdRows.clear();
+        fineRows.clear();
+        catalog.clear();
+    }
+
+    /**
+     * Records that a backup was loaded because the data file was damaged. The library is marked as modified, so that
+     * the damaged data file is replaced the next time it is saved.
+     *
+     * @param recoveredFrom A description of the backup that was loaded
+     * @param cause         The error that the data file could not be loaded with
+     */
+    void markRecovered(String recoveredFrom, Exception cause) {
+        this.recoveredFrom = recoveredFrom;
+        this.recoveryCause = cause;
+        modified = true;
+    }
+
+    /**
+     * Gets the backup this library was loaded from, if its data file was damaged
+     *
+     * @return A description of the backup that was loaded instead of the data file, or null if the data file was loaded
+     */
+    public String getRecoveredFrom() {
+        return recoveredFrom;
+    }
+
+    /**
+     * Gets the reason the data file of this library could not be loaded, if a backup was loaded instead
+     *
+     * @return The error that the data file could not be loaded with, or null if the data file was loaded
+     */
+    public Exception getRecoveryCause() {
+        return recoveryCause;
+    }
+
+    /**
+     * Checks out a book to the given patron, if the book has not been changed since the expected version was read.
+     * The status, patron, and checkout date of the book are committed together, and a {@link Transaction} is recorded.
+     * Limits and book status are not checked here; the caller is expected to have made (or overridden) those checks
+     * against the state of the book at the expected version.
+     * <p>
+     * Checking out a copy fills the patron's hold on its title. If the copy was on the hold shelf for another patron,
+     * their hold goes back to the front of the queue. If another copy was on the hold shelf for this patron, that copy is
+     * passed on to the next patron waiting for the title, or made available.
+     *
+     * @param book            The book to check out
+     * @param patron          The patron checking out the book
+     * @param expectedVersion The version of the book returned by {@link Book#getVersion()} when it was read
+     *
+     * @return The transaction recording this checkout
+     *
+     * @throws CirculationConflictException If the book was changed since the expected version
+     * @throws IllegalStateException        If the library is {@linkplain #isReadOnly() read-only}
+     */
+    public Transaction checkout(Book book, Patron patron, long expectedVersion) {
+        checkWritable();
+        return checkoutTimer.time(() -> events.batch(() -> {
+            Instant now = Instant.now();
+            Book released = null;
+            Hold next = null;
+            synchronized (holdQueue) {
+                if (!book.compareAndSetCirculation(expectedVersion, BookStatus.CHECKED_OUT, patron, now)) {
+                    circulationConflicts.increment();
+                    throw new CirculationConflictException(book, expectedVersion);
+                }
+                Hold ready = holdQueue.takeReady(book);
+                if (ready != null && ready.getPatron() != patron) {
+                    holdQueue.requeue(ready);
+                }
+                //This copy fills the patron's hold, whether it was waiting or had another copy put aside for it
+                Hold filled = holdQueue.getHold(patron, book.getIsbn());
+                if (filled != null) {
+                    released = filled.getReadyBook();
+                    holdQueue.remove(filled);
+                    if (released != null) {
+                        next = passOn(released, patron, filled.getIsbn(), now);
+                    }
+                }
+            }
+            Transaction transaction = recordTransaction(patron, book, Transaction.Action.CHECKOUT, now);
+            events.publish(LibraryEvent.circulation(book, transaction));
+            if (next != null) {
+                holdsRouted.increment();
+                recordTransaction(next.getPatron(), released, Transaction.Action.READY, now);
+            }
+            return transaction;
+        }));
+    }
+
+    /**
+     * Returns a book, if the book has not been changed since the expected version was read. A {@link Transaction} is
+     * recorded against the patron that had it checked out.
+     * <p>
+     * If a patron is waiting for the title of the book, the book is put {@linkplain BookStatus#ON_HOLD on hold} for the
+     * patron with the oldest {@link Hold} and a {@link Transaction.Action#READY} transaction is recorded; otherwise the
+     * book is made available.
+     *
+     * @param book            The book to return
+     * @param expectedVersion The version of the book returned by {@link Book#getVersion()} when it was read
+     *
+     * @return The transaction recording this return
+     *
+     * @throws CirculationConflictException If the book was changed since the expected version
+     * @throws IllegalStateException        If the library is {@linkplain #isReadOnly() read-only}
+     */
+    public Transaction returnBook(Book book, long expectedVersion) {
+        checkWritable();
+        return returnTimer.time(() -> events.batch(() -> {
+            Instant now = Instant.now();
+            BookStatus status = book.getStatus();
+            Patron patron = book.getCurrentPatron();
+            Instant checkOutDate = book.getCheckOutDate();
+            Hold next;
+            synchronized (holdQueue) {
+                next = holdQueue.peek(book.getIsbn());
+                //Make sure the patron that is read belongs to the expected version
+                if (book.getVersion() != expectedVersion || !book.compareAndSetCirculation(expectedVersion,
+                        next == null ? BookStatus.AVAILABLE : BookStatus.ON_HOLD, next == null ? null : next.getPatron(), null)) {
+                    circulationConflicts.increment();
+                    throw new CirculationConflictException(book, expectedVersion);
+                }
+                if (next != null) {
+                    holdQueue.markReady(next, book, now);
+                }
+            }
+            if (status == BookStatus.CHECKED_OUT) {
+                //Charge the days the loan was overdue since the last sweep, now that it has ended
+                ReportGenerator reports = getReportGenerator();
+                fineLedger.accrueReturn(book, patron, checkOutDate, now, reports.getFineRate(), reports.getFineLimit());
+            }
+            Transaction transaction = recordTransaction(patron, book, Transaction.Action.RETURN, now);
+            events.publish(LibraryEvent.circulation(book, transaction));
+            if (next != null) {
+                holdsRouted.increment();
+                recordTransaction(next.getPatron(), book, Transaction.Action.READY, now);
+            }
+            return transaction;
+        }));
+    }
+
+    /**
+     * Places a hold for a patron on the title of the given book. If a copy of the title is available and nobody else is
+     * waiting for it, the copy is put on hold for the patron right away.
+     *
+     * @param book   Any copy of the title to hold
+     * @param patron The patron placing the hold
+     *
+     * @return The new hold
+     *
+     * @throws IllegalArgumentException If the patron already has a hold on the title
+     */
+    public Hold placeHold(Book book, Patron patron) {
+        checkWritable();
+        return events.batch(() -> addHold(book, patron));
+    }
+
+    private Hold addHold(Book book, Patron patron) {
+        Instant now = Instant.now();
+        Hold hold;
+        Book copy = null;
+        synchronized (holdQueue) {
+            hold = holdQueue.add(patron, book, now);
+            //A title is usually held because no copy is available, which its copy counts show without a scan
+            if (holdQueue.peek(hold.getIsbn()) == hold && book.getTitleRecord().getAvailableCopies() > 0) {
+                for (Book e : books) {
+                    long version = e.getVersion();
+                    if (e.getStatus() == BookStatus.AVAILABLE && e.getIsbn().equals(hold.getIsbn())
+                            && e.compareAndSetCirculation(version, BookStatus.ON_HOLD, patron, null)) {
+                        holdQueue.markReady(hold, e, now);
+                        copy = e;
                         break;
+                    }
                 }
-            });
-        } else {
-            try {
-                //If the file doesn't exist, create it
-                Files.createFile(dataFile);
-            } catch (IOException e) {
-                //Throw an unchecked exception with the same contents as the exception
-                throw new RuntimeException(e);
             }
         }
-        //Create a report generator using this as its data source
-        reportGenerator = new ReportGenerator(this);
+        recordTransaction(patron, book, Transaction.Action.HOLD, now);
+        if (copy != null) {
+            holdsRouted.increment();
+            recordTransaction(patron, copy, Transaction.Action.READY, now);
+        }
+        return hold;
+    }
+
+    /**
+     * Cancels a hold. If a copy had been put aside for the hold, the copy is passed on to the next patron waiting for
+     * the title, or made available if nobody is waiting.
+     *
+     * @param hold The hold to cancel
+     *
+     * @return True if the hold was cancelled; false if it had already been picked up or cancelled
+     */
+    public boolean cancelHold(Hold hold) {
+        checkWritable();
+        return events.batch(() -> removeHold(hold));
+    }
+
+    private boolean removeHold(Hold hold) {
+        Instant now = Instant.now();
+        Book copy = hold.getReadyBook();
+        Hold next = null;
+        synchronized (holdQueue) {
+            if (!holdQueue.remove(hold)) {
+                return false;
+            }
+            if (copy != null) {
+                next = passOn(copy, hold.getPatron(), hold.getIsbn(), now);
+            }
+        }
+        recordTransaction(hold.getPatron(), copy == null ? hold.getRequestedBook() : copy, Transaction.Action.CANCEL_HOLD, now);
+        if (next != null) {
+            holdsRouted.increment();
+            recordTransaction(next.getPatron(), copy, Transaction.Action.READY, now);
+        }
+        return true;
+    }
+
+    /**
+     * Cancels the holds of deleted patrons, and moves the holds on titles whose copies were all given another ISBN to
+     * the new title. Called on the thread that changed the library. Read-only libraries receive their holds from the
+     * library they copy.
+     */
+    private void updateHolds(List<LibraryEvent> changes) {
+        if (readOnly) {
+            return;
+        }
+        List<Patron> removedPatrons = new ArrayList<>();
+        boolean booksChanged = false;
+        for (LibraryEvent e : changes) {
+            if (e.getRecord() instanceof Patron && e.getType() == LibraryEvent.Type.REMOVED) {
+                removedPatrons.add((Patron) e.getRecord());
+            } else if (e.getRecord() instanceof Book) {
+                booksChanged = true;
+            }
+        }
+        boolean retitle = booksChanged;
+        events.batch(() -> {
+            for (Patron patron : removedPatrons) {
+                for (Hold e : holdQueue.getHolds(patron)) {
+                    removeHold(e);
+                }
+            }
+            if (retitle) {
+                retitleHolds();
+            }
+        });
+    }
+
+    private void retitleHolds() {
+        //Only the ISBNs of the copies holds were placed with can have changed from under them, so the books are only
+        //scanned when one of them has
+        boolean retitled = false;
+        for (Hold e : holdQueue.getHolds()) {
+            Book requested = e.getRequestedBook();
+            if (requested != null && !requested.getIsbn().equals(e.getIsbn())) {
+                retitled = true;
+                break;
+            }
+        }
+        if (!retitled) {
+            return;
+        }
+        Set<String> shelved = new HashSet<>();
+        for (Book e : books) {
+            shelved.add(e.getIsbn());
+        }
+        Instant now = Instant.now();
+        List<Hold> duplicates;
+        Map<Hold, Book> filled = new LinkedHashMap<>();
+        synchronized (holdQueue) {
+            long changeCount = holdQueue.getChangeCount();
+            duplicates = holdQueue.retitle(shelved);
+            if (holdQueue.getChangeCount() != changeCount) {
+                //The title the holds were moved to may have copies on the shelf for them
+                for (Book e : books) {
+                    Hold next = holdQueue.peek(e.getIsbn());
+                    long version = e.getVersion();
+                    if (next != null && e.getStatus() == BookStatus.AVAILABLE
+                            && e.compareAndSetCirculation(version, BookStatus.ON_HOLD, next.getPatron(), null)) {
+                        holdQueue.markReady(next, e, now);
+                        filled.put(next, e);
+                    }
+                }
+            }
+        }
+        for (Map.Entry<Hold, Book> e : filled.entrySet()) {
+            holdsRouted.increment();
+            recordTransaction(e.getKey().getPatron(), e.getValue(), Transaction.Action.READY, now);
+        }
+        for (Hold e : duplicates) {
+            removeHold(e);
+        }
+    }
+
+    /**
+     * Passes a copy that was on the hold shelf for a patron on to the next patron waiting for its title, or makes it
+     * available if nobody is waiting. Must be called while holding the lock of the hold queue.
+     *
+     * @return The hold the copy was put aside for, or null if the copy was made available or was no longer on the hold
+     * shelf for the patron
+     */
+    private Hold passOn(Book copy, Patron heldFor, String isbn, Instant now) {
+        long version = copy.getVersion();
+        if (copy.getStatus() != BookStatus.ON_HOLD || copy.getCurrentPatron() != heldFor) {
+            return null;
+        }
+        Hold next = holdQueue.peek(isbn);
+        if (copy.compareAndSetCirculation(version, next == null ? BookStatus.AVAILABLE : BookStatus.ON_HOLD,
+                next == null ? null : next.getPatron(), null) && next != null) {
+            holdQueue.markReady(next, copy, now);
+            return next;
+        }
+        return null;
+    }
+
+    private Transaction recordTransaction(Patron patron, Book book, Transaction.Action action, Instant timestamp) {
+        Transaction transaction = new Transaction(new Identifier(nextTransactionId.getAndIncrement()), patron, book,
+                action, timestamp);
+        synchronized (transactions) {
+            transactions.add(transaction);
+        }
+        if (action == Transaction.Action.CHECKOUT) {
+            book.getTitleRecord().recordCheckout();
+        }
+        modify();
+        events.publish(LibraryEvent.of(LibraryEvent.Type.ADDED, transaction));
+        return transaction;
     }
 
     /**
-     * Gets all the transaction stored in this library instance
+     * Gets all the transaction stored in this library instance. If the library was opened with a limited recent
+     * history, only the transactions loaded into memory are returned; see {@link #getTransactionHistory()}.
+     * <p>
+     * The list is a copy taken while no transaction is being recorded, so it can be iterated on any thread. It cannot
+     * be modified, and does not include transactions recorded after it was returned; use
+     * {@link #addTransactions(Collection)} to add transactions.
      *
      * @return A list of all {@link Transaction}s in this library
      */
     public List<Transaction> getTransactions() {
+        return transactionsTimer.time(() -> {
+            synchronized (transactions) {
+                return Collections.unmodifiableList(new ArrayList<>(rebuildTransactions()));
+            }
+        });
+    }
+
+    /**
+     * Adds transactions that took place elsewhere to this library at once, such as the history of an imported library.
+     * Transactions recorded by this library afterwards are numbered after them, and they are delivered to
+     * {@linkplain #getEventBus() subscribers} in one batch.
+     *
+     * @param added The transactions to add; each must have an identifier that is not used by another transaction
+     *
+     * @throws IllegalStateException If the library is {@linkplain #isReadOnly() read-only}
+     */
+    public void addTransactions(Collection<Transaction> added) {
+        checkWritable();
+        synchronized (transactions) {
+            transactions.addAll(added);
+        }
+        for (Transaction e : added) {
+            try {
+                skipTransactionIds(Integer.parseInt(e.getIdentifier().getId()));
+            } catch (NumberFormatException ignored) {
+                //Identifiers are not required to be numeric
+            }
+        }
+        modify();
+        events.batch(() -> {
+            for (Transaction e : added) {
+                events.publish(LibraryEvent.of(LibraryEvent.Type.ADDED, e));
+            }
+        });
+    }
+
+    /**
+     * Gets the transactions that took place in a range of time, including older transactions that are kept in the data
+     * file, the archive, or the database. Only the pages of the data file and the archived months that have
+     * transactions in the range are read, and a database only reads the rows in the range.
+     *
+     * @param start The earliest time to include
+     * @param end   The time to stop at, exclusive
+     *
+     * @return The transactions in the range, oldest first
+     *
+     * @throws UncheckedIOException If the older transactions cannot be read
+     */
+    public List<Transaction> getTransactions(Instant start, Instant end) {
+        List<Transaction> found = new ArrayList<>();
+        LibraryStore current = store;
+        if (current != null) {
+            try {
+                found.addAll(current.findTransactions(this, start, end));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        for (Transaction e : getTransactions()) {
+            if (!e.getTimestamp().isBefore(start) && e.getTimestamp().isBefore(end)) {
+                found.add(e);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Gets every transaction of this library, oldest first. Older transactions that are kept in the data file, the
+     * archive, or the database are read a page or a month at a time as the list is accessed, so the list can be
+     * iterated without loading the whole history into memory. The list cannot be modified, and does not include
+     * transactions recorded after it was returned.
+     *
+     * @return A list of every {@link Transaction} in this library
+     */
+    public List<Transaction> getTransactionHistory() {
+        LibraryStore current = store;
+        List<Transaction> recent = getTransactions();
+        int storedCount = current == null ? 0 : current.getStoredTransactionCount();
+        if (storedCount == 0) {
+            return recent;
+        }
+        return new AbstractList<Transaction>() {
+            @Override
+            public Transaction get(int index) {
+                if (index < storedCount) {
+                    return current.getStoredTransaction(Library.this, index);
+                }
+                return recent.get(index - storedCount);
+            }
+
+            @Override
+            public int size() {
+                return storedCount + recent.size();
+            }
+        };
+    }
+
+    /**
+     * Gets the number of older transactions that are kept in the data file, the archive, or the database instead of in
+     * memory
+     *
+     * @return The number of transactions not returned by {@link #getTransactions()}
+     */
+    public int getOlderTransactionCount() {
+        LibraryStore current = store;
+        return current == null ? 0 : current.getStoredTransactionCount();
+    }
+
+    /**
+     * Moves the transactions before the start of the month containing the given time into the archive, a compressed
+     * file for each month in the archive folder of the data directory. Archived transactions are no longer loaded or
+     * saved with the library, but are still found by {@link #getTransactions(Instant, Instant)} and
+     * {@link #getTransactionHistory()}. The library should be saved afterwards to remove them from the data file.
+     * Libraries stored in a database keep every transaction in it, and archive nothing.
+     *
+     * @param before A time in the oldest month to keep active
+     *
+     * @return The number of transactions archived
+     *
+     * @throws IOException           If the archive cannot be written; the library is left as it was
+     * @throws IllegalStateException If the library has not been saved to a data directory
+     */
+    public int archiveTransactions(Instant before) throws IOException {
+        checkWritable();
+        if (store == null) {
+            throw new IllegalStateException("The library must be saved to a data directory before it is archived");
+        }
+        int archived = store.archiveTransactions(this, before);
+        if (archived > 0) {
+            modify();
+        }
+        return archived;
+    }
+
+    /**
+     * Gets the files of the transaction archive of a data directory, so that they can be backed up with the data file
+     *
+     * @param dataDirectory The data directory
+     *
+     * @return The paths of the archive files, relative to the data directory
+     *
+     * @throws IOException If the index of the archive cannot be read
+     */
+    public static List<String> getArchiveFiles(Path dataDirectory) throws IOException {
+        return TransactionArchive.open(dataDirectory).getFileNames();
+    }
+
+    private List<Transaction> rebuildTransactions() {
+        try (FlightRecorderEvents.Span event = FlightRecorderEvents.transactionsRebuild()) {
+            event.setRows(transactions.size());
+            return rebuildTransactionList();
+        }
+    }
+
+    private List<Transaction> rebuildTransactionList() {
         for (int i = 0; i < transactions.size(); i++) {
             Transaction e = transactions.get(i);
             boolean removed = false;
@@ -156,11 +1041,127 @@ public class Library {
         return reportGenerator;
     }
 
+    /**
+     * Gets the ledger of the fines charged to patrons of this library
+     *
+     * @return The fine ledger of this library
+     */
+    public FineLedger getFineLedger() {
+        return fineLedger;
+    }
+
+    /**
+     * Gets the catalog of the titles that the books of this library are copies of
+     *
+     * @return The catalog of this library
+     */
+    public Catalog getCatalog() {
+        return catalog;
+    }
+
+    /**
+     * Gets the holds placed on the titles of this library
+     *
+     * @return The hold queue of this library
+     */
+    public HoldQueue getHoldQueue() {
+        return holdQueue;
+    }
+
     /**
      * Sets the status of the library to modified. The library has had changes made that have not been saved to disk yet.
+     * This must be called after any change to the data of this library, as it also advances the
+     * {@linkplain #getModificationVersion() modification version}.
+     *
+     * @throws IllegalStateException If the library is {@linkplain #isReadOnly() read-only}
      */
     public void modify() {
+        checkWritable();
         this.modified = true;
+        modificationVersion.incrementAndGet();
+    }
+
+    /**
+     * Marks this library as modified after a record was added to one of its lists directly, such as by a view, and
+     * tells the {@linkplain #getEventBus() subscribers} about it
+     *
+     * @param record The {@link PatronType}, {@link Patron}, or {@link Book} that was added
+     *
+     * @throws IllegalStateException If the library is {@linkplain #isReadOnly() read-only}
+     */
+    public void recordAdded(LibraryData record) {
+        modify();
+        events.publish(LibraryEvent.of(LibraryEvent.Type.ADDED, record));
+    }
+
+    /**
+     * Marks this library as modified after the fields of one of its records were changed, and tells the
+     * {@linkplain #getEventBus() subscribers} about it
+     *
+     * @param record The {@link PatronType}, {@link Patron}, or {@link Book} that was changed
+     *
+     * @throws IllegalStateException If the library is {@linkplain #isReadOnly() read-only}
+     */
+    public void recordUpdated(LibraryData record) {
+        modify();
+        events.publish(LibraryEvent.of(LibraryEvent.Type.UPDATED, record));
+    }
+
+    /**
+     * Marks this library as modified after a record was removed from one of its lists directly, such as by a view, and
+     * tells the {@linkplain #getEventBus() subscribers} about it
+     *
+     * @param record The {@link PatronType}, {@link Patron}, or {@link Book} that was removed
+     *
+     * @throws IllegalStateException If the library is {@linkplain #isReadOnly() read-only}
+     */
+    public void recordRemoved(LibraryData record) {
+        modify();
+        events.publish(LibraryEvent.of(LibraryEvent.Type.REMOVED, record));
+    }
+
+    /**
+     * Gets the events of this library, which views, caches, and indexes can subscribe to instead of scanning the
+     * library after every change. Checkouts, returns, holds, added books, transactions, and changes applied from the
+     * data file or a primary are published by the library itself; changes made to its lists directly must be
+     * published through {@link #recordAdded(LibraryData)}, {@link #recordUpdated(LibraryData)}, and
+     * {@link #recordRemoved(LibraryData)}.
+     *
+     * @return The event bus of this library
+     */
+    public LibraryEventBus getEventBus() {
+        return events;
+    }
+
+    /**
+     * Checks if this library is the read-only copy of a replica. It can be searched and reported on, but not changed
+     * or saved, until the replica is {@linkplain ReplicationReplica#promote() promoted}.
+     *
+     * @return True if this library cannot be changed
+     */
+    public boolean isReadOnly() {
+        return readOnly;
+    }
+
+    void setReadOnly(boolean readOnly) {
+        this.readOnly = readOnly;
+    }
+
+    private void checkWritable() {
+        if (readOnly) {
+            throw new IllegalStateException("The library of a replica is read-only");
+        }
+    }
+
+    /**
+     * Gets the modification version of this library. The version starts at 0 when the library is loaded and increases
+     * every time the library is {@linkplain #modify() modified}, including each checkout and return. Saving the library
+     * does not change the version.
+     *
+     * @return The current modification version
+     */
+    public long getModificationVersion() {
+        return modificationVersion.get();
     }
 
     /**
@@ -217,6 +1218,7 @@ public class Library {
                 return e;
             }
         }
+        patronLookupMisses.increment();
         return null;
     }
 
@@ -233,9 +1235,25 @@ public class Library {
                 return e;
             }
         }
+        bookLookupMisses.increment();
         return null;
     }
 
+    /**
+     * Saves the changes made to this library to the store it was loaded from
+     *
+     * @throws IOException           If the changes cannot be saved; the saved library is left as it was
+     * @throws IllegalStateException If this is an in-memory library, or it is {@linkplain #isReadOnly() read-only}
+     */
+    public void save() throws IOException {
+        checkWritable();
+        if (store == null) {
+            throw new IllegalStateException("An in-memory library must be saved to a data directory");
+        }
+        saveTimer.time(() -> store.persist(this));
+        modified = false;
+    }
+
     /**
      * Saves this library to the specified data file path
      *
@@ -245,56 +1263,127 @@ public class Library {
      * @throws IOException If the file cannot be accessed or written to, an IOException will be thrown
      */
     public void saveTo(Path path, String suffix) throws IOException {
-        Path dataFile;
-        if (suffix != null) {
-            dataFile = path.resolve("data-" + suffix + ".txt");
-        } else {
-            dataFile = path.resolve("data.txt");
+        checkWritable();
+        if (suffix == null) {
+            saveTo(path);
+            return;
         }
-        BufferedWriter writer = Files.newBufferedWriter(dataFile);
-        save(writer);
-        writer.close();
+        saveTimer.time(() -> new TextLibraryStore(path, null).writeCopy(this, "data-" + suffix + ".txt"));
         modified = false;
     }
 
     /**
-     * Saves this library to the specified data file path
+     * Saves this library to the specified data file path. If the path is the data directory this library was loaded
+     * from, only the changes are saved to its store; otherwise the library is written to a data file in the path, which
+     * it is saved to from then on.
      *
      * @param path The path at which to store the file; Must be a directory. A file "data.txt" is created inside of this directory
      *
      * @throws IOException If the file cannot be accessed or written to, an IOException will be thrown
      */
-
     public void saveTo(Path path) throws IOException {
-        saveTo(path, null);
+        checkWritable();
+        LibraryStore current = store;
+        if (current != null && current.getDirectory().toAbsolutePath().normalize().equals(path.toAbsolutePath().normalize())) {
+            save();
+            return;
+        }
+        LibraryStore target = new TextLibraryStore(path, null);
+        saveTimer.time(() -> target.write(this));
+        store = target;
+        if (current != null) {
+            current.close();
+        }
+        modified = false;
+    }
+
+    /**
+     * Writes a copy of this library, with every transaction, to a data file in the specified directory. Unlike
+     * {@link #saveTo(Path)}, the library keeps being saved to its own store, and is not marked as saved.
+     *
+     * @param path The directory to write the copy to; a file "data.txt" is created inside of this directory
+     *
+     * @throws IOException If the file cannot be accessed or written to
+     */
+    public void writeCopy(Path path) throws IOException {
+        saveTimer.time(() -> new TextLibraryStore(path, null).writeCopy(this, TextLibraryStore.DATA_FILE));
     }
 
-    private void save(Writer writer) throws IOException {
-        appendToWriter("TYPES", writer, patronTypes);
-        appendToWriter("PATRONS", writer, patrons);
-        appendToWriter("BOOKS", writer, books);
-        appendToWriter("TRANSACTIONS", writer, transactions);
+    /**
+     * Gets the store this library is saved to
+     *
+     * @return The store of this library, or null if it is an in-memory library
+     */
+    public LibraryStore getStore() {
+        return store;
     }
 
-    private void appendToWriter(String dataType, Writer writer, List<? extends LibraryData> libraryObjects) throws IOException {
+    /**
+     * Closes the store of this library, such as a database that cannot be opened by another program while it is open.
+     * The library cannot read its older transactions or be saved to its store afterwards.
+     *
+     * @throws IOException If the store cannot be closed
+     */
+    public void close() throws IOException {
+        if (store != null) {
+            store.close();
+        }
+    }
+
+    /**
+     * Writes the line that starts a section of the data file
+     *
+     * @param dataType The name of the section, such as BOOKS
+     * @param writer   The writer to write the line to
+     *
+     * @throws IOException If the line cannot be written
+     */
+    static void writeSectionHeader(String dataType, Writer writer) throws IOException {
         writer.write(dataTypeSeparator + dataType + '\n');
-        for (LibraryData e : libraryObjects) {
-            String[] data = e.asData();
-            for (int i = 0; i < data.length; i++) {
-                String value = data[i];
-                if (value.contains(",") && !(value.charAt(0) == '"' && value.charAt(value.length() - 1) == '"')) {
-                    writer.write('"');
-                    writer.write(value);
-                    writer.write('"');
-                } else {
-                    writer.write(value);
-                }
-                if (data.length - 1 != i) {
-                    writer.write(',');
-                }
+    }
+
+    /**
+     * Writes a single record of a section of the data file. Values containing commas are quoted.
+     *
+     * @param writer The writer to write the record to
+     * @param data   The values of the record, in the format of {@link LibraryData#asData()}
+     *
+     * @throws IOException If the record cannot be written
+     */
+    static void writeRecord(Writer writer, String[] data) throws IOException {
+        for (int i = 0; i < data.length; i++) {
+            String value = data[i];
+            if (value.contains(",") && !(value.charAt(0) == '"' && value.charAt(value.length() - 1) == '"')) {
+                writer.write('"');
+                writer.write(value);
+                writer.write('"');
+            } else {
+                writer.write(value);
+            }
+            if (data.length - 1 != i) {
+                writer.write(',');
             }
-            writer.write('\n');
         }
+        writer.write('\n');
+    }
+
+    /**
+     * Formats a single record as a row of the data file, without the line separator
+     *
+     * @param data The values of the record, in the format of {@link LibraryData#asData()}
+     *
+     * @return The row
+     */
+    static String formatRecord(String[] data) {
+        StringWriter writer = new StringWriter();
+        try {
+            writeRecord(writer, data);
+        } catch (IOException e) {
+            //A StringWriter does not throw
+            throw new UncheckedIOException(e);
+        }
+        String row = writer.toString();
+        return row.substring(0, row.length() - 1);
     }
 
     /**
@@ -306,6 +1395,25 @@ public class Library {
         return modified;
     }
 
+    /**
+     * Adds many books to this library at once, such as a shipment of new stock. The library is
+     * {@linkplain #modify() modified} once for the whole batch instead of once for each book, so results computed from
+     * the library are only invalidated once, and the books are delivered to {@linkplain #getEventBus() subscribers}
+     * in one batch.
+     *
+     * @param added The books to add; each must have an identifier that is not used by another book
+     */
+    public void addBooks(Collection<Book> added) {
+        checkWritable();
+        books.addAll(added);
+        modify();
+        events.batch(() -> {
+            for (Book e : added) {
+                events.publish(LibraryEvent.of(LibraryEvent.Type.ADDED, e));
+            }
+        });
+    }
+
     /**
      * Gets all the books stored in this library instance
      *
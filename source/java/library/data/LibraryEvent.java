@@ -0,0 +1,157 @@
+package library.data;
+
+/**
+ * A change made to a {@link Library}, delivered to the subscribers of its {@link LibraryEventBus}. Each event refers to
+ * the record that changed, which is a {@link PatronType}, {@link Patron}, {@link Book}, or {@link Transaction}.
+ * Checkouts and returns also refer to the transaction that recorded them, and status changes to the status of the book
+ * before and after the change.
+ *
+ * @author Srikavin Ramkumar
+ */
+public final class LibraryEvent {
+    private final Type type;
+    private final LibraryData record;
+    private final Transaction transaction;
+    private final BookStatus previousStatus;
+    private final BookStatus status;
+
+    private LibraryEvent(Type type, LibraryData record, Transaction transaction, BookStatus previousStatus, BookStatus status) {
+        this.type = type;
+        this.record = record;
+        this.transaction = transaction;
+        this.previousStatus = previousStatus;
+        this.status = status;
+    }
+
+    /**
+     * Creates an event for a record that was added to, changed in, or removed from a library
+     *
+     * @param type   {@link Type#ADDED}, {@link Type#UPDATED}, or {@link Type#REMOVED}
+     * @param record The record that changed
+     *
+     * @return The event
+     *
+     * @throws IllegalArgumentException If the type is not one of the above
+     */
+    static LibraryEvent of(Type type, LibraryData record) {
+        if (type != Type.ADDED && type != Type.UPDATED && type != Type.REMOVED) {
+            throw new IllegalArgumentException("Not a change to a record: " + type);
+        }
+        return new LibraryEvent(type, record, null, null, null);
+    }
+
+    /**
+     * Creates an event for a book that was checked out or returned
+     *
+     * @param book        The book
+     * @param transaction The {@link Transaction.Action#CHECKOUT} or {@link Transaction.Action#RETURN} transaction
+     *
+     * @return The event
+     */
+    static LibraryEvent circulation(Book book, Transaction transaction) {
+        Type type = transaction.getAction() == Transaction.Action.CHECKOUT ? Type.CHECKOUT : Type.RETURN;
+        return new LibraryEvent(type, book, transaction, null, null);
+    }
+
+    /**
+     * Creates an event for a book whose status changed
+     *
+     * @param book           The book
+     * @param previousStatus The status of the book before the change
+     * @param status         The status of the book after the change
+     *
+     * @return The event
+     */
+    static LibraryEvent statusChanged(Book book, BookStatus previousStatus, BookStatus status) {
+        return new LibraryEvent(Type.STATUS_CHANGED, book, null, previousStatus, status);
+    }
+
+    /**
+     * Gets the kind of change this event is
+     *
+     * @return The type of this event
+     */
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * Gets the record that changed. This is the book for checkouts, returns, and status changes.
+     *
+     * @return The record that changed
+     */
+    public LibraryData getRecord() {
+        return record;
+    }
+
+    /**
+     * Gets the transaction that recorded a checkout or return
+     *
+     * @return The transaction of a {@link Type#CHECKOUT} or {@link Type#RETURN} event; null for other events
+     */
+    public Transaction getTransaction() {
+        return transaction;
+    }
+
+    /**
+     * Gets the status of the book before a status change. When changes are coalesced, this is the status before the
+     * first of them.
+     *
+     * @return The previous status of a {@link Type#STATUS_CHANGED} event; null for other events
+     */
+    public BookStatus getPreviousStatus() {
+        return previousStatus;
+    }
+
+    /**
+     * Gets the status of the book after a status change. When changes are coalesced, this is the status after the last
+     * of them.
+     *
+     * @return The new status of a {@link Type#STATUS_CHANGED} event; null for other events
+     */
+    public BookStatus getStatus() {
+        return status;
+    }
+
+    @Override
+    public String toString() {
+        String description = type + " " + record.getClass().getSimpleName() + " " + record.getIdentifier().getId();
+        if (type == Type.STATUS_CHANGED) {
+            return description + " " + previousStatus + " -> " + status;
+        }
+        if (transaction != null) {
+            return description + " (transaction " + transaction.getIdentifier().getId() + ")";
+        }
+        return description;
+    }
+
+    /**
+     * The kinds of changes made to a library
+     */
+    public enum Type {
+        /**
+         * A record was added, including each transaction that is recorded
+         */
+        ADDED,
+        /**
+         * A record was removed
+         */
+        REMOVED,
+        /**
+         * The fields of a record were changed
+         */
+        UPDATED,
+        /**
+         * A book was checked out
+         */
+        CHECKOUT,
+        /**
+         * A book was returned
+         */
+        RETURN,
+        /**
+         * The status of a book changed, such as by a checkout, a return, or a hold
+         */
+        STATUS_CHANGED
+    }
+}
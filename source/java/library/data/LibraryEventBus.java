@@ -0,0 +1,333 @@
+package library.data;
+
+import library.metrics.Counter;
+import library.metrics.MetricsRegistry;
+import library.metrics.Timer;
+
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Delivers the {@link LibraryEvent}s of a {@link Library} to its subscribers, so that views, caches, and indexes can
+ * apply each change to what they show or hold instead of scanning the library again.
+ * <p>
+ * Events are delivered in batches on the executor of each subscriber, such as {@code Platform::runLater}. Events
+ * published while a batch is waiting to be delivered are added to it, and changes to the same record are coalesced:
+ * <ul>
+ * <li>A record that is updated several times is delivered as one {@link LibraryEvent.Type#UPDATED} event, and an
+ * update to a record that was added in the same batch is part of the {@link LibraryEvent.Type#ADDED} event</li>
+ * <li>A record that is added and removed in the same batch is not delivered at all, and a record that is updated and
+ * removed is only delivered as removed</li>
+ * <li>Status changes of a book are delivered as one {@link LibraryEvent.Type#STATUS_CHANGED} event from the first
+ * status to the last, or not at all if the book ends up with the status it started with</li>
+ * <li>Checkouts and returns are never coalesced</li>
+ * </ul>
+ * A subscriber is never called again until its previous batch has been handled. Changes made together by the library,
+ * such as a checkout and its transaction, or the records of a data file that another program saved, are always
+ * delivered in the same batch.
+ *
+ * @author Srikavin Ramkumar
+ */
+public class LibraryEventBus {
+    private static final MetricsRegistry METRICS = MetricsRegistry.getDefault();
+    private static final Counter PUBLISHED = METRICS.counter("library.events.published");
+    private static final Counter DELIVERED = METRICS.counter("library.events.delivered");
+    private static final Counter COALESCED = METRICS.counter("library.events.coalesced");
+    private static final Timer DELIVER_TIMER = METRICS.timer("library.events.deliver");
+    private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+    /**
+     * The events published by each thread inside of a {@link #batch(Supplier)}, which are delivered when it ends
+     */
+    private final ThreadLocal<List<LibraryEvent>> batched = new ThreadLocal<>();
+
+    LibraryEventBus() {
+    }
+
+    /**
+     * Subscribes to every type of event
+     *
+     * @param executor The executor to call the listener on, such as {@code Platform::runLater}
+     * @param listener Accepts each batch of events, in the order they were published
+     *
+     * @return The subscription, which is closed to stop receiving events
+     *
+     * @see #subscribe(Set, Executor, Consumer)
+     */
+    public Subscription subscribe(Executor executor, Consumer<List<LibraryEvent>> listener) {
+        return subscribe(EnumSet.allOf(LibraryEvent.Type.class), executor, listener);
+    }
+
+    /**
+     * Subscribes to some types of events. Events of other types are not delivered to the listener, and are not part of
+     * its batches.
+     *
+     * @param types    The types of events to receive
+     * @param executor The executor to call the listener on, such as {@code Platform::runLater}, or {@code Runnable::run}
+     *                 to call it on the thread that changed the library
+     * @param listener Accepts each batch of events, in the order they were published
+     *
+     * @return The subscription, which is closed to stop receiving events
+     *
+     * @throws IllegalArgumentException If any of the arguments are null
+     */
+    public Subscription subscribe(Set<LibraryEvent.Type> types, Executor executor, Consumer<List<LibraryEvent>> listener) {
+        if (types == null || executor == null || listener == null) {
+            throw new IllegalArgumentException("The types, executor, and listener of a subscription cannot be null");
+        }
+        Subscription subscription = new Subscription(types, executor, listener);
+        subscriptions.add(subscription);
+        return subscription;
+    }
+
+    /**
+     * Checks if anything is subscribed, so that events do not have to be created when nothing would receive them
+     *
+     * @return True if there is at least one subscription
+     */
+    boolean hasSubscribers() {
+        return !subscriptions.isEmpty();
+    }
+
+    /**
+     * Publishes an event to the subscribers. Inside of a {@link #batch(Supplier)}, the event is held until the batch
+     * ends.
+     *
+     * @param event The event to publish
+     */
+    void publish(LibraryEvent event) {
+        if (subscriptions.isEmpty()) {
+            return;
+        }
+        PUBLISHED.increment();
+        List<LibraryEvent> held = batched.get();
+        if (held != null) {
+            held.add(event);
+            return;
+        }
+        deliver(Collections.singletonList(event));
+    }
+
+    /**
+     * Holds the events published by this thread while making the given changes, so that changes made together are
+     * delivered together. Batches can be nested; the events are delivered when the outermost one ends, even if the
+     * changes throw an exception.
+     *
+     * @param changes The changes to make
+     * @param <T>     The type of the value returned by the changes
+     *
+     * @return The value returned by the changes
+     */
+    <T> T batch(Supplier<T> changes) {
+        if (batched.get() != null) {
+            return changes.get();
+        }
+        List<LibraryEvent> held = new ArrayList<>();
+        batched.set(held);
+        try {
+            return changes.get();
+        } finally {
+            batched.remove();
+            if (!held.isEmpty()) {
+                deliver(held);
+            }
+        }
+    }
+
+    /**
+     * Holds the events published by this thread while making the given changes
+     *
+     * @param changes The changes to make
+     *
+     * @see #batch(Supplier)
+     */
+    void batch(Runnable changes) {
+        batch(() -> {
+            changes.run();
+            return null;
+        });
+    }
+
+    private void deliver(List<LibraryEvent> events) {
+        for (Subscription e : subscriptions) {
+            e.offer(events);
+        }
+    }
+
+    /**
+     * A listener subscribed to the events of a library, with the events that are waiting to be delivered to it
+     */
+    public final class Subscription implements AutoCloseable {
+        private final Set<LibraryEvent.Type> types;
+        private final Executor executor;
+        private final Consumer<List<LibraryEvent>> listener;
+        /**
+         * The events waiting to be delivered; events that were coalesced into others are set to null
+         */
+        private final List<LibraryEvent> pending = new ArrayList<>();
+        /**
+         * The index of the pending added, updated, or removed event of each record
+         */
+        private final Map<LibraryData, Integer> changed = new IdentityHashMap<>();
+        /**
+         * The index of the pending status change of each book
+         */
+        private final Map<LibraryData, Integer> statusChanged = new IdentityHashMap<>();
+        private int pendingCount;
+        private boolean scheduled;
+        private volatile boolean closed;
+
+        private Subscription(Set<LibraryEvent.Type> types, Executor executor, Consumer<List<LibraryEvent>> listener) {
+            this.types = types.isEmpty() ? EnumSet.noneOf(LibraryEvent.Type.class) : EnumSet.copyOf(types);
+            this.executor = executor;
+            this.listener = listener;
+        }
+
+        private void offer(List<LibraryEvent> events) {
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                for (LibraryEvent e : events) {
+                    if (types.contains(e.getType())) {
+                        add(e);
+                    }
+                }
+                if (scheduled || pendingCount == 0) {
+                    return;
+                }
+                scheduled = true;
+            }
+            try {
+                executor.execute(this::drain);
+            } catch (RejectedExecutionException e) {
+                //The executor was shut down; nothing more is delivered
+                close();
+            }
+        }
+
+        private void add(LibraryEvent event) {
+            LibraryData record = event.getRecord();
+            switch (event.getType()) {
+                case ADDED:
+                case UPDATED:
+                case REMOVED:
+                    addChange(record, event);
+                    break;
+                case STATUS_CHANGED:
+                    addStatusChange(record, event);
+                    break;
+                default:
+                    append(event);
+            }
+        }
+
+        private void addChange(LibraryData record, LibraryEvent event) {
+            Integer index = changed.get(record);
+            if (index == null) {
+                changed.put(record, append(event));
+                return;
+            }
+            LibraryEvent.Type previous = pending.get(index).getType();
+            LibraryEvent.Type next = event.getType();
+            if (previous == LibraryEvent.Type.ADDED && next == LibraryEvent.Type.REMOVED) {
+                //Nothing to deliver for a record that was never seen
+                drop(index);
+                changed.remove(record);
+                dropStatusChange(record);
+                COALESCED.increment();
+            } else if (previous == LibraryEvent.Type.UPDATED && next == LibraryEvent.Type.REMOVED) {
+                drop(index);
+                dropStatusChange(record);
+                changed.put(record, append(event));
+            } else if (previous == LibraryEvent.Type.REMOVED && next == LibraryEvent.Type.ADDED) {
+                //Removed and added back, such as when a list is replaced; the record may have changed in between
+                drop(index);
+                changed.remove(record);
+                if (types.contains(LibraryEvent.Type.UPDATED)) {
+                    changed.put(record, append(LibraryEvent.of(LibraryEvent.Type.UPDATED, record)));
+                }
+                COALESCED.increment();
+            } else {
+                //The pending event already covers this one
+                COALESCED.increment();
+            }
+        }
+
+        private void addStatusChange(LibraryData record, LibraryEvent event) {
+            Integer index = statusChanged.get(record);
+            if (index == null) {
+                if (event.getPreviousStatus() != event.getStatus()) {
+                    statusChanged.put(record, append(event));
+                }
+                return;
+            }
+            COALESCED.increment();
+            BookStatus first = pending.get(index).getPreviousStatus();
+            if (first == event.getStatus()) {
+                drop(index);
+                statusChanged.remove(record);
+                return;
+            }
+            pending.set(index, LibraryEvent.statusChanged((Book) record, first, event.getStatus()));
+        }
+
+        private void dropStatusChange(LibraryData record) {
+            Integer index = statusChanged.remove(record);
+            if (index != null) {
+                drop(index);
+            }
+        }
+
+        private int append(LibraryEvent event) {
+            pending.add(event);
+            pendingCount++;
+            return pending.size() - 1;
+        }
+
+        private void drop(int index) {
+            pending.set(index, null);
+            pendingCount--;
+        }
+
+        private void drain() {
+            List<LibraryEvent> events;
+            synchronized (this) {
+                scheduled = false;
+                events = new ArrayList<>(pendingCount);
+                for (LibraryEvent e : pending) {
+                    if (e != null) {
+                        events.add(e);
+                    }
+                }
+                pending.clear();
+                changed.clear();
+                statusChanged.clear();
+                pendingCount = 0;
+            }
+            if (events.isEmpty() || closed) {
+                return;
+            }
+            DELIVERED.add(events.size());
+            DELIVER_TIMER.time(() -> listener.accept(Collections.unmodifiableList(events)));
+        }
+
+        /**
+         * Stops delivering events to the listener. Events that are waiting to be delivered are dropped.
+         */
+        @Override
+        public void close() {
+            subscriptions.remove(this);
+            synchronized (this) {
+                closed = true;
+                pending.clear();
+                changed.clear();
+                statusChanged.clear();
+                pendingCount = 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,438 @@
+package library.data;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.HashSet;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.Set;
+import java.util.SplittableRandom;
+
+/**
+ * Generates synthetic library data files in the same format as {@link Library#saveTo(Path)}. Used for load, save, and
+ * report testing of large libraries.
+ * <p>
+ * The generated data is determined only by the seed, the configured counts, and the end date, so the same settings
+ * always produce the same file. The output is written as it is generated; memory use does not grow with the number
+ * of books or transactions, which allows data files larger than the available heap to be created.
+ * <p>
+ * The current state of each copy (available, checked out, or lost) is derived from the seed and the position of the
+ * copy, so that the TITLES, BOOKS, and TRANSACTIONS sections agree without keeping the copies in memory. Historical loans are
+ * spread over the configured number of years, lend each copy to one patron at a time, and are closed before the current
+ * loans begin.
+ *
+ * @author Srikavin Ramkumar
+ */
+public class LibraryGenerator {
+    private static final String[] PATRON_TYPE_NAMES = {"Student", "Teacher", "Administrator", "Staff", "Guest", "Alumni"};
+    private static final String[] FIRST_NAMES = {"David", "Anna", "Reynard", "Danell", "Gus", "Judon", "Merline", "Jaye",
+            "Magda", "Marys", "Anica", "Gabriella", "Hugibert", "Felice", "Kari", "Monica", "Ashil", "Trudey", "Tomasina",
+            "Eduard", "Lynnet", "Reider", "Kipp", "Margarette", "Priya", "Wei", "Mateo", "Amara", "Noah", "Olivia"};
+    private static final String[] LAST_NAMES = {"Roggers", "Quack", "Ronci", "Oglethorpe", "Goose", "Jarry", "Brewett",
+            "Baden", "Estabrook", "Janssens", "Looney", "Hegarty", "Longbottom", "Rowth", "Coping", "Tellenbrook",
+            "Dinnage", "Cavalier", "Blythin", "Buckhurst", "Pleasaunce", "Landsman", "Wonham", "O'Glassane", "Insall",
+            "Nguyen", "Garcia", "Okafor", "Smith", "Patel"};
+    private static final String[] TITLE_ADJECTIVES = {"Silent", "Hidden", "Last", "Golden", "Broken", "Distant",
+            "Forgotten", "Little", "Burning", "Secret", "Endless", "Crimson", "Quiet", "Wild", "Lost"};
+    private static final String[] TITLE_NOUNS = {"River", "Garden", "Kingdom", "Letter", "Mountain", "Promise",
+            "Island", "Library", "Winter", "Voyage", "Orchard", "Lighthouse", "Machine", "Forest", "Empire"};
+    private static final String[] SUBTITLES = {"A Novel", "A History", "Stories", "Poems", "A Memoir"};
+
+    /**
+     * Probability that a copy is currently checked out
+     */
+    private static final double CHECKED_OUT_RATE = 0.25;
+    /**
+     * Probability that a copy is lost
+     */
+    private static final double LOST_RATE = 0.01;
+    /**
+     * Probability that a title has one more copy than the previous count; gives a geometric copy count distribution
+     */
+    private static final double ADDITIONAL_COPY_RATE = 0.45;
+    private static final int MAX_COPIES = 40;
+    /**
+     * The number of days before the end date in which current loans were checked out
+     */
+    private static final int CURRENT_LOAN_DAYS = 90;
+
+    private final long seed;
+    private int patronTypeCount = 3;
+    private int patronCount = 100;
+    private int bookCount = 850;
+    private long transactionCount = 780;
+    private int years = 1;
+    private Instant end = LocalDate.now(ZoneOffset.UTC).atStartOfDay(ZoneOffset.UTC).toInstant();
+
+    /**
+     * Creates a generator with the given seed. The default counts are similar to the bundled sample data.
+     *
+     * @param seed The seed of the random numbers used to generate the data
+     */
+    public LibraryGenerator(long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * Sets the number of {@link PatronType}s to generate
+     *
+     * @param patronTypeCount The number of patron types; must be at least one
+     */
+    public void setPatronTypeCount(int patronTypeCount) {
+        if (patronTypeCount < 1) {
+            throw new IllegalArgumentException("At least one patron type is required");
+        }
+        this.patronTypeCount = patronTypeCount;
+    }
+
+    /**
+     * Sets the number of {@link Patron}s to generate
+     *
+     * @param patronCount The number of patrons; must be at least one
+     */
+    public void setPatronCount(int patronCount) {
+        if (patronCount < 1) {
+            throw new IllegalArgumentException("At least one patron is required");
+        }
+        this.patronCount = patronCount;
+    }
+
+    /**
+     * Sets the number of {@link Book}s (physical copies) to generate
+     *
+     * @param bookCount The number of copies; must be at least one
+     */
+    public void setBookCount(int bookCount) {
+        if (bookCount < 1) {
+            throw new IllegalArgumentException("At least one book is required");
+        }
+        this.bookCount = bookCount;
+    }
+
+    /**
+     * Sets the approximate number of {@link Transaction}s to generate. One checkout is always generated for each
+     * book that is currently checked out; the remaining transactions are historical checkout and return pairs, so the
+     * total may be one less than requested.
+     *
+     * @param transactionCount The number of transactions; at most {@link Integer#MAX_VALUE}, the largest identifier
+     *                         a library numbers its transactions with
+     */
+    public void setTransactionCount(long transactionCount) {
+        if (transactionCount < 0) {
+            throw new IllegalArgumentException("Transaction count cannot be negative");
+        }
+        if (transactionCount > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("At most " + Integer.MAX_VALUE + " transactions can be generated");
+        }
+        this.transactionCount = transactionCount;
+    }
+
+    /**
+     * Sets the number of years the historical transactions are spread over
+     *
+     * @param years The number of years before the end date; must be at least one
+     */
+    public void setYears(int years) {
+        if (years < 1) {
+            throw new IllegalArgumentException("At least one year is required");
+        }
+        this.years = years;
+    }
+
+    /**
+     * Sets the date that the generated library is current as of. No transactions take place after it.
+     * Defaults to the start of the current day (UTC).
+     *
+     * @param end The instant the generated data ends at
+     */
+    public void setEnd(Instant end) {
+        this.end = end;
+    }
+
+    /**
+     * Writes a data file named "data.txt" inside of the given directory, replacing an existing file
+     *
+     * @param directory The directory to write the data file into
+     *
+     * @throws IOException If the file cannot be written
+     */
+    public void writeTo(Path directory) throws IOException {
+        Path dataFile = directory.resolve("data.txt");
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(dataFile),
+                StandardCharsets.UTF_8), 1 << 16)) {
+            write(writer);
+        }
+    }
+
+    /**
+     * Writes the generated library to the given writer. The writer is not closed.
+     *
+     * @param writer The writer to write the data to
+     *
+     * @throws IOException If the data cannot be written
+     */
+    public void write(Writer writer) throws IOException {
+        writePatronTypes(writer);
+        writePatrons(writer);
+        writeTitles(writer);
+        writeBooks(writer);
+        writeTransactions(writer);
+        writer.flush();
+    }
+
+    private void writePatronTypes(Writer writer) throws IOException {
+        Random random = new Random(seed);
+        Library.writeSectionHeader("TYPES", writer);
+        for (int i = 0; i < patronTypeCount; i++) {
+            String name = i < PATRON_TYPE_NAMES.length ? PATRON_TYPE_NAMES[i] : "Type " + (i + 1);
+            int maxCheckoutDays = 14 + 7 * random.nextInt(8);
+            int maxCheckedOutBooks = 3 + random.nextInt(23);
+            Library.writeRecord(writer, new PatronType(new Identifier(i + 1), name, maxCheckoutDays,
+                    maxCheckedOutBooks).asData());
+        }
+    }
+
+    private void writePatrons(Writer writer) throws IOException {
+        Random random = new Random(seed + 1);
+        Library.writeSectionHeader("PATRONS", writer);
+        for (int i = 0; i < patronCount; i++) {
+            //Most patrons use the first type, as most patrons of a school library are students
+            int type = random.nextInt(4) == 0 ? random.nextInt(patronTypeCount) : 0;
+            Library.writeRecord(writer, new String[]{
+                    new Identifier(i).getId(),
+                    FIRST_NAMES[random.nextInt(FIRST_NAMES.length)],
+                    LAST_NAMES[random.nextInt(LAST_NAMES.length)],
+                    new Identifier(type + 1).getId()
+            });
+        }
+    }
+
+    private void writeTitles(Writer writer) throws IOException {
+        Library.writeSectionHeader("TITLES", writer);
+        TitleSequence titles = new TitleSequence();
+        for (int i = 0; i < bookCount; i++) {
+            if (titles.next()) {
+                Library.writeRecord(writer, new String[]{
+                        new Identifier(titles.number).getId(),
+                        titles.data[0],
+                        titles.data[1],
+                        titles.data[2]
+                });
+            }
+        }
+    }
+
+    private void writeBooks(Writer writer) throws IOException {
+        Library.writeSectionHeader("BOOKS", writer);
+        //Replays the same titles as the TITLES section, so each copy refers to the title written for it
+        TitleSequence titles = new TitleSequence();
+        for (int i = 0; i < bookCount; i++) {
+            titles.next();
+
+            CopyState state = new CopyState(i);
+            Library.writeRecord(writer, new String[]{
+                    new Identifier(i).getId(),
+                    new Identifier(titles.number).getId(),
+                    state.status.name(),
+                    state.status == BookStatus.CHECKED_OUT ? new Identifier(state.patron).getId() : "null",
+                    state.status == BookStatus.CHECKED_OUT ? state.checkOutDate.toString() : "null"
+            });
+        }
+    }
+
+    /**
+     * The titles of the copies in order. Each title is followed by a random number of copies; the same seed always
+     * produces the same titles with the same number of copies.
+     */
+    private final class TitleSequence {
+        private final Random random = new Random(seed + 2);
+        private int number = -1;
+        private int copiesLeft;
+        private String[] data;
+
+        /**
+         * Moves to the title of the next copy
+         *
+         * @return True if the copy is the first copy of a new title
+         */
+        private boolean next() {
+            boolean started = false;
+            if (copiesLeft == 0) {
+                data = generateTitle(random, ++number);
+                copiesLeft = 1;
+                while (copiesLeft < MAX_COPIES && random.nextDouble() < ADDITIONAL_COPY_RATE) {
+                    copiesLeft++;
+                }
+                started = true;
+            }
+            copiesLeft--;
+            return started;
+        }
+    }
+
+    private String[] generateTitle(Random random, int titleNumber) {
+        String name = "The " + TITLE_ADJECTIVES[random.nextInt(TITLE_ADJECTIVES.length)] + " " +
+                TITLE_NOUNS[random.nextInt(TITLE_NOUNS.length)];
+        if (random.nextInt(8) == 0) {
+            name += ", " + SUBTITLES[random.nextInt(SUBTITLES.length)];
+        }
+        if (random.nextInt(3) == 0) {
+            name += " " + (2 + random.nextInt(9));
+        }
+        String author = FIRST_NAMES[random.nextInt(FIRST_NAMES.length)] + " " +
+                LAST_NAMES[random.nextInt(LAST_NAMES.length)];
+        return new String[]{name, author, isbn13(titleNumber)};
+    }
+
+    /**
+     * Creates a valid ISBN-13 from a number, including the check digit
+     */
+    private static String isbn13(int number) {
+        String digits = String.format("978%09d", number % 1_000_000_000);
+        int sum = 0;
+        for (int i = 0; i < digits.length(); i++) {
+            int digit = digits.charAt(i) - '0';
+            sum += i % 2 == 0 ? digit : digit * 3;
+        }
+        return digits + (10 - sum % 10) % 10;
+    }
+
+    private void writeTransactions(Writer writer) throws IOException {
+        Library.writeSectionHeader("TRANSACTIONS", writer);
+
+        //Count the current loans, which each need a checkout transaction after the history
+        long currentLoans = 0;
+        for (int i = 0; i < bookCount; i++) {
+            if (new CopyState(i).status == BookStatus.CHECKED_OUT) {
+                currentLoans++;
+            }
+        }
+
+        long historicalLoans = Math.max(0, (transactionCount - currentLoans) / 2);
+        Instant historyEnd = end.minus(Duration.ofDays(CURRENT_LOAN_DAYS));
+        Instant historyStart = historyEnd.minus(Duration.ofDays(365L * years));
+        long historyMillis = Duration.between(historyStart, historyEnd).toMillis();
+
+        Random random = new Random(seed + 3);
+        //Returns that have not been written yet, ordered by time; bounded by the number of loans open at once
+        PriorityQueue<PendingReturn> pendingReturns = new PriorityQueue<>();
+        //The copies of the pending returns, which cannot be checked out again until they are returned
+        Set<Integer> onLoan = new HashSet<>();
+        int id = 0;
+        for (long i = 0; i < historicalLoans; i++) {
+            //Spread the checkouts evenly over the history, with a random offset inside of each interval
+            long slotStart = historyMillis * i / historicalLoans;
+            long slotEnd = historyMillis * (i + 1) / historicalLoans;
+            long checkoutMillis = slotStart + (long) (random.nextDouble() * (slotEnd - slotStart));
+            Instant checkoutTime = historyStart.plusMillis(checkoutMillis);
+
+            while (!pendingReturns.isEmpty() && !pendingReturns.peek().time.isAfter(checkoutTime)) {
+                PendingReturn returned = pendingReturns.poll();
+                onLoan.remove(returned.book);
+                writeTransaction(writer, id++, returned, Transaction.Action.RETURN);
+            }
+            if (onLoan.size() == bookCount) {
+                //Every copy is out, so the loan that would end first is returned early instead
+                PendingReturn returned = pendingReturns.poll();
+                onLoan.remove(returned.book);
+                writeTransaction(writer, id++, new PendingReturn(checkoutTime, returned.patron, returned.book),
+                        Transaction.Action.RETURN);
+            }
+
+            int patron = random.nextInt(patronCount);
+            int book = random.nextInt(bookCount);
+            //Use the next copy that is on the shelf
+            while (onLoan.contains(book)) {
+                book = (book + 1) % bookCount;
+            }
+            onLoan.add(book);
+            PendingReturn loan = new PendingReturn(checkoutTime, patron, book);
+            writeTransaction(writer, id++, loan, Transaction.Action.CHECKOUT);
+
+            //Loans last between one day and seven weeks, and are returned before the history ends
+            Instant returnTime = checkoutTime.plus(Duration.ofMinutes(60 * 24 + random.nextInt(60 * 24 * 48)));
+            if (returnTime.isAfter(historyEnd)) {
+                returnTime = historyEnd;
+            }
+            pendingReturns.add(new PendingReturn(returnTime, patron, book));
+        }
+        while (!pendingReturns.isEmpty()) {
+            writeTransaction(writer, id++, pendingReturns.poll(), Transaction.Action.RETURN);
+        }
+        //Every historical loan was returned before the history ends, so current loans cannot overlap them
+
+        //Current loans are checked out in the order of the books, so they remain ordered by time
+        for (int i = 0; i < bookCount; i++) {
+            CopyState state = new CopyState(i);
+            if (state.status == BookStatus.CHECKED_OUT) {
+                writeTransaction(writer, id++, new PendingReturn(state.checkOutDate, state.patron, i),
+                        Transaction.Action.CHECKOUT);
+            }
+        }
+    }
+
+    private void writeTransaction(Writer writer, int id, PendingReturn loan, Transaction.Action action) throws IOException {
+        Library.writeRecord(writer, new String[]{
+                new Identifier(id).getId(),
+                new Identifier(loan.patron).getId(),
+                new Identifier(loan.book).getId(),
+                action.name(),
+                loan.time.toString()
+        });
+    }
+
+    /**
+     * The current state of a single copy, derived from the seed and the position of the copy
+     */
+    private class CopyState {
+        final BookStatus status;
+        final int patron;
+        final Instant checkOutDate;
+
+        CopyState(int copy) {
+            SplittableRandom random = new SplittableRandom(seed * 31 + copy);
+            double roll = random.nextDouble();
+            if (roll < CHECKED_OUT_RATE) {
+                status = BookStatus.CHECKED_OUT;
+                patron = random.nextInt(patronCount);
+                //Increases with the copy position so that the current checkouts are ordered by time
+                long windowMillis = Duration.ofDays(CURRENT_LOAN_DAYS).toMillis();
+                long offset = (long) (windowMillis * ((copy + random.nextDouble()) / bookCount));
+                checkOutDate = end.minusMillis(windowMillis - offset);
+            } else {
+                status = roll < CHECKED_OUT_RATE + LOST_RATE ? BookStatus.LOST : BookStatus.AVAILABLE;
+                patron = -1;
+                checkOutDate = null;
+            }
+        }
+    }
+
+    /**
+     * A loan that is written as a transaction at the given time
+     */
+    private static class PendingReturn implements Comparable<PendingReturn> {
+        final Instant time;
+        final int patron;
+        final int book;
+
+        PendingReturn(Instant time, int patron, int book) {
+            this.time = time;
+            this.patron = patron;
+            this.book = book;
+        }
+
+        @Override
+        public int compareTo(PendingReturn o) {
+            return time.compareTo(o.time);
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package library.data;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Loads and saves a {@link Library} in a data directory. A store may keep the older transactions of the library
+ * instead of loading them into memory; the library reads them back through {@link #getStoredTransaction(Library, int)}
+ * and {@link #findTransactions(Library, Instant, Instant)}, which only read the transactions that are needed.
+ * <p>
+ * Stores are not safe for use by multiple threads, except for reading the stored transactions while the library is in
+ * use.
+ *
+ * @author Srikavin Ramkumar
+ * @see TextLibraryStore
+ * @see SqlLibraryStore
+ */
+public interface LibraryStore extends Closeable {
+    /**
+     * Opens the store of a data directory. Directories with a SQL database are opened with a {@link SqlLibraryStore},
+     * and all others with a {@link TextLibraryStore}.
+     *
+     * @param directory     The data directory
+     * @param recentHistory How far back transactions are loaded into memory; null to load all transactions
+     *
+     * @return The store of the data directory, which has not been loaded yet
+     *
+     * @throws IOException If the database cannot be opened
+     */
+    static LibraryStore open(Path directory, Duration recentHistory) throws IOException {
+        if (Files.isRegularFile(directory.resolve(SqlLibraryStore.DATABASE_FILE))) {
+            return new SqlLibraryStore(directory, recentHistory);
+        }
+        return new TextLibraryStore(directory, recentHistory);
+    }
+
+    /**
+     * Loads the data of this store into an empty library, using {@link Library#loadRecord(String, String[])} for each
+     * record. Transactions kept by the store are not loaded.
+     *
+     * @param library The library to load into
+     *
+     * @throws IOException If the data cannot be read
+     */
+    void load(Library library) throws IOException;
+
+    /**
+     * Saves the changes made to a library loaded from this store
+     *
+     * @param library The library that was loaded from this store
+     *
+     * @throws IOException If the changes cannot be saved; the saved data is left as it was
+     */
+    void persist(Library library) throws IOException;
+
+    /**
+     * Replaces the data of this store with a library loaded from another store, such as when a library is saved to
+     * another directory or converted to another kind of store. The library can be persisted to this store afterwards.
+     *
+     * @param library The library to write
+     *
+     * @throws IOException If the library cannot be written
+     */
+    void write(Library library) throws IOException;
+
+    /**
+     * Gets the data directory of this store
+     *
+     * @return The data directory
+     */
+    Path getDirectory();
+
+    /**
+     * Gets the number of older transactions kept by this store instead of in memory
+     *
+     * @return The number of stored transactions
+     */
+    int getStoredTransactionCount();
+
+    /**
+     * Reads a transaction kept by this store
+     *
+     * @param library The library to resolve the patrons and books of the transaction
+     * @param index   The position of the transaction, starting from the oldest
+     *
+     * @return The transaction
+     *
+     * @throws java.io.UncheckedIOException If the transaction cannot be read
+     */
+    Transaction getStoredTransaction(Library library, int index);
+
+    /**
+     * Finds the transactions kept by this store that took place in a range of time
+     *
+     * @param library The library to resolve the patrons and books of the transactions
+     * @param start   The earliest time to include
+     * @param end     The time to stop at, exclusive
+     *
+     * @return The stored transactions in the range, oldest first
+     *
+     * @throws IOException If the transactions cannot be read
+     */
+    List<Transaction> findTransactions(Library library, Instant start, Instant end) throws IOException;
+
+    /**
+     * Moves the transactions before the start of the month containing the given time out of the active data of the
+     * library, if this store supports it. Stores that do not keep an archive archive nothing.
+     *
+     * @param library The library that was loaded from this store
+     * @param before  A time in the oldest month to keep active
+     *
+     * @return The number of transactions archived
+     *
+     * @throws IOException If the archive cannot be written; the library is left as it was
+     */
+    default int archiveTransactions(Library library, Instant before) throws IOException {
+        return 0;
+    }
+}
@@ -0,0 +1,203 @@
+package library.data;
+
+import library.metrics.Counter;
+import library.metrics.MetricsRegistry;
+import library.metrics.Timer;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Watches the data file of a library for changes made by other programs, such as an import job or another copy of the
+ * application, and applies them to the loaded library without loading it again.
+ * <p>
+ * Changes are found by comparing the checksums of the sections of the data file with the ones of the file that was
+ * last loaded or saved, so only the changed sections are read, and only the transactions added to the end of the file.
+ * Saves by the library itself are recognized by their checksums and ignored. Changes are read on a daemon thread, and
+ * applied on the given executor, such as the JavaFX application thread, so that views see the library change on the
+ * same thread they read it from. If the change cannot be applied, such as when transactions were removed or archived,
+ * the library must be loaded again.
+ *
+ * @author Srikavin Ramkumar
+ */
+public class LibraryWatcher implements AutoCloseable {
+    /**
+     * How long to wait for a save by another program to finish before reading it
+     */
+    private static final long SETTLE_MILLIS = 250;
+    private static final MetricsRegistry METRICS = MetricsRegistry.getDefault();
+    private static final Timer READ_TIMER = METRICS.timer("library.watch.read");
+    private static final Counter APPLIED = METRICS.counter("library.watch.applied");
+    private static final Counter RELOADS = METRICS.counter("library.watch.reload");
+    private final Library library;
+    private final TextLibraryStore store;
+    private final Executor executor;
+    private Consumer<Set<String>> onChange;
+    private Runnable onReloadRequired;
+    private volatile Consumer<Exception> onError = (e) -> System.err.println("Could not watch the data file: " + e);
+    private WatchService watchService;
+    private Thread thread;
+
+    /**
+     * Creates a watcher of the data file of a library. Nothing is watched until {@link #start()} is called.
+     *
+     * @param library  The library to apply changes to
+     * @param executor The executor to apply changes and call the listeners on
+     *
+     * @throws IllegalArgumentException If the library is not stored in a data file
+     */
+    public LibraryWatcher(Library library, Executor executor) {
+        if (!(library.getStore() instanceof TextLibraryStore)) {
+            throw new IllegalArgumentException("Only libraries stored in a data file can be watched");
+        }
+        this.library = library;
+        this.store = (TextLibraryStore) library.getStore();
+        this.executor = executor;
+    }
+
+    /**
+     * Sets the listener called on the executor after changes are applied to the library
+     *
+     * @param onChange Accepts the names of the sections that changed, such as BOOKS; may be null
+     */
+    public void setOnChange(Consumer<Set<String>> onChange) {
+        this.onChange = onChange;
+    }
+
+    /**
+     * Sets the listener called on the executor when the data file changed in a way that cannot be applied to the loaded
+     * library, so that it can be loaded again
+     *
+     * @param onReloadRequired The listener; may be null
+     */
+    public void setOnReloadRequired(Runnable onReloadRequired) {
+        this.onReloadRequired = onReloadRequired;
+    }
+
+    /**
+     * Sets the handler of changes that could not be read or applied, such as a damaged data file, or a file that is
+     * still being written by a program that does not replace it atomically. By default, they are printed to the
+     * standard error stream.
+     *
+     * @param onError Receives each error, on the watching thread if the changes could not be read, or on the executor
+     *                if they could not be applied
+     */
+    public void setOnError(Consumer<Exception> onError) {
+        this.onError = onError;
+    }
+
+    /**
+     * Starts watching the data directory on a daemon thread
+     *
+     * @throws IOException If the data directory cannot be watched
+     */
+    public synchronized void start() throws IOException {
+        if (thread != null) {
+            return;
+        }
+        watchService = FileSystems.getDefault().newWatchService();
+        //Saves replace the data file with a renamed temporary file, which is seen as the file being created
+        store.getDirectory().register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY);
+        WatchService watching = watchService;
+        thread = new Thread(() -> run(watching), "library-watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void run(WatchService watching) {
+        try {
+            while (true) {
+                WatchKey key = watching.take();
+                boolean changed = pollDataFile(key);
+                //Wait for the events of the rest of the save, so that it is only read once
+                WatchKey next;
+                while ((next = watching.poll(SETTLE_MILLIS, TimeUnit.MILLISECONDS)) != null) {
+                    changed |= pollDataFile(next);
+                }
+                if (changed) {
+                    check();
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            //Stopped by close
+        }
+    }
+
+    private static boolean pollDataFile(WatchKey key) {
+        boolean changed = false;
+        for (WatchEvent<?> e : key.pollEvents()) {
+            changed |= e.kind() == StandardWatchEventKinds.OVERFLOW ||
+                    Paths.get(TextLibraryStore.DATA_FILE).equals(e.context());
+        }
+        key.reset();
+        return changed;
+    }
+
+    /**
+     * Reads the changes made to the data file, if any, and applies them on the executor
+     */
+    private void check() {
+        TextLibraryStore.Changes changes;
+        try {
+            changes = READ_TIMER.time(store::readChanges);
+        } catch (IOException | RuntimeException e) {
+            //The file may be damaged or still being written by a program that does not replace it atomically
+            onError.accept(new IOException("Could not read the changes to " + store.getDirectory() + ": " +
+                    e.getMessage(), e));
+            return;
+        }
+        if (changes == null) {
+            return;
+        }
+        executor.execute(() -> apply(changes));
+    }
+
+    private void apply(TextLibraryStore.Changes changes) {
+        if (changes.isReloadRequired()) {
+            RELOADS.increment();
+            Runnable listener = onReloadRequired;
+            if (listener != null) {
+                listener.run();
+            }
+            return;
+        }
+        try {
+            if (!store.applyChanges(library, changes)) {
+                //The library was saved over the changes after they were read
+                return;
+            }
+        } catch (IOException | RuntimeException e) {
+            onError.accept(new IOException("Could not apply the changes to " + store.getDirectory() + ": " +
+                    e.getMessage(), e));
+            return;
+        }
+        APPLIED.increment();
+        Consumer<Set<String>> listener = onChange;
+        if (listener != null) {
+            listener.accept(changes.getSections());
+        }
+    }
+
+    /**
+     * Stops watching the data directory
+     */
+    @Override
+    public synchronized void close() {
+        if (thread == null) {
+            return;
+        }
+        try {
+            watchService.close();
+        } catch (IOException e) {
+            onError.accept(e);
+        }
+        thread.interrupt();
+        thread = null;
+        watchService = null;
+    }
+}
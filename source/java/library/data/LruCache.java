@@ -0,0 +1,33 @@
+package library.data;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A map that keeps only the entries that were used most recently, used to cache the pages and segments of transactions
+ * that are read from disk
+ *
+ * @param <K> The type of the keys of this cache
+ * @param <V> The type of the cached values
+ *
+ * @author Srikavin Ramkumar
+ */
+class LruCache<K, V> extends LinkedHashMap<K, V> {
+    private static final long serialVersionUID = 1L;
+    private final int capacity;
+
+    /**
+     * Creates an empty cache
+     *
+     * @param capacity The number of entries kept; the least recently used entry is removed once there are more
+     */
+    LruCache(int capacity) {
+        super(16, 0.75f, true);
+        this.capacity = capacity;
+    }
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+        return size() > capacity;
+    }
+}
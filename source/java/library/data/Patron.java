@@ -146,6 +146,16 @@ public class Patron implements LibraryData {
         return obj instanceof Patron && identifier.equals(((Patron) obj).identifier);
     }
 
+    /**
+     * Consistent with {@link #equals(Object)}, this is based only on the identifier of this patron.
+     *
+     * @return The hash code of the identifier of this patron
+     */
+    @Override
+    public int hashCode() {
+        return identifier.hashCode();
+    }
+
     /**
      * Gets the {@link PatronType} attached to this instance of this object
      *
@@ -0,0 +1,74 @@
+package library.data;
+
+import java.util.function.Predicate;
+
+/**
+ * The predicates the table views filter their records with. They are kept here, apart from the JavaFX views, so that
+ * the benchmarks measure the same filters the views run.
+ *
+ * @author Srikavin Ramkumar
+ */
+public final class RecordFilters {
+    private RecordFilters() {
+    }
+
+    /**
+     * Matches books by identifier, title, ISBN, or author
+     *
+     * @param filter The lower case text entered into the filter field
+     *
+     * @return A predicate accepting the books that contain the text
+     */
+    public static Predicate<Book> books(String filter) {
+        return book -> book.getIdentifier().getId().toLowerCase().contains(filter)
+                || book.getTitle().toLowerCase().contains(filter)
+                || book.getIsbn().toLowerCase().contains(filter)
+                || book.getAuthor().toLowerCase().contains(filter);
+    }
+
+    /**
+     * Matches patrons by first name, last name, identifier, or the name of their patron type
+     *
+     * @param filter The text entered into the filter field
+     *
+     * @return A predicate accepting the patrons that contain the text
+     */
+    public static Predicate<Patron> patrons(String filter) {
+        String lowerCaseValue = filter.toLowerCase();
+        return (e) -> e.getFirstName().toLowerCase().contains(lowerCaseValue) ||
+                e.getLastName().toLowerCase().contains(lowerCaseValue) ||
+                e.getIdentifier().getId().toLowerCase().contains(lowerCaseValue) ||
+                e.getPatronType().getName().toLowerCase().contains(lowerCaseValue);
+    }
+
+    /**
+     * Matches patron types by name or identifier
+     *
+     * @param filter The lower case text entered into the filter field
+     *
+     * @return A predicate accepting the patron types that contain the text
+     */
+    public static Predicate<PatronType> patronTypes(String filter) {
+        return e -> e.getName().toLowerCase().contains(filter)
+                || e.getIdentifier().getId().toLowerCase().contains(filter);
+    }
+
+    /**
+     * Matches transactions by identifier, the title, ISBN, or author of their book, the name or patron type of their
+     * patron, or their timestamp
+     *
+     * @param filter The lower case text entered into the filter field
+     *
+     * @return A predicate accepting the transactions that contain the text
+     */
+    public static Predicate<Transaction> transactions(String filter) {
+        return transaction -> transaction.getIdentifier().getId().toLowerCase().contains(filter)
+                || transaction.getChangedBook().getTitle().toLowerCase().contains(filter)
+                || transaction.getChangedBook().getIsbn().toLowerCase().contains(filter)
+                || transaction.getChangedBook().getAuthor().toLowerCase().contains(filter)
+                || transaction.getChangedPatron().getLastName().toLowerCase().contains(filter)
+                || transaction.getChangedPatron().getFirstName().toLowerCase().contains(filter)
+                || transaction.getChangedPatron().getPatronType().getName().toLowerCase().contains(filter)
+                || transaction.getTimestamp().toString().toLowerCase().contains(filter);
+    }
+}
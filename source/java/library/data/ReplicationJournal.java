@@ -0,0 +1,449 @@
+package library.data;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * The journal of changes a {@link ReplicationPrimary} sends to its replicas. Each entry holds the rows of the records
+ * that were added or changed since the previous entry, the identifiers of the records that were removed, and the
+ * transactions that were recorded, in the format of the data file. A snapshot entry holds every record and every
+ * transaction instead, and brings a replica up to date from nothing.
+ * <p>
+ * Once a snapshot is taken, the journal subscribes to the {@linkplain Library#getEventBus() events} of the library and
+ * keeps the records that were changed, so an entry only formats those records instead of comparing the whole library.
+ * Transactions are kept by their identifiers as they are recorded, so a transaction is sent once even if the library
+ * creates a new copy of it. Holds and fines are sent again when their {@link HoldQueue} or {@link FineLedger} changes.
+ * <p>
+ * Entries are written as lines of text, so that they can be read by the same code as the data file:
+ * <pre>
+ * #ENTRY,42,1521570000000,DELTA
+ * #SECTION,BOOKS
+ * +000017,000004,CHECKED_OUT,000003,1521569990000
+ * -000018
+ * #END
+ * </pre>
+ * Replicas acknowledge each entry they applied with a line of {@code #ACK,<sequence>}.
+ *
+ * @author Srikavin Ramkumar
+ */
+final class ReplicationJournal {
+    static final String ENTRY = "#ENTRY";
+    static final String SECTION = "#SECTION";
+    static final String END = "#END";
+    static final String ACK = "#ACK";
+    private final Library library;
+    /**
+     * Guards the changes received from the events of the library, which are delivered on the threads that change it
+     */
+    private final Object pendingLock = new Object();
+    private LibraryEventBus.Subscription subscription;
+    private Set<LibraryData> changed = Collections.newSetFromMap(new IdentityHashMap<>());
+    /**
+     * The removed records, with their identifiers when they were removed
+     */
+    private Map<LibraryData, String> removed = new IdentityHashMap<>();
+    private Map<Identifier, Transaction> recorded = new LinkedHashMap<>();
+    /**
+     * The identifier each patron type, patron, and book was last sent with, so that a record whose identifier was
+     * changed is removed under its old one; null until a snapshot is taken
+     */
+    private Map<LibraryData, String> sentIds;
+    private Set<Identifier> sentTitles;
+    private Map<String, String> sentHolds;
+    private Map<String, String> sentFines;
+    private long sentHoldChanges;
+    private long sentFineChanges;
+    private long sequence;
+
+    ReplicationJournal(Library library) {
+        this.library = library;
+    }
+
+    /**
+     * Gets the sequence number of the last entry taken. Snapshots have the sequence number of the entry they follow.
+     *
+     * @return The sequence number of the last entry
+     */
+    long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * Checks if a snapshot was taken since the journal was created or {@linkplain #reset() reset}, so that entries can
+     * be taken
+     *
+     * @return True if entries can be taken
+     */
+    boolean hasSnapshot() {
+        return sentIds != null;
+    }
+
+    /**
+     * Checks if the library changed since the last entry, without formatting anything
+     *
+     * @return True if the next entry would not be empty
+     */
+    boolean hasChanges() {
+        if (!hasSnapshot()) {
+            return false;
+        }
+        synchronized (pendingLock) {
+            if (!changed.isEmpty() || !removed.isEmpty() || !recorded.isEmpty()) {
+                return true;
+            }
+        }
+        return library.getHoldQueue().getChangeCount() != sentHoldChanges
+                || library.getFineLedger().getChangeCount() != sentFineChanges;
+    }
+
+    /**
+     * Stops following the changes of the library and forgets what was sent, while no replica is connected
+     */
+    void reset() {
+        synchronized (pendingLock) {
+            if (subscription != null) {
+                subscription.close();
+                subscription = null;
+            }
+            clearPending();
+        }
+        sentIds = null;
+        sentTitles = null;
+        sentHolds = null;
+        sentFines = null;
+    }
+
+    private void clearPending() {
+        changed = Collections.newSetFromMap(new IdentityHashMap<>());
+        removed = new IdentityHashMap<>();
+        recorded = new LinkedHashMap<>();
+    }
+
+    /**
+     * Keeps the records changed by a batch of events. Called on the thread that changed the library.
+     */
+    private void libraryEvents(List<LibraryEvent> events) {
+        synchronized (pendingLock) {
+            for (LibraryEvent e : events) {
+                LibraryData record = e.getRecord();
+                if (record instanceof Transaction) {
+                    if (e.getType() == LibraryEvent.Type.ADDED) {
+                        recorded.put(record.getIdentifier(), (Transaction) record);
+                    }
+                } else if (e.getType() == LibraryEvent.Type.REMOVED) {
+                    changed.remove(record);
+                    removed.put(record, record.getIdentifier().getId());
+                } else {
+                    removed.remove(record);
+                    changed.add(record);
+                }
+            }
+        }
+    }
+
+    /**
+     * Takes a snapshot of the records of the library that are in memory. Later entries hold the changes made since the
+     * snapshot. This must be called on the thread the library is changed on; the older transactions that are kept by
+     * the store are read by {@link Snapshot#write()}, which can be called on any thread.
+     *
+     * @param publishedMillis The time the snapshot is sent, to measure the lag of replicas by
+     *
+     * @return The snapshot
+     */
+    Snapshot snapshot(long publishedMillis) {
+        synchronized (pendingLock) {
+            //Subscribed first, so that changes made after the records are read are in the next entry
+            if (subscription == null) {
+                subscription = library.getEventBus().subscribe(Runnable::run, this::libraryEvents);
+            }
+            clearPending();
+        }
+        sentIds = new IdentityHashMap<>();
+        sentTitles = new HashSet<>();
+        StringBuilder head = startEntry(sequence, publishedMillis, true);
+        StringBuilder tail = new StringBuilder();
+        List<String> recent = new ArrayList<>();
+        int storedCount = library.getOlderTransactionCount();
+        for (String section : Library.SECTIONS) {
+            StringBuilder entry = section.equals("HOLDS") || section.equals("FINES") ? tail : head;
+            entry.append(SECTION).append(',').append(section).append('\n');
+            switch (section) {
+                case "TRANSACTIONS":
+                    List<Transaction> transactions = library.getTransactionList();
+                    synchronized (transactions) {
+                        for (Transaction e : transactions) {
+                            recent.add(Library.formatRecord(e.asData()));
+                        }
+                    }
+                    break;
+                case "TITLES":
+                    for (LibraryData e : library.getRecords(section)) {
+                        sentTitles.add(e.getIdentifier());
+                        entry.append('+').append(Library.formatRecord(e.asData())).append('\n');
+                    }
+                    break;
+                case "HOLDS":
+                    sentHoldChanges = library.getHoldQueue().getChangeCount();
+                    sentHolds = rowsOf(section);
+                    appendRows(entry, sentHolds);
+                    break;
+                case "FINES":
+                    sentFineChanges = library.getFineLedger().getChangeCount();
+                    sentFines = rowsOf(section);
+                    appendRows(entry, sentFines);
+                    break;
+                default:
+                    for (LibraryData e : library.getRecords(section)) {
+                        sentIds.put(e, e.getIdentifier().getId());
+                        entry.append('+').append(Library.formatRecord(e.asData())).append('\n');
+                    }
+            }
+        }
+        return new Snapshot(head.toString(), recent, storedCount, tail.append(END).append('\n').toString());
+    }
+
+    /**
+     * Takes an entry of the records that changed since the previous entry. Only the changed records are read, so this
+     * can be called on any thread, but not at the same time as another entry or snapshot is taken.
+     *
+     * @param publishedMillis The time the entry is sent, to measure the lag of replicas by
+     *
+     * @return The entry, or null if nothing changed
+     *
+     * @throws IllegalStateException If no snapshot was taken
+     */
+    String nextEntry(long publishedMillis) {
+        if (!hasSnapshot()) {
+            throw new IllegalStateException("A snapshot must be taken before entries");
+        }
+        Set<LibraryData> changedRecords;
+        Map<LibraryData, String> removedRecords;
+        Collection<Transaction> transactions;
+        synchronized (pendingLock) {
+            changedRecords = changed;
+            removedRecords = removed;
+            transactions = recorded.values();
+            clearPending();
+        }
+
+        Map<String, StringBuilder> sections = new LinkedHashMap<>();
+        for (String section : Library.SECTIONS) {
+            sections.put(section, new StringBuilder());
+        }
+        for (Map.Entry<LibraryData, String> e : removedRecords.entrySet()) {
+            String section = sectionOf(e.getKey());
+            if (section != null) {
+                String id = sentIds.remove(e.getKey());
+                sections.get(section).append('-').append(id == null ? e.getValue() : id).append('\n');
+            }
+        }
+        for (LibraryData e : changedRecords) {
+            String section = sectionOf(e);
+            if (section == null) {
+                continue;
+            }
+            if (e instanceof Book) {
+                //A book may refer to a title the replicas do not have yet
+                Title title = ((Book) e).getTitleRecord();
+                if (title != null && sentTitles.add(title.getIdentifier())) {
+                    sections.get("TITLES").append('+').append(Library.formatRecord(title.asData())).append('\n');
+                }
+            }
+            String id = e.getIdentifier().getId();
+            String sentId = sentIds.put(e, id);
+            StringBuilder rows = sections.get(section);
+            if (sentId != null && !sentId.equals(id)) {
+                rows.append('-').append(sentId).append('\n');
+            }
+            rows.append('+').append(Library.formatRecord(e.asData())).append('\n');
+        }
+        for (Transaction e : transactions) {
+            sections.get("TRANSACTIONS").append('+').append(Library.formatRecord(e.asData())).append('\n');
+        }
+        long holdChanges = library.getHoldQueue().getChangeCount();
+        if (holdChanges != sentHoldChanges) {
+            sentHoldChanges = holdChanges;
+            sentHolds = appendChangedRows(sections.get("HOLDS"), sentHolds, rowsOf("HOLDS"));
+        }
+        long fineChanges = library.getFineLedger().getChangeCount();
+        if (fineChanges != sentFineChanges) {
+            sentFineChanges = fineChanges;
+            sentFines = appendChangedRows(sections.get("FINES"), sentFines, rowsOf("FINES"));
+        }
+
+        StringBuilder entry = startEntry(sequence + 1, publishedMillis, false);
+        int start = entry.length();
+        for (Map.Entry<String, StringBuilder> e : sections.entrySet()) {
+            //Sections without changes are left out
+            if (e.getValue().length() > 0) {
+                entry.append(SECTION).append(',').append(e.getKey()).append('\n').append(e.getValue());
+            }
+        }
+        if (entry.length() == start) {
+            return null;
+        }
+        sequence++;
+        return entry.append(END).append('\n').toString();
+    }
+
+    private static String sectionOf(LibraryData record) {
+        if (record instanceof PatronType) {
+            return "TYPES";
+        } else if (record instanceof Patron) {
+            return "PATRONS";
+        } else if (record instanceof Book) {
+            return "BOOKS";
+        }
+        return null;
+    }
+
+    private static StringBuilder startEntry(long sequence, long publishedMillis, boolean snapshot) {
+        return new StringBuilder().append(ENTRY).append(',').append(sequence).append(',').append(publishedMillis)
+                .append(',').append(snapshot ? "SNAPSHOT" : "DELTA").append('\n');
+    }
+
+    private Map<String, String> rowsOf(String section) {
+        List<? extends LibraryData> records = library.getRecords(section);
+        Map<String, String> rows = new LinkedHashMap<>(records.size() * 2);
+        for (LibraryData e : records) {
+            rows.put(e.getIdentifier().getId(), Library.formatRecord(e.asData()));
+        }
+        return rows;
+    }
+
+    private static void appendRows(StringBuilder entry, Map<String, String> rows) {
+        for (String row : rows.values()) {
+            entry.append('+').append(row).append('\n');
+        }
+    }
+
+    /**
+     * Appends the rows that differ from the ones last sent, and the identifiers of the rows that are gone
+     *
+     * @return The current rows
+     */
+    private static Map<String, String> appendChangedRows(StringBuilder entry, Map<String, String> previous, Map<String, String> current) {
+        for (Map.Entry<String, String> e : current.entrySet()) {
+            if (!e.getValue().equals(previous.get(e.getKey()))) {
+                entry.append('+').append(e.getValue()).append('\n');
+            }
+        }
+        for (String id : previous.keySet()) {
+            if (!current.containsKey(id)) {
+                entry.append('-').append(id).append('\n');
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Reads the next entry sent by a primary
+     *
+     * @param reader The reader of the connection to the primary
+     *
+     * @return The entry, or null if the primary closed the connection
+     *
+     * @throws IOException If the entry cannot be read or is malformed
+     */
+    static Entry read(BufferedReader reader) throws IOException {
+        String line = reader.readLine();
+        if (line == null) {
+            return null;
+        }
+        String[] header = line.split(",");
+        if (header.length != 4 || !header[0].equals(ENTRY)) {
+            throw new IOException("Expected the start of a journal entry: " + line);
+        }
+        Entry entry = new Entry(Long.parseLong(header[1]), Long.parseLong(header[2]), header[3].equals("SNAPSHOT"));
+        Entry.Section section = null;
+        while ((line = reader.readLine()) != null) {
+            if (line.equals(END)) {
+                return entry;
+            } else if (line.startsWith(SECTION + ",")) {
+                section = new Entry.Section();
+                entry.sections.put(line.substring(SECTION.length() + 1), section);
+            } else if (section == null) {
+                throw new IOException("A journal entry has a row outside of a section: " + line);
+            } else if (line.startsWith("+")) {
+                section.rows.add(Library.parseRecord(line.substring(1)));
+            } else if (line.startsWith("-")) {
+                section.removed.add(line.substring(1));
+            } else {
+                throw new IOException("A journal entry has a malformed row: " + line);
+            }
+        }
+        throw new IOException("The connection was closed in the middle of entry " + entry.sequence);
+    }
+
+    /**
+     * A snapshot taken by {@link #snapshot(long)}, with the older transactions of the library still to be read
+     */
+    final class Snapshot {
+        private final String head;
+        private final List<String> recent;
+        private final int storedCount;
+        private final String tail;
+
+        private Snapshot(String head, List<String> recent, int storedCount, String tail) {
+            this.head = head;
+            this.recent = recent;
+            this.storedCount = storedCount;
+            this.tail = tail;
+        }
+
+        /**
+         * Reads the older transactions from the store of the library and writes the snapshot entry. Called off the
+         * thread the library is changed on, as the transactions may be read from disk.
+         *
+         * @return The snapshot entry, or null if transactions were moved into the store since the snapshot was taken,
+         * in which case a new snapshot must be taken
+         *
+         * @throws java.io.UncheckedIOException If the older transactions cannot be read
+         */
+        String write() {
+            StringBuilder entry = new StringBuilder(head);
+            LibraryStore store = library.getStore();
+            for (int i = 0; i < storedCount; i++) {
+                entry.append('+').append(Library.formatRecord(store.getStoredTransaction(library, i).asData())).append('\n');
+            }
+            if (library.getOlderTransactionCount() != storedCount) {
+                return null;
+            }
+            for (String row : recent) {
+                entry.append('+').append(row).append('\n');
+            }
+            return entry.append(tail).toString();
+        }
+    }
+
+    /**
+     * An entry read by a replica
+     */
+    static final class Entry {
+        final long sequence;
+        final long publishedMillis;
+        final boolean snapshot;
+        /**
+         * The changed sections, in the order of the data file
+         */
+        final Map<String, Section> sections = new LinkedHashMap<>();
+
+        Entry(long sequence, long publishedMillis, boolean snapshot) {
+            this.sequence = sequence;
+            this.publishedMillis = publishedMillis;
+            this.snapshot = snapshot;
+        }
+
+        static final class Section {
+            /**
+             * The rows of the added and changed records
+             */
+            final List<String[]> rows = new ArrayList<>();
+            /**
+             * The identifiers of the removed records
+             */
+            final List<String> removed = new ArrayList<>();
+        }
+    }
+}
@@ -0,0 +1,380 @@
+package library.data;
+
+import library.metrics.Counter;
+import library.metrics.MetricsRegistry;
+import library.metrics.Timer;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Streams the changes made to a library to replicas on the same machine, such as a hot standby of the main circulation
+ * desk, over a socket bound to the loopback address.
+ * <p>
+ * A replica that connects is sent a snapshot of the whole library, and then a {@linkplain ReplicationJournal journal}
+ * entry for each batch of changes. The journal follows the {@linkplain Library#getEventBus() events} of the library,
+ * and an entry of the records that changed is sent every {@link #PUBLISH_MILLIS} while there are changes, or when
+ * {@link #publish()} is called. Entries are formatted on a daemon thread; only the records of a snapshot are read on
+ * the given executor, such as the JavaFX application thread, as reading every record needs the library to stay
+ * unchanged. The older transactions of a snapshot are read from disk on the daemon thread. Nothing is followed while
+ * no replica is connected.
+ * <p>
+ * Each replica is sent its entries by its own thread. A replica that falls more than {@link #MAX_PENDING_ENTRIES}
+ * entries behind is disconnected, and is sent a new snapshot when it connects again.
+ *
+ * @author Srikavin Ramkumar
+ */
+public class ReplicationPrimary implements AutoCloseable {
+    /**
+     * How often the library is checked for changes
+     */
+    public static final long PUBLISH_MILLIS = 100;
+    /**
+     * The most entries that are kept for a replica that has not received them
+     */
+    public static final int MAX_PENDING_ENTRIES = 1024;
+    private static final MetricsRegistry METRICS = MetricsRegistry.getDefault();
+    private static final Timer CAPTURE_TIMER = METRICS.timer("replication.primary.capture");
+    private static final Timer ACK_TIMER = METRICS.timer("replication.primary.ack");
+    private static final Counter ENTRIES = METRICS.counter("replication.primary.entries");
+    private static final Counter SNAPSHOTS = METRICS.counter("replication.primary.snapshots");
+    private static final Counter DISCONNECTS = METRICS.counter("replication.primary.disconnects");
+    private final Library library;
+    private final Executor executor;
+    private final ReplicationJournal journal;
+    private final List<Replica> replicas = new CopyOnWriteArrayList<>();
+    private final Queue<Replica> joining = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean capturing = new AtomicBoolean();
+    private final AtomicInteger connections = new AtomicInteger();
+    private volatile long sequence;
+    private volatile Consumer<Exception> onError = (e) -> System.err.println("Replication failed: " + e);
+    private ServerSocket serverSocket;
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * Creates the primary of a library. Nothing is sent until {@link #start(int)} is called.
+     *
+     * @param library  The library to replicate
+     * @param executor The executor to read the records of a snapshot on; it must not run at the same time as changes to
+     *                 the library
+     */
+    public ReplicationPrimary(Library library, Executor executor) {
+        this.library = library;
+        this.executor = executor;
+        this.journal = new ReplicationJournal(library);
+    }
+
+    /**
+     * Sets the handler of errors on the threads of this primary, such as a replica that could not be accepted, or a
+     * snapshot that could not be read. By default, they are printed to the standard error stream.
+     *
+     * @param onError Receives each error, on the thread it happened on
+     */
+    public void setOnError(Consumer<Exception> onError) {
+        this.onError = onError;
+    }
+
+    /**
+     * Starts accepting replicas on the loopback address, and sending the changes of the library on a daemon thread
+     *
+     * @param port The port to listen on; 0 to use any free port
+     *
+     * @throws IOException If the port cannot be listened on
+     */
+    public synchronized void start(int port) throws IOException {
+        if (serverSocket != null) {
+            return;
+        }
+        serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        ServerSocket server = serverSocket;
+        Thread accepting = new Thread(() -> accept(server), "replication-primary");
+        accepting.setDaemon(true);
+        accepting.start();
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "replication-publisher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            if (journal.hasChanges() || !joining.isEmpty()) {
+                capture();
+            }
+        }, PUBLISH_MILLIS, PUBLISH_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Gets the port replicas connect to
+     *
+     * @return The port this primary listens on, or -1 if it was not started
+     */
+    public synchronized int getPort() {
+        return serverSocket == null ? -1 : serverSocket.getLocalPort();
+    }
+
+    /**
+     * Gets the sequence number of the last entry sent to the replicas
+     *
+     * @return The sequence number of the last entry
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * Gets the number of replicas that are connected
+     *
+     * @return The number of connected replicas
+     */
+    public int getReplicaCount() {
+        return replicas.size();
+    }
+
+    /**
+     * Gets how far the slowest replica is behind this primary
+     *
+     * @return The number of entries sent that the slowest replica has not acknowledged, or 0 if none are connected
+     */
+    public long getMaxLag() {
+        long lag = 0;
+        for (Replica e : replicas) {
+            lag = Math.max(lag, sequence - e.acknowledged);
+        }
+        return lag;
+    }
+
+    /**
+     * Sends the changes made to the library since the last entry to the replicas now, instead of at the next check
+     */
+    public void publish() {
+        ScheduledExecutorService current;
+        synchronized (this) {
+            current = scheduler;
+        }
+        if (current == null || !capturing.compareAndSet(false, true)) {
+            //The changes will be seen by the capture that is waiting to run
+            return;
+        }
+        try {
+            current.execute(this::capture);
+        } catch (RejectedExecutionException e) {
+            capturing.set(false);
+        }
+    }
+
+    /**
+     * Sends the next entry to the replicas and a snapshot to the ones that joined. Only run on the publishing thread.
+     */
+    private void capture() {
+        //Cleared first, so that changes made while the entry is taken are captured again
+        capturing.set(false);
+        try {
+            CAPTURE_TIMER.time(() -> {
+                if (replicas.isEmpty() && joining.isEmpty()) {
+                    journal.reset();
+                    return;
+                }
+                long now = System.currentTimeMillis();
+                if (journal.hasSnapshot()) {
+                    send(journal.nextEntry(now));
+                }
+                if (!joining.isEmpty()) {
+                    sendSnapshot(now);
+                }
+            });
+        } catch (InterruptedException e) {
+            //Closed while waiting for the executor
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            onError.accept(e.getCause() instanceof Exception ? (Exception) e.getCause() : e);
+        } catch (Exception e) {
+            onError.accept(e);
+        }
+    }
+
+    /**
+     * Sends a snapshot of the library as it is now to the replicas that connected since the last capture
+     */
+    private void sendSnapshot(long now) throws InterruptedException, ExecutionException {
+        List<Replica> joined = new ArrayList<>();
+        Replica next;
+        while ((next = joining.poll()) != null) {
+            joined.add(next);
+        }
+        String snapshot = null;
+        while (snapshot == null) {
+            //The records are read on the executor, together with the changes made since the last entry, so that the
+            //connected replicas are sent every change up to the snapshot
+            CompletableFuture<Object[]> taken = new CompletableFuture<>();
+            try {
+                executor.execute(() -> {
+                    try {
+                        String missed = journal.hasSnapshot() ? journal.nextEntry(now) : null;
+                        taken.complete(new Object[]{missed, journal.snapshot(now)});
+                    } catch (Throwable e) {
+                        taken.completeExceptionally(e);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                //The library is no longer open
+                for (Replica replica : joined) {
+                    replica.disconnect();
+                }
+                return;
+            }
+            Object[] result = taken.get();
+            send((String) result[0]);
+            snapshot = ((ReplicationJournal.Snapshot) result[1]).write();
+        }
+        sequence = journal.getSequence();
+        for (Replica replica : joined) {
+            replica.acknowledged = sequence;
+            replicas.add(replica);
+            replica.send(sequence, snapshot);
+            SNAPSHOTS.increment();
+        }
+    }
+
+    private void send(String entry) {
+        if (entry == null) {
+            return;
+        }
+        sequence = journal.getSequence();
+        for (Replica e : replicas) {
+            e.send(sequence, entry);
+        }
+    }
+
+    private void accept(ServerSocket server) {
+        while (!server.isClosed()) {
+            try {
+                Socket socket = server.accept();
+                socket.setTcpNoDelay(true);
+                joining.add(new Replica(socket, connections.incrementAndGet()));
+                publish();
+            } catch (IOException e) {
+                if (!server.isClosed()) {
+                    onError.accept(e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Stops accepting replicas and disconnects the ones that are connected
+     */
+    @Override
+    public synchronized void close() {
+        if (serverSocket == null) {
+            return;
+        }
+        scheduler.shutdownNow();
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            onError.accept(e);
+        }
+        serverSocket = null;
+        for (Replica e : replicas) {
+            e.disconnect();
+        }
+        Replica joined;
+        while ((joined = joining.poll()) != null) {
+            joined.disconnect();
+        }
+    }
+
+    /**
+     * A connected replica, with a thread that sends it entries and one that reads its acknowledgements
+     */
+    private final class Replica {
+        private final Socket socket;
+        private final BlockingQueue<String> pending = new LinkedBlockingQueue<>(MAX_PENDING_ENTRIES);
+        /**
+         * The time each entry that was not acknowledged was sent at, by sequence number
+         */
+        private final ConcurrentNavigableMap<Long, Long> sentNanos = new ConcurrentSkipListMap<>();
+        private final Thread sender;
+        private volatile long acknowledged;
+
+        Replica(Socket socket, int number) throws IOException {
+            this.socket = socket;
+            Writer writer = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8), 1 << 16);
+            BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            sender = new Thread(() -> sendEntries(writer), "replication-send-" + number);
+            sender.setDaemon(true);
+            sender.start();
+            Thread receiver = new Thread(() -> readAcknowledgements(reader), "replication-ack-" + number);
+            receiver.setDaemon(true);
+            receiver.start();
+        }
+
+        void send(long sequence, String entry) {
+            sentNanos.put(sequence, System.nanoTime());
+            if (!pending.offer(entry)) {
+                //Too far behind; it is sent a snapshot when it connects again
+                disconnect();
+            }
+        }
+
+        private void sendEntries(Writer writer) {
+            try {
+                while (true) {
+                    writer.write(pending.take());
+                    if (pending.isEmpty()) {
+                        writer.flush();
+                    }
+                    ENTRIES.increment();
+                }
+            } catch (InterruptedException | IOException e) {
+                disconnect();
+            }
+        }
+
+        private void readAcknowledgements(BufferedReader reader) {
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (!line.startsWith(ReplicationJournal.ACK + ",")) {
+                        continue;
+                    }
+                    long applied = Long.parseLong(line.substring(ReplicationJournal.ACK.length() + 1));
+                    acknowledged = Math.max(acknowledged, applied);
+                    //Time from each entry being taken to the replica applying it
+                    Map<Long, Long> done = sentNanos.headMap(applied, true);
+                    long now = System.nanoTime();
+                    for (long e : done.values()) {
+                        ACK_TIMER.record(now - e);
+                    }
+                    done.clear();
+                }
+            } catch (IOException | NumberFormatException e) {
+                //Disconnected below
+            }
+            disconnect();
+        }
+
+        void disconnect() {
+            if (replicas.remove(this)) {
+                DISCONNECTS.increment();
+            }
+            try {
+                socket.close();
+            } catch (IOException e) {
+                onError.accept(e);
+            }
+            sender.interrupt();
+        }
+    }
+}
@@ -0,0 +1,286 @@
+package library.data;
+
+import library.metrics.Counter;
+import library.metrics.MetricsRegistry;
+import library.metrics.Timer;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Keeps a read-only copy of the library of a {@link ReplicationPrimary} up to date, such as a hot standby of the main
+ * circulation desk, or a machine that only runs searches and reports.
+ * <p>
+ * The replica starts from the snapshot sent by the primary when it connects, and applies each journal entry after it
+ * to its library in place, as {@link LibraryWatcher} does with changes to a data file. Entries are read on a daemon
+ * thread, and applied on the given executor, such as the JavaFX application thread. If the connection is lost, the
+ * replica connects again every {@link #RETRY_MILLIS} and starts from a new snapshot.
+ * <p>
+ * The library of a replica is {@linkplain Library#isReadOnly() read-only}. It can be {@linkplain #promote() promoted}
+ * to take over from a primary that is no longer running.
+ *
+ * @author Srikavin Ramkumar
+ */
+public class ReplicationReplica implements AutoCloseable {
+    /**
+     * How long to wait before connecting to the primary again
+     */
+    public static final long RETRY_MILLIS = 1000;
+    private static final MetricsRegistry METRICS = MetricsRegistry.getDefault();
+    private static final Timer APPLY_TIMER = METRICS.timer("replication.replica.apply");
+    private static final Timer LAG_TIMER = METRICS.timer("replication.replica.lag");
+    private static final Counter ENTRIES = METRICS.counter("replication.replica.entries");
+    private static final Counter SNAPSHOTS = METRICS.counter("replication.replica.snapshots");
+    private final InetSocketAddress primary;
+    private final Executor executor;
+    private final Library library;
+    /**
+     * The rows of each section of the primary, by identifier, which entries are applied to
+     */
+    private final Map<String, Map<String, String[]>> rows = new HashMap<>();
+    /**
+     * The sequence number of the last entry read, which may not be applied yet; only used by the receiving thread
+     */
+    private long receivedSequence = -1;
+    private volatile long appliedSequence = -1;
+    private volatile long lagMillis;
+    private volatile boolean connected;
+    private volatile boolean closed;
+    private Consumer<Set<String>> onChange;
+    private volatile Consumer<Exception> onError = (e) -> System.err.println("Replication failed: " + e);
+    private Thread thread;
+    private Socket socket;
+
+    /**
+     * Creates a replica of a primary. Nothing is received until {@link #start()} is called.
+     *
+     * @param primary  The address the primary listens on, such as {@code new InetSocketAddress("localhost", port)}
+     * @param executor The executor to apply entries and call the listener on
+     */
+    public ReplicationReplica(InetSocketAddress primary, Executor executor) {
+        this.primary = primary;
+        this.executor = executor;
+        try {
+            this.library = new Library((LibraryStore) null);
+        } catch (IOException e) {
+            //An in-memory library is not read from anything
+            throw new UncheckedIOException(e);
+        }
+        library.setReadOnly(true);
+    }
+
+    /**
+     * Gets the library of this replica, which is changed on the executor as entries are applied
+     *
+     * @return The read-only library of this replica
+     */
+    public Library getLibrary() {
+        return library;
+    }
+
+    /**
+     * Sets the listener called on the executor after an entry is applied to the library
+     *
+     * @param onChange Accepts the names of the sections that changed, such as BOOKS; may be null
+     */
+    public void setOnChange(Consumer<Set<String>> onChange) {
+        this.onChange = onChange;
+    }
+
+    /**
+     * Sets the handler of errors on the receiving thread, such as a lost connection to the primary. By default, they
+     * are printed to the standard error stream. The replica connects again after a lost connection.
+     *
+     * @param onError Receives each error, on the thread it happened on
+     */
+    public void setOnError(Consumer<Exception> onError) {
+        this.onError = onError;
+    }
+
+    /**
+     * Gets the sequence number of the last entry applied, which is the {@linkplain ReplicationPrimary#getSequence()
+     * sequence number} of the primary once the replica has caught up
+     *
+     * @return The sequence number of the last entry applied, or -1 if no snapshot was applied yet
+     */
+    public long getAppliedSequence() {
+        return appliedSequence;
+    }
+
+    /**
+     * Gets how long the last entry took from being taken by the primary to being applied to this replica
+     *
+     * @return The lag of the last entry in milliseconds
+     */
+    public long getLagMillis() {
+        return lagMillis;
+    }
+
+    /**
+     * Checks if the replica is connected to its primary
+     *
+     * @return True if the replica is connected
+     */
+    public boolean isConnected() {
+        return connected;
+    }
+
+    /**
+     * Starts receiving entries from the primary on a daemon thread
+     */
+    public synchronized void start() {
+        if (thread != null || closed) {
+            return;
+        }
+        thread = new Thread(this::run, "replication-replica");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void run() {
+        while (!closed) {
+            try (Socket connection = new Socket()) {
+                synchronized (this) {
+                    if (closed) {
+                        return;
+                    }
+                    socket = connection;
+                }
+                connection.connect(primary, (int) RETRY_MILLIS);
+                connection.setTcpNoDelay(true);
+                connected = true;
+                BufferedReader reader = new BufferedReader(new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8), 1 << 16);
+                Writer writer = new BufferedWriter(new OutputStreamWriter(connection.getOutputStream(), StandardCharsets.UTF_8));
+                ReplicationJournal.Entry entry;
+                while ((entry = ReplicationJournal.read(reader)) != null) {
+                    receive(entry, writer);
+                }
+            } catch (IOException | RuntimeException e) {
+                if (!closed) {
+                    onError.accept(new IOException("Lost the connection to the primary at " + primary + ": " + e.getMessage(), e));
+                }
+            } finally {
+                connected = false;
+            }
+            try {
+                TimeUnit.MILLISECONDS.sleep(RETRY_MILLIS);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Applies an entry to the rows of the primary, and the changed sections to the library on the executor
+     */
+    private void receive(ReplicationJournal.Entry entry, Writer writer) {
+        if (!entry.snapshot && entry.sequence != receivedSequence + 1) {
+            throw new IllegalStateException("Expected entry " + (receivedSequence + 1) + " but received " + entry.sequence);
+        }
+        receivedSequence = entry.sequence;
+        Map<String, List<String[]>> records = new HashMap<>();
+        Map<String, List<String>> removed = new HashMap<>();
+        List<String[]> transactions = Collections.emptyList();
+        for (Map.Entry<String, ReplicationJournal.Entry.Section> e : entry.sections.entrySet()) {
+            String section = e.getKey();
+            ReplicationJournal.Entry.Section change = e.getValue();
+            if (section.equals("TRANSACTIONS")) {
+                transactions = change.rows;
+                continue;
+            }
+            Map<String, String[]> saved = entry.snapshot ? new LinkedHashMap<>() : rows.computeIfAbsent(section, k -> new LinkedHashMap<>());
+            rows.put(section, saved);
+            for (String id : change.removed) {
+                saved.remove(id);
+            }
+            for (String[] row : change.rows) {
+                saved.put(row[0], row);
+            }
+            //Holds and fines are replaced as a whole, and snapshots replace everything
+            if (entry.snapshot || section.equals("HOLDS") || section.equals("FINES")) {
+                records.put(section, new ArrayList<>(saved.values()));
+            } else {
+                records.put(section, change.rows);
+                removed.put(section, change.removed);
+            }
+        }
+
+        List<String[]> added = transactions;
+        executor.execute(() -> {
+            if (closed) {
+                //Entries are not applied after the replica is promoted
+                return;
+            }
+            APPLY_TIMER.time(() -> {
+                if (entry.snapshot) {
+                    library.applyChanges(records, added);
+                } else {
+                    library.applyDelta(records, removed, added);
+                }
+            });
+            appliedSequence = entry.sequence;
+            lagMillis = Math.max(0, System.currentTimeMillis() - entry.publishedMillis);
+            LAG_TIMER.record(TimeUnit.MILLISECONDS.toNanos(lagMillis));
+            (entry.snapshot ? SNAPSHOTS : ENTRIES).increment();
+            try {
+                synchronized (writer) {
+                    writer.write(ReplicationJournal.ACK + "," + entry.sequence + "\n");
+                    writer.flush();
+                }
+            } catch (IOException e) {
+                //The connection was lost; the replica connects again
+            }
+            Consumer<Set<String>> listener = onChange;
+            if (listener != null) {
+                listener.accept(Collections.unmodifiableSet(entry.sections.keySet()));
+            }
+        });
+    }
+
+    /**
+     * Stops receiving entries and makes the library of this replica writable, so that it can take over from its
+     * primary. Entries that were received but not applied yet are dropped. This should be called on the executor, so
+     * that no entry is being applied. The library is not stored anywhere until it is
+     * {@linkplain Library#saveTo(java.nio.file.Path) saved}.
+     *
+     * @return The library of this replica
+     *
+     * @throws InterruptedException If interrupted while waiting for the receiving thread to stop
+     */
+    public Library promote() throws InterruptedException {
+        close();
+        Thread receiving;
+        synchronized (this) {
+            receiving = thread;
+        }
+        if (receiving != null && receiving != Thread.currentThread()) {
+            receiving.join();
+        }
+        library.setReadOnly(false);
+        return library;
+    }
+
+    /**
+     * Stops receiving entries from the primary
+     */
+    @Override
+    public synchronized void close() {
+        closed = true;
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                onError.accept(e);
+            }
+        }
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+}
@@ -0,0 +1,249 @@
+package library.data;
+
+import library.metrics.Counter;
+import library.metrics.MetricsRegistry;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Memoizes the results of a {@link ReportGenerator} for the current modification version of its {@link Library}.
+ * Every entry is dropped as soon as the library is modified, so a cached result is never older than the data it was
+ * computed from.
+ * <p>
+ * Cached values are shared between callers and must not be modified.
+ *
+ * @author Srikavin Ramkumar
+ */
+final class ReportCache {
+    /**
+     * Reports longer than this are streamed without being kept, so that a very large report is never held in memory
+     */
+    static final int MAX_CACHED_REPORT_LENGTH = 1 << 20;
+    private static final int MAX_ENTRIES = 256;
+    private static final MetricsRegistry METRICS = MetricsRegistry.getDefault();
+    private static final Counter HITS = METRICS.counter("report.cache.hit");
+    private static final Counter MISSES = METRICS.counter("report.cache.miss");
+    private final Library library;
+    private final Map<List<Object>, Object> entries = new ConcurrentHashMap<>();
+    private volatile long version = -1;
+    private volatile boolean enabled = true;
+
+    /**
+     * Creates a cache for reports of the given library
+     *
+     * @param library The library the cached reports are generated from
+     */
+    ReportCache(Library library) {
+        this.library = library;
+    }
+
+    /**
+     * Creates a cache key from the kind of report and its parameters. Parameters are compared using
+     * {@link Object#equals(Object)}; wrap parameters that should be compared by reference with {@link #identity(Object)}.
+     *
+     * @param kind       The name of the report
+     * @param parameters The parameters the report depends on
+     *
+     * @return A key identifying the report
+     */
+    static List<Object> key(String kind, Object... parameters) {
+        Object[] key = new Object[parameters.length + 1];
+        key[0] = kind;
+        System.arraycopy(parameters, 0, key, 1, parameters.length);
+        return Arrays.asList(key);
+    }
+
+    /**
+     * Wraps a report parameter so that it is compared by reference. This is used for lists of books, which are
+     * themselves cached and returned as the same instance until the library is modified.
+     *
+     * @param parameter The parameter to wrap
+     *
+     * @return A key part equal only to other wrappers of the same instance
+     */
+    static Object identity(Object parameter) {
+        return new Identity(parameter);
+    }
+
+    /**
+     * Gets the cached value of the given key, computing it if it is not cached for the current library version
+     *
+     * @param key     The key of the report
+     * @param compute Computes the report if it is not cached
+     * @param <T>     The type of the report
+     *
+     * @return The cached or newly computed report
+     */
+    @SuppressWarnings("unchecked")
+    <T> T get(List<Object> key, Supplier<T> compute) {
+        if (!enabled) {
+            return compute.get();
+        }
+        //Read the version before computing, so a concurrent modification makes the result stale instead of hiding it
+        long current = validate();
+        T value = (T) entries.get(key);
+        if (value != null) {
+            HITS.increment();
+            return value;
+        }
+        MISSES.increment();
+        value = compute.get();
+        put(current, key, value);
+        return value;
+    }
+
+    /**
+     * Writes the cached text of the given key to the output, or streams the report to the output if it is not cached.
+     * Reports no longer than {@link #MAX_CACHED_REPORT_LENGTH} are kept as they are streamed.
+     *
+     * @param key    The key of the report
+     * @param out    The output to write the report to
+     * @param report Writes the report if it is not cached
+     *
+     * @throws IOException If the report cannot be written to the output
+     */
+    void write(List<Object> key, Appendable out, ReportWriter report) throws IOException {
+        if (!enabled) {
+            report.writeTo(out);
+            return;
+        }
+        long current = validate();
+        Object value = entries.get(key);
+        if (value != null) {
+            HITS.increment();
+            out.append((String) value);
+            return;
+        }
+        MISSES.increment();
+        CopyingAppendable copy = new CopyingAppendable(out);
+        report.writeTo(copy);
+        if (copy.text != null) {
+            put(current, key, copy.text.toString());
+        }
+    }
+
+    /**
+     * Sets whether results are cached. Disabling the cache drops all cached results.
+     *
+     * @param enabled True to cache results; false to compute every report when it is requested
+     */
+    void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        entries.clear();
+    }
+
+    /**
+     * Drops all entries if the library has been modified since they were cached
+     *
+     * @return The current modification version of the library
+     */
+    private long validate() {
+        long current = library.getModificationVersion();
+        if (current != version) {
+            entries.clear();
+            version = current;
+        }
+        return current;
+    }
+
+    private void put(long computedVersion, List<Object> key, Object value) {
+        //The library changed while the report was computed; the result may already be out of date
+        if (computedVersion != library.getModificationVersion()) {
+            return;
+        }
+        if (entries.size() >= MAX_ENTRIES) {
+            entries.clear();
+        }
+        entries.put(key, value);
+    }
+
+    /**
+     * Streams a report to an output
+     */
+    interface ReportWriter {
+        /**
+         * Writes the report
+         *
+         * @param out The output to write the report to
+         *
+         * @throws IOException If the report cannot be written to the output
+         */
+        void writeTo(Appendable out) throws IOException;
+    }
+
+    /**
+     * Compares a key part by reference
+     */
+    private static final class Identity {
+        private final Object value;
+
+        private Identity(Object value) {
+            this.value = value;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Identity && ((Identity) o).value == value;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(value);
+        }
+    }
+
+    /**
+     * Passes everything through to an output while keeping a copy, until the copy grows past
+     * {@link #MAX_CACHED_REPORT_LENGTH}
+     */
+    private static final class CopyingAppendable implements Appendable {
+        private final Appendable out;
+        private StringBuilder text = new StringBuilder();
+
+        private CopyingAppendable(Appendable out) {
+            this.out = out;
+        }
+
+        @Override
+        public Appendable append(CharSequence csq) throws IOException {
+            out.append(csq);
+            copy(csq == null ? "null" : csq, 0, csq == null ? 4 : csq.length());
+            return this;
+        }
+
+        @Override
+        public Appendable append(CharSequence csq, int start, int end) throws IOException {
+            out.append(csq, start, end);
+            copy(csq == null ? "null" : csq, start, end);
+            return this;
+        }
+
+        @Override
+        public Appendable append(char c) throws IOException {
+            out.append(c);
+            if (text != null) {
+                text.append(c);
+                checkLength();
+            }
+            return this;
+        }
+
+        private void copy(CharSequence csq, int start, int end) {
+            if (text != null) {
+                text.append(csq, start, end);
+                checkLength();
+            }
+        }
+
+        private void checkLength() {
+            if (text.length() > MAX_CACHED_REPORT_LENGTH) {
+                text = null;
+            }
+        }
+    }
+}
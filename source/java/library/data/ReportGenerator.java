@@ -1,29 +1,73 @@
 package library.data;
 
+import library.metrics.FlightRecorderEvents;
+import library.metrics.MetricsRegistry;
+import library.metrics.Timer;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.time.*;
 import java.time.format.DateTimeFormatter;
 import java.time.format.FormatStyle;
 import java.time.temporal.ChronoUnit;
 import java.time.temporal.TemporalAmount;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 /**
  * Generates reports from a Library data source. These reports are dynamically generated with the method calls.
+ * <p>
+ * Results are cached until the library is {@linkplain Library#modify() modified}, so requesting an unchanged report
+ * again does not recompute it. Cached lists and maps are shared and cannot be modified.
  *
  * @author Srikavin Ramkumar
  */
 public class ReportGenerator {
-    private static final String BOOK_HEADER_FORMAT = "%-8s%-30.30s%-30.30s%-12s%-8s%n";
-    private static final String BOOK_CONTENT_FORMAT = "%-8s%-30.30s%-30.30s%-12s%-8s%n";
+    private static final ColumnFormat BOOK_COLUMNS = ColumnFormat.compile("%-8s%-30.30s%-30.30s%-12s%-8s%n");
+    private static final ColumnFormat BALANCE_COLUMNS = ColumnFormat.compile("%-8s%-60.60s%-12s%n");
+    private static final int DUE_DATE_CACHE_SIZE = 4096;
+    private static final int PATRONS_PER_TASK = 256;
+    private static final Comparator<String> NAME_ORDER = Comparator.nullsFirst(String.CASE_INSENSITIVE_ORDER);
+    private static final Comparator<Patron> PATRON_ORDER = Comparator.comparing(Patron::getLastName, NAME_ORDER)
+            .thenComparing(Patron::getFirstName, NAME_ORDER)
+            .thenComparing(Patron::getIdentifier, Comparator.nullsFirst(Comparator.naturalOrder()));
+    /**
+     * Copies on the hold shelf first, then waiting holds in the order they will be filled
+     */
+    private static final Comparator<Hold> HOLD_ORDER = Comparator.comparing(Hold::isReady).reversed()
+            .thenComparing(Hold::getPlaced)
+            .thenComparing(Hold::getIdentifier);
+    private static final String[] DAYS_LEFT = new String[100];
     private static final String SEPARATOR = "---------------------------------------------------------------------------------------------\n";
+    private static final MetricsRegistry METRICS = MetricsRegistry.getDefault();
+    private static final Timer STATUS_TOTALS_TIMER = METRICS.timer("report.getBookStatusTotals");
+    private static final Timer BY_PATRON_TIMER = METRICS.timer("report.formatByPatron");
+    private static final Timer BY_ITEMS_TIMER = METRICS.timer("report.formatByItems");
+    private static final Timer CHECKOUTS_BETWEEN_DATES_TIMER = METRICS.timer("report.getCheckoutsBetweenDates");
+    private static final Timer FINES_TIMER = METRICS.timer("report.getFines");
+    private static final Timer BALANCES_TIMER = METRICS.timer("report.getBalances");
+    private static final Timer HOLDS_TIMER = METRICS.timer("report.getHolds");
+    private static final Timer CHECKED_OUT_TIMER = METRICS.timer("report.getCheckedOutBooks");
+    private static final Timer OVERDUE_TIMER = METRICS.timer("report.getOverdueBooks");
     private final Library library;
     private final DateTimeFormatter dateFormatter = DateTimeFormatter.ofPattern("MMM d");
+    private final ZoneId zone = ZoneId.systemDefault();
     private final DateTimeFormatter dateTimeFormatter = DateTimeFormatter.ofLocalizedDate(FormatStyle.SHORT)
             .withLocale(Locale.US)
-            .withZone(ZoneId.systemDefault());
+            .withZone(zone);
+    private final Map<Long, String> dueDateCache = new ConcurrentHashMap<>();
+    private final ReportCache cache;
     private double fineRate = 1.5;
     private double fineLimit = 60;
 
+    static {
+        for (int i = 1; i < DAYS_LEFT.length; i++) {
+            DAYS_LEFT[i] = Integer.toString(i);
+        }
+    }
+
     /**
      * Creates an instance of a ReportGenerator using the given {@link Library} object as a data source.
      *
@@ -31,6 +75,7 @@ public class ReportGenerator {
      */
     public ReportGenerator(Library library) {
         this.library = library;
+        this.cache = new ReportCache(library);
     }
 
     /**
@@ -43,65 +88,89 @@ public class ReportGenerator {
      * @return A map with a BookStatus as the key, with Integer values. Using any given BookStatus will return a Integer of the number of items with that status.
      */
     public Map<BookStatus, Integer> getBookStatusTotals() {
-        Map<BookStatus, Integer> bookStatusTotals = new HashMap<>();
+        return cache.get(ReportCache.key("getBookStatusTotals"), this::computeBookStatusTotals);
+    }
 
-        for (Book e : library.getBooks()) {
-            //Set the value to 1 if it does not currently exist; else increment it by 1
-            bookStatusTotals.merge(e.getStatus(), 1, Integer::sum);
-        }
-        return bookStatusTotals;
+    private Map<BookStatus, Integer> computeBookStatusTotals() {
+        return STATUS_TOTALS_TIMER.time(() -> {
+            try (FlightRecorderEvents.Span event = FlightRecorderEvents.report("getBookStatusTotals")) {
+                //Each title keeps count of its copies by status, so only the titles are visited
+                List<Title> titles = library.getCatalog().getTitles();
+                event.setRows(titles.size());
+                Map<BookStatus, Integer> bookStatusTotals = new HashMap<>();
+
+                for (Title e : titles) {
+                    for (BookStatus status : BookStatus.values()) {
+                        int copies = e.getCopies(status);
+                        if (copies > 0) {
+                            //Set the value if it does not currently exist; else add to it
+                            bookStatusTotals.merge(status, copies, Integer::sum);
+                        }
+                    }
+                }
+                return Collections.unmodifiableMap(bookStatusTotals);
+            }
+        });
     }
 
     /**
      * Returns a string representation of the books and their status in this library.
      * Groups the books by the patron who has them checked out. This is helpful when creating printable reports that can
-     * be handed out to groups of patrons easily.
+     * be handed out to groups of patrons easily. Patrons are listed by last name, then first name, then identifier.
      *
      * @param books The list of books to format
      *
      * @return A string representation of the books in this library grouped by patron
      */
     public String formatByPatron(List<Book> books) {
-        if (books.isEmpty()) {
-            return "No Books.";
-        }
-
-        //Use stringbuilder for efficiency; reduces creation of strings
         StringBuilder report = new StringBuilder();
-        Formatter formatter = new Formatter(report);
-
-        Map<Patron, List<Book>> patronBookMap = new HashMap<>();
-        //Get all books checked out by a patron
-        for (Book e : books) {
-            Patron patron = e.getCurrentPatron();
-
-            patronBookMap.computeIfAbsent(patron, (s) -> new ArrayList<>());
-            patronBookMap.get(patron).add(e);
+        try {
+            formatByPatron(books, report);
+        } catch (IOException e) {
+            //A StringBuilder never fails to append
+            throw new UncheckedIOException(e);
         }
+        return report.toString();
+    }
 
-        //Print out the generated map of books checked out by each patron
-        for (Map.Entry<Patron, List<Book>> e : patronBookMap.entrySet()) {
-            List<Book> booksOwned = e.getValue();
-            Patron patron = e.getKey();
-            report.append(patron.getLastName()).append(", ").append(patron.getFirstName()).append(" - ").append(patron.getIdentifier()).append('\n');
-            formatter.format(BOOK_HEADER_FORMAT, "Item ID", "Title", "Author", "Due Date", "Days Till Due");
-            report.append(SEPARATOR);
-
-            PatronType patronType = patron.getPatronType();
+    /**
+     * Writes the report of {@link #formatByPatron(List)} to the given output one row at a time, without building the
+     * whole report in memory.
+     *
+     * @param books The list of books to format
+     * @param out   The output to write the report to, such as a {@link java.io.Writer}
+     *
+     * @throws IOException If the report cannot be written to the output
+     */
+    public void formatByPatron(List<Book> books, Appendable out) throws IOException {
+        cache.write(ReportCache.key("formatByPatron", ReportCache.identity(books), clockMinute()), out,
+                report -> writeByPatron(books, report));
+    }
 
-            for (Book book : booksOwned) {
-                TemporalAmount maxCheckoutTime = Duration.ofDays(patronType.getMaxCheckoutDays());
+    /**
+     * Gets the report of {@link #formatByPatron(List)} a page at a time, generating only the pages that are read
+     *
+     * @param books The list of books to format
+     *
+     * @return The pages of the report
+     */
+    public ReportPages pageByPatron(List<Book> books) {
+        return new ReportPages(cache, ReportCache.key("formatByPatron", ReportCache.identity(books), clockMinute()),
+                report -> formatByPatron(books, report));
+    }
 
-                int daysTillDue = getDayTillDue(book);
+    private void writeByPatron(List<Book> books, Appendable out) throws IOException {
+        BY_PATRON_TIMER.time(() -> {
+            try (FlightRecorderEvents.Span event = FlightRecorderEvents.report("formatByPatron")) {
+                event.setRows(books.size());
+                if (books.isEmpty()) {
+                    out.append("No Books.");
+                    return;
+                }
 
-                Instant dueDate = book.getCheckOutDate().plus(maxCheckoutTime);
-                formatter.format(BOOK_CONTENT_FORMAT, book.getIdentifier().getId(), book.getTitle(), book.getAuthor(),
-                        dateTimeFormatter.format(dueDate), getDaysTillDue(daysTillDue));
+                writePatronBlocks(groupByPatron(books), out, this::writeDueBlock);
             }
-            report.append('\n').append('\n');
-        }
-
-        return formatter.out().toString();
+        });
     }
 
     /**
@@ -113,31 +182,69 @@ public class ReportGenerator {
      * @return A string representation of the books in this library with no grouping
      */
     public String formatByItems(List<Book> books) {
-        if (books.isEmpty()) {
-            return "No Books.";
+        StringBuilder report = new StringBuilder();
+        try {
+            formatByItems(books, report);
+        } catch (IOException e) {
+            //A StringBuilder never fails to append
+            throw new UncheckedIOException(e);
         }
+        return report.toString();
+    }
 
-        //Use stringbuilder for efficiency; reduces creation of strings
-        StringBuilder report = new StringBuilder();
-        Formatter formatter = new Formatter(report);
+    /**
+     * Writes the report of {@link #formatByItems(List)} to the given output one row at a time, without building the
+     * whole report in memory.
+     *
+     * @param books The list of books to format
+     * @param out   The output to write the report to, such as a {@link java.io.Writer}
+     *
+     * @throws IOException If the report cannot be written to the output
+     */
+    public void formatByItems(List<Book> books, Appendable out) throws IOException {
+        cache.write(ReportCache.key("formatByItems", ReportCache.identity(books), clockMinute()), out,
+                report -> writeByItems(books, report));
+    }
 
-        formatter.format(BOOK_HEADER_FORMAT, "Item ID", "Title", "Author", "Due Date", "Days Till Due");
-        report.append(SEPARATOR);
+    /**
+     * Gets the report of {@link #formatByItems(List)} a page at a time, generating only the pages that are read
+     *
+     * @param books The list of books to format
+     *
+     * @return The pages of the report
+     */
+    public ReportPages pageByItems(List<Book> books) {
+        return new ReportPages(cache, ReportCache.key("formatByItems", ReportCache.identity(books), clockMinute()),
+                report -> formatByItems(books, report));
+    }
 
-        for (Book e : books) {
-            Patron patron = e.getCurrentPatron();
+    private void writeByItems(List<Book> books, Appendable out) throws IOException {
+        BY_ITEMS_TIMER.time(() -> {
+            try (FlightRecorderEvents.Span event = FlightRecorderEvents.report("formatByItems")) {
+                event.setRows(books.size());
+                if (books.isEmpty()) {
+                    out.append("No Books.");
+                    return;
+                }
 
-            PatronType patronType = patron.getPatronType();
-            TemporalAmount maxCheckoutTime = Duration.ofDays(patronType.getMaxCheckoutDays());
+                ColumnFormat.RowWriter rows = BOOK_COLUMNS.writer(out);
 
-            int daysLeft = getDayTillDue(e);
+                writeHeader(rows, "Days Till Due");
+                out.append(SEPARATOR);
 
-            Instant dueDate = e.getCheckOutDate().plus(maxCheckoutTime);
-            formatter.format(BOOK_CONTENT_FORMAT, e.getIdentifier().getId(), e.getTitle(), e.getAuthor(),
-                    dateTimeFormatter.format(dueDate), getDaysTillDue(daysLeft));
+                for (Book e : books) {
+                    Patron patron = e.getCurrentPatron();
 
-        }
-        return formatter.out().toString();
+                    PatronType patronType = patron.getPatronType();
+                    TemporalAmount maxCheckoutTime = Duration.ofDays(patronType.getMaxCheckoutDays());
+
+                    int daysLeft = getDayTillDue(e);
+
+                    Instant dueDate = e.getCheckOutDate().plus(maxCheckoutTime);
+                    writeRow(rows, e, dueDate, getDaysTillDue(daysLeft));
+                }
+            }
+        });
     }
 
     /**
@@ -155,27 +262,40 @@ public class ReportGenerator {
      * @return A map containing dates and the number of times books were checked out on that date.
      */
     public Map<String, Integer> getCheckoutsBetweenDates(LocalDate start, LocalDate end, Book book, Transaction.Action action) {
-        boolean allBooks = book == null;
+        return cache.get(ReportCache.key("getCheckoutsBetweenDates", start, end, ReportCache.identity(book), action),
+                () -> computeCheckoutsBetweenDates(start, end, book, action));
+    }
 
-        List<Transaction> transactions = library.getTransactions();
-        Map<String, Integer> toRet = new LinkedHashMap<>();
+    private Map<String, Integer> computeCheckoutsBetweenDates(LocalDate start, LocalDate end, Book book, Transaction.Action action) {
+        return CHECKOUTS_BETWEEN_DATES_TIMER.time(() -> {
+            try (FlightRecorderEvents.Span event = FlightRecorderEvents.report("getCheckoutsBetweenDates")) {
+                boolean allBooks = book == null;
 
-        int daysBetween = (int) (end.toEpochDay() - start.toEpochDay());
+                //Only the transactions on the days between the start and end dates are read
+                ZoneId zone = ZoneId.systemDefault();
+                List<Transaction> transactions = library.getTransactions(start.plusDays(1).atStartOfDay(zone).toInstant(),
+                        end.atStartOfDay(zone).toInstant());
+                event.setRows(transactions.size());
+                Map<String, Integer> toRet = new LinkedHashMap<>();
 
-        for (int i = 0; i < daysBetween; i++) {
-            toRet.put(dateFormatter.format(start.plusDays(i)), 0);
-        }
+                int daysBetween = (int) (end.toEpochDay() - start.toEpochDay());
+
+                for (int i = 0; i < daysBetween; i++) {
+                    toRet.put(dateFormatter.format(start.plusDays(i)), 0);
+                }
 
-        for (Transaction e : transactions) {
-            LocalDate timestamp = instantToLocalDate(e.getTimestamp());
+                for (Transaction e : transactions) {
+                    LocalDate timestamp = instantToLocalDate(e.getTimestamp());
 
-            //Verify the transaction took place at the correct time
-            if ((allBooks || book.isCopyOf(e.getChangedBook())) && e.getAction() == action && timestamp.isBefore(end) && timestamp.isAfter(start)) {
-                String key = dateFormatter.format(timestamp);
-                toRet.put(key, toRet.get(key) + 1);
+                    //Verify the transaction took place at the correct time
+                    if ((allBooks || book.isCopyOf(e.getChangedBook())) && e.getAction() == action && timestamp.isBefore(end) && timestamp.isAfter(start)) {
+                        String key = dateFormatter.format(timestamp);
+                        toRet.put(key, toRet.get(key) + 1);
+                    }
+                }
+                return Collections.unmodifiableMap(toRet);
             }
-        }
-        return toRet;
+        });
     }
 
     private LocalDate instantToLocalDate(Instant instant) {
@@ -196,11 +316,11 @@ public class ReportGenerator {
      *
      * @param daysLeft An integer number of days until the book is due. A negative number indicates that it is overdue.
      *
-     * @return A string containing the number of days left or the string "overdue".
+     * @return A string containing the number of days left, truncated to two characters, or the string "overdue".
      */
     private String getDaysTillDue(int daysLeft) {
         if (daysLeft > 0) {
-            return String.format("%-8.2s", daysLeft);
+            return daysLeft < DAYS_LEFT.length ? DAYS_LEFT[daysLeft] : Integer.toString(daysLeft).substring(0, 2);
         } else {
             return "Overdue";
         }
@@ -208,56 +328,337 @@ public class ReportGenerator {
 
     /**
      * Returns the fines formatted as a String.
-     * Uses the fee rate and fee limit set using {@link #setFineRate(double)} and {@link #setFineLimit(double)} respectively
+     * The fines are read from the {@link FineLedger} of the library as they were last charged; reports never change the
+     * library, so fines are only charged by sweeps, checkouts, and returns. Patrons are listed in the same order as
+     * {@link #formatByPatron(List)}.
      *
      * @return A string representation of the fines of each patron.
      */
     public String getFines() {
-        List<Book> books = getOverdueBooks();
-        if (books.isEmpty()) {
-            return "No fines.";
+        StringBuilder report = new StringBuilder();
+        try {
+            writeFines(report);
+        } catch (IOException e) {
+            //A StringBuilder never fails to append
+            throw new UncheckedIOException(e);
         }
+        return report.toString();
+    }
 
-        //Use stringbuilder for efficiency; reduces creation of strings
-        StringBuilder report = new StringBuilder();
-        Formatter formatter = new Formatter(report);
+    /**
+     * Writes the report of {@link #getFines()} to the given output one row at a time, without building the whole
+     * report in memory.
+     *
+     * @param out The output to write the report to, such as a {@link java.io.Writer}
+     *
+     * @throws IOException If the report cannot be written to the output
+     */
+    public void writeFines(Appendable out) throws IOException {
+        FineLedger ledger = library.getFineLedger();
+        cache.write(ReportCache.key("getFines", clockMinute()), out, report -> writeFinesReport(ledger, report));
+    }
 
-        Map<Patron, List<Book>> patronBookMap = new HashMap<>();
+    /**
+     * Gets the report of {@link #getFines()} a page at a time, generating only the pages that are read
+     *
+     * @return The pages of the report
+     */
+    public ReportPages pageFines() {
+        return new ReportPages(cache, ReportCache.key("getFines", clockMinute()), this::writeFines);
+    }
 
-        for (Book e : books) {
-            Patron patron = e.getCurrentPatron();
+    private void writeFinesReport(FineLedger ledger, Appendable out) throws IOException {
+        FINES_TIMER.time(() -> {
+            try (FlightRecorderEvents.Span event = FlightRecorderEvents.report("getFines")) {
+                List<Book> books = ledger.getFinedBooks();
+                event.setRows(books.size());
+                if (books.isEmpty()) {
+                    out.append("No fines.");
+                    return;
+                }
+
+                writePatronBlocks(groupByPatron(books), out,
+                        (patron, booksOwned, blockOut, rows) -> writeFineBlock(ledger, patron, booksOwned, blockOut, rows));
+            }
+        });
+    }
 
-            patronBookMap.computeIfAbsent(patron, (s) -> new ArrayList<>());
-            patronBookMap.get(patron).add(e);
+    /**
+     * Returns the balance of every patron that owes fines or has paid in advance, formatted as a String.
+     * Balances are read from the {@link FineLedger} of the library in the same way as {@link #getFines()}. Patrons are
+     * listed in the same order as {@link #formatByPatron(List)}.
+     *
+     * @return A string representation of the balance of each patron with a balance
+     */
+    public String getBalances() {
+        StringBuilder report = new StringBuilder();
+        try {
+            writeBalances(report);
+        } catch (IOException e) {
+            //A StringBuilder never fails to append
+            throw new UncheckedIOException(e);
         }
+        return report.toString();
+    }
+
+    /**
+     * Writes the report of {@link #getBalances()} to the given output one row at a time.
+     *
+     * @param out The output to write the report to, such as a {@link java.io.Writer}
+     *
+     * @throws IOException If the report cannot be written to the output
+     */
+    public void writeBalances(Appendable out) throws IOException {
+        FineLedger ledger = library.getFineLedger();
+        cache.write(ReportCache.key("getBalances"), out, report -> writeBalancesReport(ledger, report));
+    }
+
+    private void writeBalancesReport(FineLedger ledger, Appendable out) throws IOException {
+        BALANCES_TIMER.time(() -> {
+            try (FlightRecorderEvents.Span event = FlightRecorderEvents.report("getBalances")) {
+                List<Map.Entry<Patron, Long>> balances = new ArrayList<>(ledger.getBalances().entrySet());
+                event.setRows(balances.size());
+                if (balances.isEmpty()) {
+                    out.append("No balances.");
+                    return;
+                }
+                balances.sort(Map.Entry.comparingByKey(PATRON_ORDER));
+
+                ColumnFormat.RowWriter rows = BALANCE_COLUMNS.writer(out);
+                rows.cell("ID").cell("Patron").cell("Balance").endRow();
+                out.append(SEPARATOR);
+                for (Map.Entry<Patron, Long> e : balances) {
+                    Patron patron = e.getKey();
+                    rows.cell(String.valueOf(patron.getIdentifier())).cell(patron.getLastName() + ", " + patron.getFirstName())
+                            .cell(formatCents(e.getValue())).endRow();
+                }
+            }
+        });
+    }
 
-        for (Map.Entry<Patron, List<Book>> bookValue : patronBookMap.entrySet()) {
-            List<Book> booksOwned = bookValue.getValue();
-            Patron patron = bookValue.getKey();
-            report.append(patron.getLastName()).append(", ").append(patron.getFirstName()).append(" - ").append(patron.getIdentifier()).append('\n');
-            formatter.format(BOOK_HEADER_FORMAT, "Item ID", "Title", "Author", "Due Date", "Fine");
-            report.append(SEPARATOR);
+    /**
+     * Returns the holds of every title formatted as a String. Titles are listed by title, and the holds of each title
+     * are listed in the order they will be filled, starting with any copies already on the hold shelf.
+     *
+     * @return A string representation of the holds on each title
+     */
+    public String getHolds() {
+        StringBuilder report = new StringBuilder();
+        try {
+            writeHolds(report);
+        } catch (IOException e) {
+            //A StringBuilder never fails to append
+            throw new UncheckedIOException(e);
+        }
+        return report.toString();
+    }
 
-            PatronType patronType = patron.getPatronType();
+    /**
+     * Writes the report of {@link #getHolds()} to the given output one row at a time.
+     *
+     * @param out The output to write the report to, such as a {@link java.io.Writer}
+     *
+     * @throws IOException If the report cannot be written to the output
+     */
+    public void writeHolds(Appendable out) throws IOException {
+        cache.write(ReportCache.key("getHolds"), out, this::writeHoldsReport);
+    }
 
-            for (Book book : booksOwned) {
-                TemporalAmount maxCheckoutTime = Duration.ofDays(patronType.getMaxCheckoutDays());
+    private void writeHoldsReport(Appendable out) throws IOException {
+        HOLDS_TIMER.time(() -> {
+            try (FlightRecorderEvents.Span event = FlightRecorderEvents.report("getHolds")) {
+                List<Hold> holds = library.getHoldQueue().getHolds();
+                event.setRows(holds.size());
+                if (holds.isEmpty()) {
+                    out.append("No holds.");
+                    return;
+                }
 
-                int daysLeft = -getDayTillDue(book);
-                double fine = daysLeft * fineRate;
-                if (fine > fineLimit) {
-                    fine = fineLimit;
+                Map<String, List<Hold>> byTitle = new HashMap<>();
+                for (Hold e : holds) {
+                    byTitle.computeIfAbsent(e.getIsbn(), (isbn) -> new ArrayList<>()).add(e);
+                }
+                List<List<Hold>> titles = new ArrayList<>(byTitle.values());
+                for (List<Hold> title : titles) {
+                    title.sort(HOLD_ORDER);
+                }
+                titles.sort(Comparator.comparing((List<Hold> title) -> getTitle(title.get(0)), NAME_ORDER));
+
+                ColumnFormat.RowWriter rows = BOOK_COLUMNS.writer(out);
+                rows.cell("ID").cell("Title").cell("Patron").cell("Placed").cell("Status").endRow();
+                out.append(SEPARATOR);
+                for (List<Hold> title : titles) {
+                    int position = 1;
+                    for (Hold e : title) {
+                        Patron patron = e.getPatron();
+                        rows.cell(String.valueOf(patron.getIdentifier())).cell(getTitle(e))
+                                .cell(patron.getLastName() + ", " + patron.getFirstName())
+                                .cell(formatDueDate(e.getPlaced())).cell(e.isReady() ? "Ready" : "#" + position++).endRow();
+                    }
                 }
+            }
+        });
+    }
+
+    private static String getTitle(Hold hold) {
+        Book book = hold.isReady() ? hold.getReadyBook() : hold.getRequestedBook();
+        return book == null ? hold.getIsbn() : book.getTitle();
+    }
 
-                Instant dueDate = book.getCheckOutDate().plus(maxCheckoutTime);
+    /**
+     * Formats an amount of money in cents as dollars, such as "12.50" or "-0.75"
+     *
+     * @param cents The amount in cents
+     *
+     * @return The amount in dollars with two decimal places
+     */
+    public static String formatCents(long cents) {
+        long whole = Math.abs(cents / 100);
+        long fraction = Math.abs(cents % 100);
+        return (cents < 0 ? "-" : "") + whole + (fraction < 10 ? ".0" : ".") + fraction;
+    }
 
-                formatter.format(BOOK_CONTENT_FORMAT, book.getIdentifier().getId(), book.getTitle(), book.getAuthor(),
-                        dateTimeFormatter.format(dueDate), fine);
+    /**
+     * Groups the books by the patron who has them checked out, sorted by the name and then the identifier of the patron
+     *
+     * @param books The books to group
+     *
+     * @return The books of each patron, in report order
+     */
+    private List<Map.Entry<Patron, List<Book>>> groupByPatron(List<Book> books) {
+        Map<Patron, List<Book>> patronBookMap = new HashMap<>();
+        for (Book e : books) {
+            patronBookMap.computeIfAbsent(e.getCurrentPatron(), (s) -> new ArrayList<>()).add(e);
+        }
+        List<Map.Entry<Patron, List<Book>>> groups = new ArrayList<>(patronBookMap.entrySet());
+        groups.sort(Map.Entry.comparingByKey(PATRON_ORDER));
+        return groups;
+    }
+
+    /**
+     * Formats the block of each patron and writes the blocks to the output in order. Large reports are split into
+     * tasks of {@link #PATRONS_PER_TASK} patrons that are formatted in parallel on the common {@link ForkJoinPool}.
+     * Only a few tasks are formatted ahead of the output, so the whole report is never held in memory.
+     *
+     * @param groups The books of each patron, in report order
+     * @param out    The output to write the report to
+     * @param block  Formats the block of a single patron
+     *
+     * @throws IOException If the report cannot be written to the output
+     */
+    private void writePatronBlocks(List<Map.Entry<Patron, List<Book>>> groups, Appendable out, PatronBlock block) throws IOException {
+        if (groups.size() <= PATRONS_PER_TASK) {
+            ColumnFormat.RowWriter rows = BOOK_COLUMNS.writer(out);
+            for (Map.Entry<Patron, List<Book>> group : groups) {
+                block.write(group.getKey(), group.getValue(), out, rows);
             }
-            formatter.format("\n\n");
+            return;
+        }
+
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+        int lookahead = Math.max(2, pool.getParallelism() * 2);
+        Deque<ForkJoinTask<String>> pending = new ArrayDeque<>();
+        try {
+            for (int start = 0; start < groups.size(); start += PATRONS_PER_TASK) {
+                List<Map.Entry<Patron, List<Book>>> task = groups.subList(start, Math.min(start + PATRONS_PER_TASK, groups.size()));
+                pending.add(pool.submit(() -> formatPatronBlocks(task, block)));
+                if (pending.size() >= lookahead) {
+                    out.append(pending.remove().join());
+                }
+            }
+            while (!pending.isEmpty()) {
+                out.append(pending.remove().join());
+            }
+        } finally {
+            //Stop formatting blocks that will not be written if the output failed
+            for (ForkJoinTask<String> task : pending) {
+                task.cancel(false);
+            }
+        }
+    }
+
+    private String formatPatronBlocks(List<Map.Entry<Patron, List<Book>>> groups, PatronBlock block) {
+        StringBuilder text = new StringBuilder();
+        ColumnFormat.RowWriter rows = BOOK_COLUMNS.writer(text);
+        try {
+            for (Map.Entry<Patron, List<Book>> group : groups) {
+                block.write(group.getKey(), group.getValue(), text, rows);
+            }
+        } catch (IOException e) {
+            //A StringBuilder never fails to append
+            throw new UncheckedIOException(e);
+        }
+        return text.toString();
+    }
+
+    private void writePatronHeader(Patron patron, Appendable out, ColumnFormat.RowWriter rows, String lastColumn) throws IOException {
+        out.append(patron.getLastName()).append(", ").append(patron.getFirstName()).append(" - ").append(String.valueOf(patron.getIdentifier())).append('\n');
+        writeHeader(rows, lastColumn);
+        out.append(SEPARATOR);
+    }
+
+    private void writeDueBlock(Patron patron, List<Book> booksOwned, Appendable out, ColumnFormat.RowWriter rows) throws IOException {
+        writePatronHeader(patron, out, rows, "Days Till Due");
+
+        PatronType patronType = patron.getPatronType();
+
+        for (Book book : booksOwned) {
+            TemporalAmount maxCheckoutTime = Duration.ofDays(patronType.getMaxCheckoutDays());
+
+            int daysTillDue = getDayTillDue(book);
+
+            Instant dueDate = book.getCheckOutDate().plus(maxCheckoutTime);
+            writeRow(rows, book, dueDate, getDaysTillDue(daysTillDue));
+        }
+        out.append('\n').append('\n');
+    }
+
+    private void writeFineBlock(FineLedger ledger, Patron patron, List<Book> booksOwned, Appendable out, ColumnFormat.RowWriter rows) throws IOException {
+        writePatronHeader(patron, out, rows, "Fine");
+
+        PatronType patronType = patron.getPatronType();
+
+        for (Book book : booksOwned) {
+            TemporalAmount maxCheckoutTime = Duration.ofDays(patronType.getMaxCheckoutDays());
+
+            double fine = ledger.getLoanFine(book) / 100.0;
+
+            Instant dueDate = book.getCheckOutDate().plus(maxCheckoutTime);
+
+            writeRow(rows, book, dueDate, Double.toString(fine));
         }
+        out.append("\n\n");
+    }
+
+    private void writeHeader(ColumnFormat.RowWriter rows, String lastColumn) throws IOException {
+        rows.cell("Item ID").cell("Title").cell("Author").cell("Due Date").cell(lastColumn).endRow();
+    }
 
-        return formatter.out().toString();
+    private void writeRow(ColumnFormat.RowWriter rows, Book book, Instant dueDate, String lastColumn) throws IOException {
+        rows.cell(book.getIdentifier().getId()).cell(book.getTitle()).cell(book.getAuthor())
+                .cell(formatDueDate(dueDate)).cell(lastColumn).endRow();
+    }
+
+    /**
+     * Formats a due date as a short date. Every book due on the same day shares the same string, so the formatted
+     * dates are cached by day.
+     *
+     * @param dueDate The due date to format
+     *
+     * @return The due date formatted by {@link #dateTimeFormatter}
+     */
+    private String formatDueDate(Instant dueDate) {
+        long epochSecond = dueDate.getEpochSecond() + zone.getRules().getOffset(dueDate).getTotalSeconds();
+        long day = Math.floorDiv(epochSecond, 86400);
+        String formatted = dueDateCache.get(day);
+        if (formatted == null) {
+            if (dueDateCache.size() >= DUE_DATE_CACHE_SIZE) {
+                dueDateCache.clear();
+            }
+            formatted = dateTimeFormatter.format(dueDate);
+            dueDateCache.put(day, formatted);
+        }
+        return formatted;
     }
 
     /**
@@ -266,13 +667,22 @@ public class ReportGenerator {
      * @return A list of all {@linkplain Book}s that are checked out in the library
      */
     public List<Book> getCheckedOutBooks() {
-        List<Book> checkedOutBooks = new ArrayList<>();
-        for (Book e : library.getBooks()) {
-            if (bookIsCheckedOut(e)) {
-                checkedOutBooks.add(e);
+        return cache.get(ReportCache.key("getCheckedOutBooks"), this::computeCheckedOutBooks);
+    }
+
+    private List<Book> computeCheckedOutBooks() {
+        return CHECKED_OUT_TIMER.time(() -> {
+            try (FlightRecorderEvents.Span event = FlightRecorderEvents.report("getCheckedOutBooks")) {
+                event.setRows(library.getBooks().size());
+                List<Book> checkedOutBooks = new ArrayList<>();
+                for (Book e : library.getBooks()) {
+                    if (bookIsCheckedOut(e)) {
+                        checkedOutBooks.add(e);
+                    }
+                }
+                return Collections.unmodifiableList(checkedOutBooks);
             }
-        }
-        return checkedOutBooks;
+        });
     }
 
     /**
@@ -281,19 +691,70 @@ public class ReportGenerator {
      * @return A list of overdue books currently in this library
      */
     public List<Book> getOverdueBooks() {
-        List<Book> overDueBooks = new ArrayList<>();
-        for (Book e : getCheckedOutBooks()) {
-            Patron patron = e.getCurrentPatron();
-            PatronType patronType = patron.getPatronType();
-            TemporalAmount maxCheckoutTime = Duration.ofDays(patronType.getMaxCheckoutDays());
+        return cache.get(ReportCache.key("getOverdueBooks", clockMinute()), this::computeOverdueBooks);
+    }
 
-            Instant dueDate = e.getCheckOutDate().plus(maxCheckoutTime);
-            //Book is overdue; the due date is before now
-            if (dueDate.isBefore(Instant.now())) {
-                overDueBooks.add(e);
+    private List<Book> computeOverdueBooks() {
+        return OVERDUE_TIMER.time(() -> {
+            try (FlightRecorderEvents.Span event = FlightRecorderEvents.report("getOverdueBooks")) {
+                List<Book> overDueBooks = new ArrayList<>();
+                List<Book> checkedOutBooks = getCheckedOutBooks();
+                event.setRows(checkedOutBooks.size());
+                for (Book e : checkedOutBooks) {
+                    Patron patron = e.getCurrentPatron();
+                    PatronType patronType = patron.getPatronType();
+                    TemporalAmount maxCheckoutTime = Duration.ofDays(patronType.getMaxCheckoutDays());
+
+                    Instant dueDate = e.getCheckOutDate().plus(maxCheckoutTime);
+                    //Book is overdue; the due date is before now
+                    if (dueDate.isBefore(Instant.now())) {
+                        overDueBooks.add(e);
+                    }
+                }
+                return Collections.unmodifiableList(overDueBooks);
             }
+        });
+    }
+
+    /**
+     * Gets the date the given checked out book is due, based on the patron type of the patron holding it
+     *
+     * @param book A checked out book
+     *
+     * @return The date and time the book is due
+     */
+    public Instant getDueDate(Book book) {
+        return getDueDate(book.getCurrentPatron(), book.getCheckOutDate());
+    }
+
+    /**
+     * Gets the date a loan is due, based on the patron type of the patron it was made to
+     *
+     * @param patron       The patron the book was checked out to
+     * @param checkOutDate The date the book was checked out
+     *
+     * @return The date and time the loan is due
+     */
+    public Instant getDueDate(Patron patron, Instant checkOutDate) {
+        return checkOutDate.plus(Duration.ofDays(patron.getPatronType().getMaxCheckoutDays()));
+    }
+
+    /**
+     * Calculates the fine of the given overdue book using the current fine rate and fine limit. This is the fine the
+     * {@link FineLedger} would charge for the loan if it were swept now; the fines actually charged are read from the
+     * ledger.
+     *
+     * @param book An overdue book
+     *
+     * @return The fine in dollars
+     */
+    public double getFine(Book book) {
+        int daysLate = -getDayTillDue(book);
+        double fine = daysLate * fineRate;
+        if (fine > fineLimit) {
+            fine = fineLimit;
         }
-        return overDueBooks;
+        return fine;
     }
 
     private boolean bookIsCheckedOut(Book e) {
@@ -303,7 +764,16 @@ public class ReportGenerator {
     }
 
     /**
-     * Get the currently set fine rate in dollars per day overdue
+     * Reports that depend on the current time, such as the number of days until a book is due, are cached for at most
+     * the rest of the current minute
+     */
+    private static long clockMinute() {
+        return System.currentTimeMillis() / 60000;
+    }
+
+    /**
+     * Get the currently set fine rate in dollars per day overdue. The rate and limit are used by the library to charge
+     * fines; they do not change the fines that have already been charged.
      *
      * @return The current fine rate ($/day)
      */
@@ -337,4 +807,21 @@ public class ReportGenerator {
     public void setFineLimit(double fineLimit) {
         this.fineLimit = fineLimit;
     }
+
+    /**
+     * Sets whether reports are cached until the library is modified. Caching is enabled by default.
+     *
+     * @param cachingEnabled True to reuse the results of reports while the library is unmodified; false to recompute
+     *                       every report when it is requested
+     */
+    public void setCachingEnabled(boolean cachingEnabled) {
+        cache.setEnabled(cachingEnabled);
+    }
+
+    /**
+     * Formats the block of a single patron in a report grouped by patron
+     */
+    private interface PatronBlock {
+        void write(Patron patron, List<Book> books, Appendable out, ColumnFormat.RowWriter rows) throws IOException;
+    }
 }
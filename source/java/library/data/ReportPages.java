@@ -0,0 +1,200 @@
+package library.data;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A report of a {@link ReportGenerator} that is read a page of lines at a time, such as by a list that only shows the
+ * visible rows. Nothing is generated until a page or the number of lines is asked for, and then only as much of the
+ * report as is needed: the report is streamed and the lines outside of the page are dropped, and it stops being
+ * written once the page is complete. Each page and the number of lines are kept in the {@link ReportCache} until the
+ * library is modified.
+ *
+ * @author Srikavin Ramkumar
+ */
+public final class ReportPages {
+    /**
+     * The number of lines in each page
+     */
+    public static final int PAGE_LINES = 200;
+    private final ReportCache cache;
+    private final List<Object> key;
+    private final ReportCache.ReportWriter report;
+
+    /**
+     * Creates the pages of a report
+     *
+     * @param cache  The cache of the report generator
+     * @param key    The cache key of the report, as used to write it
+     * @param report Writes the whole report
+     */
+    ReportPages(ReportCache cache, List<Object> key, ReportCache.ReportWriter report) {
+        this.cache = cache;
+        this.key = key;
+        this.report = report;
+    }
+
+    /**
+     * Counts the lines of the report. The report is streamed once to count them, without keeping its lines.
+     *
+     * @return The number of lines in the report
+     */
+    public int getLineCount() {
+        return cache.get(ReportCache.key("lines", key), () -> {
+            LineRange counter = new LineRange(Integer.MAX_VALUE, Integer.MAX_VALUE);
+            write(counter);
+            return counter.end();
+        });
+    }
+
+    /**
+     * Gets a page of the report, generating it if it is not cached
+     *
+     * @param page The index of the page, starting at 0
+     *
+     * @return The lines of the page, without line terminators; empty if the report has fewer pages
+     */
+    public List<String> getPage(int page) {
+        return cache.get(ReportCache.key("page", key, page), () -> {
+            LineRange range = new LineRange(page * PAGE_LINES, PAGE_LINES);
+            write(range);
+            range.end();
+            return Collections.unmodifiableList(range.lines);
+        });
+    }
+
+    /**
+     * Gets a single line of the report from the page it is on
+     *
+     * @param index The index of the line, starting at 0
+     *
+     * @return The line, or an empty string if the report is shorter; this can only happen if the library was modified
+     * since the number of lines was read
+     */
+    public String getLine(int index) {
+        List<String> page = getPage(index / PAGE_LINES);
+        int line = index % PAGE_LINES;
+        return line < page.size() ? page.get(line) : "";
+    }
+
+    private void write(LineRange range) {
+        try {
+            report.writeTo(range);
+        } catch (PageComplete e) {
+            //The rest of the report is not needed
+        } catch (IOException e) {
+            //A LineRange only fails to stop the report once its page is complete
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Thrown by a {@link LineRange} to stop a report once its lines have been written
+     */
+    private static final class PageComplete extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        private PageComplete() {
+            super(null, null);
+        }
+
+        @Override
+        public synchronized Throwable fillInStackTrace() {
+            return this;
+        }
+    }
+
+    /**
+     * Splits the report into lines and keeps only the lines of a single page
+     */
+    private static final class LineRange implements Appendable {
+        private final int first;
+        private final int limit;
+        private final List<String> lines = new ArrayList<>();
+        private final StringBuilder currentLine = new StringBuilder();
+        private int line;
+        /**
+         * True if anything was written to the current line, even if it is not kept
+         */
+        private boolean started;
+
+        private LineRange(int first, int count) {
+            this.first = first;
+            this.limit = count == Integer.MAX_VALUE ? Integer.MAX_VALUE : first + count;
+        }
+
+        @Override
+        public Appendable append(CharSequence csq) throws IOException {
+            return append(csq == null ? "null" : csq, 0, csq == null ? 4 : csq.length());
+        }
+
+        @Override
+        public Appendable append(CharSequence csq, int start, int end) throws IOException {
+            if (csq == null) {
+                return append("null", start, end);
+            }
+            int from = start;
+            for (int i = start; i < end; i++) {
+                char c = csq.charAt(i);
+                if (c == '\n' || c == '\r') {
+                    keep(csq, from, i);
+                    from = i + 1;
+                    if (c == '\n') {
+                        endLine();
+                    }
+                }
+            }
+            keep(csq, from, end);
+            return this;
+        }
+
+        @Override
+        public Appendable append(char c) throws IOException {
+            if (c == '\n') {
+                endLine();
+            } else if (c != '\r') {
+                keep(String.valueOf(c), 0, 1);
+            }
+            return this;
+        }
+
+        private void keep(CharSequence csq, int start, int end) {
+            if (start < end) {
+                started = true;
+                if (line >= first) {
+                    currentLine.append(csq, start, end);
+                }
+            }
+        }
+
+        private void endLine() throws PageComplete {
+            if (line >= first) {
+                lines.add(currentLine.toString());
+                currentLine.setLength(0);
+            }
+            started = false;
+            line++;
+            if (line >= limit) {
+                throw new PageComplete();
+            }
+        }
+
+        /**
+         * Ends the last line, if it has any content
+         *
+         * @return The number of lines written
+         */
+        private int end() {
+            if (started) {
+                if (line >= first) {
+                    lines.add(currentLine.toString());
+                }
+                started = false;
+                line++;
+            }
+            return line;
+        }
+    }
+}
@@ -0,0 +1,618 @@
+package library.data;
+
+import library.metrics.Counter;
+import library.metrics.FlightRecorderEvents;
+import library.metrics.MetricsRegistry;
+import library.metrics.Timer;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.*;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+
+/**
+ * Stores a library in an embedded SQL database in its data directory, library.mv.db. The database is opened through
+ * JDBC with the H2 driver, which must be on the class path.
+ * <p>
+ * Every record except for transactions is kept in the records table, as the same row that would be written to a data
+ * file, along with its section and identifier. Transactions have their own table, which also has the time, action, and
+ * book of each transaction so that they can be queried without being parsed:
+ * <pre>
+ * records      (seq, section_name, id, row_data)
+ * transactions (seq, id, id_number, happened_millis, action_name, book_id, row_data)
+ * </pre>
+ * Saving only writes the records that were added, changed, or removed since the last save, in a single database
+ * transaction. Older transactions are not loaded; ranges of them are found through an index on their time, and the
+ * rest are read a page at a time.
+ * <p>
+ * The database file cannot be copied while it is open, so it is backed up as an SQL script, {@value #BACKUP_SCRIPT},
+ * written by {@link #writeBackupScript()} and turned back into a database by {@link #restoreBackupScript(Path)}.
+ *
+ * @author Srikavin Ramkumar
+ */
+public class SqlLibraryStore implements LibraryStore {
+    /**
+     * The name of the database file in a data directory
+     */
+    public static final String DATABASE_FILE = "library.mv.db";
+    /**
+     * The name of the script the database is backed up as in a data directory
+     */
+    public static final String BACKUP_SCRIPT = "library.sql";
+    /**
+     * The number of stored transactions read together as a page
+     */
+    private static final int PAGE_ROWS = 1024;
+    private static final int CACHED_PAGES = 8;
+    private static final int BATCH_ROWS = 1000;
+    private final static MetricsRegistry metrics = MetricsRegistry.getDefault();
+    private final static Timer queryTimer = metrics.timer("library.sql.query");
+    private final static Counter writtenRows = metrics.counter("library.sql.rows.written");
+    private final Path directory;
+    private final Duration recentHistory;
+    private final Connection connection;
+    /**
+     * The identifier and row of each saved record, by its position in the records table
+     */
+    private final Map<Long, String[]> savedRecords = new HashMap<>();
+    /**
+     * The position of each saved transaction that is in memory, by its identifier. Transactions are matched by their
+     * identifier, as the library can replace a transaction with a copy of it, such as when its book is removed.
+     */
+    private final Map<Identifier, Long> savedTransactions = new HashMap<>();
+    private final Map<Integer, List<Transaction>> cache = new LruCache<>(CACHED_PAGES);
+    /**
+     * The transactions at or before this position are kept in the database instead of in memory
+     */
+    private long storedThrough;
+    private int storedCount;
+    private long nextRecordSeq = 1;
+    private long nextTransactionSeq = 1;
+
+    /**
+     * Opens the database of a data directory, creating it if it does not exist
+     *
+     * @param directory     The data directory
+     * @param recentHistory How far back transactions are loaded into memory; null to load all transactions
+     *
+     * @throws IOException If the database cannot be opened, such as when another program has it open
+     */
+    public SqlLibraryStore(Path directory, Duration recentHistory) throws IOException {
+        this.directory = directory;
+        this.recentHistory = recentHistory;
+        String name = DATABASE_FILE.substring(0, DATABASE_FILE.indexOf('.'));
+        try {
+            connection = DriverManager.getConnection("jdbc:h2:file:" + directory.resolve(name).toAbsolutePath());
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("CREATE TABLE IF NOT EXISTS records (seq BIGINT PRIMARY KEY, " +
+                        "section_name VARCHAR(32) NOT NULL, id VARCHAR(255) NOT NULL, row_data VARCHAR NOT NULL)");
+                statement.execute("CREATE TABLE IF NOT EXISTS transactions (seq BIGINT PRIMARY KEY, " +
+                        "id VARCHAR(255) NOT NULL, id_number INT, happened_millis BIGINT NOT NULL, " +
+                        "action_name VARCHAR(32) NOT NULL, book_id VARCHAR(255) NOT NULL, row_data VARCHAR NOT NULL)");
+                statement.execute("CREATE INDEX IF NOT EXISTS transactions_happened ON transactions (happened_millis)");
+            }
+        } catch (SQLException e) {
+            throw new IOException("Could not open the database in " + directory + ": " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public synchronized void load(Library library) throws IOException {
+        try {
+            savedRecords.clear();
+            savedTransactions.clear();
+            cache.clear();
+            try (Statement statement = connection.createStatement()) {
+                nextRecordSeq = queryLong(statement, "SELECT COALESCE(MAX(seq), 0) FROM records") + 1;
+                nextTransactionSeq = queryLong(statement, "SELECT COALESCE(MAX(seq), 0) FROM transactions") + 1;
+            }
+            //Only the oldest transactions are kept in the database; the rest are loaded from the first recent one on
+            storedThrough = 0;
+            if (recentHistory != null) {
+                try (PreparedStatement statement = connection.prepareStatement("SELECT COALESCE(MIN(seq), ?) - 1 " +
+                        "FROM transactions WHERE happened_millis >= ?")) {
+                    statement.setLong(1, nextTransactionSeq);
+                    statement.setLong(2, Instant.now().minus(recentHistory).toEpochMilli());
+                    storedThrough = queryLong(statement);
+                }
+            }
+            try (PreparedStatement statement = connection.prepareStatement("SELECT COUNT(*) FROM transactions WHERE seq <= ?")) {
+                statement.setLong(1, storedThrough);
+                storedCount = (int) queryLong(statement);
+            }
+
+            for (String section : Library.SECTIONS) {
+                try (FlightRecorderEvents.Span event = FlightRecorderEvents.sectionLoad(section)) {
+                    event.setRows(section.equals("TRANSACTIONS") ? loadTransactions(library) : loadRecords(library, section));
+                }
+            }
+            library.endLoad();
+            //Transactions are added to the library in the order they were read
+            long[] seqs = readTransactionSeqs();
+            List<Transaction> loaded = library.getTransactionList();
+            for (int i = 0; i < loaded.size(); i++) {
+                savedTransactions.put(loaded.get(i).getIdentifier(), seqs[i]);
+            }
+            countStoredCheckouts(library);
+        } catch (SQLException e) {
+            throw new IOException("Could not load the database in " + directory + ": " + e.getMessage(), e);
+        }
+    }
+
+    private int loadRecords(Library library, String section) throws SQLException {
+        int rows = 0;
+        try (PreparedStatement statement = connection.prepareStatement("SELECT seq, id, row_data FROM records " +
+                "WHERE section_name = ? ORDER BY seq")) {
+            statement.setString(1, section);
+            try (ResultSet results = statement.executeQuery()) {
+                while (results.next()) {
+                    String row = results.getString(3);
+                    savedRecords.put(results.getLong(1), new String[]{section, results.getString(2), row});
+                    library.loadRecord(section, Library.parseRecord(row));
+                    rows++;
+                }
+            }
+        }
+        return rows;
+    }
+
+    private int loadTransactions(Library library) throws SQLException {
+        int rows = 0;
+        try (PreparedStatement statement = connection.prepareStatement("SELECT row_data FROM transactions " +
+                "WHERE seq > ? ORDER BY seq")) {
+            statement.setLong(1, storedThrough);
+            try (ResultSet results = statement.executeQuery()) {
+                while (results.next()) {
+                    library.loadRecord("TRANSACTIONS", Library.parseRecord(results.getString(1)));
+                    rows++;
+                }
+            }
+        }
+        return rows;
+    }
+
+    private long[] readTransactionSeqs() throws SQLException {
+        List<Long> seqs = new ArrayList<>();
+        try (PreparedStatement statement = connection.prepareStatement("SELECT seq FROM transactions WHERE seq > ? " +
+                "ORDER BY seq")) {
+            statement.setLong(1, storedThrough);
+            try (ResultSet results = statement.executeQuery()) {
+                while (results.next()) {
+                    seqs.add(results.getLong(1));
+                }
+            }
+        }
+        return seqs.stream().mapToLong(Long::longValue).toArray();
+    }
+
+    /**
+     * Counts the checkouts of the stored transactions by title, and continues numbering transactions after them, as
+     * they are not loaded
+     */
+    private void countStoredCheckouts(Library library) throws SQLException {
+        if (storedCount == 0) {
+            return;
+        }
+        Map<String, Book> booksById = new HashMap<>();
+        for (Book e : library.getBooks()) {
+            booksById.put(e.getIdentifier().getId(), e);
+        }
+        try (PreparedStatement statement = connection.prepareStatement("SELECT book_id, COUNT(*) FROM transactions " +
+                "WHERE seq <= ? AND action_name = ? GROUP BY book_id")) {
+            statement.setLong(1, storedThrough);
+            statement.setString(2, Transaction.Action.CHECKOUT.name());
+            try (ResultSet results = statement.executeQuery()) {
+                while (results.next()) {
+                    Book book = booksById.get(results.getString(1));
+                    if (book != null) {
+                        book.getTitleRecord().recordCheckouts(results.getLong(2));
+                    }
+                }
+            }
+        }
+        try (PreparedStatement statement = connection.prepareStatement("SELECT COALESCE(MAX(id_number), 0) " +
+                "FROM transactions WHERE seq <= ?")) {
+            statement.setLong(1, storedThrough);
+            library.skipTransactionIds((int) queryLong(statement));
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Records are matched to the saved rows by their section and identifier; only the rows that differ are written.
+     */
+    @Override
+    public synchronized void persist(Library library) throws IOException {
+        Map<Long, String[]> records = new HashMap<>(savedRecords);
+        Map<Identifier, Long> transactions = new HashMap<>();
+        long recordSeq = nextRecordSeq;
+        long transactionSeq = nextTransactionSeq;
+        int written = 0;
+        try {
+            connection.setAutoCommit(false);
+            //Group the saved records by section and identifier, in the order they were saved
+            Map<String, Deque<Long>> unmatched = new HashMap<>();
+            List<Long> seqs = new ArrayList<>(records.keySet());
+            Collections.sort(seqs);
+            for (Long e : seqs) {
+                String[] saved = records.get(e);
+                unmatched.computeIfAbsent(saved[0] + ',' + saved[1], (key) -> new ArrayDeque<>()).add(e);
+            }
+            try (PreparedStatement insert = connection.prepareStatement("INSERT INTO records (seq, section_name, id, " +
+                    "row_data) VALUES (?, ?, ?, ?)");
+                 PreparedStatement update = connection.prepareStatement("UPDATE records SET row_data = ? WHERE seq = ?");
+                 PreparedStatement delete = connection.prepareStatement("DELETE FROM records WHERE seq = ?")) {
+                for (String section : Library.SECTIONS) {
+                    if (section.equals("TRANSACTIONS")) {
+                        continue;
+                    }
+                    for (LibraryData e : library.getRecords(section)) {
+                        String id = e.getIdentifier().getId();
+                        String row = Library.formatRecord(e.asData());
+                        Deque<Long> matches = unmatched.get(section + ',' + id);
+                        Long seq = matches == null ? null : matches.poll();
+                        if (seq == null) {
+                            insert.setLong(1, recordSeq);
+                            insert.setString(2, section);
+                            insert.setString(3, id);
+                            insert.setString(4, row);
+                            insert.addBatch();
+                            records.put(recordSeq++, new String[]{section, id, row});
+                            written++;
+                        } else if (!records.get(seq)[2].equals(row)) {
+                            update.setString(1, row);
+                            update.setLong(2, seq);
+                            update.addBatch();
+                            records.put(seq, new String[]{section, id, row});
+                            written++;
+                        }
+                    }
+                }
+                for (Deque<Long> removed : unmatched.values()) {
+                    for (Long e : removed) {
+                        delete.setLong(1, e);
+                        delete.addBatch();
+                        records.remove(e);
+                        written++;
+                    }
+                }
+                insert.executeBatch();
+                update.executeBatch();
+                delete.executeBatch();
+            }
+
+            //Transactions are not changed once they are recorded, so only new and removed ones are written
+            Map<Identifier, Long> removed = new HashMap<>(savedTransactions);
+            List<Transaction> added = new ArrayList<>();
+            List<Transaction> current = library.getTransactionList();
+            synchronized (current) {
+                for (Transaction e : current) {
+                    Long seq = removed.remove(e.getIdentifier());
+                    if (seq == null) {
+                        added.add(e);
+                    } else {
+                        transactions.put(e.getIdentifier(), seq);
+                    }
+                }
+            }
+            try (PreparedStatement delete = connection.prepareStatement("DELETE FROM transactions WHERE seq = ?")) {
+                for (Long e : removed.values()) {
+                    delete.setLong(1, e);
+                    delete.addBatch();
+                    written++;
+                }
+                delete.executeBatch();
+            }
+            try (PreparedStatement insert = prepareTransactionInsert()) {
+                for (Transaction e : added) {
+                    addTransaction(insert, transactionSeq, e.asData());
+                    transactions.put(e.getIdentifier(), transactionSeq++);
+                    written++;
+                }
+                insert.executeBatch();
+            }
+            connection.commit();
+        } catch (SQLException e) {
+            IOException failure = new IOException("Could not save the library to the database in " + directory + ": " +
+                    e.getMessage(), e);
+            endTransaction(failure);
+            throw failure;
+        } catch (RuntimeException e) {
+            endTransaction(e);
+            throw e;
+        }
+        savedRecords.clear();
+        savedRecords.putAll(records);
+        savedTransactions.clear();
+        savedTransactions.putAll(transactions);
+        nextRecordSeq = recordSeq;
+        nextTransactionSeq = transactionSeq;
+        writtenRows.add(written);
+        endTransaction(null);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The transactions of the library that are not in memory are written ahead of the ones that are, and are kept in
+     * the database by this store.
+     */
+    @Override
+    public synchronized void write(Library library) throws IOException {
+        Map<Long, String[]> records = new HashMap<>();
+        Map<Identifier, Long> transactions = new HashMap<>();
+        int olderCount = library.getOlderTransactionCount();
+        List<Transaction> all = library.getTransactionHistory();
+        long seq = 1;
+        try {
+            connection.setAutoCommit(false);
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("DELETE FROM records");
+                statement.execute("DELETE FROM transactions");
+            }
+            try (PreparedStatement insert = connection.prepareStatement("INSERT INTO records (seq, section_name, id, " +
+                    "row_data) VALUES (?, ?, ?, ?)")) {
+                for (String section : Library.SECTIONS) {
+                    if (section.equals("TRANSACTIONS")) {
+                        continue;
+                    }
+                    try (FlightRecorderEvents.Span event = FlightRecorderEvents.sectionSave(section)) {
+                        List<? extends LibraryData> rows = library.getRecords(section);
+                        event.setRows(rows.size());
+                        for (LibraryData e : rows) {
+                            String id = e.getIdentifier().getId();
+                            String row = Library.formatRecord(e.asData());
+                            insert.setLong(1, seq);
+                            insert.setString(2, section);
+                            insert.setString(3, id);
+                            insert.setString(4, row);
+                            insert.addBatch();
+                            records.put(seq++, new String[]{section, id, row});
+                            if (records.size() % BATCH_ROWS == 0) {
+                                insert.executeBatch();
+                            }
+                        }
+                    }
+                }
+                insert.executeBatch();
+            }
+            long recordSeq = seq;
+            seq = 1;
+            try (FlightRecorderEvents.Span event = FlightRecorderEvents.sectionSave("TRANSACTIONS");
+                 PreparedStatement insert = prepareTransactionInsert()) {
+                event.setRows(all.size());
+                for (int i = 0; i < all.size(); i++) {
+                    Transaction e = all.get(i);
+                    addTransaction(insert, seq, e.asData());
+                    if (i >= olderCount) {
+                        transactions.put(e.getIdentifier(), seq);
+                    }
+                    seq++;
+                    if (i % BATCH_ROWS == BATCH_ROWS - 1) {
+                        insert.executeBatch();
+                    }
+                }
+                insert.executeBatch();
+            }
+            connection.commit();
+            savedRecords.clear();
+            savedRecords.putAll(records);
+            savedTransactions.clear();
+            savedTransactions.putAll(transactions);
+            cache.clear();
+            nextRecordSeq = recordSeq;
+            nextTransactionSeq = seq;
+            storedThrough = olderCount;
+            storedCount = olderCount;
+            writtenRows.add(records.size() + all.size());
+        } catch (SQLException e) {
+            IOException failure = new IOException("Could not write the library to the database in " + directory + ": " +
+                    e.getMessage(), e);
+            endTransaction(failure);
+            throw failure;
+        } catch (RuntimeException e) {
+            endTransaction(e);
+            throw e;
+        }
+        endTransaction(null);
+    }
+
+    private PreparedStatement prepareTransactionInsert() throws SQLException {
+        return connection.prepareStatement("INSERT INTO transactions (seq, id, id_number, happened_millis, action_name, " +
+                "book_id, row_data) VALUES (?, ?, ?, ?, ?, ?, ?)");
+    }
+
+    private static void addTransaction(PreparedStatement insert, long seq, String[] data) throws SQLException {
+        insert.setLong(1, seq);
+        insert.setString(2, data[0]);
+        try {
+            insert.setInt(3, Integer.parseInt(data[0]));
+        } catch (NumberFormatException ignored) {
+            //Identifiers are not required to be numeric
+            insert.setNull(3, Types.INTEGER);
+        }
+        insert.setLong(4, Instant.parse(data[4]).toEpochMilli());
+        insert.setString(5, data[3]);
+        insert.setString(6, data[2]);
+        insert.setString(7, Library.formatRecord(data));
+        insert.addBatch();
+    }
+
+    /**
+     * Ends a database transaction started by turning off auto-commit, rolling it back if it failed. Errors while ending
+     * it are added to the failure, so that they do not hide it.
+     *
+     * @param failure The error the transaction failed with, or null if it was committed
+     *
+     * @throws IOException If a committed transaction cannot be ended
+     */
+    private void endTransaction(Throwable failure) throws IOException {
+        if (failure != null) {
+            try {
+                connection.rollback();
+            } catch (SQLException e) {
+                failure.addSuppressed(e);
+            }
+        }
+        try {
+            connection.setAutoCommit(true);
+        } catch (SQLException e) {
+            if (failure == null) {
+                throw new IOException("Could not end the transaction of the database in " + directory + ": " +
+                        e.getMessage(), e);
+            }
+            failure.addSuppressed(e);
+        }
+    }
+
+    @Override
+    public Path getDirectory() {
+        return directory;
+    }
+
+    @Override
+    public synchronized int getStoredTransactionCount() {
+        return storedCount;
+    }
+
+    @Override
+    public synchronized Transaction getStoredTransaction(Library library, int index) {
+        if (index < 0 || index >= storedCount) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + storedCount);
+        }
+        List<Transaction> page = cache.get(index / PAGE_ROWS);
+        if (page == null) {
+            try {
+                page = queryTimer.time(() -> {
+                    try (PreparedStatement statement = connection.prepareStatement("SELECT row_data FROM transactions " +
+                            "WHERE seq <= ? ORDER BY seq LIMIT ? OFFSET ?")) {
+                        statement.setLong(1, storedThrough);
+                        statement.setInt(2, PAGE_ROWS);
+                        statement.setInt(3, index / PAGE_ROWS * PAGE_ROWS);
+                        return readTransactions(statement, library);
+                    }
+                });
+            } catch (SQLException e) {
+                throw new UncheckedIOException(new IOException("Could not read transactions from the database in " +
+                        directory + ": " + e.getMessage(), e));
+            }
+            cache.put(index / PAGE_ROWS, page);
+        }
+        return page.get(index % PAGE_ROWS);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The range is found through the index on the time of the transactions, so only the matching rows are read.
+     */
+    @Override
+    public synchronized List<Transaction> findTransactions(Library library, Instant start, Instant end) throws IOException {
+        if (storedCount == 0) {
+            return new ArrayList<>();
+        }
+        try {
+            return queryTimer.time(() -> {
+                try (PreparedStatement statement = connection.prepareStatement("SELECT row_data FROM transactions " +
+                        "WHERE seq <= ? AND happened_millis >= ? AND happened_millis < ? ORDER BY seq")) {
+                    statement.setLong(1, storedThrough);
+                    statement.setLong(2, start.toEpochMilli());
+                    statement.setLong(3, end.toEpochMilli());
+                    List<Transaction> found = new ArrayList<>();
+                    for (Transaction e : readTransactions(statement, library)) {
+                        //Times are stored to the millisecond, so check the exact time as well
+                        if (!e.getTimestamp().isBefore(start) && e.getTimestamp().isBefore(end)) {
+                            found.add(e);
+                        }
+                    }
+                    return found;
+                }
+            });
+        } catch (SQLException e) {
+            throw new IOException("Could not read transactions from the database in " + directory + ": " + e.getMessage(), e);
+        }
+    }
+
+    private static List<Transaction> readTransactions(PreparedStatement statement, Library library) throws SQLException {
+        List<Transaction> transactions = new ArrayList<>();
+        try (ResultSet results = statement.executeQuery()) {
+            while (results.next()) {
+                transactions.add(new Transaction(Library.parseRecord(results.getString(1)), library));
+            }
+        }
+        return transactions;
+    }
+
+    private static long queryLong(Statement statement, String sql) throws SQLException {
+        try (ResultSet results = statement.executeQuery(sql)) {
+            results.next();
+            return results.getLong(1);
+        }
+    }
+
+    private static long queryLong(PreparedStatement statement) throws SQLException {
+        try (ResultSet results = statement.executeQuery()) {
+            results.next();
+            return results.getLong(1);
+        }
+    }
+
+    /**
+     * Writes the database to {@value #BACKUP_SCRIPT} in the data directory, as the statements that create it again.
+     * The script is written in a single database transaction, so it has the database as of the last save.
+     *
+     * @throws IOException If the script cannot be written
+     */
+    public synchronized void writeBackupScript() throws IOException {
+        try (PreparedStatement statement = connection.prepareStatement("SCRIPT TO ?")) {
+            statement.setString(1, directory.resolve(BACKUP_SCRIPT).toAbsolutePath().toString());
+            statement.execute();
+        } catch (SQLException e) {
+            throw new IOException("Could not back up the database in " + directory + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Replaces the database of a data directory with the one in its {@value #BACKUP_SCRIPT}, such as after the script
+     * was restored from a backup. The database must not be open.
+     *
+     * @param directory The data directory
+     *
+     * @throws IOException If the database cannot be replaced, such as when another program has it open
+     */
+    public static void restoreBackupScript(Path directory) throws IOException {
+        Path script = directory.resolve(BACKUP_SCRIPT);
+        if (!Files.isRegularFile(script)) {
+            throw new IOException(script + " does not exist");
+        }
+        //The script creates the tables, so it is run into an empty database
+        Files.deleteIfExists(directory.resolve(DATABASE_FILE));
+        String name = DATABASE_FILE.substring(0, DATABASE_FILE.indexOf('.'));
+        try (Connection restored = DriverManager.getConnection("jdbc:h2:file:" + directory.resolve(name).toAbsolutePath());
+             PreparedStatement statement = restored.prepareStatement("RUNSCRIPT FROM ?")) {
+            statement.setString(1, script.toAbsolutePath().toString());
+            statement.execute();
+        } catch (SQLException e) {
+            throw new IOException("Could not restore the database in " + directory + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Closes the database, so that it can be opened by another program
+     *
+     * @throws IOException If the database cannot be closed
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            throw new IOException(e);
+        }
+    }
+}
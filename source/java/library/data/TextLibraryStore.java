@@ -0,0 +1,822 @@
+package library.data;
+
+import library.backup.BackupStore;
+import library.metrics.Counter;
+import library.metrics.FlightRecorderEvents;
+import library.metrics.MetricsRegistry;
+import library.metrics.Timer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.YearMonth;
+import java.time.ZoneOffset;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Stores a library in the text data file, data.txt, of a data directory. Each kind of record is written to its own
+ * section of the file, one record per line, followed by the checksums of the sections.
+ * <p>
+ * Older transactions can be left in the data file when the library is loaded, and read back a page at a time, or moved
+ * into the monthly files of the {@link TransactionArchive}. A damaged data file is replaced by the newest backup that
+ * can be loaded.
+ *
+ * @author Srikavin Ramkumar
+ */
+public class TextLibraryStore implements LibraryStore {
+    /**
+     * The name of the data file in a data directory
+     */
+    public static final String DATA_FILE = "data.txt";
+    /**
+     * Used to separate different data types (patrons, books, etc.) in the data file.
+     */
+    private final static String dataTypeSeparator = "--------";
+    private final static MetricsRegistry metrics = MetricsRegistry.getDefault();
+    private final static Counter loadRecoveries = metrics.counter("library.load.recovered");
+    private final static Timer archiveTimer = metrics.timer("library.archive");
+    private final static Counter archivedRows = metrics.counter("library.archive.rows");
+    private final Path directory;
+    private final Path dataFile;
+    private final Duration recentHistory;
+    /**
+     * The older transactions that are kept in the data file instead of in memory, or null if all are in memory
+     */
+    private volatile TransactionHistory history;
+    /**
+     * The transactions before the active period, in monthly files next to the data file
+     */
+    private volatile TransactionArchive archive;
+    /**
+     * The sections of the data file as it was last loaded or saved, or null if it could not be verified
+     */
+    private List<DataFile.Section> sections;
+
+    /**
+     * Creates a store for the data file of a data directory
+     *
+     * @param directory     The data directory
+     * @param recentHistory How far back transactions are loaded into memory; null to load all transactions
+     */
+    public TextLibraryStore(Path directory, Duration recentHistory) {
+        this.directory = directory;
+        this.dataFile = directory.resolve(DATA_FILE);
+        this.recentHistory = recentHistory;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Data files written by older versions, and backups loaded because the data file is damaged, are loaded
+     * completely. The data file is created if it does not exist.
+     */
+    @Override
+    public void load(Library library) throws IOException {
+        archive = TransactionArchive.open(directory);
+        if (Files.isRegularFile(dataFile)) {
+            try {
+                //Rows can only be found again in files written with a checksum footer
+                boolean verified = DataFile.verify(dataFile);
+                List<DataFile.Section> verifiedSections = verified ? readSections() : null;
+                load(library, dataFile, verified && recentHistory != null ? Instant.now().minus(recentHistory) : null,
+                        verifiedSections);
+                sections = verifiedSections;
+            } catch (IOException | RuntimeException e) {
+                //The data file is damaged, such as by a power failure, so open the newest backup that is not
+                library.reset();
+                history = null;
+                String recoveredFrom = recover(library, e);
+                if (recoveredFrom == null) {
+                    throw e;
+                }
+                loadRecoveries.increment();
+                //The damaged data file is replaced the next time this library is saved
+                library.markRecovered(recoveredFrom, e);
+            }
+        } else {
+            try {
+                //If the file doesn't exist, create it
+                Files.createFile(dataFile);
+            } catch (IOException e) {
+                //Throw an unchecked exception with the same contents as the exception
+                throw new RuntimeException(e);
+            }
+        }
+
+        //Count the checkouts that were archived, as their transactions are not loaded
+        for (Map.Entry<Identifier, Long> e : archive.getCheckouts().entrySet()) {
+            Title title = library.getCatalog().getTitle(e.getKey());
+            if (title != null) {
+                title.recordCheckouts(e.getValue());
+            }
+        }
+        TransactionHistory older = history;
+        if (older != null) {
+            library.skipTransactionIds(older.getMaxId());
+        }
+    }
+
+    /**
+     * Reads the sections of a data file into a library
+     *
+     * @param library  The library to load into
+     * @param file     The data file to read
+     * @param cutoff   The time before which transactions are left in the file; null to load all transactions
+     * @param sections The verified sections of the file, or null if it has no checksums
+     *
+     * @throws IOException If the file cannot be read
+     */
+    private void load(Library library, Path file, Instant cutoff, List<DataFile.Section> sections) throws IOException {
+        AtomicReference<String> current = new AtomicReference<>("");
+        Instant archivedThrough = archive.getThrough();
+        //The rows indexed when the file was saved are skipped instead of read
+        TransactionHistory stored = cutoff == null || sections == null ? null :
+                readStoredHistory(file, sections, cutoff, archivedThrough);
+        Map<Identifier, Long> storedCheckouts = stored == null ? Collections.emptyMap() : stored.getCheckouts();
+        TransactionHistory olderTransactions = stored != null ? stored : cutoff == null ? null : new TransactionHistory(file);
+        //The position of the current line in the file, used to find the transactions left in the file again
+        long[] position = new long[1];
+        //Checkouts of older transactions are counted by title without creating the transactions
+        Map<Identifier, Book> booksById = new HashMap<>();
+        //Records the loading of each section along with the number of rows in it
+        AtomicReference<FlightRecorderEvents.Span> sectionEvent = new AtomicReference<>();
+        long[] sectionRows = new long[1];
+        DataFile.LineAction loadLine = (line, length) -> {
+            long offset = position[0];
+            position[0] += length;
+            if (line.startsWith(dataTypeSeparator)) {
+                current.set(line.substring(dataTypeSeparator.length()));
+                endSectionEvent(sectionEvent.get(), sectionRows);
+                sectionEvent.set(FlightRecorderEvents.sectionLoad(current.get()));
+                return;
+            }
+            sectionRows[0]++;
+            String[] data = Library.parseRecord(line);
+
+            switch (current.get()) {
+                case "TRANSACTIONS":
+                    Instant timestamp = null;
+                    if (archivedThrough != null) {
+                        timestamp = Instant.parse(data[4]);
+                        if (timestamp.isBefore(archivedThrough)) {
+                            //Already archived, but left behind as the library was not saved after archiving
+                            if (olderTransactions != null && olderTransactions.size() > 0) {
+                                olderTransactions.end();
+                            }
+                            break;
+                        }
+                    }
+                    if (olderTransactions != null && olderTransactions.isOpen()) {
+                        if (timestamp == null) {
+                            timestamp = Instant.parse(data[4]);
+                        }
+                        if (timestamp.isBefore(cutoff)) {
+                            if (booksById.isEmpty() && data[3].equals(Transaction.Action.CHECKOUT.name())) {
+                                library.getBooks().forEach((e) -> booksById.put(e.getIdentifier(), e));
+                            }
+                            Title checkedOut = checkedOutTitle(data, booksById);
+                            olderTransactions.add(offset, position[0] - offset, data[0], timestamp, checkedOut);
+                            if (checkedOut != null) {
+                                checkedOut.recordCheckout();
+                            }
+                            break;
+                        }
+                        //Only the oldest rows are left in the file; the rest are loaded from here on
+                        olderTransactions.end();
+                    }
+                    library.loadRecord(current.get(), data);
+                    break;
+                case DataFile.CHECKSUM_SECTION:
+                    //Checked by DataFile.verify before the file is loaded
+                    break;
+                case TransactionHistory.SECTION:
+                    //Read by readStoredHistory, or rebuilt from the rows
+                    break;
+                default:
+                    library.loadRecord(current.get(), data);
+                    break;
+            }
+        };
+        if (stored == null) {
+            try (InputStream in = Files.newInputStream(file)) {
+                DataFile.readLines(in, loadLine);
+            }
+        } else {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                readLines(channel, 0, stored.getStart(), loadLine);
+                //Later rows that are older than the cutoff are added to the stored ones
+                position[0] = stored.getStart() + stored.getLength();
+                sectionRows[0] += stored.size();
+                readLines(channel, position[0], channel.size(), loadLine);
+            }
+        }
+        endSectionEvent(sectionEvent.get(), sectionRows);
+        library.endLoad();
+        for (Map.Entry<Identifier, Long> e : storedCheckouts.entrySet()) {
+            Title title = library.getCatalog().getTitle(e.getKey());
+            if (title != null) {
+                title.recordCheckouts(e.getValue());
+            }
+        }
+        if (olderTransactions != null && olderTransactions.size() > 0) {
+            olderTransactions.end();
+            olderTransactions.rememberFile();
+            history = olderTransactions;
+        }
+    }
+
+    /**
+     * Reads the index of the older transactions saved at the end of a data file, if it can be used to skip their rows.
+     * Every indexed row must be older than the cutoff, and none of them can be archived already.
+     *
+     * @return The indexed rows, or null if their rows have to be read
+     */
+    private static TransactionHistory readStoredHistory(Path file, List<DataFile.Section> sections, Instant cutoff,
+                                                        Instant archivedThrough) {
+        DataFile.Section transactions = null;
+        DataFile.Section index = null;
+        for (DataFile.Section e : sections) {
+            if (e.getName().equals("TRANSACTIONS")) {
+                transactions = e;
+            } else if (e.getName().equals(TransactionHistory.SECTION)) {
+                index = e;
+            }
+        }
+        if (transactions == null || index == null) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            //The older rows are the first rows of the section, right after its header, which is ASCII
+            String header = DataFile.read(channel, transactions.getOffset(), Math.min(transactions.getLength(), 256),
+                    -1);
+            if (header.indexOf('\n') < 0) {
+                return null;
+            }
+            long start = transactions.getOffset() + header.indexOf('\n') + 1;
+            TransactionHistory stored = TransactionHistory.readIndex(file, start,
+                    parseRows(DataFile.read(channel, index.getOffset(), index.getLength(), index.getCrc()), true));
+            if (!stored.getLatest().isBefore(cutoff) ||
+                    (archivedThrough != null && stored.getEarliest().isBefore(archivedThrough)) ||
+                    start + stored.getLength() > transactions.getOffset() + transactions.getLength()) {
+                return null;
+            }
+            return stored;
+        } catch (IOException | RuntimeException e) {
+            //The rows are read and indexed again instead
+            return null;
+        }
+    }
+
+    /**
+     * Reads the lines of part of a data file, which must start and end at the start of a line
+     */
+    private static void readLines(FileChannel channel, long from, long to, DataFile.LineAction action)
+            throws IOException {
+        try (InputStream in = new RangeInputStream(channel, from, to)) {
+            DataFile.readLines(in, action);
+        }
+    }
+
+    /**
+     * Counts the bytes of a string encoded as UTF-8, without encoding it
+     */
+    private static int utf8Length(String line) {
+        int length = line.length();
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c >= 0x800 && !Character.isSurrogate(c)) {
+                length += 2;
+            } else if (c >= 0x80) {
+                //Surrogate pairs take four bytes, two for each half
+                length += 1;
+            }
+        }
+        return length;
+    }
+
+    private static void endSectionEvent(FlightRecorderEvents.Span event, long[] rows) {
+        if (event != null) {
+            event.setRows(rows[0]);
+            event.close();
+        }
+        rows[0] = 0;
+    }
+
+    /**
+     * Reads part of a file through a channel that is shared with other reads, without moving its position
+     */
+    private static final class RangeInputStream extends InputStream {
+        private final FileChannel channel;
+        private final long end;
+        private long position;
+
+        private RangeInputStream(FileChannel channel, long from, long to) {
+            this.channel = channel;
+            this.position = from;
+            this.end = to;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            return read(single, 0, 1) < 0 ? -1 : single[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] bytes, int off, int len) throws IOException {
+            if (position >= end) {
+                return -1;
+            }
+            int read = channel.read(ByteBuffer.wrap(bytes, off, (int) Math.min(len, end - position)), position);
+            if (read > 0) {
+                position += read;
+            }
+            return read;
+        }
+
+        @Override
+        public void close() {
+            //The channel is closed by its owner
+        }
+    }
+
+    /**
+     * Loads the newest backup of the data directory that can be loaded. Backups in the backup store are checked along
+     * with the timestamped copies of data.txt made by older versions, newest first.
+     *
+     * @param library The library to load the backup into
+     * @param cause   The reason the data file could not be loaded, which the reasons backups cannot be listed are added
+     *                to, so that the caller reports them together
+     *
+     * @return A description of the loaded backup, or null if no backup could be loaded
+     */
+    private String recover(Library library, Exception cause) throws IOException {
+        BackupStore backupStore = new BackupStore(directory);
+        List<BackupStore.Snapshot> snapshots = new ArrayList<>();
+        try {
+            snapshots.addAll(backupStore.getSnapshots());
+        } catch (IOException | RuntimeException e) {
+            //Fall back to the copies made by older versions
+            cause.addSuppressed(e);
+        }
+        List<Path> copies;
+        try (Stream<Path> files = Files.list(directory)) {
+            copies = files.filter((file) -> file.getFileName().toString().matches("data-.+\\.txt"))
+                    .collect(Collectors.toList());
+        }
+        Map<Path, Instant> copyTimes = new HashMap<>();
+        for (Path e : copies) {
+            copyTimes.put(e, Files.getLastModifiedTime(e).toInstant());
+        }
+        copies.sort(Comparator.comparing(copyTimes::get));
+
+        Path temp = Files.createTempDirectory("bookkeeper-recovery");
+        try {
+            while (!snapshots.isEmpty() || !copies.isEmpty()) {
+                BackupStore.Snapshot snapshot = snapshots.isEmpty() ? null : snapshots.get(snapshots.size() - 1);
+                Path copy = copies.isEmpty() ? null : copies.get(copies.size() - 1);
+                String description;
+                Path file;
+                try {
+                    if (copy == null || (snapshot != null && snapshot.getTime().isAfter(copyTimes.get(copy)))) {
+                        snapshots.remove(snapshots.size() - 1);
+                        if (!snapshot.getFileSizes().containsKey(DATA_FILE)) {
+                            continue;
+                        }
+                        description = "the backup from " + snapshot.getTime();
+                        backupStore.restore(snapshot, temp.resolve(snapshot.getId()));
+                        file = temp.resolve(snapshot.getId()).resolve(DATA_FILE);
+                    } else {
+                        copies.remove(copies.size() - 1);
+                        description = copy.getFileName().toString();
+                        file = copy;
+                    }
+                    DataFile.verify(file);
+                    //The recovered file is deleted afterwards, so every transaction is loaded from it
+                    load(library, file, null, null);
+                    return description;
+                } catch (IOException | RuntimeException e) {
+                    library.reset();
+                }
+            }
+            return null;
+        } finally {
+            try (Stream<Path> files = Files.walk(temp)) {
+                for (Path e : files.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                    Files.deleteIfExists(e);
+                }
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The whole data file is written again, to a temporary file that replaces it once it is complete. The older
+     * transactions kept in the data file are copied from the old file without being parsed.
+     */
+    @Override
+    public synchronized void persist(Library library) throws IOException {
+        TransactionHistory older = history;
+        try (DataFile.Output output = new DataFile.Output(dataFile)) {
+            if (older == null) {
+                writeSections(library, output, null, null);
+                output.commit();
+            } else {
+                //Keep the older transactions from being read while the data file they are in is replaced
+                synchronized (older) {
+                    long[] olderStart = new long[1];
+                    writeSections(library, output, (out) -> olderStart[0] = older.copyTo(out), older);
+                    output.commit();
+                    older.moveTo(olderStart[0]);
+                }
+            }
+            sections = output.getSections();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The transactions of the library that are not in memory are written to the data file ahead of the ones that are,
+     * and are left in the data file by this store. If the library was loaded from another data directory with an
+     * archive, the archive is copied to this directory instead of being written to the data file.
+     */
+    @Override
+    public synchronized void write(Library library) throws IOException {
+        LibraryStore source = library.getStore();
+        TransactionArchive sourceArchive = source instanceof TextLibraryStore ? ((TextLibraryStore) source).archive : null;
+        int archivedCount = 0;
+        if (sourceArchive != null && sourceArchive.size() > 0) {
+            sourceArchive.copyTo(directory);
+            archivedCount = sourceArchive.size();
+        } else {
+            //The data file has every transaction, so an archive left in this directory would count them twice
+            Files.deleteIfExists(directory.resolve(TransactionArchive.DIRECTORY).resolve(TransactionArchive.INDEX));
+        }
+        int storedCount = library.getOlderTransactionCount();
+        int firstStored = archivedCount;
+        List<Transaction> all = library.getTransactionHistory();
+        TransactionHistory written = storedCount == archivedCount ? null : new TransactionHistory(dataFile);
+        try (DataFile.Output output = new DataFile.Output(dataFile)) {
+            writeSections(library, output, written == null ? null : (out) -> {
+                Map<Identifier, Book> booksById = new HashMap<>();
+                library.getBooks().forEach((e) -> booksById.put(e.getIdentifier(), e));
+                long offset = out.position();
+                for (int i = firstStored; i < storedCount; i++) {
+                    String[] data = all.get(i).asData();
+                    //Rows are written with "\n", so their length is known without flushing to find the position
+                    int length = utf8Length(Library.formatRecord(data)) + 1;
+                    written.add(offset, length, data[0], Instant.parse(data[4]), checkedOutTitle(data, booksById));
+                    offset += length;
+                    out.writeRecord(data);
+                }
+            }, written);
+            output.commit();
+            sections = output.getSections();
+        }
+        archive = sourceArchive != null && sourceArchive.size() > 0 ? sourceArchive : TransactionArchive.open(directory);
+        if (written != null) {
+            written.end();
+            written.rememberFile();
+        }
+        history = written;
+    }
+
+    private List<DataFile.Section> readSections() throws IOException {
+        try (FileChannel channel = FileChannel.open(dataFile, StandardOpenOption.READ)) {
+            return DataFile.readSections(channel, dataFile);
+        }
+    }
+
+    /**
+     * Reads the changes another program made to the data file since it was last loaded or saved. Only the sections
+     * whose checksums changed are read; for transactions, only the rows added to the end of the section are read.
+     *
+     * @return The changes, or null if the data file has not changed
+     *
+     * @throws IOException If the data file cannot be read or is damaged
+     */
+    synchronized Changes readChanges() throws IOException {
+        List<DataFile.Section> base = sections;
+        if (!Files.isRegularFile(dataFile)) {
+            return null;
+        }
+        //The file is read through one channel, so a save that replaces it in the meantime does not mix two files
+        try (FileChannel channel = FileChannel.open(dataFile, StandardOpenOption.READ)) {
+            List<DataFile.Section> current = DataFile.readSections(channel, dataFile);
+            if (current != null && base != null && current.size() == base.size()) {
+                boolean same = true;
+                for (int i = 0; i < current.size() && same; i++) {
+                    same = current.get(i).matches(base.get(i));
+                }
+                if (same) {
+                    return null;
+                }
+            }
+            Changes changes = new Changes(base, current);
+            TransactionArchive currentArchive = TransactionArchive.open(directory);
+            if (current == null || base == null || currentArchive.size() != archive.size() ||
+                    !Objects.equals(currentArchive.getThrough(), archive.getThrough())) {
+                //Without checksums to compare, or with transactions moved to or from the archive, nothing can be kept
+                changes.reloadRequired = true;
+                return changes;
+            }
+            Map<String, DataFile.Section> previous = new HashMap<>();
+            for (DataFile.Section e : base) {
+                previous.put(e.getName(), e);
+            }
+            for (DataFile.Section e : current) {
+                DataFile.Section old = previous.get(e.getName());
+                //The page index only describes rows that must be unchanged, so it is not read
+                if (e.getName().equals(DataFile.CHECKSUM_SECTION) || e.getName().equals(TransactionHistory.SECTION) ||
+                        (old != null && old.getLength() == e.getLength() && old.getCrc() == e.getCrc())) {
+                    continue;
+                }
+                if (!e.getName().equals("TRANSACTIONS")) {
+                    changes.records.put(e.getName(), parseRows(DataFile.read(channel, e.getOffset(), e.getLength(),
+                            e.getCrc()), true));
+                    continue;
+                }
+                //The rows that are already loaded or kept in the file must be unchanged; only added rows are read
+                if (old == null || e.getLength() < old.getLength() ||
+                        DataFile.checksumOf(channel, e.getOffset(), old.getLength()) != old.getCrc()) {
+                    changes.reloadRequired = true;
+                    return changes;
+                }
+                changes.transactions = parseRows(DataFile.read(channel, e.getOffset() + old.getLength(),
+                        e.getLength() - old.getLength(), -1), false);
+                changes.transactionsMoved = e.getOffset() - old.getOffset();
+            }
+            return changes;
+        }
+    }
+
+    private static List<String[]> parseRows(String text, boolean header) {
+        List<String[]> rows = new ArrayList<>();
+        String[] lines = text.split("\r?\n");
+        for (int i = header ? 1 : 0; i < lines.length; i++) {
+            if (!lines[i].isEmpty()) {
+                rows.add(Library.parseRecord(lines[i]));
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Applies changes read by {@link #readChanges()} to the library loaded from this store. Changes are discarded if
+     * this store saved the data file after they were read, as the save replaced them.
+     *
+     * @param library The library loaded from this store
+     * @param changes The changes to apply, which must not require the library to be reloaded
+     *
+     * @return True if the changes were applied; false if they were discarded
+     *
+     * @throws IOException If the older transactions kept in the data file can no longer be found
+     */
+    synchronized boolean applyChanges(Library library, Changes changes) throws IOException {
+        if (changes.reloadRequired) {
+            throw new IllegalArgumentException("The changes require the library to be reloaded");
+        }
+        if (sections != changes.base) {
+            return false;
+        }
+        library.applyChanges(changes.records, changes.transactions);
+        TransactionHistory older = history;
+        if (older != null) {
+            //Sections before the transactions may have grown or shrunk, moving the older transactions with them
+            synchronized (older) {
+                older.moveTo(older.getStart() + changes.transactionsMoved);
+            }
+        }
+        sections = changes.current;
+        return true;
+    }
+
+    /**
+     * The changes another program made to a data file, read by {@link #readChanges()}
+     */
+    static final class Changes {
+        private final List<DataFile.Section> base;
+        private final List<DataFile.Section> current;
+        private final Map<String, List<String[]>> records = new LinkedHashMap<>();
+        private List<String[]> transactions = Collections.emptyList();
+        private long transactionsMoved;
+        private boolean reloadRequired;
+
+        private Changes(List<DataFile.Section> base, List<DataFile.Section> current) {
+            this.base = base;
+            this.current = current;
+        }
+
+        /**
+         * Checks if the changes cannot be applied to the loaded library, such as when transactions that were already
+         * loaded were removed, so the library must be loaded again
+         *
+         * @return True if the library must be reloaded
+         */
+        boolean isReloadRequired() {
+            return reloadRequired;
+        }
+
+        /**
+         * Gets the sections that changed
+         *
+         * @return The names of the changed sections, such as BOOKS
+         */
+        Set<String> getSections() {
+            Set<String> changed = new LinkedHashSet<>(records.keySet());
+            if (!transactions.isEmpty()) {
+                changed.add("TRANSACTIONS");
+            }
+            return changed;
+        }
+    }
+
+    /**
+     * Writes the rows of the older transactions that are not in memory to a data file
+     */
+    private interface OlderRows {
+        void write(DataFile.Output output) throws IOException;
+    }
+
+    private void writeSections(Library library, DataFile.Output output, OlderRows olderRows,
+                               TransactionHistory olderIndex) throws IOException {
+        for (String section : Library.SECTIONS) {
+            List<? extends LibraryData> records = library.getRecords(section);
+            try (FlightRecorderEvents.Span event = FlightRecorderEvents.sectionSave(section)) {
+                event.setRows(records.size());
+                output.startSection(section);
+                if (section.equals("TRANSACTIONS") && olderRows != null) {
+                    //The older transactions are written ahead of the ones in memory
+                    olderRows.write(output);
+                }
+                for (LibraryData e : records) {
+                    output.writeRecord(e.asData());
+                }
+            }
+        }
+        if (olderIndex != null && olderIndex.size() > 0) {
+            //Lets the next load skip the older transactions instead of reading them
+            output.startSection(TransactionHistory.SECTION);
+            olderIndex.writeIndex(output);
+        }
+    }
+
+    /**
+     * Writes a copy of a library to another data file in the data directory, such as data-backup.txt. The copy has
+     * every transaction of the library, and is not used by this store.
+     *
+     * @param library The library to copy
+     * @param file    The name of the file to write in the data directory
+     *
+     * @throws IOException If the file cannot be written
+     */
+    public void writeCopy(Library library, String file) throws IOException {
+        int storedCount = library.getOlderTransactionCount();
+        List<Transaction> all = library.getTransactionHistory();
+        try (DataFile.Output output = new DataFile.Output(directory.resolve(file))) {
+            writeSections(library, output, (out) -> {
+                for (int i = 0; i < storedCount; i++) {
+                    out.writeRecord(all.get(i).asData());
+                }
+            }, null);
+            output.commit();
+        }
+    }
+
+    @Override
+    public Path getDirectory() {
+        return directory;
+    }
+
+    @Override
+    public int getStoredTransactionCount() {
+        TransactionHistory older = history;
+        return archive.size() + (older == null ? 0 : older.size());
+    }
+
+    @Override
+    public Transaction getStoredTransaction(Library library, int index) {
+        TransactionArchive archived = archive;
+        int archivedCount = archived.size();
+        return index < archivedCount ? archived.get(index, library) : history.get(index - archivedCount, library);
+    }
+
+    @Override
+    public List<Transaction> findTransactions(Library library, Instant start, Instant end) throws IOException {
+        List<Transaction> found = new ArrayList<>(archive.read(start, end, library));
+        TransactionHistory older = history;
+        if (older != null) {
+            found.addAll(older.read(start, end, library));
+        }
+        return found;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Each month is written to a compressed file in the archive folder of the data directory. Older transactions in
+     * the data file are copied as they are, and the ones that stay active are left in the data file.
+     */
+    @Override
+    public int archiveTransactions(Library library, Instant before) throws IOException {
+        Instant until = YearMonth.from(before.atOffset(ZoneOffset.UTC)).atDay(1).atStartOfDay(ZoneOffset.UTC).toInstant();
+        if (archive.getThrough() != null && !until.isAfter(archive.getThrough())) {
+            return 0;
+        }
+        return archiveTimer.time(() -> {
+            try (TransactionArchive.Roll roll = archive.roll(until)) {
+                Map<Identifier, Book> booksById = new HashMap<>();
+                for (Book e : library.getBooks()) {
+                    booksById.put(e.getIdentifier(), e);
+                }
+                TransactionHistory older = history;
+                List<Transaction> kept = new ArrayList<>();
+                //The older rows after the archived ones stay where they are in the data file
+                TransactionHistory remaining = older == null ? null : new TransactionHistory(older.getFile());
+                if (older != null) {
+                    long offset = older.getStart();
+                    List<String> lines = new ArrayList<>(TransactionHistory.PAGE_ROWS);
+                    List<Integer> lengths = new ArrayList<>(TransactionHistory.PAGE_ROWS);
+                    for (int page = 0; page < older.getPageCount(); page++) {
+                        lines.clear();
+                        lengths.clear();
+                        older.readRows(page, (line, length) -> {
+                            lines.add(line);
+                            lengths.add(length);
+                        });
+                        for (int row = 0; row < lines.size(); row++) {
+                            String[] data = Library.parseRecord(lines.get(row));
+                            Instant timestamp = Instant.parse(data[4]);
+                            int length = lengths.get(row);
+                            if (timestamp.isBefore(until)) {
+                                roll.add(data, checkedOutTitle(data, booksById));
+                                if (remaining != null && remaining.size() > 0) {
+                                    //A row archived out of order leaves a gap, so the rows kept before it are loaded
+                                    for (int i = 0; i < remaining.size(); i++) {
+                                        kept.add(remaining.get(i, library));
+                                    }
+                                    remaining = null;
+                                }
+                            } else if (remaining != null) {
+                                remaining.add(offset, length, data[0], timestamp, checkedOutTitle(data, booksById));
+                            } else {
+                                kept.add(new Transaction(data, library));
+                            }
+                            offset += length;
+                        }
+                    }
+                }
+                List<Transaction> transactions = library.getTransactionList();
+                synchronized (transactions) {
+                    for (Transaction e : transactions) {
+                        String[] data = e.asData();
+                        if (e.getTimestamp().isBefore(until)) {
+                            roll.add(data, checkedOutTitle(data, booksById));
+                        } else {
+                            kept.add(e);
+                        }
+                    }
+                    roll.commit();
+                    transactions.clear();
+                    transactions.addAll(kept);
+                    if (remaining != null && remaining.size() > 0) {
+                        remaining.end();
+                        remaining.rememberFile();
+                        history = remaining;
+                    } else {
+                        history = null;
+                    }
+                }
+                archivedRows.add(roll.getRows());
+                return roll.getRows();
+            }
+        });
+    }
+
+    private static Title checkedOutTitle(String[] data, Map<Identifier, Book> booksById) {
+        if (!data[3].equals(Transaction.Action.CHECKOUT.name())) {
+            return null;
+        }
+        Book book = booksById.get(new Identifier(data[2]));
+        return book == null ? null : book.getTitleRecord();
+    }
+
+    /**
+     * Does nothing, as the data file is only open while it is being read or written
+     */
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,164 @@
+package library.data;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A catalog record of a title, shared by every physical copy of it. The title, author, and ISBN are stored here once,
+ * and each {@link Book} refers to its title instead of repeating them.
+ * <p>
+ * A title also keeps the number of its copies with each {@link BookStatus}, and the number of times its copies have
+ * been checked out. These are updated as copies are added to or removed from the library and as their status changes,
+ * so they can be read without looking at the copies.
+ * <p>
+ * Titles are created through the {@link Catalog} of a library, so that every copy of the same book shares one record.
+ *
+ * @author Srikavin Ramkumar
+ */
+public class Title implements LibraryData {
+    private final Identifier identifier;
+    private final String title;
+    private final String author;
+    private final String isbn;
+    private final AtomicIntegerArray statusCounts = new AtomicIntegerArray(BookStatus.values().length);
+    private final AtomicLong checkouts = new AtomicLong();
+
+    /**
+     * Creates a title record
+     *
+     * @param identifier The identifier of this title; may be null for a title that is not in a catalog yet
+     * @param title      The title of the book
+     * @param author     The author's name
+     * @param isbn       The ISBN of the book
+     */
+    public Title(Identifier identifier, String title, String author, String isbn) {
+        this.identifier = identifier;
+        this.title = title;
+        this.author = author;
+        this.isbn = isbn;
+    }
+
+    /**
+     * Creates a title record from the given data
+     *
+     * @param data The data object returned from {@link #asData()}
+     */
+    public Title(String[] data) {
+        if (data.length != 4) {
+            throw new RuntimeException("Invalid data array passed to create a Title object: " + Arrays.toString(data));
+        }
+        identifier = new Identifier(data[0]);
+        title = data[1];
+        author = data[2];
+        isbn = data[3];
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String[] asData() {
+        return new String[]{identifier.getId(), title, author, isbn};
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Identifier getIdentifier() {
+        return identifier;
+    }
+
+    /**
+     * Get the title of this book
+     *
+     * @return The title of this book
+     */
+    public String getTitle() {
+        return title;
+    }
+
+    /**
+     * Get the author of the book
+     *
+     * @return The name of the author of the book
+     */
+    public String getAuthor() {
+        return author;
+    }
+
+    /**
+     * Get the ISBN of this book
+     *
+     * @return The ISBN of this book
+     */
+    public String getIsbn() {
+        return isbn;
+    }
+
+    /**
+     * Gets the number of copies of this title in the library
+     *
+     * @return The number of copies, regardless of their status
+     */
+    public int getCopies() {
+        int copies = 0;
+        for (int i = 0; i < statusCounts.length(); i++) {
+            copies += statusCounts.get(i);
+        }
+        return copies;
+    }
+
+    /**
+     * Gets the number of copies of this title with the given status
+     *
+     * @param status The status to count
+     *
+     * @return The number of copies with the status
+     */
+    public int getCopies(BookStatus status) {
+        return statusCounts.get(status.ordinal());
+    }
+
+    /**
+     * Gets the number of copies of this title that can be checked out
+     *
+     * @return The number of available copies
+     */
+    public int getAvailableCopies() {
+        return getCopies(BookStatus.AVAILABLE);
+    }
+
+    /**
+     * Gets the number of times copies of this title have been checked out
+     *
+     * @return The number of checkouts of this title
+     */
+    public long getCheckouts() {
+        return checkouts.get();
+    }
+
+    void addCopy(BookStatus status) {
+        statusCounts.incrementAndGet(status.ordinal());
+    }
+
+    void removeCopy(BookStatus status) {
+        statusCounts.decrementAndGet(status.ordinal());
+    }
+
+    void moveCopy(BookStatus from, BookStatus to) {
+        if (from != to) {
+            statusCounts.decrementAndGet(from.ordinal());
+            statusCounts.incrementAndGet(to.ordinal());
+        }
+    }
+
+    void recordCheckout() {
+        checkouts.incrementAndGet();
+    }
+
+    void recordCheckouts(long count) {
+        checkouts.addAndGet(count);
+    }
+}
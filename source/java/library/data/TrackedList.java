@@ -0,0 +1,118 @@
+package library.data;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.function.Consumer;
+
+/**
+ * A list that calls a hook for every element added to it or removed from it, including elements replaced through
+ * {@link #set(int, Object)}. This allows aggregates over the elements to be kept up to date no matter how the list is
+ * changed, such as by a view editing the list directly.
+ *
+ * @param <E> The type of the elements of this list
+ *
+ * @author Srikavin Ramkumar
+ */
+class TrackedList<E> extends AbstractList<E> implements RandomAccess {
+    private final ArrayList<E> elements = new ArrayList<>();
+    private final Consumer<E> onAdd;
+    private final Consumer<E> onRemove;
+
+    /**
+     * Creates an empty list
+     *
+     * @param onAdd    Called with each element after it is added
+     * @param onRemove Called with each element after it is removed
+     */
+    TrackedList(Consumer<E> onAdd, Consumer<E> onRemove) {
+        this.onAdd = onAdd;
+        this.onRemove = onRemove;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public E get(int index) {
+        return elements.get(index);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int size() {
+        return elements.size();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public E set(int index, E element) {
+        E previous = elements.set(index, element);
+        if (previous != element) {
+            onRemove.accept(previous);
+            onAdd.accept(element);
+        }
+        return previous;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void add(int index, E element) {
+        elements.add(index, element);
+        modCount++;
+        onAdd.accept(element);
+    }
+
+    /**
+     * Appends all of the given elements, growing the list once instead of once per element
+     */
+    @Override
+    public boolean addAll(Collection<? extends E> added) {
+        List<E> copy = new ArrayList<>(added);
+        elements.ensureCapacity(elements.size() + copy.size());
+        elements.addAll(copy);
+        modCount++;
+        copy.forEach(onAdd);
+        return !copy.isEmpty();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public E remove(int index) {
+        E removed = elements.remove(index);
+        modCount++;
+        onRemove.accept(removed);
+        return removed;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void clear() {
+        ArrayList<E> removed = new ArrayList<>(elements);
+        elements.clear();
+        modCount++;
+        removed.forEach(onRemove);
+    }
+
+    /**
+     * Sorts the elements in place; no elements are added or removed, so the hooks are not called
+     */
+    @Override
+    public void sort(Comparator<? super E> comparator) {
+        elements.sort(comparator);
+        modCount++;
+    }
+}
@@ -131,7 +131,7 @@ public class Transaction implements LibraryData {
 
     /**
      * An enum containing all possible actions that a transaction can do.
-     * This includes checking out and returning books.
+     * This includes checking out and returning books, and placing and filling holds.
      */
     public enum Action {
         /**
@@ -141,6 +141,18 @@ public class Transaction implements LibraryData {
         /**
          * Indicates that a book was returned
          */
-        RETURN
+        RETURN,
+        /**
+         * Indicates that a patron placed a hold on the title of a book
+         */
+        HOLD,
+        /**
+         * Indicates that a book was put aside for the patron with the next hold on its title
+         */
+        READY,
+        /**
+         * Indicates that a hold was cancelled before it was picked up
+         */
+        CANCEL_HOLD
     }
 }
\ No newline at end of file
@@ -0,0 +1,448 @@
+package library.data;
+
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.Instant;
+import java.time.YearMonth;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Keeps the transactions of a {@link Library} that are older than the active period in compressed files, one for each
+ * month, in the archive folder of the data directory.
+ * <p>
+ * Transactions are archived a whole month at a time, and every transaction before the start of the oldest month that
+ * is still active is archived. The file of a month is never changed once it is written. The index of the archive,
+ * archive/index.txt, has the time the archive covers up to, the number of rows and the earliest and latest time of each
+ * file, and the number of archived checkouts of each title:
+ * <pre>
+ * through,2018-01-01T00:00:00Z
+ * segment,transactions-2017-11.txt.gz,1893,2017-11-01T08:02:11Z,2017-11-30T21:40:51Z
+ * checkouts,000012,41
+ * </pre>
+ * Files are only read when a transaction in them is needed, and files outside of a range of time are skipped.
+ *
+ * @author Srikavin Ramkumar
+ */
+final class TransactionArchive {
+    /**
+     * The folder of the data directory with the archive
+     */
+    static final String DIRECTORY = "archive";
+    /**
+     * The name of the index of the archive in its folder
+     */
+    static final String INDEX = "index.txt";
+    private static final DateTimeFormatter MONTH_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM");
+    private static final int CACHED_SEGMENTS = 2;
+    private Path directory;
+    private Instant through;
+    private final List<Segment> segments = new ArrayList<>();
+    private final Map<Identifier, Long> checkouts = new HashMap<>();
+    private final Map<String, List<Transaction>> cache = new LruCache<>(CACHED_SEGMENTS);
+
+    private TransactionArchive(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Opens the archive of a data directory
+     *
+     * @param dataDirectory The data directory; can be null for a library that is not saved yet
+     *
+     * @return The archive, which is empty if nothing has been archived
+     *
+     * @throws IOException If the index of the archive cannot be read
+     */
+    static TransactionArchive open(Path dataDirectory) throws IOException {
+        TransactionArchive archive = new TransactionArchive(dataDirectory == null ? null : dataDirectory.resolve(DIRECTORY));
+        if (archive.directory == null || !Files.isRegularFile(archive.directory.resolve(INDEX))) {
+            return archive;
+        }
+        for (String line : Files.readAllLines(archive.directory.resolve(INDEX), StandardCharsets.UTF_8)) {
+            String[] data = line.split(",");
+            try {
+                switch (data[0]) {
+                    case "through":
+                        archive.through = Instant.parse(data[1]);
+                        break;
+                    case "segment":
+                        archive.segments.add(new Segment(data[1], Integer.parseInt(data[2]), Instant.parse(data[3]),
+                                Instant.parse(data[4])));
+                        break;
+                    case "checkouts":
+                        archive.checkouts.put(new Identifier(data[1]), Long.parseLong(data[2]));
+                        break;
+                    default:
+                        throw new IOException("Invalid archive index row: " + line);
+                }
+            } catch (RuntimeException e) {
+                throw new IOException("Invalid archive index row: " + line, e);
+            }
+        }
+        return archive;
+    }
+
+    /**
+     * Gets the time this archive covers up to. Every transaction before it is archived.
+     *
+     * @return The start of the oldest month that is not archived, or null if nothing has been archived
+     */
+    synchronized Instant getThrough() {
+        return through;
+    }
+
+    /**
+     * Gets the number of archived transactions
+     *
+     * @return The number of rows in the files of this archive
+     */
+    synchronized int size() {
+        int size = 0;
+        for (Segment e : segments) {
+            size += e.rows;
+        }
+        return size;
+    }
+
+    /**
+     * Gets the number of archived checkouts of each title
+     *
+     * @return A new map of the identifiers of titles to the number of checkouts of them that are archived
+     */
+    synchronized Map<Identifier, Long> getCheckouts() {
+        return new HashMap<>(checkouts);
+    }
+
+    /**
+     * Gets the files of this archive
+     *
+     * @return The paths of the index and the month files, relative to the data directory
+     */
+    synchronized List<String> getFileNames() {
+        List<String> names = new ArrayList<>();
+        if (through != null) {
+            names.add(DIRECTORY + "/" + INDEX);
+        }
+        for (Segment e : segments) {
+            names.add(DIRECTORY + "/" + e.name);
+        }
+        return names;
+    }
+
+    /**
+     * Reads the archived transaction at the given position
+     *
+     * @param index   The position of the transaction, starting from the oldest
+     * @param library The library to resolve the patrons and books of the transaction
+     *
+     * @return The transaction
+     *
+     * @throws UncheckedIOException If the file with the transaction cannot be read
+     */
+    synchronized Transaction get(int index, Library library) {
+        int position = index;
+        for (Segment e : segments) {
+            if (position < e.rows) {
+                try {
+                    return readSegment(e, library).get(position);
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+            }
+            position -= e.rows;
+        }
+        throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+    }
+
+    /**
+     * Reads the archived transactions that took place in the given range of time. Only the files with a transaction in
+     * the range are read.
+     *
+     * @param from    The earliest time to include
+     * @param to      The time to stop at, exclusive
+     * @param library The library to resolve the patrons and books of the transactions
+     *
+     * @return The transactions in the range, oldest month first
+     *
+     * @throws IOException If a file cannot be read
+     */
+    synchronized List<Transaction> read(Instant from, Instant to, Library library) throws IOException {
+        List<Transaction> found = new ArrayList<>();
+        for (Segment e : segments) {
+            if (e.latest.isBefore(from) || !e.earliest.isBefore(to)) {
+                continue;
+            }
+            for (Transaction transaction : readSegment(e, library)) {
+                if (!transaction.getTimestamp().isBefore(from) && transaction.getTimestamp().isBefore(to)) {
+                    found.add(transaction);
+                }
+            }
+        }
+        return found;
+    }
+
+    private List<Transaction> readSegment(Segment segment, Library library) throws IOException {
+        List<Transaction> transactions = cache.get(segment.name);
+        if (transactions != null) {
+            return transactions;
+        }
+        transactions = new ArrayList<>(segment.rows);
+        Path file = directory.resolve(segment.name);
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new GZIPInputStream(Files.newInputStream(file), 1 << 16), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                transactions.add(new Transaction(Library.parseRecord(line), library));
+            }
+        }
+        if (transactions.size() != segment.rows) {
+            throw new IOException(file + " has " + transactions.size() + " transactions instead of " + segment.rows);
+        }
+        cache.put(segment.name, transactions);
+        return transactions;
+    }
+
+    /**
+     * Copies the files of this archive into another data directory, and keeps the archive there from now on
+     *
+     * @param dataDirectory The data directory the library is saved to
+     *
+     * @throws IOException If the files cannot be copied
+     */
+    synchronized void copyTo(Path dataDirectory) throws IOException {
+        Path target = dataDirectory.resolve(DIRECTORY);
+        if (directory != null && target.toAbsolutePath().equals(directory.toAbsolutePath())) {
+            return;
+        }
+        if (through != null) {
+            Files.createDirectories(target);
+            //The month files are copied first, so the index never refers to a file that is not there
+            for (Segment e : segments) {
+                copy(directory.resolve(e.name), target.resolve(e.name));
+            }
+            copy(directory.resolve(INDEX), target.resolve(INDEX));
+        }
+        directory = target;
+    }
+
+    private static void copy(Path source, Path target) throws IOException {
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        Files.copy(source, temp, StandardCopyOption.REPLACE_EXISTING);
+        move(temp, target);
+    }
+
+    /**
+     * Starts archiving the transactions before the start of a month
+     *
+     * @param until The start of the oldest month to keep active; must be after {@link #getThrough()}
+     *
+     * @return The archiving in progress, which changes nothing until it is committed
+     */
+    synchronized Roll roll(Instant until) {
+        if (directory == null) {
+            throw new IllegalStateException("A library that is not saved cannot be archived");
+        }
+        if (through != null && !until.isAfter(through)) {
+            throw new IllegalArgumentException("Transactions before " + through + " are already archived");
+        }
+        return new Roll(until);
+    }
+
+    private static void move(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * An archived month file, with the number of transactions in it and the range of time they cover
+     */
+    private static class Segment {
+        private final String name;
+        private final int rows;
+        private final Instant earliest;
+        private final Instant latest;
+
+        private Segment(String name, int rows, Instant earliest, Instant latest) {
+            this.name = name;
+            this.rows = rows;
+            this.earliest = earliest;
+            this.latest = latest;
+        }
+    }
+
+    /**
+     * Writes transactions into the files of their months. The files are written next to the archive under temporary
+     * names, and the archive does not change until {@link #commit()} is called; closing the roll without committing
+     * deletes the temporary files.
+     */
+    class Roll implements Closeable {
+        private final Instant until;
+        private final Map<YearMonth, SegmentWriter> writers = new TreeMap<>();
+        private final Map<Identifier, Long> addedCheckouts = new HashMap<>();
+        private int rows;
+        private boolean committed;
+
+        private Roll(Instant until) {
+            this.until = until;
+        }
+
+        /**
+         * Adds a transaction to the file of its month
+         *
+         * @param data  The values of the transaction, in the format of {@link Transaction#asData()}
+         * @param title The title of the book checked out, if the transaction is a checkout of a book that still
+         *              exists; otherwise null
+         *
+         * @throws IOException              If the transaction cannot be written
+         * @throws IllegalArgumentException If the transaction is not before the end of this roll
+         */
+        void add(String[] data, Title title) throws IOException {
+            Instant timestamp = Instant.parse(data[4]);
+            if (!timestamp.isBefore(until)) {
+                throw new IllegalArgumentException("Transaction " + data[0] + " is not before " + until);
+            }
+            YearMonth month = YearMonth.from(timestamp.atOffset(ZoneOffset.UTC));
+            SegmentWriter writer = writers.get(month);
+            if (writer == null) {
+                Files.createDirectories(directory);
+                writer = new SegmentWriter(directory.resolve("transactions-" + MONTH_FORMATTER.format(month) + ".txt.gz"));
+                writers.put(month, writer);
+            }
+            writer.write(data, timestamp);
+            if (title != null) {
+                addedCheckouts.merge(title.getIdentifier(), 1L, Long::sum);
+            }
+            rows++;
+        }
+
+        /**
+         * Gets the number of transactions added to this roll
+         *
+         * @return The number of transactions that are archived when this roll is committed
+         */
+        int getRows() {
+            return rows;
+        }
+
+        /**
+         * Moves the month files into the archive and writes its new index
+         *
+         * @throws IOException If the files cannot be written; the archive is left as it was
+         */
+        void commit() throws IOException {
+            synchronized (TransactionArchive.this) {
+                List<Segment> added = new ArrayList<>();
+                for (SegmentWriter e : writers.values()) {
+                    added.add(e.finish());
+                }
+                Map<Identifier, Long> newCheckouts = new HashMap<>(checkouts);
+                addedCheckouts.forEach((title, count) -> newCheckouts.merge(title, count, Long::sum));
+
+                Files.createDirectories(directory);
+                Path temp = directory.resolve(INDEX + ".tmp");
+                try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                        StandardOpenOption.TRUNCATE_EXISTING);
+                     Writer writer = new BufferedWriter(new OutputStreamWriter(Channels.newOutputStream(channel),
+                             StandardCharsets.UTF_8))) {
+                    writer.write("through," + until + "\n");
+                    for (Segment e : segments) {
+                        writeSegment(writer, e);
+                    }
+                    for (Segment e : added) {
+                        writeSegment(writer, e);
+                    }
+                    for (Map.Entry<Identifier, Long> e : new TreeMap<>(newCheckouts).entrySet()) {
+                        writer.write("checkouts," + e.getKey().getId() + "," + e.getValue() + "\n");
+                    }
+                    writer.flush();
+                    channel.force(true);
+                }
+                move(temp, directory.resolve(INDEX));
+
+                through = until;
+                segments.addAll(added);
+                checkouts.clear();
+                checkouts.putAll(newCheckouts);
+                committed = true;
+            }
+        }
+
+        private void writeSegment(Writer writer, Segment segment) throws IOException {
+            writer.write("segment," + segment.name + "," + segment.rows + "," + segment.earliest + "," +
+                    segment.latest + "\n");
+        }
+
+        /**
+         * Deletes the files written by this roll, if it was not committed
+         */
+        @Override
+        public void close() throws IOException {
+            if (committed) {
+                return;
+            }
+            for (SegmentWriter e : writers.values()) {
+                e.discard();
+            }
+        }
+    }
+
+    /**
+     * Writes the compressed file of a month
+     */
+    private static class SegmentWriter {
+        private final Path file;
+        private final Path temp;
+        private final FileChannel channel;
+        private final GZIPOutputStream compressed;
+        private final Writer writer;
+        private int rows;
+        private Instant earliest;
+        private Instant latest;
+
+        private SegmentWriter(Path file) throws IOException {
+            this.file = file;
+            this.temp = file.resolveSibling(file.getFileName() + ".tmp");
+            this.channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            this.compressed = new GZIPOutputStream(Channels.newOutputStream(channel), 1 << 16);
+            this.writer = new BufferedWriter(new OutputStreamWriter(compressed, StandardCharsets.UTF_8), 1 << 16);
+        }
+
+        private void write(String[] data, Instant timestamp) throws IOException {
+            Library.writeRecord(writer, data);
+            rows++;
+            earliest = earliest == null || timestamp.isBefore(earliest) ? timestamp : earliest;
+            latest = latest == null || timestamp.isAfter(latest) ? timestamp : latest;
+        }
+
+        /**
+         * Finishes the file, forces it to disk, and renames it to its final name
+         */
+        private Segment finish() throws IOException {
+            writer.flush();
+            compressed.finish();
+            channel.force(true);
+            writer.close();
+            move(temp, file);
+            return new Segment(file.getFileName().toString(), rows, earliest, latest);
+        }
+
+        private void discard() throws IOException {
+            try {
+                writer.close();
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        }
+    }
+}
@@ -0,0 +1,431 @@
+package library.data;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.util.*;
+
+/**
+ * Keeps the older transactions of a {@link Library} in its data file instead of in memory.
+ * <p>
+ * When a library is opened with a limited recent history, the rows at the start of the TRANSACTIONS section that are
+ * older than the limit are not loaded. Instead, every {@value #PAGE_ROWS} rows are indexed as a page by their position
+ * in the file and the earliest and latest time in them, and pages are read back when they are needed. Only the last
+ * few pages read are kept in memory. When the library is saved, the rows are copied from the old data file to the new
+ * one without being parsed, and the index is saved after them in the {@value #SECTION} section, so that the next time
+ * the library is opened the rows can be skipped instead of read again.
+ *
+ * @author Srikavin Ramkumar
+ */
+final class TransactionHistory {
+    /**
+     * The number of rows indexed together as a page
+     */
+    static final int PAGE_ROWS = 1024;
+    /**
+     * The section of the data file the index of the pages is saved in
+     */
+    static final String SECTION = "TRANSACTION_PAGES";
+    private static final int CACHED_PAGES = 8;
+    private final Path file;
+    private final List<Page> pages = new ArrayList<>();
+    /**
+     * The number of checkouts in this history of each title, which are counted without reading the rows
+     */
+    private final Map<Identifier, Long> checkouts = new HashMap<>();
+    private final Map<Integer, List<Transaction>> cache = new LruCache<>(CACHED_PAGES);
+    /**
+     * The position of the first row in the file; the positions of the pages are relative to it
+     */
+    private long start = -1;
+    private long length;
+    private int rows;
+    private int maxId;
+    /**
+     * Set once a row is kept in memory; the rows after it are kept in memory as well
+     */
+    private boolean ended;
+    private long fileSize;
+    private FileTime fileModified;
+
+    /**
+     * Creates an empty history of the given data file
+     *
+     * @param file The data file the rows are in
+     */
+    TransactionHistory(Path file) {
+        this.file = file;
+    }
+
+    /**
+     * Adds the next row of the TRANSACTIONS section to this history
+     *
+     * @param offset    The position of the row in the file
+     * @param length    The length of the row in bytes, including the line separator
+     * @param id        The identifier of the transaction
+     * @param timestamp The time of the transaction
+     * @param checkedOut The title of the book checked out by the transaction, or null if it is not a checkout
+     */
+    synchronized void add(long offset, long length, String id, Instant timestamp, Title checkedOut) {
+        if (start < 0) {
+            start = offset;
+        }
+        if (offset != start + this.length) {
+            throw new IllegalStateException("Rows must be added in the order they are in the file");
+        }
+        if (rows % PAGE_ROWS == 0) {
+            pages.add(new Page(offset - start, timestamp));
+        }
+        Page page = pages.get(pages.size() - 1);
+        page.earliest = timestamp.isBefore(page.earliest) ? timestamp : page.earliest;
+        page.latest = timestamp.isAfter(page.latest) ? timestamp : page.latest;
+        this.length += length;
+        rows++;
+        try {
+            maxId = Math.max(maxId, Integer.parseInt(id));
+        } catch (NumberFormatException ignored) {
+            //Identifiers are not required to be numeric
+        }
+        if (checkedOut != null) {
+            checkouts.merge(checkedOut.getIdentifier(), 1L, Long::sum);
+        }
+    }
+
+    /**
+     * Writes the index of this history to the {@value #SECTION} section of a data file being written. The rows are
+     * not written; they must be in the TRANSACTIONS section right before it.
+     *
+     * @param output The data file being written, with the section started
+     *
+     * @throws IOException If the index cannot be written
+     */
+    synchronized void writeIndex(DataFile.Output output) throws IOException {
+        output.writeRecord(new String[]{"ROWS", String.valueOf(rows), String.valueOf(length), String.valueOf(maxId)});
+        for (Page e : pages) {
+            output.writeRecord(new String[]{"PAGE", String.valueOf(e.offset), e.earliest.toString(), e.latest.toString()});
+        }
+        for (Map.Entry<Identifier, Long> e : checkouts.entrySet()) {
+            output.writeRecord(new String[]{"CHECKOUTS", e.getKey().getId(), String.valueOf(e.getValue())});
+        }
+    }
+
+    /**
+     * Reads a history back from the index written by {@link #writeIndex(DataFile.Output)}, without reading its rows.
+     * More rows can be added to it, starting right after the indexed ones.
+     *
+     * @param file  The data file the rows are in
+     * @param start The position of the first row in the file
+     * @param index The rows of the {@value #SECTION} section
+     *
+     * @return The history of the indexed rows
+     *
+     * @throws IOException If the index is damaged
+     */
+    static TransactionHistory readIndex(Path file, long start, List<String[]> index) throws IOException {
+        TransactionHistory history = new TransactionHistory(file);
+        history.start = start;
+        try {
+            for (String[] e : index) {
+                switch (e[0]) {
+                    case "ROWS":
+                        history.rows = Integer.parseInt(e[1]);
+                        history.length = Long.parseLong(e[2]);
+                        history.maxId = Integer.parseInt(e[3]);
+                        break;
+                    case "PAGE":
+                        Page page = new Page(Long.parseLong(e[1]), Instant.parse(e[2]));
+                        page.latest = Instant.parse(e[3]);
+                        history.pages.add(page);
+                        break;
+                    case "CHECKOUTS":
+                        history.checkouts.put(new Identifier(e[1]), Long.parseLong(e[2]));
+                        break;
+                    default:
+                        throw new IOException("Unknown row in the transaction page index: " + e[0]);
+                }
+            }
+        } catch (RuntimeException e) {
+            throw new IOException("The transaction page index is damaged", e);
+        }
+        if (history.rows == 0 || history.pages.size() != (history.rows + PAGE_ROWS - 1) / PAGE_ROWS) {
+            throw new IOException("The transaction page index does not match its number of rows");
+        }
+        return history;
+    }
+
+    /**
+     * Stops adding rows to this history, so that the rest of the section is kept in memory
+     */
+    void end() {
+        ended = true;
+    }
+
+    /**
+     * Checks if rows are still being added to this history
+     *
+     * @return True if {@link #end()} has not been called
+     */
+    boolean isOpen() {
+        return !ended;
+    }
+
+    /**
+     * Gets the number of transactions in this history
+     *
+     * @return The number of rows kept in the data file
+     */
+    synchronized int size() {
+        return rows;
+    }
+
+    /**
+     * Gets the time of the earliest transaction in this history
+     *
+     * @return The earliest time, or null if there are no transactions
+     */
+    synchronized Instant getEarliest() {
+        Instant earliest = null;
+        for (Page e : pages) {
+            earliest = earliest == null || e.earliest.isBefore(earliest) ? e.earliest : earliest;
+        }
+        return earliest;
+    }
+
+    /**
+     * Gets the time of the latest transaction in this history
+     *
+     * @return The latest time, or null if there are no transactions
+     */
+    synchronized Instant getLatest() {
+        Instant latest = null;
+        for (Page e : pages) {
+            latest = latest == null || e.latest.isAfter(latest) ? e.latest : latest;
+        }
+        return latest;
+    }
+
+    /**
+     * Gets the number of checkouts in this history of each title
+     *
+     * @return A copy of the counts, by the identifier of the title
+     */
+    synchronized Map<Identifier, Long> getCheckouts() {
+        return new HashMap<>(checkouts);
+    }
+
+    /**
+     * Gets the largest numeric identifier of the transactions in this history
+     *
+     * @return The largest identifier, or 0 if there are none
+     */
+    int getMaxId() {
+        return maxId;
+    }
+
+    /**
+     * Reads the transaction at the given position in this history
+     *
+     * @param index   The position of the transaction, starting from the oldest
+     * @param library The library to resolve the patrons and books of the transaction
+     *
+     * @return The transaction
+     *
+     * @throws UncheckedIOException If the data file cannot be read
+     */
+    synchronized Transaction get(int index, Library library) {
+        if (index < 0 || index >= rows) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + rows);
+        }
+        try {
+            return readPage(index / PAGE_ROWS, library).get(index % PAGE_ROWS);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Reads the transactions in this history that took place in the given range of time. Only the pages with a
+     * transaction in the range are read.
+     *
+     * @param from    The earliest time to include
+     * @param to      The time to stop at, exclusive
+     * @param library The library to resolve the patrons and books of the transactions
+     *
+     * @return The transactions in the range, oldest first
+     *
+     * @throws IOException If the data file cannot be read
+     */
+    synchronized List<Transaction> read(Instant from, Instant to, Library library) throws IOException {
+        List<Transaction> found = new ArrayList<>();
+        for (int i = 0; i < pages.size(); i++) {
+            Page page = pages.get(i);
+            if (page.latest.isBefore(from) || !page.earliest.isBefore(to)) {
+                continue;
+            }
+            for (Transaction e : readPage(i, library)) {
+                if (!e.getTimestamp().isBefore(from) && e.getTimestamp().isBefore(to)) {
+                    found.add(e);
+                }
+            }
+        }
+        return found;
+    }
+
+    private List<Transaction> readPage(int index, Library library) throws IOException {
+        List<Transaction> page = cache.get(index);
+        if (page != null) {
+            return page;
+        }
+        page = new ArrayList<>(PAGE_ROWS);
+        for (String line : readRows(index)) {
+            page.add(new Transaction(Library.parseRecord(line), library));
+        }
+        cache.put(index, page);
+        return page;
+    }
+
+    /**
+     * Gets the number of pages in this history
+     *
+     * @return The number of pages, each of {@value #PAGE_ROWS} rows except for the last
+     */
+    synchronized int getPageCount() {
+        return pages.size();
+    }
+
+    /**
+     * Reads the rows of a page without parsing them
+     *
+     * @param index The page to read
+     *
+     * @return The rows of the page, as they are in the data file
+     *
+     * @throws IOException If the data file cannot be read
+     */
+    String[] readRows(int index) throws IOException {
+        List<String> rows = new ArrayList<>(PAGE_ROWS);
+        readRows(index, (line, length) -> rows.add(line));
+        return rows.toArray(new String[0]);
+    }
+
+    /**
+     * Reads the rows of a page without parsing them, along with the number of bytes each row takes up in the data file
+     *
+     * @param index  The page to read
+     * @param action Called with each row and its length
+     *
+     * @throws IOException If the data file cannot be read
+     */
+    synchronized void readRows(int index, DataFile.LineAction action) throws IOException {
+        checkFile();
+        long offset = pages.get(index).offset;
+        long end = index + 1 < pages.size() ? pages.get(index + 1).offset : length;
+        ByteBuffer buffer = ByteBuffer.allocate((int) (end - offset));
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, start + offset + buffer.position()) < 0) {
+                    throw new EOFException("Unexpected end of " + file.getFileName());
+                }
+            }
+        }
+        DataFile.readLines(new ByteArrayInputStream(buffer.array()), action);
+    }
+
+    /**
+     * Copies the rows of this history into the TRANSACTIONS section of a data file being written
+     *
+     * @param output The data file being written
+     *
+     * @return The position of the rows in the new file
+     *
+     * @throws IOException If the rows cannot be read or written
+     */
+    synchronized long copyTo(DataFile.Output output) throws IOException {
+        checkFile();
+        return output.copy(file, start, length, rows);
+    }
+
+    /**
+     * Points this history at the new data file once it has replaced the old one
+     *
+     * @param start The position of the rows in the new file, returned by {@link #copyTo(DataFile.Output)}
+     *
+     * @throws IOException If the new data file cannot be read
+     */
+    synchronized void moveTo(long start) throws IOException {
+        this.start = start;
+        rememberFile();
+    }
+
+    /**
+     * Gets the position of the rows of this history in the data file
+     *
+     * @return The position of the first row
+     */
+    synchronized long getStart() {
+        return start;
+    }
+
+    /**
+     * Gets the number of bytes the rows of this history take up in the data file
+     *
+     * @return The length of the rows, including their line separators
+     */
+    synchronized long getLength() {
+        return length;
+    }
+
+    /**
+     * Gets the data file the rows of this history are in
+     *
+     * @return The data file
+     */
+    Path getFile() {
+        return file;
+    }
+
+    /**
+     * Records the size and modification time of the data file, so that it being replaced can be detected
+     *
+     * @throws IOException If the data file cannot be read
+     */
+    void rememberFile() throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        fileSize = attributes.size();
+        fileModified = attributes.lastModifiedTime();
+    }
+
+    /**
+     * Makes sure the data file was not replaced by another program, as the positions of the rows would be wrong
+     */
+    private void checkFile() throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        if (attributes.size() != fileSize || !attributes.lastModifiedTime().equals(fileModified)) {
+            throw new IOException(file + " was changed by another program after it was loaded");
+        }
+    }
+
+    /**
+     * The position of a page of rows and the range of time it covers
+     */
+    private static class Page {
+        private final long offset;
+        private Instant earliest;
+        private Instant latest;
+
+        private Page(long offset, Instant timestamp) {
+            this.offset = offset;
+            this.earliest = timestamp;
+            this.latest = timestamp;
+        }
+    }
+}
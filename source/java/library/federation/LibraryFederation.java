@@ -0,0 +1,491 @@
+package library.federation;
+
+import library.data.*;
+import library.metrics.MetricsRegistry;
+import library.metrics.Timer;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Holds the libraries of several branches, such as the school libraries of a district, each opened from its own data
+ * directory, so that they can be searched and reported on together.
+ * <p>
+ * Records are identified across branches by the name of their branch and their own identifier, such as
+ * {@code north:000042}, so lookups are routed to the branch of the prefix without searching the others. Searches and
+ * reports are run on every branch at the same time, one thread per branch, and their results are merged in the order
+ * the branches were added. A district-wide report therefore takes about as long as the report of the largest branch.
+ * <p>
+ * The branches may be used on their own as well, but not while a query of the federation is running.
+ *
+ * @author Srikavin Ramkumar
+ */
+public class LibraryFederation implements AutoCloseable {
+    /**
+     * Separates the name of a branch from the identifier of a record in a federated identifier
+     */
+    public static final char BRANCH_SEPARATOR = ':';
+    private static final MetricsRegistry METRICS = MetricsRegistry.getDefault();
+    private static final Timer OPEN_TIMER = METRICS.timer("federation.open");
+    private static final Timer QUERY_TIMER = METRICS.timer("federation.query");
+    private static final Timer BRANCH_TIMER = METRICS.timer("federation.query.branch");
+    private final Map<String, Library> branches = new LinkedHashMap<>();
+    private final ExecutorService executor;
+
+    /**
+     * Creates an empty federation. Branches are added with {@link #addBranch(String, Library)}.
+     */
+    public LibraryFederation() {
+        AtomicInteger threads = new AtomicInteger();
+        this.executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "library-federation-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Opens the library of each branch at the same time and adds them to a new federation
+     *
+     * @param directories The data directory of each branch by the name of the branch, in the order to report them in
+     * @param opener      Opens the library in a data directory
+     *
+     * @return The federation of the opened branches
+     *
+     * @throws IOException If the library of a branch cannot be opened; the branches that were opened are closed
+     */
+    public static LibraryFederation open(Map<String, Path> directories, Opener opener) throws IOException {
+        for (String name : directories.keySet()) {
+            checkName(name);
+        }
+        LibraryFederation federation = new LibraryFederation();
+        try {
+            OPEN_TIMER.time(() -> {
+                Map<String, Future<Library>> opening = new LinkedHashMap<>();
+                for (Map.Entry<String, Path> e : directories.entrySet()) {
+                    Path directory = e.getValue();
+                    opening.put(e.getKey(), federation.executor.submit(() -> opener.open(directory)));
+                }
+                //Every branch is waited for, so that the ones that opened can be closed if another one failed
+                IOException failure = null;
+                for (Map.Entry<String, Future<Library>> e : opening.entrySet()) {
+                    try {
+                        federation.addBranch(e.getKey(), await(e.getValue()));
+                    } catch (UncheckedIOException ex) {
+                        if (failure == null) {
+                            failure = new IOException("Could not open the library of " + e.getKey() + ": " +
+                                    ex.getCause().getLocalizedMessage(), ex.getCause());
+                        }
+                    } catch (RuntimeException ex) {
+                        if (failure == null) {
+                            failure = new IOException("Could not open the library of " + e.getKey() + ": " + ex, ex);
+                        }
+                    }
+                }
+                if (failure != null) {
+                    throw failure;
+                }
+            });
+        } catch (IOException | RuntimeException e) {
+            federation.close();
+            throw e;
+        }
+        return federation;
+    }
+
+    /**
+     * Opens the library of each branch at the same time and adds them to a new federation
+     *
+     * @param directories   The data directory of each branch by the name of the branch, in the order to report them in
+     * @param recentHistory Only transactions that happened within this duration are loaded into memory in each branch;
+     *                      null to load all of them
+     *
+     * @return The federation of the opened branches
+     *
+     * @throws IOException If the library of a branch cannot be opened; the branches that were opened are closed
+     */
+    public static LibraryFederation open(Map<String, Path> directories, Duration recentHistory) throws IOException {
+        return open(directories, directory -> new Library(directory, recentHistory));
+    }
+
+    private static void checkName(String name) {
+        if (name == null || name.isEmpty() || name.indexOf(BRANCH_SEPARATOR) >= 0) {
+            throw new IllegalArgumentException("Branch names must not be empty or contain '" + BRANCH_SEPARATOR + "': " + name);
+        }
+    }
+
+    /**
+     * Adds the library of a branch to this federation
+     *
+     * @param name    The name of the branch, which prefixes the identifiers of its records
+     * @param library The library of the branch
+     *
+     * @throws IllegalArgumentException If the name is empty, contains {@link #BRANCH_SEPARATOR}, or is already used
+     */
+    public synchronized void addBranch(String name, Library library) {
+        checkName(name);
+        if (branches.containsKey(name)) {
+            throw new IllegalArgumentException("A branch is already named " + name);
+        }
+        branches.put(name, Objects.requireNonNull(library));
+    }
+
+    /**
+     * Gets the names of the branches, in the order they were added
+     *
+     * @return The names of the branches; this list cannot be modified
+     */
+    public synchronized List<String> getBranches() {
+        return Collections.unmodifiableList(new ArrayList<>(branches.keySet()));
+    }
+
+    /**
+     * Gets the library of a branch
+     *
+     * @param name The name of the branch
+     *
+     * @return The library of the branch, or null if there is no branch with this name
+     */
+    public synchronized Library getLibrary(String name) {
+        return branches.get(name);
+    }
+
+    /**
+     * Gets the identifier of a record of a branch across the federation, such as {@code north:000042}
+     *
+     * @param branch The name of the branch of the record
+     * @param record A book, patron, or other record of the branch
+     *
+     * @return The identifier of the record prefixed with the name of its branch
+     */
+    public static String getFederatedId(String branch, LibraryData record) {
+        return branch + BRANCH_SEPARATOR + record.getIdentifier().getId();
+    }
+
+    /**
+     * Gets the library of the branch a federated identifier belongs to
+     *
+     * @param federatedId An identifier prefixed with the name of a branch, such as {@code north:000042}
+     *
+     * @return The library of the branch, or null if there is no branch with this name
+     *
+     * @throws IllegalArgumentException If the identifier is not prefixed with the name of a branch
+     */
+    public Library getLibraryOf(String federatedId) {
+        return getLibrary(federatedId.substring(0, separatorOf(federatedId)));
+    }
+
+    /**
+     * Finds a book by its federated identifier. Only the branch of the prefix is searched.
+     *
+     * @param federatedId An identifier prefixed with the name of a branch, such as {@code north:000042}
+     *
+     * @return The book, or null if its branch does not exist or does not have a book with the identifier
+     *
+     * @throws IllegalArgumentException If the identifier is not prefixed with the name of a branch
+     */
+    public Book getBookFromID(String federatedId) {
+        Library library = getLibraryOf(federatedId);
+        return library == null ? null : library.getBookFromID(localId(federatedId));
+    }
+
+    /**
+     * Finds a patron by their federated identifier. Only the branch of the prefix is searched.
+     *
+     * @param federatedId An identifier prefixed with the name of a branch, such as {@code north:000042}
+     *
+     * @return The patron, or null if their branch does not exist or does not have a patron with the identifier
+     *
+     * @throws IllegalArgumentException If the identifier is not prefixed with the name of a branch
+     */
+    public Patron getPatronFromID(String federatedId) {
+        Library library = getLibraryOf(federatedId);
+        return library == null ? null : library.getPatronFromID(localId(federatedId));
+    }
+
+    private static int separatorOf(String federatedId) {
+        int separator = federatedId.indexOf(BRANCH_SEPARATOR);
+        if (separator <= 0) {
+            throw new IllegalArgumentException("The identifier is not prefixed with a branch: " + federatedId);
+        }
+        return separator;
+    }
+
+    private static Identifier localId(String federatedId) {
+        return new Identifier(federatedId.substring(separatorOf(federatedId) + 1));
+    }
+
+    /**
+     * Runs a query on the library of every branch at the same time
+     *
+     * @param query The query to run on each library
+     * @param <T>   The result of the query
+     *
+     * @return The result of each branch by the name of the branch, in the order the branches were added
+     *
+     * @throws UncheckedIOException If the query failed on a branch with an IOException
+     */
+    public <T> Map<String, T> query(Function<Library, T> query) {
+        Map<String, Library> libraries;
+        synchronized (this) {
+            libraries = new LinkedHashMap<>(branches);
+        }
+        return QUERY_TIMER.time(() -> {
+            Map<String, Future<T>> running = new LinkedHashMap<>();
+            for (Map.Entry<String, Library> e : libraries.entrySet()) {
+                Library library = e.getValue();
+                running.put(e.getKey(), executor.submit(() -> {
+                    long start = System.nanoTime();
+                    T result = query.apply(library);
+                    BRANCH_TIMER.record(System.nanoTime() - start);
+                    return result;
+                }));
+            }
+            Map<String, T> results = new LinkedHashMap<>();
+            try {
+                for (Map.Entry<String, Future<T>> e : running.entrySet()) {
+                    results.put(e.getKey(), await(e.getValue()));
+                }
+            } finally {
+                for (Future<T> e : running.values()) {
+                    e.cancel(true);
+                }
+            }
+            return results;
+        });
+    }
+
+    private static <T> T await(Future<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the branches", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw new UncheckedIOException((IOException) cause);
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    /**
+     * Finds the books of every branch whose identifier, title, ISBN, or author contain the given text, ignoring case,
+     * as the filter of the Books view does
+     *
+     * @param text The text to search for
+     *
+     * @return The matching books of each branch by the name of the branch
+     */
+    public Map<String, List<Book>> searchBooks(String text) {
+        String filter = text.toLowerCase();
+        return query(library -> {
+            List<Book> found = new ArrayList<>();
+            for (Book book : library.getBooks()) {
+                if (book.getIdentifier().getId().toLowerCase().contains(filter)
+                        || book.getTitle().toLowerCase().contains(filter)
+                        || book.getIsbn().toLowerCase().contains(filter)
+                        || book.getAuthor().toLowerCase().contains(filter)) {
+                    found.add(book);
+                }
+            }
+            return found;
+        });
+    }
+
+    /**
+     * Finds the patrons of every branch whose name, identifier, or patron type contain the given text, ignoring case,
+     * as the filter of the Patrons view does
+     *
+     * @param text The text to search for
+     *
+     * @return The matching patrons of each branch by the name of the branch
+     */
+    public Map<String, List<Patron>> searchPatrons(String text) {
+        String filter = text.toLowerCase();
+        return query(library -> {
+            List<Patron> found = new ArrayList<>();
+            for (Patron patron : library.getPatrons()) {
+                if (patron.getFirstName().toLowerCase().contains(filter)
+                        || patron.getLastName().toLowerCase().contains(filter)
+                        || patron.getIdentifier().getId().toLowerCase().contains(filter)
+                        || patron.getPatronType().getName().toLowerCase().contains(filter)) {
+                    found.add(patron);
+                }
+            }
+            return found;
+        });
+    }
+
+    /**
+     * Adds up the number of books with each status in every branch
+     *
+     * @return The total number of books with each status across the branches
+     *
+     * @see ReportGenerator#getBookStatusTotals()
+     */
+    public Map<BookStatus, Integer> getBookStatusTotals() {
+        Map<BookStatus, Integer> totals = new EnumMap<>(BookStatus.class);
+        for (Map<BookStatus, Integer> branch : query(library -> library.getReportGenerator().getBookStatusTotals()).values()) {
+            branch.forEach((status, count) -> totals.merge(status, count, Integer::sum));
+        }
+        return totals;
+    }
+
+    /**
+     * Adds up the number of transactions with the given action on each date in every branch
+     *
+     * @param start  The minimum date of transactions to consider
+     * @param end    The maximum date of transactions to consider
+     * @param action The transaction action to filter for
+     *
+     * @return The total number of transactions on each date across the branches, in order of date
+     *
+     * @see ReportGenerator#getCheckoutsBetweenDates(LocalDate, LocalDate, Book, Transaction.Action)
+     */
+    public Map<String, Integer> getCheckoutsBetweenDates(LocalDate start, LocalDate end, Transaction.Action action) {
+        Map<String, Integer> totals = new LinkedHashMap<>();
+        for (Map<String, Integer> branch : query(library ->
+                library.getReportGenerator().getCheckoutsBetweenDates(start, end, null, action)).values()) {
+            //Every branch has the same dates, so the first one sets the order
+            branch.forEach((date, count) -> totals.merge(date, count, Integer::sum));
+        }
+        return totals;
+    }
+
+    /**
+     * Finds the checked out books of every branch
+     *
+     * @return The checked out books of each branch by the name of the branch
+     *
+     * @see ReportGenerator#getCheckedOutBooks()
+     */
+    public Map<String, List<Book>> getCheckedOutBooks() {
+        return query(library -> library.getReportGenerator().getCheckedOutBooks());
+    }
+
+    /**
+     * Finds the overdue books of every branch
+     *
+     * @return The overdue books of each branch by the name of the branch
+     *
+     * @see ReportGenerator#getOverdueBooks()
+     */
+    public Map<String, List<Book>> getOverdueBooks() {
+        return query(library -> library.getReportGenerator().getOverdueBooks());
+    }
+
+    /**
+     * Writes a text report of every branch, one after another under the name of each branch. The reports are written
+     * by the branches at the same time.
+     *
+     * @param report Writes the report of a branch, such as {@link ReportGenerator#writeHolds(Appendable)}
+     * @param out    The output to write the reports to
+     *
+     * @throws IOException If the reports cannot be written to the output, or a report failed
+     */
+    public void writeReport(BranchReport report, Appendable out) throws IOException {
+        Map<String, String> reports;
+        try {
+            reports = query(library -> {
+                StringBuilder text = new StringBuilder();
+                try {
+                    report.write(library, text);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                return text.toString();
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        for (Map.Entry<String, String> e : reports.entrySet()) {
+            out.append(e.getKey()).append('\n');
+            out.append(e.getValue());
+            if (!e.getValue().endsWith("\n")) {
+                out.append('\n');
+            }
+            out.append('\n');
+        }
+    }
+
+    /**
+     * Stops the threads of this federation and closes the library of every branch. Every branch is closed even if
+     * closing another one fails.
+     *
+     * @throws UncheckedIOException If the library of a branch could not be closed; the failures of the other branches
+     *                              are suppressed by it
+     */
+    @Override
+    public void close() {
+        executor.shutdownNow();
+        Map<String, Library> libraries;
+        synchronized (this) {
+            libraries = new LinkedHashMap<>(branches);
+        }
+        UncheckedIOException failure = null;
+        for (Map.Entry<String, Library> e : libraries.entrySet()) {
+            try {
+                e.getValue().close();
+            } catch (IOException ex) {
+                UncheckedIOException closeFailure = new UncheckedIOException("Could not close branch " + e.getKey(), ex);
+                if (failure == null) {
+                    failure = closeFailure;
+                } else {
+                    failure.addSuppressed(closeFailure);
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Opens the library of a branch from its data directory
+     */
+    @FunctionalInterface
+    public interface Opener {
+        /**
+         * Opens the library in a data directory
+         *
+         * @param directory The data directory of a branch
+         *
+         * @return The library of the branch
+         *
+         * @throws IOException If the library cannot be opened
+         */
+        Library open(Path directory) throws IOException;
+    }
+
+    /**
+     * Writes the text report of a branch
+     */
+    @FunctionalInterface
+    public interface BranchReport {
+        /**
+         * Writes the report of a branch
+         *
+         * @param library The library of the branch
+         * @param out     The output to write the report to
+         *
+         * @throws IOException If the report cannot be written to the output
+         */
+        void write(Library library, Appendable out) throws IOException;
+    }
+}
@@ -0,0 +1,7 @@
+/**
+ * This package includes the federation of branch libraries of BookKeeper.
+ * It is used to search and report across several library data directories, one per branch, by querying every branch
+ * in parallel and merging the results. Nothing in this package may depend on JavaFX.
+ * @author Srikavin Ramkumar
+ */
+package library.federation;
@@ -0,0 +1,62 @@
+package library.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A counter of events, such as lookups that did not find a record. Safe to increment from multiple threads.
+ *
+ * @author Srikavin Ramkumar
+ */
+public class Counter implements CounterMXBean {
+    private final String name;
+    private final LongAdder count = new LongAdder();
+
+    /**
+     * Creates a counter with the given name. Counters should be created through {@link MetricsRegistry#counter(String)}.
+     *
+     * @param name The name of this counter
+     */
+    Counter(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Increments this counter by one
+     */
+    public void increment() {
+        count.increment();
+    }
+
+    /**
+     * Increments this counter by the given amount
+     *
+     * @param amount The amount to add to this counter
+     */
+    public void add(long amount) {
+        count.add(amount);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void reset() {
+        count.reset();
+    }
+}
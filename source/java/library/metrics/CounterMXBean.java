@@ -0,0 +1,27 @@
+package library.metrics;
+
+/**
+ * The JMX view of a {@link Counter}.
+ *
+ * @author Srikavin Ramkumar
+ */
+public interface CounterMXBean {
+    /**
+     * Gets the name of the counter
+     *
+     * @return The name of the counter
+     */
+    String getName();
+
+    /**
+     * Gets the number of events counted since the counter was created or reset
+     *
+     * @return The current count
+     */
+    long getCount();
+
+    /**
+     * Sets the count back to zero
+     */
+    void reset();
+}
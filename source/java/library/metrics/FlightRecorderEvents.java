@@ -0,0 +1,173 @@
+package library.metrics;
+
+/**
+ * Emits JDK Flight Recorder events for library operations, so that a continuous recording shows the sections loaded
+ * and saved, transaction rebuilds, reports, filter passes, and view loads along with their row counts
+ * and durations.
+ * <p>
+ * The events are defined in {@link library.metrics.jfr}, which is only loaded if the running JVM supports Flight
+ * Recorder. On other JVMs every method of this class returns an operation that does nothing.
+ *
+ * @author Srikavin Ramkumar
+ */
+public final class FlightRecorderEvents {
+    private static final Span NO_OP = new Span() {
+        @Override
+        public void setRows(long rows) {
+        }
+
+        @Override
+        public void close() {
+        }
+    };
+    private static final Factory factory = loadFactory();
+
+    private FlightRecorderEvents() {
+    }
+
+    private static Factory loadFactory() {
+        try {
+            Class.forName("jdk.jfr.Event");
+            return (Factory) Class.forName("library.metrics.jfr.JfrEventFactory").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            //Flight Recorder is not available on this JVM
+            return null;
+        }
+    }
+
+    /**
+     * Checks if Flight Recorder events are emitted on this JVM
+     *
+     * @return True if Flight Recorder is available
+     */
+    public static boolean isAvailable() {
+        return factory != null;
+    }
+
+    /**
+     * Starts timing the loading of a single section of the data file
+     *
+     * @param section The name of the section, such as BOOKS
+     *
+     * @return The operation, which is recorded when closed
+     */
+    public static Span sectionLoad(String section) {
+        return factory == null ? NO_OP : factory.sectionLoad(section);
+    }
+
+    /**
+     * Starts timing the saving of a single section of the data file
+     *
+     * @param section The name of the section, such as BOOKS
+     *
+     * @return The operation, which is recorded when closed
+     */
+    public static Span sectionSave(String section) {
+        return factory == null ? NO_OP : factory.sectionSave(section);
+    }
+
+    /**
+     * Starts timing a rebuild of the transaction list of a library
+     *
+     * @return The operation, which is recorded when closed
+     */
+    public static Span transactionsRebuild() {
+        return factory == null ? NO_OP : factory.transactionsRebuild();
+    }
+
+    /**
+     * Starts timing the generation of a report
+     *
+     * @param report The name of the report method
+     *
+     * @return The operation, which is recorded when closed
+     */
+    public static Span report(String report) {
+        return factory == null ? NO_OP : factory.report(report);
+    }
+
+    /**
+     * Starts timing a filter pass over a table
+     *
+     * @param view The name of the view containing the table
+     *
+     * @return The operation, which is recorded when closed
+     */
+    public static Span filterPass(String view) {
+        return factory == null ? NO_OP : factory.filterPass(view);
+    }
+
+    /**
+     * Starts timing the loading of an FXML file
+     *
+     * @param file The FXML file being loaded
+     *
+     * @return The operation, which is recorded when closed
+     */
+    public static Span viewLoad(String file) {
+        return factory == null ? NO_OP : factory.viewLoad(file);
+    }
+
+    /**
+     * A single timed operation. The operation is recorded when it is closed.
+     */
+    public interface Span extends AutoCloseable {
+        /**
+         * Sets the number of rows processed by this operation
+         *
+         * @param rows The number of rows
+         */
+        void setRows(long rows);
+
+        /**
+         * Ends this operation and records it
+         */
+        @Override
+        void close();
+    }
+
+    /**
+     * Creates the events of each operation. Implemented in {@link library.metrics.jfr}.
+     */
+    public interface Factory {
+        /**
+         * @param section The name of the section
+         *
+         * @return A started section load operation
+         */
+        Span sectionLoad(String section);
+
+        /**
+         * @param section The name of the section
+         *
+         * @return A started section save operation
+         */
+        Span sectionSave(String section);
+
+        /**
+         * @return A started transaction rebuild operation
+         */
+        Span transactionsRebuild();
+
+        /**
+         * @param report The name of the report method
+         *
+         * @return A started report operation
+         */
+        Span report(String report);
+
+        /**
+         * @param view The name of the view
+         *
+         * @return A started filter operation
+         */
+        Span filterPass(String view);
+
+        /**
+         * @param file The FXML file
+         *
+         * @return A started view load operation
+         */
+        Span viewLoad(String file);
+    }
+}
@@ -0,0 +1,228 @@
+package library.metrics;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Formatter;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Consumer;
+
+/**
+ * Holds the {@link Timer}s and {@link Counter}s of the application, identified by name. Each metric is registered
+ * with the platform MBean server when it is created, under the domain "library".
+ * <p>
+ * If the system property {@code library.metrics.dump} is set to a file path, all metrics of the default registry are
+ * written to that file when the application exits.
+ * <p>
+ * Metrics are still recorded if they cannot be registered or dumped; the failures are passed to the
+ * {@linkplain #setOnError(Consumer) error handler} of the registry.
+ *
+ * @author Srikavin Ramkumar
+ */
+public class MetricsRegistry implements MetricsRegistryMXBean {
+    private static final String DOMAIN = "library";
+    /**
+     * The number of failures kept until an error handler is set
+     */
+    private static final int MAX_EARLY_ERRORS = 16;
+    private static final MetricsRegistry defaultRegistry = createDefault();
+
+    private final ConcurrentMap<String, Timer> timers = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Counter> counters = new ConcurrentHashMap<>();
+    private final boolean registerWithJmx;
+    /**
+     * Failures that happened before an error handler was set, such as metrics registered while classes were loaded
+     */
+    private final List<Exception> earlyErrors = new ArrayList<>();
+    private Consumer<Exception> onError;
+
+    /**
+     * Creates an empty registry.
+     *
+     * @param registerWithJmx True if the registry and its metrics should be registered with the platform MBean server
+     */
+    public MetricsRegistry(boolean registerWithJmx) {
+        this.registerWithJmx = registerWithJmx;
+        if (registerWithJmx) {
+            register("type=MetricsRegistry", this);
+        }
+    }
+
+    private static MetricsRegistry createDefault() {
+        MetricsRegistry registry = new MetricsRegistry(true);
+        String dumpPath = System.getProperty("library.metrics.dump");
+        if (dumpPath != null) {
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    registry.dumpToFile(Paths.get(dumpPath));
+                } catch (IOException e) {
+                    registry.failed(e);
+                }
+            }, "metrics-dump"));
+        }
+        return registry;
+    }
+
+    /**
+     * Sets the handler of failures to register a metric with the MBean server or to dump the metrics on exit, such as
+     * one that shows them to the user. Failures that happened before a handler was set, such as those of metrics
+     * created while the application was starting, are passed to it when it is set.
+     *
+     * @param onError Receives each failure, on the thread that created the metric or dumped the metrics, or on the
+     *                calling thread for earlier failures; null to keep them until another handler is set
+     */
+    public void setOnError(Consumer<Exception> onError) {
+        List<Exception> early;
+        synchronized (earlyErrors) {
+            this.onError = onError;
+            if (onError == null) {
+                return;
+            }
+            early = new ArrayList<>(earlyErrors);
+            earlyErrors.clear();
+        }
+        early.forEach(onError);
+    }
+
+    private void failed(Exception e) {
+        Consumer<Exception> handler;
+        synchronized (earlyErrors) {
+            handler = onError;
+            if (handler == null) {
+                if (earlyErrors.size() < MAX_EARLY_ERRORS) {
+                    earlyErrors.add(e);
+                }
+                return;
+            }
+        }
+        handler.accept(e);
+    }
+
+    /**
+     * Gets the registry shared by the whole application
+     *
+     * @return The default registry
+     */
+    public static MetricsRegistry getDefault() {
+        return defaultRegistry;
+    }
+
+    /**
+     * Gets the timer with the given name, creating it if it does not exist
+     *
+     * @param name The name of the timer, such as "library.save"
+     *
+     * @return The timer with the given name
+     */
+    public Timer timer(String name) {
+        return timers.computeIfAbsent(name, (key) -> {
+            Timer timer = new Timer(key);
+            if (registerWithJmx) {
+                register("type=Timer,name=" + ObjectName.quote(key), timer);
+            }
+            return timer;
+        });
+    }
+
+    /**
+     * Gets the counter with the given name, creating it if it does not exist
+     *
+     * @param name The name of the counter, such as "library.lookup.book.miss"
+     *
+     * @return The counter with the given name
+     */
+    public Counter counter(String name) {
+        return counters.computeIfAbsent(name, (key) -> {
+            Counter counter = new Counter(key);
+            if (registerWithJmx) {
+                register("type=Counter,name=" + ObjectName.quote(key), counter);
+            }
+            return counter;
+        });
+    }
+
+    private void register(String properties, Object mxBean) {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            ObjectName objectName = new ObjectName(DOMAIN + ":" + properties);
+            if (!server.isRegistered(objectName)) {
+                server.registerMBean(mxBean, objectName);
+            }
+        } catch (JMException e) {
+            //Metrics are still recorded if they cannot be exposed
+            failed(e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String[] getTimerNames() {
+        return new TreeMap<>(timers).keySet().toArray(new String[0]);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String[] getCounterNames() {
+        return new TreeMap<>(counters).keySet().toArray(new String[0]);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String dump() {
+        StringBuilder report = new StringBuilder();
+        Formatter formatter = new Formatter(report);
+        report.append("Metrics as of ").append(Instant.now()).append('\n');
+        formatter.format("%-40s%12s%12s%12s%12s%12s%12s%n", "Timer", "Count", "Mean (ms)", "Median", "95th", "99th", "Max");
+        for (Map.Entry<String, Timer> e : new TreeMap<>(timers).entrySet()) {
+            Timer timer = e.getValue();
+            formatter.format("%-40s%12d%12.3f%12.3f%12.3f%12.3f%12.3f%n", e.getKey(), timer.getCount(),
+                    timer.getMeanMillis(), timer.getMedianMillis(), timer.get95thPercentileMillis(),
+                    timer.get99thPercentileMillis(), timer.getMaxMillis());
+        }
+        report.append('\n');
+        formatter.format("%-40s%12s%n", "Counter", "Count");
+        for (Map.Entry<String, Counter> e : new TreeMap<>(counters).entrySet()) {
+            formatter.format("%-40s%12d%n", e.getKey(), e.getValue().getCount());
+        }
+        return report.toString();
+    }
+
+    /**
+     * Writes all metrics in the registry to the given file, replacing it if it exists. This is not part of the JMX view
+     * of the registry, so that remote clients cannot write files.
+     *
+     * @param path The file to write to
+     *
+     * @throws IOException If the file cannot be written
+     */
+    public void dumpToFile(Path path) throws IOException {
+        Files.write(path, dump().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void resetAll() {
+        timers.values().forEach(Timer::reset);
+        counters.values().forEach(Counter::reset);
+    }
+}
@@ -0,0 +1,34 @@
+package library.metrics;
+
+/**
+ * The JMX view of a {@link MetricsRegistry}.
+ *
+ * @author Srikavin Ramkumar
+ */
+public interface MetricsRegistryMXBean {
+    /**
+     * Gets the names of all timers in the registry
+     *
+     * @return The sorted names of all timers
+     */
+    String[] getTimerNames();
+
+    /**
+     * Gets the names of all counters in the registry
+     *
+     * @return The sorted names of all counters
+     */
+    String[] getCounterNames();
+
+    /**
+     * Formats all metrics in the registry as a table
+     *
+     * @return A string containing one line for each metric
+     */
+    String dump();
+
+    /**
+     * Resets all timers and counters in the registry
+     */
+    void resetAll();
+}
@@ -0,0 +1,197 @@
+package library.metrics;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Times an operation. Keeps the number of times the operation took place, the total and maximum time taken, and a
+ * {@link LatencyHistogram} of the durations. Safe to use from multiple threads.
+ * <p>
+ * Typical usage:
+ * <pre>
+ *  Report report = timer.time(() -&gt; generateReport());
+ * </pre>
+ * Operations that do not fit in a lambda can be measured by the caller and passed to {@link #record(long)}.
+ *
+ * @author Srikavin Ramkumar
+ */
+public class Timer implements TimerMXBean {
+    private static final double NANOS_PER_MILLI = 1_000_000.0;
+    private final String name;
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+    private final LatencyHistogram histogram = new LatencyHistogram();
+
+    /**
+     * Creates a timer with the given name. Timers should be created through {@link MetricsRegistry#timer(String)}.
+     *
+     * @param name The name of this timer
+     */
+    Timer(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Times a single operation that returns a value
+     *
+     * @param operation The operation to perform and time
+     * @param <T>       The type of the value returned by the operation
+     * @param <E>       The type of the checked exception thrown by the operation, if any
+     *
+     * @return The value returned by the operation
+     *
+     * @throws E If the operation throws it; the operation is still recorded
+     */
+    public <T, E extends Exception> T time(Operation<T, E> operation) throws E {
+        long start = System.nanoTime();
+        try {
+            return operation.call();
+        } finally {
+            record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Times a single operation that does not return a value
+     *
+     * @param action The operation to perform and time
+     * @param <E>    The type of the checked exception thrown by the operation, if any
+     *
+     * @throws E If the operation throws it; the operation is still recorded
+     */
+    public <E extends Exception> void time(Action<E> action) throws E {
+        long start = System.nanoTime();
+        try {
+            action.run();
+        } finally {
+            record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Records a single operation that took the given duration
+     *
+     * @param nanos The duration of the operation in nanoseconds
+     */
+    public void record(long nanos) {
+        count.increment();
+        totalNanos.add(nanos);
+        maxNanos.accumulate(nanos);
+        histogram.record(nanos);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public double getTotalMillis() {
+        return totalNanos.sum() / NANOS_PER_MILLI;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public double getMeanMillis() {
+        long operations = count.sum();
+        return operations == 0 ? 0 : totalNanos.sum() / NANOS_PER_MILLI / operations;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public double getMaxMillis() {
+        return maxNanos.get() / NANOS_PER_MILLI;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public double getMedianMillis() {
+        return percentile(0.5) / NANOS_PER_MILLI;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public double get95thPercentileMillis() {
+        return percentile(0.95) / NANOS_PER_MILLI;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public double get99thPercentileMillis() {
+        return percentile(0.99) / NANOS_PER_MILLI;
+    }
+
+    private long percentile(double fraction) {
+        //The histogram gives the upper bound of a bucket, which may be larger than any recorded duration
+        return Math.min(histogram.getPercentile(fraction), maxNanos.get());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void reset() {
+        count.reset();
+        totalNanos.reset();
+        maxNanos.reset();
+        histogram.reset();
+    }
+
+    /**
+     * An operation timed by {@link #time(Operation)}
+     *
+     * @param <T> The type of the value returned by the operation
+     * @param <E> The type of the checked exception thrown by the operation
+     */
+    @FunctionalInterface
+    public interface Operation<T, E extends Exception> {
+        /**
+         * Performs the operation
+         *
+         * @return The result of the operation
+         *
+         * @throws E If the operation fails
+         */
+        T call() throws E;
+    }
+
+    /**
+     * An operation without a result timed by {@link #time(Action)}
+     *
+     * @param <E> The type of the checked exception thrown by the operation
+     */
+    @FunctionalInterface
+    public interface Action<E extends Exception> {
+        /**
+         * Performs the operation
+         *
+         * @throws E If the operation fails
+         */
+        void run() throws E;
+    }
+}
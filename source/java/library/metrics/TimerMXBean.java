@@ -0,0 +1,69 @@
+package library.metrics;
+
+/**
+ * The JMX view of a {@link Timer}. All durations are in milliseconds.
+ *
+ * @author Srikavin Ramkumar
+ */
+public interface TimerMXBean {
+    /**
+     * Gets the name of the timer
+     *
+     * @return The name of the timer
+     */
+    String getName();
+
+    /**
+     * Gets the number of operations timed
+     *
+     * @return The number of operations
+     */
+    long getCount();
+
+    /**
+     * Gets the total time taken by all operations
+     *
+     * @return The total time in milliseconds
+     */
+    double getTotalMillis();
+
+    /**
+     * Gets the average time taken by an operation
+     *
+     * @return The mean time in milliseconds
+     */
+    double getMeanMillis();
+
+    /**
+     * Gets the longest time taken by an operation
+     *
+     * @return The maximum time in milliseconds
+     */
+    double getMaxMillis();
+
+    /**
+     * Gets the estimated median time taken by an operation
+     *
+     * @return The median time in milliseconds
+     */
+    double getMedianMillis();
+
+    /**
+     * Gets the estimated time that 95% of operations finished within
+     *
+     * @return The 95th percentile time in milliseconds
+     */
+    double get95thPercentileMillis();
+
+    /**
+     * Gets the estimated time that 99% of operations finished within
+     *
+     * @return The 99th percentile time in milliseconds
+     */
+    double get99thPercentileMillis();
+
+    /**
+     * Removes all recorded operations
+     */
+    void reset();
+}
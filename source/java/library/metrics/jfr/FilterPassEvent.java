@@ -0,0 +1,22 @@
+package library.metrics.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Filtering of the records of a table with a new filter.
+ *
+ * @author Srikavin Ramkumar
+ */
+@Name("library.FilterPass")
+@Label("Filter Pass")
+@Description("Filtering of the records of a table with a new filter.")
+class FilterPassEvent extends OperationEvent {
+    @Label("View")
+    String view;
+
+    FilterPassEvent(String view) {
+        this.view = view;
+    }
+}
@@ -0,0 +1,58 @@
+package library.metrics.jfr;
+
+import library.metrics.FlightRecorderEvents;
+
+/**
+ * Creates the Flight Recorder events of library operations. Loaded reflectively by {@link FlightRecorderEvents}.
+ *
+ * @author Srikavin Ramkumar
+ */
+public class JfrEventFactory implements FlightRecorderEvents.Factory {
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public FlightRecorderEvents.Span sectionLoad(String section) {
+        return new SectionLoadEvent(section).start();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public FlightRecorderEvents.Span sectionSave(String section) {
+        return new SectionSaveEvent(section).start();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public FlightRecorderEvents.Span transactionsRebuild() {
+        return new TransactionsRebuildEvent().start();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public FlightRecorderEvents.Span report(String report) {
+        return new ReportEvent(report).start();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public FlightRecorderEvents.Span filterPass(String view) {
+        return new FilterPassEvent(view).start();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public FlightRecorderEvents.Span viewLoad(String file) {
+        return new ViewLoadEvent(file).start();
+    }
+}
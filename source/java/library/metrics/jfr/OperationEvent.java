@@ -0,0 +1,48 @@
+package library.metrics.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.StackTrace;
+import library.metrics.FlightRecorderEvents;
+
+/**
+ * Base class of the events of timed library operations. Each event records the number of rows it processed.
+ *
+ * @author Srikavin Ramkumar
+ */
+@Category("BookKeeper")
+@StackTrace(false)
+abstract class OperationEvent extends Event implements FlightRecorderEvents.Span {
+    @Label("Rows")
+    long rows;
+
+    /**
+     * Starts timing this event
+     *
+     * @return This event
+     */
+    OperationEvent start() {
+        begin();
+        return this;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setRows(long rows) {
+        this.rows = rows;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() {
+        end();
+        if (shouldCommit()) {
+            commit();
+        }
+    }
+}
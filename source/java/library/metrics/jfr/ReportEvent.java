@@ -0,0 +1,22 @@
+package library.metrics.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Generation of a single report by a ReportGenerator.
+ *
+ * @author Srikavin Ramkumar
+ */
+@Name("library.Report")
+@Label("Report")
+@Description("Generation of a single report by a ReportGenerator.")
+class ReportEvent extends OperationEvent {
+    @Label("Report")
+    String report;
+
+    ReportEvent(String report) {
+        this.report = report;
+    }
+}
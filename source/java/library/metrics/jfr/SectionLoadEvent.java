@@ -0,0 +1,22 @@
+package library.metrics.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Loading of a single section of a library data file.
+ *
+ * @author Srikavin Ramkumar
+ */
+@Name("library.SectionLoad")
+@Label("Section Load")
+@Description("Loading of a single section of a library data file.")
+class SectionLoadEvent extends OperationEvent {
+    @Label("Section")
+    String section;
+
+    SectionLoadEvent(String section) {
+        this.section = section;
+    }
+}
@@ -0,0 +1,22 @@
+package library.metrics.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Saving of a single section of a library data file.
+ *
+ * @author Srikavin Ramkumar
+ */
+@Name("library.SectionSave")
+@Label("Section Save")
+@Description("Saving of a single section of a library data file.")
+class SectionSaveEvent extends OperationEvent {
+    @Label("Section")
+    String section;
+
+    SectionSaveEvent(String section) {
+        this.section = section;
+    }
+}
@@ -0,0 +1,16 @@
+package library.metrics.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Rebuilding of the transaction list of a library to resolve deleted books and patrons.
+ *
+ * @author Srikavin Ramkumar
+ */
+@Name("library.TransactionsRebuild")
+@Label("Transactions Rebuild")
+@Description("Rebuilding of the transaction list of a library to resolve deleted books and patrons.")
+class TransactionsRebuildEvent extends OperationEvent {
+}
@@ -0,0 +1,22 @@
+package library.metrics.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Loading of an FXML view from disk.
+ *
+ * @author Srikavin Ramkumar
+ */
+@Name("library.ViewLoad")
+@Label("View Load")
+@Description("Loading of an FXML view from disk.")
+class ViewLoadEvent extends OperationEvent {
+    @Label("File")
+    String file;
+
+    ViewLoadEvent(String file) {
+        this.file = file;
+    }
+}
@@ -0,0 +1,7 @@
+/**
+ * This package includes the JDK Flight Recorder events of BookKeeper.
+ * It is only loaded by {@link library.metrics.FlightRecorderEvents} on JVMs that support Flight Recorder, and should
+ * not be referenced directly.
+ * @author Srikavin Ramkumar
+ */
+package library.metrics.jfr;
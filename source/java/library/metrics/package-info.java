@@ -0,0 +1,7 @@
+/**
+ * This package includes the operation metrics of BookKeeper.
+ * It is used to count and time operations of the model and view layers, such as loading, saving, filtering,
+ * and generating reports. The metrics are exposed over JMX and can be written to a file.
+ * @author Srikavin Ramkumar
+ */
+package library.metrics;
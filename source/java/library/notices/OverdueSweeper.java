@@ -0,0 +1,454 @@
+package library.notices;
+
+import library.data.*;
+import library.metrics.Counter;
+import library.metrics.MetricsRegistry;
+import library.metrics.Timer;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.*;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+
+/**
+ * Finds loans that have become overdue and writes an overdue notice for each patron. Sweeps are scheduled on a single
+ * daemon thread at configurable times of day, so they never keep a headless server from exiting. The overdue loans are
+ * found and fines charged on the given executor, such as the JavaFX application thread; the notices are then formatted
+ * and written one patron at a time on the sweeper thread, so a large batch is never held in memory as text.
+ * <p>
+ * Open loans are indexed by due date, so a sweep only visits the loans that became due since the previous sweep. The
+ * index is built by the first sweep and then kept up to date from the {@linkplain Library#getEventBus() events} of the
+ * library: a checkout, return, or change to a book only moves that book in the index. The index is only built again
+ * when a patron or patron type changes, since that can change the due date of every loan of the patron. The time of
+ * the previous sweep is kept in the notice directory, so a loan is noticed once even if the application is restarted.
+ * <p>
+ * Each sweep writes its notices to a new directory named after the time of the sweep, with one file per patron. A sweep
+ * also charges the day's fines to the {@link FineLedger} of the library.
+ *
+ * @author Srikavin Ramkumar
+ */
+public class OverdueSweeper implements AutoCloseable {
+    private static final String LAST_SWEEP_FILE = "last-sweep.txt";
+    private static final MetricsRegistry METRICS = MetricsRegistry.getDefault();
+    private static final Timer SWEEP_TIMER = METRICS.timer("notices.sweep");
+    private static final Counter NOTICES_WRITTEN = METRICS.counter("notices.written");
+    private static final Counter SWEEP_ERRORS = METRICS.counter("notices.errors");
+    private static final DateTimeFormatter BATCH_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd-HHmmss");
+    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("MMMM d, yyyy", Locale.US);
+    private final Library library;
+    private final Path noticeDirectory;
+    private final Executor executor;
+    /**
+     * Held while a sweep reads and writes the time of the previous sweep, so that sweeps do not overlap
+     */
+    private final Object sweepLock = new Object();
+    /**
+     * Open loans by due date. Books due at the same instant share an entry. The index is only used on the executor.
+     */
+    private final TreeMap<Instant, List<Book>> dueDates = new TreeMap<>();
+    /**
+     * The due date each book is indexed under
+     */
+    private final Map<Book, Instant> indexedDueDates = new IdentityHashMap<>();
+    private volatile boolean indexed;
+    private LibraryEventBus.Subscription subscription;
+    private List<LocalTime> times = Collections.singletonList(LocalTime.of(8, 0));
+    private ZoneId zone = ZoneId.systemDefault();
+    private Consumer<List<Path>> onSweep;
+    private Consumer<Exception> onError = (e) -> System.err.println("Could not write overdue notices: " + e);
+    private ScheduledExecutorService scheduler;
+    private ScheduledFuture<?> nextRun;
+
+    /**
+     * Creates a sweeper of the given library. Nothing is scheduled until {@link #start()} is called.
+     *
+     * @param library         The library to find overdue loans in
+     * @param noticeDirectory The directory to write notices to; it is created if it does not exist
+     * @param executor        The executor to read the library on; it must not run at the same time as changes to the
+     *                        library
+     */
+    public OverdueSweeper(Library library, Path noticeDirectory, Executor executor) {
+        this.library = library;
+        this.noticeDirectory = noticeDirectory;
+        this.executor = executor;
+    }
+
+    /**
+     * Parses a comma separated list of times of day, such as "08:00,18:30"
+     *
+     * @param times The times to parse; an empty string results in an empty list
+     *
+     * @return The parsed times
+     *
+     * @throws IllegalArgumentException If a time cannot be parsed
+     */
+    public static List<LocalTime> parseTimes(String times) {
+        List<LocalTime> parsed = new ArrayList<>();
+        for (String time : times.split(",")) {
+            if (time.trim().isEmpty()) {
+                continue;
+            }
+            try {
+                parsed.add(LocalTime.parse(time.trim()));
+            } catch (DateTimeParseException e) {
+                throw new IllegalArgumentException("Invalid time of day: " + time.trim(), e);
+            }
+        }
+        return parsed;
+    }
+
+    /**
+     * Sets the times of day that sweeps run at. Takes effect at the next scheduled sweep, or immediately if the sweeper
+     * is started afterwards.
+     *
+     * @param times The times of day to sweep at; must not be empty
+     */
+    public synchronized void setTimes(List<LocalTime> times) {
+        if (times.isEmpty()) {
+            throw new IllegalArgumentException("At least one time is required");
+        }
+        List<LocalTime> sorted = new ArrayList<>(times);
+        Collections.sort(sorted);
+        this.times = sorted;
+        if (scheduler != null) {
+            scheduleNext();
+        }
+    }
+
+    /**
+     * Sets the time zone the times of day are in. Defaults to the system time zone.
+     *
+     * @param zone The time zone of the sweep times
+     */
+    public synchronized void setZone(ZoneId zone) {
+        this.zone = zone;
+    }
+
+    /**
+     * Sets a callback that is run on the sweeper thread after every scheduled sweep. The GUI can use this to refresh
+     * itself with {@code Platform.runLater}, and the command-line interface to save the library.
+     *
+     * @param onSweep Receives the notice files written by the sweep; may be null
+     */
+    public synchronized void setOnSweep(Consumer<List<Path>> onSweep) {
+        this.onSweep = onSweep;
+    }
+
+    /**
+     * Sets the handler of scheduled sweeps that fail, such as one that shows the error to the user. By default, errors
+     * are printed to the standard error stream. Sweeps run through {@link #sweep(Instant)} throw their errors instead.
+     *
+     * @param onError Receives the error of each failed sweep, on the sweeper thread
+     */
+    public synchronized void setOnError(Consumer<Exception> onError) {
+        this.onError = onError;
+    }
+
+    /**
+     * Starts running sweeps at the configured times of day. Does nothing if the sweeper has already been started.
+     */
+    public synchronized void start() {
+        if (scheduler != null) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "overdue-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduleNext();
+    }
+
+    /**
+     * Stops running scheduled sweeps and keeping the index of loans. A sweep that is already running is allowed to
+     * finish.
+     */
+    @Override
+    public synchronized void close() {
+        if (scheduler != null) {
+            scheduler.shutdown();
+            scheduler = null;
+        }
+        if (subscription != null) {
+            subscription.close();
+            subscription = null;
+        }
+        indexed = false;
+    }
+
+    /**
+     * Gets the time the next scheduled sweep will run
+     *
+     * @return The time of the next sweep, or null if the sweeper is not started
+     */
+    public synchronized Instant getNextRun() {
+        if (nextRun == null || scheduler == null) {
+            return null;
+        }
+        return Instant.now().plusMillis(nextRun.getDelay(TimeUnit.MILLISECONDS));
+    }
+
+    private void scheduleNext() {
+        if (nextRun != null) {
+            nextRun.cancel(false);
+        }
+        ZonedDateTime now = ZonedDateTime.now(zone);
+        ZonedDateTime next = null;
+        for (LocalTime time : times) {
+            ZonedDateTime candidate = now.with(time);
+            if (candidate.isAfter(now)) {
+                next = candidate;
+                break;
+            }
+        }
+        if (next == null) {
+            next = now.plusDays(1).with(times.get(0));
+        }
+        long delay = Duration.between(now, next).toMillis();
+        nextRun = scheduler.schedule(this::runScheduled, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void runScheduled() {
+        Consumer<List<Path>> callback;
+        Consumer<Exception> errorHandler;
+        List<Path> written;
+        try {
+            written = sweep(Instant.now(), executor);
+            synchronized (this) {
+                callback = onSweep;
+            }
+            if (callback != null) {
+                callback.accept(written);
+            }
+        } catch (IOException | RuntimeException e) {
+            //Keep the schedule running; the next sweep picks up the loans this one missed
+            SWEEP_ERRORS.increment();
+            synchronized (this) {
+                errorHandler = onError;
+            }
+            errorHandler.accept(e);
+        } finally {
+            synchronized (this) {
+                if (scheduler != null) {
+                    scheduleNext();
+                }
+            }
+        }
+    }
+
+    /**
+     * Runs a sweep immediately on the calling thread, which must be allowed to read and change the library, such as the
+     * thread of the executor of this sweeper. Loans that became due after the previous sweep and before the given time
+     * are gathered, and a notice is written for each patron with such a loan.
+     *
+     * @param now The time of the sweep
+     *
+     * @return The notice files written, one per patron; empty if no loans became overdue
+     *
+     * @throws IOException If the notices cannot be written
+     */
+    public List<Path> sweep(Instant now) throws IOException {
+        return sweep(now, Runnable::run);
+    }
+
+    /**
+     * Runs a sweep, reading the library on the given executor and writing the notices on the calling thread
+     */
+    private List<Path> sweep(Instant now, Executor readOn) throws IOException {
+        return SWEEP_TIMER.time(() -> {
+            synchronized (sweepLock) {
+                Instant lastSweep = readLastSweep();
+                Map<Patron, List<OverdueLoan>> overdue = gatherOverdue(lastSweep, now, readOn);
+
+                List<Path> written = new ArrayList<>();
+                if (!overdue.isEmpty()) {
+                    Path batch = noticeDirectory.resolve(BATCH_FORMATTER.format(now.atZone(zone)));
+                    Files.createDirectories(batch);
+                    for (Map.Entry<Patron, List<OverdueLoan>> e : overdue.entrySet()) {
+                        written.add(writeNotice(batch, e.getKey(), e.getValue()));
+                    }
+                    NOTICES_WRITTEN.add(written.size());
+                }
+                writeLastSweep(now);
+                return written;
+            }
+        });
+    }
+
+    /**
+     * Charges the day's fines and finds the loans that became due since the previous sweep, on the given executor, and
+     * waits for them
+     *
+     * @return The newly overdue loans of each patron, in the order of their identifiers
+     */
+    private Map<Patron, List<OverdueLoan>> gatherOverdue(Instant lastSweep, Instant now, Executor readOn) throws IOException {
+        CompletableFuture<Map<Patron, List<OverdueLoan>>> overdue = new CompletableFuture<>();
+        try {
+            readOn.execute(() -> {
+                try {
+                    ReportGenerator reportGenerator = library.getReportGenerator();
+                    library.getFineLedger().accrueIfDue(now, reportGenerator.getFineRate(), reportGenerator.getFineLimit());
+                    overdue.complete(findNewlyOverdue(lastSweep, now));
+                } catch (RuntimeException e) {
+                    overdue.completeExceptionally(e);
+                }
+            });
+            return overdue.get();
+        } catch (RejectedExecutionException e) {
+            throw new IOException("The library is no longer open", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the library to be read");
+        } catch (ExecutionException e) {
+            throw (RuntimeException) e.getCause();
+        }
+    }
+
+    /**
+     * Finds the loans that became due in the given interval, grouped by patron in the order of their identifiers
+     *
+     * @param from The start of the interval, inclusive; null to find all overdue loans
+     * @param to   The end of the interval, exclusive
+     */
+    private Map<Patron, List<OverdueLoan>> findNewlyOverdue(Instant from, Instant to) {
+        if (!indexed) {
+            rebuildIndex();
+        }
+        SortedMap<Instant, List<Book>> due = from == null ? dueDates.headMap(to) : dueDates.subMap(from, to);
+
+        Map<Patron, List<OverdueLoan>> overdue = new TreeMap<>(Comparator.comparing(Patron::getIdentifier));
+        for (Map.Entry<Instant, List<Book>> e : due.entrySet()) {
+            for (Book book : e.getValue()) {
+                overdue.computeIfAbsent(book.getCurrentPatron(), (p) -> new ArrayList<>()).add(new OverdueLoan(book, e.getKey()));
+            }
+        }
+        return overdue;
+    }
+
+    private void rebuildIndex() {
+        synchronized (this) {
+            //Subscribed first, so that changes made after the books are read are applied to the index
+            if (subscription == null) {
+                subscription = library.getEventBus().subscribe(executor, this::libraryEvents);
+            }
+        }
+        dueDates.clear();
+        indexedDueDates.clear();
+        for (Book book : library.getBooks()) {
+            index(book);
+        }
+        indexed = true;
+    }
+
+    /**
+     * Moves the changed books in the index. Called on the executor, like the sweeps that read the index.
+     */
+    private void libraryEvents(List<LibraryEvent> events) {
+        if (!indexed) {
+            return;
+        }
+        for (LibraryEvent e : events) {
+            LibraryData record = e.getRecord();
+            if (record instanceof Book) {
+                unindex((Book) record);
+                if (e.getType() != LibraryEvent.Type.REMOVED) {
+                    index((Book) record);
+                }
+            } else if (e.getType() == LibraryEvent.Type.UPDATED && (record instanceof Patron || record instanceof PatronType)) {
+                //The loan period of the patron may have changed, which moves the due dates of their loans
+                indexed = false;
+                return;
+            }
+        }
+    }
+
+    private void index(Book book) {
+        if (book.getStatus() == BookStatus.CHECKED_OUT && book.getCurrentPatron() != null && book.getCheckOutDate() != null) {
+            Instant dueDate = library.getReportGenerator().getDueDate(book);
+            dueDates.computeIfAbsent(dueDate, (d) -> new ArrayList<>(1)).add(book);
+            indexedDueDates.put(book, dueDate);
+        }
+    }
+
+    private void unindex(Book book) {
+        Instant dueDate = indexedDueDates.remove(book);
+        if (dueDate == null) {
+            return;
+        }
+        List<Book> books = dueDates.get(dueDate);
+        //Books are compared by identity, like the index of due dates
+        books.removeIf((e) -> e == book);
+        if (books.isEmpty()) {
+            dueDates.remove(dueDate);
+        }
+    }
+
+    /**
+     * Formats the notice of a patron straight into its file. The loans are not read from the library again, as they
+     * may have been returned since they were gathered.
+     */
+    private Path writeNotice(Path batch, Patron patron, List<OverdueLoan> loans) throws IOException {
+        String patronId = patron.getIdentifier().getId();
+        Path notice = batch.resolve(patronId + ".txt");
+        Path temporary = batch.resolve(patronId + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(temporary, StandardCharsets.UTF_8)) {
+            writer.append("Dear ").append(patron.getFirstName()).append(" ").append(patron.getLastName()).append(",\n\n");
+            writer.append(loans.size() == 1 ? "The following item is now overdue:\n\n" : "The following items are now overdue:\n\n");
+            for (OverdueLoan loan : loans) {
+                LocalDate dueDate = loan.dueDate.atZone(zone).toLocalDate();
+                writer.append("  ").append(loan.book.getIdentifier().getId()).append("  ").append(loan.book.getTitle())
+                        .append(" by ").append(loan.book.getAuthor()).append(", due ").append(DATE_FORMATTER.format(dueDate))
+                        .append("\n");
+            }
+            long balance = library.getFineLedger().getBalance(patron);
+            if (balance > 0) {
+                writer.append("\nYour current balance is $").append(ReportGenerator.formatCents(balance)).append(".\n");
+            }
+            writer.append("\nPlease return these items as soon as possible.\n");
+        }
+        Files.move(temporary, notice, StandardCopyOption.REPLACE_EXISTING);
+        return notice;
+    }
+
+    private Instant readLastSweep() throws IOException {
+        Path file = noticeDirectory.resolve(LAST_SWEEP_FILE);
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+        try {
+            return Instant.parse(new String(Files.readAllBytes(file), StandardCharsets.UTF_8).trim());
+        } catch (DateTimeParseException e) {
+            throw new IOException("Invalid time of the last sweep in " + file, e);
+        }
+    }
+
+    private void writeLastSweep(Instant now) throws IOException {
+        Files.createDirectories(noticeDirectory);
+        Path file = noticeDirectory.resolve(LAST_SWEEP_FILE);
+        Path temporary = noticeDirectory.resolve(LAST_SWEEP_FILE + ".tmp");
+        Files.write(temporary, now.toString().getBytes(StandardCharsets.UTF_8));
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * A loan found by a sweep, with the due date it was indexed under
+     */
+    private static final class OverdueLoan {
+        private final Book book;
+        private final Instant dueDate;
+
+        private OverdueLoan(Book book, Instant dueDate) {
+            this.book = book;
+            this.dueDate = dueDate;
+        }
+    }
+}
@@ -0,0 +1,7 @@
+/**
+ * This package includes the overdue notices of BookKeeper.
+ * It is used to find loans that have become overdue on a schedule and write a notice for each patron, on a background
+ * thread of both the GUI and the headless command-line interface. Nothing in this package may depend on JavaFX.
+ * @author Srikavin Ramkumar
+ */
+package library.notices;
@@ -0,0 +1,729 @@
+package library.transfer;
+
+import library.data.*;
+import library.metrics.Counter;
+import library.metrics.MetricsRegistry;
+import library.metrics.Timer;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+
+/**
+ * Imports new stock into a {@link Library} from vendor files of many thousands of items, instead of creating each book
+ * through the Books view.
+ * <p>
+ * The import is a pipeline of three stages. Records are read from the file in order and grouped into batches. Each
+ * batch is validated on the common {@link ForkJoinPool} while the following batches are read, and only a few batches
+ * are read ahead, so the whole file is never held in memory. Validated batches are then committed in file order on
+ * the {@linkplain #setExecutor(Executor) executor of the importer}, which is the calling thread by default: every row
+ * is matched by its ISBN to a title already in the catalog, the identifiers of the new copies are allocated for the
+ * whole batch at once, and the copies are added to the library with a single {@link Library#addBooks(Collection)}.
+ * <p>
+ * Rows that cannot be imported are rejected with the reason, and do not stop the import.
+ *
+ * @author Srikavin Ramkumar
+ */
+public class CatalogImporter {
+    /**
+     * The default number of records in each batch
+     */
+    public static final int DEFAULT_BATCH_SIZE = 2000;
+    /**
+     * The largest number of copies a single row may add
+     */
+    public static final int MAX_COPIES = 1000;
+    /**
+     * The number of rejections kept in the {@link Result}; every rejection is still passed to the rejection handler
+     */
+    private static final int KEPT_REJECTIONS = 100;
+    private static final Pattern CSV_SEPARATOR = Pattern.compile(",(?=(?:[^\"]*\"[^\"]*\")*[^\"]*$)");
+    private static final MetricsRegistry METRICS = MetricsRegistry.getDefault();
+    private static final Timer BATCH_TIMER = METRICS.timer("import.batch");
+    private static final Counter ROWS_IMPORTED = METRICS.counter("import.rows");
+    private static final Counter ROWS_REJECTED = METRICS.counter("import.rejected");
+
+    private final Library library;
+    private int batchSize = DEFAULT_BATCH_SIZE;
+    private boolean skipExisting = false;
+    private Executor executor = Runnable::run;
+    private Consumer<Rejection> onReject = (rejection) -> {
+    };
+
+    /**
+     * The formats of the files that can be imported
+     */
+    public enum Format {
+        /**
+         * Comma separated rows of title,author,isbn[,copies], with an optional header row. Values containing a comma
+         * are quoted.
+         */
+        CSV,
+        /**
+         * Tab separated rows with the same columns as {@link #CSV}
+         */
+        TSV,
+        /**
+         * MARC records in the mnemonic text format (.mrk), separated by blank lines. The title is read from field 245,
+         * the author from field 100 (or 110 or 700), and the ISBN from field 020. Each record adds one copy.
+         */
+        MARC;
+
+        /**
+         * Finds the format of a file from its extension
+         *
+         * @param file The file to import
+         *
+         * @return {@link #MARC} for .mrk files, {@link #TSV} for .tsv and .tab files, and {@link #CSV} otherwise
+         */
+        public static Format forFile(Path file) {
+            String name = file.getFileName().toString().toLowerCase();
+            if (name.endsWith(".mrk")) {
+                return MARC;
+            }
+            if (name.endsWith(".tsv") || name.endsWith(".tab")) {
+                return TSV;
+            }
+            return CSV;
+        }
+    }
+
+    /**
+     * Creates an importer that adds books to the given library
+     *
+     * @param library The library to import books into
+     */
+    public CatalogImporter(Library library) {
+        this.library = library;
+    }
+
+    /**
+     * Sets the number of records validated and committed together
+     *
+     * @param batchSize The number of records in each batch
+     *
+     * @throws IllegalArgumentException If the batch size is not positive
+     */
+    public void setBatchSize(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("The batch size must be positive: " + batchSize);
+        }
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Sets whether rows of titles that already have copies in the library are rejected. By default, such rows add more
+     * copies of the existing title; skipping them allows the same vendor file to be imported again safely.
+     *
+     * @param skipExisting True to reject rows of titles that are already in the library
+     */
+    public void setSkipExisting(boolean skipExisting) {
+        this.skipExisting = skipExisting;
+    }
+
+    /**
+     * Sets the executor the library is read and changed on, such as {@code Platform::runLater} when the import runs on
+     * a background thread of the GUI. The file is still read on the calling thread, which waits for each batch to be
+     * committed, so the calling thread must not be the thread of the executor.
+     *
+     * @param executor The executor to commit batches on; it must not run at the same time as other changes to the
+     *                 library
+     */
+    public void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Sets the handler called with every rejected row, in file order, as the import runs. The handler is called on the
+     * {@linkplain #setExecutor(Executor) executor of the importer}.
+     *
+     * @param onReject The handler of rejected rows
+     */
+    public void setOnReject(Consumer<Rejection> onReject) {
+        this.onReject = onReject;
+    }
+
+    /**
+     * Imports the books of a file, in the {@linkplain Format#forFile(Path) format given by its extension}
+     *
+     * @param file The file to import
+     *
+     * @return The result of the import
+     *
+     * @throws IOException If the file cannot be read. Batches committed before the error remain in the library.
+     */
+    public Result importFile(Path file) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            return importFrom(reader, Format.forFile(file));
+        }
+    }
+
+    /**
+     * Imports the books read from a reader
+     *
+     * @param reader The reader to read records from
+     * @param format The format of the records
+     *
+     * @return The result of the import
+     *
+     * @throws IOException If the reader fails. Batches committed before the error remain in the library.
+     */
+    public Result importFrom(BufferedReader reader, Format format) throws IOException {
+        long start = System.nanoTime();
+        RecordReader records = new RecordReader(reader, format);
+        Commit commit = new Commit();
+        commitOn(commit::load);
+
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+        int lookahead = Math.max(2, pool.getParallelism() * 2);
+        Deque<ForkJoinTask<List<Record>>> pending = new ArrayDeque<>();
+        try {
+            List<Record> batch;
+            while (!(batch = records.nextBatch(batchSize)).isEmpty()) {
+                List<Record> task = batch;
+                pending.add(pool.submit(() -> validate(task)));
+                if (pending.size() >= lookahead) {
+                    List<Record> validated = pending.remove().join();
+                    commitOn(() -> commit.commit(validated));
+                }
+            }
+            while (!pending.isEmpty()) {
+                List<Record> validated = pending.remove().join();
+                commitOn(() -> commit.commit(validated));
+            }
+        } finally {
+            //Stop validating batches that will not be committed if reading failed
+            for (ForkJoinTask<List<Record>> task : pending) {
+                task.cancel(false);
+            }
+        }
+
+        commit.result.elapsedNanos = System.nanoTime() - start;
+        return commit.result;
+    }
+
+    /**
+     * Runs a stage of the commit on the executor of this importer, and waits for it to finish
+     */
+    private void commitOn(Runnable stage) throws IOException {
+        CompletableFuture<Void> committed = new CompletableFuture<>();
+        executor.execute(() -> {
+            try {
+                stage.run();
+                committed.complete(null);
+            } catch (Throwable e) {
+                //Any failure must complete the future, or the importer would wait for the batch forever
+                committed.completeExceptionally(e);
+            }
+        });
+        try {
+            committed.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a batch to be committed");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw (RuntimeException) e.getCause();
+        }
+    }
+
+    private static List<Record> validate(List<Record> batch) {
+        for (Record e : batch) {
+            if (e.reason == null) {
+                e.reason = validate(e);
+            }
+        }
+        return batch;
+    }
+
+    /**
+     * Checks a single record, and normalizes its ISBN and number of copies
+     *
+     * @return The reason the record is rejected, or null if it is valid
+     */
+    private static String validate(Record record) {
+        if (record.title.isEmpty()) {
+            return "missing title";
+        }
+        if (record.author.isEmpty()) {
+            return "missing author";
+        }
+        if (record.isbn.isEmpty()) {
+            return "missing ISBN";
+        }
+        try {
+            record.isbn = normalizeIsbn(record.isbn);
+        } catch (IllegalArgumentException e) {
+            return e.getMessage();
+        }
+        if (record.copiesText.isEmpty()) {
+            record.copies = 1;
+        } else {
+            try {
+                record.copies = Integer.parseInt(record.copiesText);
+            } catch (NumberFormatException e) {
+                return "invalid number of copies \"" + record.copiesText + "\"";
+            }
+            if (record.copies < 1 || record.copies > MAX_COPIES) {
+                return "the number of copies must be between 1 and " + MAX_COPIES + ": " + record.copies;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Checks the check digit of an ISBN and converts it to the 13 digit form. Hyphens and spaces are ignored.
+     *
+     * @param isbn An ISBN-10 or ISBN-13
+     *
+     * @return The 13 digits of the ISBN
+     *
+     * @throws IllegalArgumentException If the ISBN is not a valid ISBN-10 or ISBN-13
+     */
+    public static String normalizeIsbn(String isbn) {
+        String digits = isbn.replace("-", "").replace(" ", "").toUpperCase();
+        if (digits.length() == 10) {
+            int sum = 0;
+            for (int i = 0; i < 10; i++) {
+                char c = digits.charAt(i);
+                int value;
+                if (c >= '0' && c <= '9') {
+                    value = c - '0';
+                } else if (c == 'X' && i == 9) {
+                    value = 10;
+                } else {
+                    throw new IllegalArgumentException("invalid ISBN \"" + isbn + "\": unexpected character '" + c + "'");
+                }
+                sum += (10 - i) * value;
+            }
+            if (sum % 11 != 0) {
+                throw new IllegalArgumentException("invalid ISBN \"" + isbn + "\": wrong check digit");
+            }
+            //The ISBN-13 of a book with an ISBN-10 has the 978 prefix and a new check digit
+            String prefix = "978" + digits.substring(0, 9);
+            return prefix + isbn13CheckDigit(prefix);
+        }
+        if (digits.length() == 13) {
+            for (int i = 0; i < 13; i++) {
+                if (digits.charAt(i) < '0' || digits.charAt(i) > '9') {
+                    throw new IllegalArgumentException("invalid ISBN \"" + isbn + "\": unexpected character '" + digits.charAt(i) + "'");
+                }
+            }
+            if (isbn13CheckDigit(digits.substring(0, 12)) != digits.charAt(12)) {
+                throw new IllegalArgumentException("invalid ISBN \"" + isbn + "\": wrong check digit");
+            }
+            return digits;
+        }
+        throw new IllegalArgumentException("invalid ISBN \"" + isbn + "\": expected 10 or 13 digits");
+    }
+
+    private static char isbn13CheckDigit(String first12) {
+        int sum = 0;
+        for (int i = 0; i < 12; i++) {
+            sum += (first12.charAt(i) - '0') * (i % 2 == 0 ? 1 : 3);
+        }
+        return (char) ('0' + (10 - sum % 10) % 10);
+    }
+
+    /**
+     * The state of the commit stage, which is only used on the executor of the importer
+     */
+    private class Commit {
+        private final Result result = new Result();
+        private final Catalog catalog = library.getCatalog();
+        /**
+         * The titles of the catalog by their 13 digit ISBN, built once for the import and extended with the titles it
+         * creates
+         */
+        private final Map<String, Title> titlesByIsbn = new HashMap<>();
+        /**
+         * The ISBNs of the titles that had copies in the library before the import
+         */
+        private final Set<String> existing = new HashSet<>();
+        private int nextId = 0;
+
+        /**
+         * Reads the titles and identifiers that are already in the library
+         */
+        private void load() {
+            for (Title e : catalog.getTitles()) {
+                String isbn;
+                try {
+                    isbn = normalizeIsbn(e.getIsbn());
+                } catch (IllegalArgumentException ignored) {
+                    //Titles entered by hand may have an ISBN that is not valid
+                    isbn = e.getIsbn();
+                }
+                //Prefer a title with copies over an older record of the same book
+                Title previous = titlesByIsbn.get(isbn);
+                if (previous == null || (previous.getCopies() == 0 && e.getCopies() > 0)) {
+                    titlesByIsbn.put(isbn, e);
+                }
+                if (e.getCopies() > 0) {
+                    existing.add(isbn);
+                }
+            }
+            for (Book e : library.getBooks()) {
+                try {
+                    nextId = Math.max(nextId, Integer.parseInt(e.getIdentifier().getId()) + 1);
+                } catch (NumberFormatException ignored) {
+                    //Identifiers are not required to be numeric
+                }
+            }
+        }
+
+        private void commit(List<Record> batch) {
+            BATCH_TIMER.time(() -> {
+                List<Record> accepted = new ArrayList<>(batch.size());
+                List<Title> titles = new ArrayList<>(batch.size());
+                int copies = 0;
+                for (Record e : batch) {
+                    result.rows++;
+                    if (e.reason != null) {
+                        reject(e);
+                        continue;
+                    }
+                    Title title = titlesByIsbn.get(e.isbn);
+                    if (title == null) {
+                        title = catalog.intern(e.title, e.author, e.isbn);
+                        titlesByIsbn.put(e.isbn, title);
+                        result.titlesCreated++;
+                    } else if (existing.contains(e.isbn)) {
+                        if (skipExisting) {
+                            e.reason = "already in the library as \"" + title.getTitle() + "\" with " +
+                                    title.getCopies() + " copies";
+                            reject(e);
+                            continue;
+                        }
+                        result.rowsMatched++;
+                    }
+                    accepted.add(e);
+                    titles.add(title);
+                    copies += e.copies;
+                }
+
+                //Allocate the identifiers of every copy in the batch at once
+                int id = nextId;
+                nextId += copies;
+                List<Book> added = new ArrayList<>(copies);
+                for (int i = 0; i < accepted.size(); i++) {
+                    for (int j = 0; j < accepted.get(i).copies; j++) {
+                        added.add(new Book(new Identifier(id++), titles.get(i), BookStatus.AVAILABLE, null, null));
+                    }
+                }
+                if (!added.isEmpty()) {
+                    library.addBooks(added);
+                }
+                result.rowsImported += accepted.size();
+                result.copiesAdded += added.size();
+                ROWS_IMPORTED.add(accepted.size());
+            });
+        }
+
+        private void reject(Record record) {
+            Rejection rejection = new Rejection(record.line, record.reason);
+            result.rowsRejected++;
+            if (result.rejections.size() < KEPT_REJECTIONS) {
+                result.rejections.add(rejection);
+            }
+            ROWS_REJECTED.increment();
+            onReject.accept(rejection);
+        }
+    }
+
+    /**
+     * A row of the imported file, as it passes through the stages of the import
+     */
+    private static class Record {
+        private final int line;
+        private String title = "";
+        private String author = "";
+        private String isbn = "";
+        private String copiesText = "";
+        private int copies;
+        private String reason;
+
+        private Record(int line) {
+            this.line = line;
+        }
+    }
+
+    /**
+     * Reads the records of a file one at a time
+     */
+    private static class RecordReader {
+        private final BufferedReader reader;
+        private final Format format;
+        private int lineNumber = 0;
+
+        private RecordReader(BufferedReader reader, Format format) {
+            this.reader = reader;
+            this.format = format;
+        }
+
+        private List<Record> nextBatch(int size) throws IOException {
+            List<Record> batch = new ArrayList<>(size);
+            Record record;
+            while (batch.size() < size && (record = next()) != null) {
+                batch.add(record);
+            }
+            return batch;
+        }
+
+        private Record next() throws IOException {
+            return format == Format.MARC ? nextMarc() : nextRow();
+        }
+
+        private Record nextRow() throws IOException {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.trim().isEmpty()) {
+                    continue;
+                }
+                String[] fields = format == Format.TSV ? line.split("\t", -1) : CSV_SEPARATOR.split(line, -1);
+                for (int i = 0; i < fields.length; i++) {
+                    fields[i] = fields[i].trim().replaceAll("^\"|\"$", "").replace("\"\"", "\"");
+                }
+                //Skip the header row
+                if (lineNumber == 1 && fields[0].equalsIgnoreCase("title")) {
+                    continue;
+                }
+                Record record = new Record(lineNumber);
+                if (fields.length < 3 || fields.length > 4) {
+                    record.reason = "expected title,author,isbn[,copies] but found " + fields.length + " fields";
+                    return record;
+                }
+                record.title = fields[0];
+                record.author = fields[1];
+                record.isbn = fields[2];
+                record.copiesText = fields.length > 3 ? fields[3] : "";
+                return record;
+            }
+            return null;
+        }
+
+        private Record nextMarc() throws IOException {
+            Record record = null;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.trim().isEmpty()) {
+                    if (record != null) {
+                        return record;
+                    }
+                    continue;
+                }
+                if (record == null) {
+                    record = new Record(lineNumber);
+                }
+                //Data fields are written as =TAG  II$aValue$bValue, where II are the two indicators
+                if (!line.startsWith("=") || line.length() < 7) {
+                    continue;
+                }
+                String tag = line.substring(1, 4);
+                String value = line.substring(6);
+                switch (tag) {
+                    case "020":
+                        if (record.isbn.isEmpty()) {
+                            //The ISBN may be followed by a qualifier such as (pbk.)
+                            record.isbn = subfield(value, 'a').split(" ")[0];
+                        }
+                        break;
+                    case "100":
+                    case "110":
+                        record.author = trimPunctuation(subfield(value, 'a'));
+                        break;
+                    case "700":
+                        if (record.author.isEmpty()) {
+                            record.author = trimPunctuation(subfield(value, 'a'));
+                        }
+                        break;
+                    case "245":
+                        String remainder = subfield(value, 'b');
+                        record.title = trimPunctuation(trimPunctuation(subfield(value, 'a')) +
+                                (remainder.isEmpty() ? "" : ": " + remainder));
+                        break;
+                    default:
+                        break;
+                }
+            }
+            return record;
+        }
+
+        private static String subfield(String value, char code) {
+            String[] subfields = value.split("\\$");
+            for (int i = 1; i < subfields.length; i++) {
+                if (!subfields[i].isEmpty() && subfields[i].charAt(0) == code) {
+                    return subfields[i].substring(1).trim();
+                }
+            }
+            return "";
+        }
+
+        /**
+         * Removes the punctuation that separates the fields of a MARC record, such as the slash before the statement
+         * of responsibility
+         */
+        private static String trimPunctuation(String value) {
+            return value.replaceAll("[\\s/:;,.=]+$", "");
+        }
+    }
+
+    /**
+     * A row of an imported file that was not imported
+     */
+    public static class Rejection {
+        private final int line;
+        private final String reason;
+
+        private Rejection(int line, String reason) {
+            this.line = line;
+            this.reason = reason;
+        }
+
+        /**
+         * Gets the line of the file the rejected row starts on
+         *
+         * @return The line number, starting at 1
+         */
+        public int getLine() {
+            return line;
+        }
+
+        /**
+         * Gets the reason the row was not imported
+         *
+         * @return A description of the problem with the row
+         */
+        public String getReason() {
+            return reason;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public String toString() {
+            return "Line " + line + ": " + reason;
+        }
+    }
+
+    /**
+     * The counts and timing of a finished import
+     */
+    public static class Result {
+        private final List<Rejection> rejections = new ArrayList<>();
+        private int rows;
+        private int rowsImported;
+        private int rowsRejected;
+        private int rowsMatched;
+        private int titlesCreated;
+        private int copiesAdded;
+        private long elapsedNanos;
+
+        private Result() {
+        }
+
+        /**
+         * Gets the number of rows read from the file
+         *
+         * @return The number of rows, not counting blank lines and the header
+         */
+        public int getRows() {
+            return rows;
+        }
+
+        /**
+         * Gets the number of rows whose copies were added to the library
+         *
+         * @return The number of imported rows
+         */
+        public int getRowsImported() {
+            return rowsImported;
+        }
+
+        /**
+         * Gets the number of rows that were not imported
+         *
+         * @return The number of rejected rows
+         */
+        public int getRowsRejected() {
+            return rowsRejected;
+        }
+
+        /**
+         * Gets the number of imported rows that added copies to titles that already had copies in the library
+         *
+         * @return The number of rows matched to existing titles
+         */
+        public int getRowsMatched() {
+            return rowsMatched;
+        }
+
+        /**
+         * Gets the number of titles added to the catalog
+         *
+         * @return The number of new titles
+         */
+        public int getTitlesCreated() {
+            return titlesCreated;
+        }
+
+        /**
+         * Gets the number of copies added to the library
+         *
+         * @return The number of new books
+         */
+        public int getCopiesAdded() {
+            return copiesAdded;
+        }
+
+        /**
+         * Gets the first rejected rows; every rejection is passed to the handler set with
+         * {@link CatalogImporter#setOnReject(Consumer)}
+         *
+         * @return The first 100 rejections, in file order
+         */
+        public List<Rejection> getRejections() {
+            return Collections.unmodifiableList(rejections);
+        }
+
+        /**
+         * Gets the time the import took
+         *
+         * @return The elapsed time in seconds
+         */
+        public double getSeconds() {
+            return elapsedNanos / 1e9;
+        }
+
+        /**
+         * Gets the throughput of the import
+         *
+         * @return The number of rows read per second
+         */
+        public double getRowsPerSecond() {
+            return elapsedNanos == 0 ? 0 : rows / getSeconds();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public String toString() {
+            return String.format("Imported %d books from %d rows (%d new titles, %d rows of existing titles); " +
+                            "rejected %d rows; %.2f s, %.0f rows/s", copiesAdded, rowsImported, titlesCreated,
+                    rowsMatched, rowsRejected, getSeconds(), getRowsPerSecond());
+        }
+    }
+}
@@ -0,0 +1,432 @@
+package library.transfer;
+
+import library.data.*;
+import library.metrics.MetricsRegistry;
+import library.metrics.Timer;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.function.Function;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Exports the data of a {@link Library} for use by other tools, such as the spreadsheets and scripts of an analytics
+ * team, without reading the section delimited data file.
+ * <p>
+ * Each list of the library is a dataset with a fixed set of columns. The {@code transaction_details} dataset joins
+ * every transaction with the fields of its patron and book, so circulation can be analyzed without joining the
+ * datasets again. A dataset can be written as:
+ * <ul>
+ * <li>{@link Format#CSV}: a file with a header row</li>
+ * <li>{@link Format#JSON_LINES}: a file with a JSON object on each line</li>
+ * <li>{@link Format#COLUMNAR}: a directory with a file for each column, so that tools can read only the columns they
+ * need, and a {@code _schema.csv} file describing the columns</li>
+ * </ul>
+ * Rows are written as they are read from the library through buffered writers, so the memory used does not depend on
+ * the size of the library. Files can be compressed with gzip.
+ *
+ * @author Srikavin Ramkumar
+ */
+public class LibraryExporter {
+    private static final MetricsRegistry METRICS = MetricsRegistry.getDefault();
+    private static final Timer EXPORT_TIMER = METRICS.timer("export.dataset");
+    private static final int BUFFER_SIZE = 1 << 16;
+    /**
+     * The datasets that can be exported, by name, in the order they are exported
+     */
+    private static final Map<String, Dataset<?>> DATASETS = new LinkedHashMap<>();
+
+    static {
+        add(new Dataset<PatronType>("patron_types", Library::getPatronTypes)
+                .column("id", ColumnType.STRING, (e) -> e.getIdentifier().getId())
+                .column("name", ColumnType.STRING, PatronType::getName)
+                .column("max_checkout_days", ColumnType.INTEGER, PatronType::getMaxCheckoutDays)
+                .column("max_checked_out_books", ColumnType.INTEGER, PatronType::getMaxCheckedOutBooks));
+        add(new Dataset<Patron>("patrons", Library::getPatrons)
+                .column("id", ColumnType.STRING, (e) -> e.getIdentifier().getId())
+                .column("first_name", ColumnType.STRING, Patron::getFirstName)
+                .column("last_name", ColumnType.STRING, Patron::getLastName)
+                .column("patron_type_id", ColumnType.STRING, (e) -> e.getPatronType().getIdentifier().getId())
+                .column("patron_type", ColumnType.STRING, (e) -> e.getPatronType().getName()));
+        add(new Dataset<Title>("titles", (library) -> library.getCatalog().getTitles())
+                .column("id", ColumnType.STRING, (e) -> e.getIdentifier().getId())
+                .column("title", ColumnType.STRING, Title::getTitle)
+                .column("author", ColumnType.STRING, Title::getAuthor)
+                .column("isbn", ColumnType.STRING, Title::getIsbn)
+                .column("copies", ColumnType.INTEGER, Title::getCopies)
+                .column("available_copies", ColumnType.INTEGER, Title::getAvailableCopies)
+                .column("checkouts", ColumnType.INTEGER, Title::getCheckouts));
+        add(new Dataset<Book>("books", Library::getBooks)
+                .column("id", ColumnType.STRING, (e) -> e.getIdentifier().getId())
+                .column("title_id", ColumnType.STRING, (e) -> id(e.getTitleRecord()))
+                .column("title", ColumnType.STRING, Book::getTitle)
+                .column("author", ColumnType.STRING, Book::getAuthor)
+                .column("isbn", ColumnType.STRING, Book::getIsbn)
+                .column("status", ColumnType.STRING, (e) -> e.getStatus().name())
+                .column("patron_id", ColumnType.STRING, (e) -> id(e.getCurrentPatron()))
+                .column("checkout_date", ColumnType.TIMESTAMP, Book::getCheckOutDate));
+        add(new Dataset<Transaction>("transactions", Library::getTransactionHistory)
+                .column("id", ColumnType.STRING, (e) -> e.getIdentifier().getId())
+                .column("timestamp", ColumnType.TIMESTAMP, Transaction::getTimestamp)
+                .column("action", ColumnType.STRING, (e) -> e.getAction().name())
+                .column("patron_id", ColumnType.STRING, (e) -> id(e.getChangedPatron()))
+                .column("book_id", ColumnType.STRING, (e) -> id(e.getChangedBook())));
+        add(new Dataset<Transaction>("transaction_details", Library::getTransactionHistory)
+                .column("id", ColumnType.STRING, (e) -> e.getIdentifier().getId())
+                .column("timestamp", ColumnType.TIMESTAMP, Transaction::getTimestamp)
+                .column("action", ColumnType.STRING, (e) -> e.getAction().name())
+                .column("patron_id", ColumnType.STRING, (e) -> id(e.getChangedPatron()))
+                .column("first_name", ColumnType.STRING, (e) -> e.getChangedPatron() == null ? null : e.getChangedPatron().getFirstName())
+                .column("last_name", ColumnType.STRING, (e) -> e.getChangedPatron() == null ? null : e.getChangedPatron().getLastName())
+                .column("patron_type", ColumnType.STRING, (e) -> e.getChangedPatron() == null ? null : e.getChangedPatron().getPatronType().getName())
+                .column("book_id", ColumnType.STRING, (e) -> id(e.getChangedBook()))
+                .column("title_id", ColumnType.STRING, (e) -> e.getChangedBook() == null ? null : id(e.getChangedBook().getTitleRecord()))
+                .column("title", ColumnType.STRING, (e) -> e.getChangedBook() == null ? null : e.getChangedBook().getTitle())
+                .column("author", ColumnType.STRING, (e) -> e.getChangedBook() == null ? null : e.getChangedBook().getAuthor())
+                .column("isbn", ColumnType.STRING, (e) -> e.getChangedBook() == null ? null : e.getChangedBook().getIsbn()));
+        add(new Dataset<Hold>("holds", (library) -> library.getHoldQueue().getHolds())
+                .column("id", ColumnType.STRING, (e) -> e.getIdentifier().getId())
+                .column("patron_id", ColumnType.STRING, (e) -> id(e.getPatron()))
+                .column("isbn", ColumnType.STRING, Hold::getIsbn)
+                .column("requested_book_id", ColumnType.STRING, (e) -> id(e.getRequestedBook()))
+                .column("placed", ColumnType.TIMESTAMP, Hold::getPlaced)
+                .column("ready_book_id", ColumnType.STRING, (e) -> id(e.getReadyBook()))
+                .column("ready_date", ColumnType.TIMESTAMP, Hold::getReadyDate));
+        add(new Dataset<FineEntry>("fines", (library) -> library.getFineLedger().getEntries())
+                .column("id", ColumnType.STRING, (e) -> e.getIdentifier().getId())
+                .column("patron_id", ColumnType.STRING, (e) -> e.getPatronId() == null ? null : e.getPatronId().getId())
+                .column("book_id", ColumnType.STRING, (e) -> e.getBookId() == null ? null : e.getBookId().getId())
+                .column("type", ColumnType.STRING, (e) -> e.getType().name())
+                .column("amount_cents", ColumnType.INTEGER, FineEntry::getAmountCents)
+                .column("timestamp", ColumnType.TIMESTAMP, FineEntry::getTimestamp)
+                .column("loan_start", ColumnType.TIMESTAMP, FineEntry::getLoanStart));
+    }
+
+    private final Library library;
+    private boolean compress = false;
+
+    /**
+     * The formats datasets can be exported in
+     */
+    public enum Format {
+        /**
+         * Comma separated values with a header row. Values are quoted when they contain a comma, quote, or line break,
+         * and missing values are empty.
+         */
+        CSV(".csv"),
+        /**
+         * A JSON object on each line, with a property for each column. Missing values are null.
+         */
+        JSON_LINES(".jsonl"),
+        /**
+         * A directory for the dataset with a file for each column, holding one value on each line. Backslashes and
+         * line breaks in values are escaped as \\, \n, and \r, and missing values are written as \N.
+         */
+        COLUMNAR("");
+
+        private final String extension;
+
+        Format(String extension) {
+            this.extension = extension;
+        }
+    }
+
+    /**
+     * The types of the values of a column
+     */
+    public enum ColumnType {
+        /**
+         * Text
+         */
+        STRING,
+        /**
+         * A whole number
+         */
+        INTEGER,
+        /**
+         * An instant in ISO-8601 format, such as 2018-03-20T18:17:10Z
+         */
+        TIMESTAMP
+    }
+
+    /**
+     * Creates an exporter for the given library
+     *
+     * @param library The library to export
+     */
+    public LibraryExporter(Library library) {
+        this.library = library;
+    }
+
+    /**
+     * Sets whether exported files are compressed with gzip. Compressed files have the .gz extension added to their
+     * names.
+     *
+     * @param compress True to compress the exported files
+     */
+    public void setCompress(boolean compress) {
+        this.compress = compress;
+    }
+
+    /**
+     * Gets the names of the datasets that can be exported
+     *
+     * @return The names of the datasets
+     */
+    public static List<String> getDatasets() {
+        return new ArrayList<>(DATASETS.keySet());
+    }
+
+    /**
+     * Exports a dataset into a directory. The dataset is written to a file named after the dataset, such as
+     * {@code books.csv}, or to a directory with the name of the dataset for {@link Format#COLUMNAR}.
+     *
+     * @param dataset   The name of the dataset to export
+     * @param format    The format to write
+     * @param directory The directory to write the dataset to; it is created if it does not exist
+     *
+     * @return The number of rows written
+     *
+     * @throws IllegalArgumentException If there is no dataset with the name
+     * @throws IOException              If the files cannot be written
+     */
+    public long export(String dataset, Format format, Path directory) throws IOException {
+        Dataset<?> source = DATASETS.get(dataset);
+        if (source == null) {
+            throw new IllegalArgumentException("Unknown dataset: " + dataset);
+        }
+        Files.createDirectories(directory);
+        return EXPORT_TIMER.time(() -> {
+            if (format == Format.COLUMNAR) {
+                return writeColumns(source, directory.resolve(dataset));
+            }
+            try (Writer out = open(directory.resolve(dataset + format.extension))) {
+                return format == Format.CSV ? writeCsv(source, out) : writeJsonLines(source, out);
+            }
+        });
+    }
+
+    /**
+     * Exports the given datasets into a directory, as described by {@link #export(String, Format, Path)}
+     *
+     * @param datasets  The names of the datasets to export
+     * @param format    The format to write
+     * @param directory The directory to write the datasets to
+     *
+     * @return The number of rows written for each dataset, in the order they were written
+     *
+     * @throws IllegalArgumentException If a dataset does not exist; nothing is written
+     * @throws IOException              If the files cannot be written
+     */
+    public Map<String, Long> exportAll(Collection<String> datasets, Format format, Path directory) throws IOException {
+        for (String e : datasets) {
+            if (!DATASETS.containsKey(e)) {
+                throw new IllegalArgumentException("Unknown dataset: " + e);
+            }
+        }
+        Map<String, Long> rows = new LinkedHashMap<>();
+        for (String e : datasets) {
+            rows.put(e, export(e, format, directory));
+        }
+        return rows;
+    }
+
+    private Writer open(Path file) throws IOException {
+        OutputStream out = Files.newOutputStream(compress ? file.resolveSibling(file.getFileName() + ".gz") : file);
+        if (compress) {
+            out = new GZIPOutputStream(out, BUFFER_SIZE);
+        }
+        return new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), BUFFER_SIZE);
+    }
+
+    private <T> long writeCsv(Dataset<T> dataset, Writer out) throws IOException {
+        List<Column<T>> columns = dataset.columns;
+        for (int i = 0; i < columns.size(); i++) {
+            out.write(i == 0 ? "" : ",");
+            out.write(columns.get(i).name);
+        }
+        out.write('\n');
+
+        long rows = 0;
+        for (T e : dataset.source.apply(library)) {
+            for (int i = 0; i < columns.size(); i++) {
+                if (i > 0) {
+                    out.write(',');
+                }
+                String value = columns.get(i).format(e);
+                if (value == null) {
+                    continue;
+                }
+                if (value.indexOf(',') >= 0 || value.indexOf('"') >= 0 || value.indexOf('\n') >= 0 || value.indexOf('\r') >= 0) {
+                    out.write('"');
+                    out.write(value.replace("\"", "\"\""));
+                    out.write('"');
+                } else {
+                    out.write(value);
+                }
+            }
+            out.write('\n');
+            rows++;
+        }
+        return rows;
+    }
+
+    private <T> long writeJsonLines(Dataset<T> dataset, Writer out) throws IOException {
+        List<Column<T>> columns = dataset.columns;
+        long rows = 0;
+        for (T e : dataset.source.apply(library)) {
+            out.write('{');
+            for (int i = 0; i < columns.size(); i++) {
+                Column<T> column = columns.get(i);
+                if (i > 0) {
+                    out.write(',');
+                }
+                writeJsonString(column.name, out);
+                out.write(':');
+                String value = column.format(e);
+                if (value == null) {
+                    out.write("null");
+                } else if (column.type == ColumnType.INTEGER) {
+                    out.write(value);
+                } else {
+                    writeJsonString(value, out);
+                }
+            }
+            out.write("}\n");
+            rows++;
+        }
+        return rows;
+    }
+
+    private static void writeJsonString(String value, Writer out) throws IOException {
+        out.write('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    out.write("\\\"");
+                    break;
+                case '\\':
+                    out.write("\\\\");
+                    break;
+                case '\n':
+                    out.write("\\n");
+                    break;
+                case '\r':
+                    out.write("\\r");
+                    break;
+                case '\t':
+                    out.write("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        out.write(String.format("\\u%04x", (int) c));
+                    } else {
+                        out.write(c);
+                    }
+            }
+        }
+        out.write('"');
+    }
+
+    /**
+     * Writes each column of the dataset to its own file. All of the column files are written at the same time, so
+     * the rows are only read once.
+     */
+    private <T> long writeColumns(Dataset<T> dataset, Path directory) throws IOException {
+        Files.createDirectories(directory);
+        List<Column<T>> columns = dataset.columns;
+        List<Writer> writers = new ArrayList<>();
+        long rows = 0;
+        try {
+            for (Column<T> e : columns) {
+                writers.add(open(directory.resolve(e.name + ".txt")));
+            }
+            for (T e : dataset.source.apply(library)) {
+                for (int i = 0; i < columns.size(); i++) {
+                    String value = columns.get(i).format(e);
+                    Writer out = writers.get(i);
+                    out.write(value == null ? "\\N" : value.replace("\\", "\\\\").replace("\n", "\\n").replace("\r", "\\r"));
+                    out.write('\n');
+                }
+                rows++;
+            }
+        } finally {
+            IOException failure = null;
+            for (Writer e : writers) {
+                try {
+                    e.close();
+                } catch (IOException ex) {
+                    failure = ex;
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        }
+
+        //The schema is written last, so a directory with a schema always has complete columns
+        try (Writer schema = Files.newBufferedWriter(directory.resolve("_schema.csv"), StandardCharsets.UTF_8)) {
+            schema.write("column,type,file,rows\n");
+            for (Column<T> e : columns) {
+                schema.write(e.name + "," + e.type.name().toLowerCase() + "," + e.name + ".txt" + (compress ? ".gz" : "") +
+                        "," + rows + "\n");
+            }
+        }
+        return rows;
+    }
+
+    private static String id(LibraryData data) {
+        return data == null || data.getIdentifier() == null ? null : data.getIdentifier().getId();
+    }
+
+    private static void add(Dataset<?> dataset) {
+        DATASETS.put(dataset.name, dataset);
+    }
+
+    /**
+     * A list of the library and the columns written for each of its elements
+     *
+     * @param <T> The type of the elements of the list
+     */
+    private static class Dataset<T> {
+        private final String name;
+        private final Function<Library, ? extends Iterable<T>> source;
+        private final List<Column<T>> columns = new ArrayList<>();
+
+        private Dataset(String name, Function<Library, ? extends Iterable<T>> source) {
+            this.name = name;
+            this.source = source;
+        }
+
+        private Dataset<T> column(String name, ColumnType type, Function<T, Object> value) {
+            columns.add(new Column<>(name, type, value));
+            return this;
+        }
+    }
+
+    /**
+     * A column of a dataset
+     *
+     * @param <T> The type of the elements the values are read from
+     */
+    private static class Column<T> {
+        private final String name;
+        private final ColumnType type;
+        private final Function<T, Object> value;
+
+        private Column(String name, ColumnType type, Function<T, Object> value) {
+            this.name = name;
+            this.type = type;
+            this.value = value;
+        }
+
+        private String format(T element) {
+            Object result = value.apply(element);
+            return result == null ? null : result.toString();
+        }
+    }
+}
@@ -0,0 +1,7 @@
+/**
+ * This package includes the bulk transfer of library data into and out of BookKeeper.
+ * It is used to import new stock from vendor files and to export the data of a library to other tools, from both the
+ * GUI and the headless command-line interface. Nothing in this package may depend on JavaFX.
+ * @author Srikavin Ramkumar
+ */
+package library.transfer;
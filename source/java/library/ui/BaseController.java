@@ -14,6 +14,10 @@ import javafx.scene.input.MouseEvent;
 import javafx.scene.layout.Pane;
 import javafx.util.Duration;
 import library.data.Library;
+import library.data.LibraryEvent;
+
+import java.util.List;
+import java.util.Set;
 
 /**
  * This class serves as a base for other GUI's to implement.
@@ -176,4 +180,25 @@ public abstract class BaseController {
     public void initializeData() {
 
     }
+
+    /**
+     * Called on the JavaFX application thread after changes made to the data file by another program were applied to
+     * the library. The changed records are also delivered to {@link #libraryEvents(List)}, so this should only be used
+     * for the sections that are not published as events, such as FINES.
+     *
+     * @param sections The sections of the library that changed, such as BOOKS
+     */
+    public void libraryChanged(Set<String> sections) {
+
+    }
+
+    /**
+     * Called on the JavaFX application thread with each batch of changes made to the library, including the ones made
+     * by this view. Should be used to show the changed records without scanning the library again.
+     *
+     * @param events The changes made since the previous batch, in the order they were made
+     */
+    public void libraryEvents(List<LibraryEvent> events) {
+
+    }
 }
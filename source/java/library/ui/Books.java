@@ -38,6 +38,11 @@ public class Books extends DataViewController<Book> {
     private TextField identifier;
     @FXML
     private TextField currentPatron;
+    /**
+     * The version of the circulation state of the book when it was shown, so that changes made at other desks since
+     * then are not overwritten
+     */
+    private long shownVersion;
 
     /**
      * Used to initialize the table with the necessary columns to display the books in it.
@@ -65,17 +70,22 @@ public class Books extends DataViewController<Book> {
 
     /**
      * {@inheritDoc}
+     *
+     * @throws CirculationConflictException If the status or patron of the book was changed at another desk since it
+     *                                      was shown; nothing is changed
      */
     @FXML
     protected void update(Book book) {
         Library library = getLibrary();
 
-        book.setAuthor(author.getText());
-        book.setTitle(bookName.getText());
+        Patron patron = library.getPatronFromID(new Identifier(currentPatron.getText()));
+        if (!book.compareAndSetCirculation(shownVersion, status.getValue(), patron, book.getCheckOutDate())) {
+            throw new CirculationConflictException(book, shownVersion);
+        }
+        shownVersion = book.getVersion();
+        //Copies with the same title, author, and ISBN share a title record
+        book.setTitleRecord(library.getCatalog().intern(bookName.getText(), author.getText(), isbn.getText()));
         book.setIdentifier(new Identifier(identifier.getText()));
-        book.setIsbn(isbn.getText());
-        book.setStatus(status.getValue());
-        book.setCurrentPatron(library.getPatronFromID(new Identifier(currentPatron.getText())));
     }
 
     /**
@@ -97,10 +107,15 @@ public class Books extends DataViewController<Book> {
      */
     @Override
     protected Predicate<Book> getFilterPredicate(String filter) {
-        return book -> book.getIdentifier().getId().toLowerCase().contains(filter)
-                || book.getTitle().toLowerCase().contains(filter)
-                || book.getIsbn().toLowerCase().contains(filter)
-                || book.getAuthor().toLowerCase().contains(filter);
+        return RecordFilters.books(filter);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected boolean shows(LibraryData record) {
+        return record instanceof Book;
     }
 
     /**
@@ -188,6 +203,8 @@ public class Books extends DataViewController<Book> {
      */
     @Override
     protected void setCurrentState(Book book) {
+        //Read the version first, so that a change made while the fields are set is detected when the book is updated
+        shownVersion = book.getVersion();
         //Set the text field values to the current state
         identifier.setText(book.getIdentifier().getId());
         author.setText(book.getAuthor());
@@ -237,9 +254,9 @@ public class Books extends DataViewController<Book> {
     private List<Book> findCopies(Book toFind) {
         List<Book> toRet = new ArrayList<>();
         List<Book> books = getDataSource();
+        Title title = toFind.getTitleRecord();
         for (Book e : books) {
-            if (e.getAuthor().equals(toFind.getAuthor()) && e.getTitle().equals(toFind.getTitle())
-                    && e.getIsbn().equals(toFind.getIsbn())) {
+            if (e.getTitleRecord() == title) {
                 toRet.add(e);
             }
         }
@@ -258,7 +275,9 @@ public class Books extends DataViewController<Book> {
             if (newValue == null) {
                 currentCopies.setText("");
             } else {
-                currentCopies.setText(findCopies(newValue).size() + " Copies Found");
+                //The title record keeps count of its copies, so the copies do not have to be found
+                Title title = newValue.getTitleRecord();
+                currentCopies.setText(title.getCopies() + " Copies Found (" + title.getAvailableCopies() + " Available)");
             }
         });
     }
@@ -13,7 +13,6 @@ import javafx.stage.Stage;
 import javafx.util.StringConverter;
 import library.data.*;
 
-import java.time.Instant;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
@@ -47,6 +46,11 @@ public class Checkout extends DataViewController<Book> {
     @FXML
     private Pane booksCheckedOutContainer;
     private Books books = new Books();
+    /**
+     * The patron whose books are shown, and the books they have checked out
+     */
+    private Patron shownPatron;
+    private ObservableList<Book> checkedOut;
 
     /**
      * {@inheritDoc}
@@ -90,10 +94,15 @@ public class Checkout extends DataViewController<Book> {
      */
     @Override
     protected Predicate<Book> getFilterPredicate(String filter) {
-        return book -> book.getIdentifier().getId().toLowerCase().contains(filter)
-                || book.getTitle().toLowerCase().contains(filter)
-                || book.getIsbn().toLowerCase().contains(filter)
-                || book.getAuthor().toLowerCase().contains(filter);
+        return RecordFilters.books(filter);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected boolean shows(LibraryData record) {
+        return record instanceof Book;
     }
 
     /**
@@ -183,7 +192,7 @@ public class Checkout extends DataViewController<Book> {
         bookAuthor.setText(book.getAuthor());
         bookStatus.getSelectionModel().select(book.getStatus());
         bookStatus.pseudoClassStateChanged(errorClass, false);
-        if (book.getStatus() == BookStatus.CHECKED_OUT) {
+        if (book.getStatus() == BookStatus.CHECKED_OUT || book.getStatus() == BookStatus.ON_HOLD) {
             bookStatus.pseudoClassStateChanged(errorClass, true);
         }
     }
@@ -222,16 +231,53 @@ public class Checkout extends DataViewController<Book> {
         stage.showAndWait();
     }
 
+    /**
+     * Adds the books checked out by the current patron to the table, and removes the ones they no longer have, as
+     * they are checked out and returned here, at another desk, or by another program
+     *
+     * @param events {@inheritDoc}
+     */
+    @Override
+    public void libraryEvents(List<LibraryEvent> events) {
+        if (shownPatron == null) {
+            return;
+        }
+        boolean changed = false;
+        for (LibraryEvent e : events) {
+            if (e.getRecord() instanceof Book) {
+                Book book = (Book) e.getRecord();
+                boolean shown = e.getType() != LibraryEvent.Type.REMOVED
+                        && book.getStatus() == BookStatus.CHECKED_OUT && book.getCurrentPatron() == shownPatron;
+                if (shown && !checkedOut.contains(book)) {
+                    checkedOut.add(book);
+                } else if (!shown) {
+                    checkedOut.remove(book);
+                }
+                changed = true;
+            } else if (e.getType() == LibraryEvent.Type.UPDATED && !(e.getRecord() instanceof Transaction)) {
+                //The name or checkout limit of the patron may have changed
+                changed = true;
+            }
+        }
+        if (changed) {
+            table.refresh();
+            showCheckedOutCount();
+        }
+    }
+
     private void updateTable() {
         Library library = getLibrary();
 
         Identifier patronID = new Identifier(currentPatron.getText());
-        Patron patron = library.getPatronFromID(patronID);
-        ObservableList<Book> books = getCheckedOutBooks(patronID);
-        setData(books);
+        shownPatron = library.getPatronFromID(patronID);
+        checkedOut = getCheckedOutBooks(patronID);
+        setData(checkedOut);
+        showCheckedOutCount();
+    }
 
-        int currentlyCheckedOut = books.size();
-        int maxCheckedOut = patron.getPatronType().getMaxCheckedOutBooks();
+    private void showCheckedOutCount() {
+        int currentlyCheckedOut = checkedOut.size();
+        int maxCheckedOut = shownPatron.getPatronType().getMaxCheckedOutBooks();
         booksCheckedOut.setText(currentlyCheckedOut + "/" + maxCheckedOut);
         if (currentlyCheckedOut >= maxCheckedOut) {
             booksCheckedOut.setFill(Color.RED);
@@ -244,20 +290,34 @@ public class Checkout extends DataViewController<Book> {
     private void returnBook(ActionEvent event) {
         Book selected = getCurrentlySelected();
         if (selected != null) {
-            //Create and add transaction
-            List<Transaction> transactions = getLibrary().getTransactions();
-            Transaction transaction = new Transaction(getNextIdentifier(transactions), selected.getCurrentPatron(), selected,
-                    Transaction.Action.RETURN, Instant.now());
-            transactions.add(transaction);
-
-            //Update table's data
-            selected.setCurrentPatron(null);
-            selected.setCheckOutDate(null);
-            selected.setStatus(BookStatus.AVAILABLE);
-            updateTable();
+            //Read the version of the book before it is returned
+            long version = selected.getVersion();
+            try {
+                //Update the book and add the transaction
+                getLibrary().returnBook(selected, version);
+            } catch (CirculationConflictException e) {
+                showConflict(e);
+                return;
+            }
+            //The book is put aside if another patron is waiting for it
+            if (selected.getStatus() == BookStatus.ON_HOLD) {
+                Patron next = selected.getCurrentPatron();
+                Alert alert = new Alert(Alert.AlertType.INFORMATION, "Place this book on the hold shelf for " +
+                        next.getFirstName() + " " + next.getLastName() + " (" + next.getIdentifier().getId() + ").", ButtonType.OK);
+                alert.setHeaderText("Book is on hold");
+                alert.showAndWait();
+            }
         }
     }
 
+    private void showConflict(CirculationConflictException e) {
+        Alert alert = new Alert(Alert.AlertType.WARNING, "This book was changed at another desk. " +
+                "Review its current status and try again.", ButtonType.OK);
+        alert.setHeaderText("Book was changed");
+        alert.showAndWait();
+        setCurrentState(e.getBook());
+    }
+
     private boolean isOverLimit(Patron patron) {
         List<Book> books = getCheckedOutBooks(patron.getIdentifier());
         return books.size() >= patron.getPatronType().getMaxCheckedOutBooks();
@@ -276,9 +336,12 @@ public class Checkout extends DataViewController<Book> {
             currentBook.pseudoClassStateChanged(errorClass, true);
             return;
         }
+        //Read the version of the book before its status is checked; the checkout only succeeds if it is unchanged
+        long version = book.getVersion();
         if (book.getStatus() == BookStatus.CHECKED_OUT || book.getStatus() == BookStatus.LOST) {
             bookStatus.pseudoClassStateChanged(errorClass, true);
-            Alert alert = new Alert(Alert.AlertType.WARNING, "Book is checked out or lost!", ButtonType.CANCEL, ButtonType.YES);
+            ButtonType placeHold = new ButtonType("Place Hold");
+            Alert alert = new Alert(Alert.AlertType.WARNING, "Book is checked out or lost!", ButtonType.CANCEL, placeHold, ButtonType.YES);
             alert.setHeaderText("Override checkout?");
             Optional<ButtonType> buttonTypeOptional = alert.showAndWait();
             if (!buttonTypeOptional.isPresent()) {
@@ -287,6 +350,25 @@ public class Checkout extends DataViewController<Book> {
             if (buttonTypeOptional.get().equals(ButtonType.CANCEL)) {
                 return;
             }
+            if (buttonTypeOptional.get().equals(placeHold)) {
+                placeHold(book, patron);
+                return;
+            }
+        }
+        //A book on the hold shelf may only be picked up by the patron it was put aside for
+        if (book.getStatus() == BookStatus.ON_HOLD && book.getCurrentPatron() != patron) {
+            bookStatus.pseudoClassStateChanged(errorClass, true);
+            Patron holder = book.getCurrentPatron();
+            Alert alert = new Alert(Alert.AlertType.WARNING, "Book is on hold for " + holder.getFirstName() + " " +
+                    holder.getLastName() + "!", ButtonType.CANCEL, ButtonType.YES);
+            alert.setHeaderText("Override hold?");
+            Optional<ButtonType> buttonTypeOptional = alert.showAndWait();
+            if (!buttonTypeOptional.isPresent()) {
+                return;
+            }
+            if (buttonTypeOptional.get().equals(ButtonType.CANCEL)) {
+                return;
+            }
         }
 
         if (isOverLimit(patron)) {
@@ -301,19 +383,35 @@ public class Checkout extends DataViewController<Book> {
             }
         }
 
-        //Update book
-        book.setCheckOutDate(Instant.now());
-        book.setCurrentPatron(patron);
-        book.setStatus(BookStatus.CHECKED_OUT);
+        try {
+            //Update book and create transaction
+            library.checkout(book, patron, version);
+        } catch (CirculationConflictException e) {
+            showConflict(e);
+            return;
+        }
 
-        List<Transaction> transactions = getLibrary().getTransactions();
-        //Create transaction
-        Transaction transaction = new Transaction(getNextIdentifier(transactions), patron, book,
-                Transaction.Action.CHECKOUT, Instant.now());
-        transactions.add(transaction);
+        //The table shows the book once the checkout is delivered to libraryEvents
+        setCurrentState(book);
+    }
 
-        //Update table
-        updateTable();
+    private void placeHold(Book book, Patron patron) {
+        Hold hold;
+        try {
+            hold = getLibrary().placeHold(book, patron);
+        } catch (IllegalArgumentException e) {
+            new Alert(Alert.AlertType.WARNING, e.getLocalizedMessage(), ButtonType.OK).showAndWait();
+            return;
+        }
+        String message;
+        if (hold.isReady()) {
+            message = "A copy is available and has been put on hold (" + hold.getReadyBook().getIdentifier().getId() + ").";
+        } else {
+            message = "Position in queue: " + getLibrary().getHoldQueue().getQueueLength(book) + ".";
+        }
+        Alert alert = new Alert(Alert.AlertType.INFORMATION, message, ButtonType.OK);
+        alert.setHeaderText("Hold placed");
+        alert.showAndWait();
         setCurrentState(book);
     }
 
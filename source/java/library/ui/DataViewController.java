@@ -9,15 +9,21 @@ import javafx.event.ActionEvent;
 import javafx.event.Event;
 import javafx.fxml.FXML;
 import javafx.fxml.Initializable;
+import javafx.scene.control.Alert;
 import javafx.scene.control.Button;
+import javafx.scene.control.ButtonType;
 import javafx.scene.control.TableView;
 import javafx.scene.control.TextField;
+import library.data.CirculationConflictException;
 import library.data.Identifier;
 import library.data.LibraryData;
+import library.data.LibraryEvent;
+import library.metrics.FlightRecorderEvents;
+import library.metrics.MetricsRegistry;
+import library.metrics.Timer;
 
 import java.net.URL;
-import java.util.List;
-import java.util.ResourceBundle;
+import java.util.*;
 import java.util.function.Predicate;
 
 /**
@@ -62,6 +68,11 @@ public abstract class DataViewController<T extends LibraryData> extends BaseCont
     @FXML
     private Button updateItemButton;
     private T currentlyCreating;
+    /**
+     * The records this view added, changed, or removed itself, whose events do not have to be shown again
+     */
+    private final Set<LibraryData> ownChanges = Collections.newSetFromMap(new IdentityHashMap<>());
+    private final Timer filterTimer = MetricsRegistry.getDefault().timer("ui.filter." + getClass().getSimpleName());
 
     /**
      * {@inheritDoc}
@@ -92,6 +103,15 @@ public abstract class DataViewController<T extends LibraryData> extends BaseCont
      */
     protected abstract Predicate<T> getFilterPredicate(String filterText);
 
+    /**
+     * Checks if a record is of the type shown by this view, so that added and removed records of other types are
+     * ignored
+     *
+     * @param record The record that was added or removed
+     * @return True if this view shows records of the type of the given record
+     */
+    protected abstract boolean shows(LibraryData record);
+
     /**
      * Returns the raw unwrapped data source.
      *
@@ -111,8 +131,14 @@ public abstract class DataViewController<T extends LibraryData> extends BaseCont
         sortedList.comparatorProperty().bind(table.comparatorProperty());
         table.setItems(sortedList);
 
-        filter.textProperty().addListener((observable, oldValue, newValue) ->
-                filteredList.setPredicate(getFilterPredicate(newValue.toLowerCase())));
+        filter.textProperty().addListener((observable, oldValue, newValue) -> {
+            filterTimer.time(() -> {
+                try (FlightRecorderEvents.Span event = FlightRecorderEvents.filterPass(getClass().getSimpleName())) {
+                    event.setRows(filteredList.getSource().size());
+                    filteredList.setPredicate(getFilterPredicate(newValue.toLowerCase()));
+                }
+            });
+        });
     }
 
     /**
@@ -158,6 +184,55 @@ public abstract class DataViewController<T extends LibraryData> extends BaseCont
         Platform.runLater(() -> table.refresh());
     }
 
+    /**
+     * Shows the changes made to the library by others, such as another program or another view. Changed records are
+     * drawn again; the records are only read from the library again if records of the type of this view were added or
+     * removed.
+     *
+     * @param events {@inheritDoc}
+     */
+    @Override
+    public void libraryEvents(List<LibraryEvent> events) {
+        if (filteredList == null) {
+            return;
+        }
+        boolean reload = false;
+        boolean refresh = false;
+        for (LibraryEvent e : events) {
+            if (ownChanges.contains(e.getRecord())) {
+                continue;
+            }
+            if (e.getType() == LibraryEvent.Type.ADDED || e.getType() == LibraryEvent.Type.REMOVED) {
+                reload |= shows(e.getRecord());
+            } else {
+                refresh = true;
+            }
+        }
+        //The events of changes made by this view are delivered in the next batch after they are made
+        ownChanges.clear();
+        if (reload) {
+            reloadData();
+        } else if (refresh) {
+            table.refresh();
+        }
+    }
+
+    /**
+     * Shows the records of the library again after records were added or removed by others. The filter, the sort
+     * order, and the selected record are kept.
+     */
+    protected void reloadData() {
+        T selected = getCurrentlySelected();
+        dataSource = FXCollections.observableList(getDataSource());
+        filteredList = new FilteredList<>(dataSource, filteredList.getPredicate());
+        sortedList = new SortedList<>(filteredList);
+        sortedList.comparatorProperty().bind(table.comparatorProperty());
+        table.setItems(sortedList);
+        if (selected != null && sortedList.contains(selected)) {
+            table.getSelectionModel().select(selected);
+        }
+    }
+
     /**
      * Returns the currently selected object from the table. Returns {@code null} if no object is currently selected.
      *
@@ -200,12 +275,26 @@ public abstract class DataViewController<T extends LibraryData> extends BaseCont
         }
         //Make sure the entered data is valid
         if (validate()) {
-            //If we are creating a new object, we can set it as created because it passes validation
-            if (currentlyCreating != null) {
-                currentlyCreating = null;
+            boolean created = currentlyCreating != null;
+            try {
+                update(current);
+            } catch (CirculationConflictException e) {
+                //A new object stays the one being created until it is saved
+                Alert alert = new Alert(Alert.AlertType.WARNING, "This record was changed at another desk. " +
+                        "Review its current values and try again.", ButtonType.OK);
+                alert.setHeaderText("Record was changed");
+                alert.showAndWait();
+                setCurrentState(current);
+                return;
+            }
+            //The new object is only created once it was updated with the entered values
+            currentlyCreating = null;
+            ownChanges.add(current);
+            if (created) {
+                getLibrary().recordAdded(current);
+            } else {
+                getLibrary().recordUpdated(current);
             }
-            update(current);
-            getLibrary().modify();
             table.refresh();
         }
     }
@@ -215,6 +304,9 @@ public abstract class DataViewController<T extends LibraryData> extends BaseCont
      * All fields will be validated using {@link #validate()} before this method is called.
      *
      * @param toUpdate The object to update with the currently entered values
+     *
+     * @throws CirculationConflictException If the object was changed by another desk since it was shown; the object
+     *                                      should be left unchanged
      */
     protected abstract void update(T toUpdate);
 
@@ -242,7 +334,8 @@ public abstract class DataViewController<T extends LibraryData> extends BaseCont
         T current = getCurrentlySelected();
         if (current != null && canDelete(current)) {
             dataSource.remove(current);
-            getLibrary().modify();
+            ownChanges.add(current);
+            getLibrary().recordRemoved(current);
         }
     }
 
@@ -1,6 +1,7 @@
 package library.ui;
 
 import javafx.application.Application;
+import javafx.application.Platform;
 import javafx.collections.ObservableList;
 import javafx.fxml.FXMLLoader;
 import javafx.scene.Node;
@@ -12,15 +13,30 @@ import javafx.scene.image.Image;
 import javafx.scene.layout.BorderPane;
 import javafx.scene.text.Font;
 import javafx.stage.Stage;
+import library.backup.BackupStore;
 import library.data.Library;
+import library.data.LibraryEventBus;
+import library.data.LibraryStore;
+import library.data.LibraryWatcher;
+import library.data.ReplicationPrimary;
+import library.data.ReportGenerator;
+import library.data.SqlLibraryStore;
+import library.data.TextLibraryStore;
+import library.metrics.FlightRecorderEvents;
+import library.metrics.MetricsRegistry;
+import library.metrics.Timer;
+import library.notices.OverdueSweeper;
 
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
-import java.util.HashMap;
-import java.util.Map;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalTime;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.*;
+import java.util.function.Consumer;
 
 /**
  * The starting point for the JavaFX GUI. Initializes the JavaFX system and starts the program.
@@ -28,6 +44,14 @@ import java.util.Map;
  * @author Srikavin Ramkumar
  */
 public class FXInitializer extends Application {
+    private static final MetricsRegistry metrics = MetricsRegistry.getDefault();
+    private static final Timer loadTimer = metrics.timer("ui.load");
+    private static final Timer saveTimer = metrics.timer("ui.save");
+    private static final Timer setContentTimer = metrics.timer("ui.setContent");
+    /**
+     * The files of a data directory that are backed up after each save
+     */
+    private static final String[] BACKUP_FILES = {"data.txt", "preferences.txt"};
     private Map<String, FXMLInfoHolder> infoHolderMap = new HashMap<>();
     private Stage helpStage;
     private Stage primaryStage;
@@ -38,6 +62,11 @@ public class FXInitializer extends Application {
     private MenuBar menuBar;
     private Library library;
     private Path dataFilePath;
+    private OverdueSweeper overdueSweeper;
+    private LibraryWatcher libraryWatcher;
+    private LibraryEventBus.Subscription librarySubscription;
+    private ReplicationPrimary replicationPrimary;
+    private BackupStore backupStore;
 
     /**
      * {@inheritDoc}
@@ -48,7 +77,9 @@ public class FXInitializer extends Application {
         loadFonts();
 
         this.primaryStage = primaryStage;
-        library = new Library(null);
+        metrics.setOnError(backgroundErrors("publishing the metrics"));
+        library = new Library((Path) null);
+        subscribeToLibrary();
         preferenceManager = new PreferenceManager();
 
         //Add app icons
@@ -114,11 +145,174 @@ public class FXInitializer extends Application {
      * @throws IOException If the path does not exist, an IOException may be thrown
      */
     public void loadDataFile(Path path) throws IOException {
-        this.library = new Library(path);
-        this.preferenceManager = new PreferenceManager(path);
-        setContent("MainWindow.fxml");
-        menuController.initialize(this, library);
-        dataFilePath = path;
+        loadTimer.time(() -> {
+            this.preferenceManager = new PreferenceManager(path);
+            //Transactions older than this many days are read from the data file when they are needed
+            int historyDays = preferenceManager.getValueAsNumber("transaction_history_days", 0).intValue();
+            Library previous = library;
+            this.library = new Library(path, historyDays > 0 ? Duration.ofDays(historyDays) : null);
+            //Release the database of the previous library, if it was stored in one
+            previous.close();
+            subscribeToLibrary();
+            setContent("MainWindow.fxml");
+            menuController.initialize(this, library);
+            dataFilePath = path;
+            startOverdueSweeper(path);
+            startLibraryWatcher();
+            startReplicationPrimary();
+        });
+        if (library.getRecoveredFrom() != null) {
+            Alert alert = new Alert(Alert.AlertType.WARNING);
+            alert.setTitle("Recovered from backup");
+            alert.setHeaderText("The data file was damaged");
+            alert.setContentText("The data file could not be read (" + library.getRecoveryCause().getLocalizedMessage() +
+                    "), so " + library.getRecoveredFrom() + " was opened " +
+                    "instead. Save the library to replace the damaged data file.");
+            alert.showAndWait();
+        }
+    }
+
+    /**
+     * Schedules overdue notices for the loaded library at the times saved in the preferences. Notices are written to
+     * the notices folder of the data directory by a background thread.
+     *
+     * @param path The data directory of the loaded library
+     */
+    private void startOverdueSweeper(Path path) {
+        if (overdueSweeper != null) {
+            overdueSweeper.close();
+            overdueSweeper = null;
+        }
+        //Sweeps charge fines, so use the fine settings from the preferences instead of the defaults
+        ReportGenerator reportGenerator = library.getReportGenerator();
+        reportGenerator.setFineRate(preferenceManager.getValueAsNumber("fine_rate", 1.5).doubleValue());
+        reportGenerator.setFineLimit(preferenceManager.getValueAsNumber("fine_limit", 60).doubleValue());
+        //Charge the fines due today even if no notices are scheduled, so that the fines report is up to date
+        if (!library.isReadOnly()) {
+            library.getFineLedger().accrueIfDue(Instant.now(), reportGenerator.getFineRate(), reportGenerator.getFineLimit());
+        }
+
+        List<LocalTime> times;
+        try {
+            times = OverdueSweeper.parseTimes(preferenceManager.getValue("notice_times", "08:00"));
+        } catch (IllegalArgumentException e) {
+            //No notices are written until the times are corrected in the settings
+            backgroundErrors("scheduling overdue notices").accept(e);
+            return;
+        }
+        //An empty list of times disables notices
+        if (times.isEmpty() || !Files.isDirectory(path)) {
+            return;
+        }
+        overdueSweeper = new OverdueSweeper(library, path.resolve("notices"), Platform::runLater);
+        overdueSweeper.setTimes(times);
+        overdueSweeper.setOnError(backgroundErrors("writing overdue notices"));
+        //Fines charged by a sweep modify the library, so the reports are recomputed the next time they are shown
+        overdueSweeper.start();
+    }
+
+    /**
+     * Delivers the changes made to the loaded library to the current view on the JavaFX application thread, so that it
+     * can show them without scanning the library again
+     */
+    private void subscribeToLibrary() {
+        if (librarySubscription != null) {
+            librarySubscription.close();
+        }
+        librarySubscription = library.getEventBus().subscribe(Platform::runLater,
+                (events) -> currentController.libraryEvents(events));
+    }
+
+    /**
+     * Watches the data file of the loaded library, so that changes made to it by other programs are shown without
+     * loading the library again. Libraries stored in a database are not watched.
+     */
+    private void startLibraryWatcher() {
+        if (libraryWatcher != null) {
+            libraryWatcher.close();
+            libraryWatcher = null;
+        }
+        if (!(library.getStore() instanceof TextLibraryStore)) {
+            return;
+        }
+        LibraryWatcher watcher = new LibraryWatcher(library, Platform::runLater);
+        watcher.setOnChange((sections) -> currentController.libraryChanged(sections));
+        watcher.setOnError(backgroundErrors("reloading the data file"));
+        watcher.setOnReloadRequired(() -> {
+            if (library.isModified()) {
+                Alert alert = new Alert(Alert.AlertType.WARNING);
+                alert.setTitle("Data file changed");
+                alert.setHeaderText("The data file was changed by another program");
+                alert.setContentText("The changes could not be shown without opening the library again. Save the " +
+                        "library to another folder to keep your changes, or open it again to see the other changes.");
+                alert.show();
+                return;
+            }
+            try {
+                loadDataFile(dataFilePath);
+            } catch (IOException e) {
+                backgroundErrors("reloading the data file").accept(e);
+            }
+        });
+        try {
+            watcher.start();
+            libraryWatcher = watcher;
+        } catch (IOException e) {
+            //Changes by other programs are only seen when the library is opened again
+            backgroundErrors("watching the data file").accept(e);
+        }
+    }
+
+    /**
+     * Streams the changes made to the loaded library to replicas on this machine, if the replication_port preference
+     * is set. Snapshots of the library are read on the JavaFX application thread, where it is changed.
+     */
+    private void startReplicationPrimary() {
+        if (replicationPrimary != null) {
+            replicationPrimary.close();
+            replicationPrimary = null;
+        }
+        int port = preferenceManager.getValueAsNumber("replication_port", 0).intValue();
+        if (port <= 0) {
+            return;
+        }
+        ReplicationPrimary primary = new ReplicationPrimary(library, Platform::runLater);
+        primary.setOnError(backgroundErrors("replicating the library"));
+        try {
+            primary.start(port);
+            replicationPrimary = primary;
+        } catch (IOException e) {
+            //Replicas cannot connect until the library is opened again
+            backgroundErrors("starting replication on port " + port).accept(e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void stop() {
+        if (overdueSweeper != null) {
+            overdueSweeper.close();
+        }
+        if (libraryWatcher != null) {
+            libraryWatcher.close();
+        }
+        if (librarySubscription != null) {
+            librarySubscription.close();
+        }
+        if (replicationPrimary != null) {
+            replicationPrimary.close();
+        }
+        //Wait for backups of the last save to finish
+        if (backupStore != null) {
+            backupStore.close();
+        }
+        try {
+            library.close();
+        } catch (IOException e) {
+            backgroundErrors("closing the library").accept(e);
+        }
     }
 
     /**
@@ -146,22 +340,68 @@ public class FXInitializer extends Application {
      * @throws IOException If the data file cannot be saved for any reason, an IOException will be thrown
      */
     public void saveDataFileTo(Path path) throws IOException {
-        dataFilePath = path;
-
-        //If either the preference or the library data has been modified, create a backup of both before overwriting them
-        //"Dynamic Backup"
-        if (Files.isDirectory(dataFilePath) && (library.isModified() || preferenceManager.isModified())) {
-            //Generate the timestamp
-            final DateTimeFormatter saveFileFormatter = DateTimeFormatter.ofPattern("yyyy-MM-dd-HH-mm-SS");
-            String timestamp = LocalDateTime.now().format(saveFileFormatter);
-
-            //Dynamic backup; saves last data files to new files appended with the current timestamp
-            library.saveTo(dataFilePath, timestamp);
-            preferenceManager.saveTo(dataFilePath, timestamp);
+        saveTimer.time(() -> {
+            dataFilePath = path;
+            boolean changed = library.isModified() || preferenceManager.isModified();
+            LibraryStore previousStore = library.getStore();
+
+            //Save the current data
+            library.saveTo(path);
+            preferenceManager.saveTo(path);
+            //Saving to another folder moves the library to a new data file
+            if (library.getStore() != previousStore) {
+                startLibraryWatcher();
+            }
+
+            //Move transactions older than the active period into the archive, if it is enabled; this only finds
+            //transactions to move once a month, when the oldest active month ends
+            int archiveMonths = preferenceManager.getValueAsNumber("transaction_archive_months", 0).intValue();
+            if (archiveMonths > 0 && Files.isDirectory(path) &&
+                    library.archiveTransactions(ZonedDateTime.now(ZoneOffset.UTC).minusMonths(archiveMonths).toInstant()) > 0) {
+                library.saveTo(path);
+                changed = true;
+            }
+
+            //If either the preference or the library data has been modified, back up both of them in the background
+            if (changed && Files.isDirectory(path)) {
+                List<String> files = new ArrayList<>(Arrays.asList(BACKUP_FILES));
+                files.addAll(Library.getArchiveFiles(path));
+                LibraryStore store = library.getStore();
+                if (store instanceof SqlLibraryStore) {
+                    //The open database cannot be copied, so a script of it is written and backed up instead
+                    files.add(SqlLibraryStore.BACKUP_SCRIPT);
+                    getBackupStore(path).backupLater(((SqlLibraryStore) store)::writeBackupScript,
+                            files.toArray(new String[0]));
+                } else {
+                    getBackupStore(path).backupLater(files.toArray(new String[0]));
+                }
+            }
+        });
+    }
+
+    /**
+     * Gets the backup store of a data directory, using the retention policy saved in the preferences
+     *
+     * @param path The data directory to back up
+     *
+     * @return The backup store of the directory
+     */
+    private BackupStore getBackupStore(Path path) {
+        if (backupStore == null || !backupStore.getDirectory().equals(path)) {
+            if (backupStore != null) {
+                backupStore.close();
+            }
+            backupStore = new BackupStore(path);
+            backupStore.setOnError(backgroundErrors("backing up the library"));
+            try {
+                backupStore.setRetention(
+                        preferenceManager.getValueAsNumber("backup_keep_last", BackupStore.DEFAULT_KEEP_LAST).intValue(),
+                        preferenceManager.getValueAsNumber("backup_keep_days", BackupStore.DEFAULT_KEEP_DAYS).intValue());
+            } catch (IllegalArgumentException e) {
+                e.printStackTrace();
+            }
         }
-        //Save the current data
-        library.saveTo(path);
-        preferenceManager.saveTo(path);
+        return backupStore;
     }
 
     /**
@@ -221,24 +461,26 @@ public class FXInitializer extends Application {
      */
     public void setContent(String fxmlFile) {
         try {
-            //Load the specified fxml file
-            FXMLInfoHolder loadedCache = loadFile(fxmlFile);
-
-            //Get the parent node from the file
-            Parent content = loadedCache.parent;
-
-            //Set the FXInitializer of the controller to this object.
-            BaseController controller = loadedCache.controller;
-            controller.initialize(this, library);
-            controller.initializeData();
-
-            if (preferenceManager.getValueAsBoolean("use_transitions", true)) {
-                //Set a callback after the animation has finished
-                this.currentController.animateOut((e) ->
-                        controller.animateIn((event) -> changeContent(content, controller)));
-            } else {
-                changeContent(content, controller);
-            }
+            setContentTimer.time(() -> {
+                //Load the specified fxml file
+                FXMLInfoHolder loadedCache = loadFile(fxmlFile);
+
+                //Get the parent node from the file
+                Parent content = loadedCache.parent;
+
+                //Set the FXInitializer of the controller to this object.
+                BaseController controller = loadedCache.controller;
+                controller.initialize(this, library);
+                controller.initializeData();
+
+                if (preferenceManager.getValueAsBoolean("use_transitions", true)) {
+                    //Set a callback after the animation has finished
+                    this.currentController.animateOut((e) ->
+                            controller.animateIn((event) -> changeContent(content, controller)));
+                } else {
+                    changeContent(content, controller);
+                }
+            });
         } catch (Exception e) {
             //Display an error message if an Exception occurs
             Alert alert = new Alert(Alert.AlertType.ERROR);
@@ -250,6 +492,30 @@ public class FXInitializer extends Application {
         }
     }
 
+    /**
+     * Creates a handler of errors on a background thread, which shows each error in a dialog once the application
+     * thread is free. Errors after the application has exited are printed instead.
+     *
+     * @param task What the background thread was doing, such as "backing up the library"
+     *
+     * @return The handler of the errors of the task
+     */
+    private Consumer<Exception> backgroundErrors(String task) {
+        return (e) -> {
+            try {
+                Platform.runLater(() -> {
+                    Alert alert = new Alert(Alert.AlertType.ERROR);
+                    alert.setTitle("Background Error");
+                    alert.setHeaderText("There was an error in " + task + "!");
+                    alert.setContentText(e.getLocalizedMessage());
+                    alert.show();
+                });
+            } catch (IllegalStateException exited) {
+                System.err.println("There was an error in " + task + ": " + e);
+            }
+        };
+    }
+
     private void changeContent(Node content, BaseController controller) {
         //Set the current controller to the new content's controller
         this.currentController = controller;
@@ -276,7 +542,13 @@ public class FXInitializer extends Application {
         if (!infoHolderMap.containsKey(fileName) || fileName.equals("MainWindow.fxml")) {
             FXMLLoader loader = new FXMLLoader(FXInitializer.class.getResource(fileName));
             //load before getting controller
-            Parent parent = loader.load();
+            Parent parent;
+            FlightRecorderEvents.Span span = FlightRecorderEvents.viewLoad(fileName);
+            try {
+                parent = loader.load();
+            } finally {
+                span.close();
+            }
             infoHolder = new FXMLInfoHolder(loader.getController(), parent);
             infoHolderMap.put(fileName, infoHolder);
         } else {
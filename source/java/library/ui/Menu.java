@@ -1,14 +1,17 @@
 package library.ui;
 
 import javafx.application.Platform;
+import javafx.concurrent.Task;
 import javafx.event.ActionEvent;
 import javafx.event.Event;
 import javafx.fxml.FXML;
 import javafx.scene.control.*;
 import javafx.stage.DirectoryChooser;
+import javafx.stage.FileChooser;
 import javafx.stage.Modality;
 import javafx.stage.Stage;
 import library.data.Library;
+import library.transfer.CatalogImporter;
 
 import java.io.File;
 import java.io.IOException;
@@ -164,7 +167,7 @@ public class Menu extends BaseController {
         });
     }
 
-    private void showError(String error, Exception e) {
+    private void showError(String error, Throwable e) {
         Alert alert = new Alert(Alert.AlertType.ERROR);
         alert.setTitle("Invalid Request");
         alert.setHeaderText("There was an error in " + error + "!");
@@ -212,6 +215,57 @@ public class Menu extends BaseController {
         }
     }
 
+    @FXML
+    private void importBooks(ActionEvent event) {
+        FileChooser fileChooser = new FileChooser();
+        fileChooser.setInitialDirectory(Paths.get("").toAbsolutePath().toFile());
+        fileChooser.setTitle("Import books");
+        fileChooser.getExtensionFilters().addAll(
+                new FileChooser.ExtensionFilter("Vendor files (CSV, TSV, MARC text)", "*.csv", "*.tsv", "*.tab", "*.mrk"),
+                new FileChooser.ExtensionFilter("All files", "*.*"));
+
+        Stage stage = new Stage();
+        stage.initModality(Modality.APPLICATION_MODAL);
+        File file = fileChooser.showOpenDialog(stage);
+
+        if (file == null) {
+            return;
+        }
+        //Read the file on a background thread; the books are added to the library on this thread between batches
+        CatalogImporter importer = new CatalogImporter(getLibrary());
+        importer.setExecutor(Platform::runLater);
+        Task<CatalogImporter.Result> task = new Task<CatalogImporter.Result>() {
+            @Override
+            protected CatalogImporter.Result call() throws IOException {
+                return importer.importFile(file.toPath());
+            }
+        };
+        task.setOnSucceeded((e) -> showImportResult(task.getValue()));
+        task.setOnFailed((e) -> showError("importing books", task.getException()));
+        Thread thread = new Thread(task, "catalog-importer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void showImportResult(CatalogImporter.Result result) {
+        //Reload the views so that the imported books are shown
+        getInitializer().resetCache();
+        getInitializer().setContent("MainWindow.fxml");
+
+        StringBuilder content = new StringBuilder(result.toString());
+        for (CatalogImporter.Rejection e : result.getRejections().subList(0, Math.min(10, result.getRejections().size()))) {
+            content.append('\n').append(e);
+        }
+        if (result.getRowsRejected() > 10) {
+            content.append("\n...");
+        }
+        Alert alert = new Alert(result.getRowsRejected() == 0 ? Alert.AlertType.INFORMATION : Alert.AlertType.WARNING);
+        alert.setTitle("Import Books");
+        alert.setHeaderText(result.getCopiesAdded() + " books were imported");
+        alert.setContentText(content.toString());
+        alert.showAndWait();
+    }
+
     @FXML
     private void loadSampleData(ActionEvent event) {
         try {
@@ -8,8 +8,10 @@ import javafx.scene.Node;
 import javafx.scene.control.*;
 import library.data.Identifier;
 import library.data.Library;
+import library.data.LibraryData;
 import library.data.Patron;
 import library.data.PatronType;
+import library.data.RecordFilters;
 
 import java.util.HashSet;
 import java.util.List;
@@ -49,8 +51,7 @@ public class PatronTypes extends DataViewController<PatronType> {
      */
     @Override
     protected Predicate<PatronType> getFilterPredicate(String filter) {
-        return e -> e.getName().toLowerCase().contains(filter)
-                || e.getIdentifier().getId().toLowerCase().contains(filter);
+        return RecordFilters.patronTypes(filter);
     }
 
     /**
@@ -124,6 +125,14 @@ public class PatronTypes extends DataViewController<PatronType> {
 
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected boolean shows(LibraryData record) {
+        return record instanceof PatronType;
+    }
+
     /**
      * {@inheritDoc}
      */
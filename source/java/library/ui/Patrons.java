@@ -11,8 +11,10 @@ import javafx.scene.input.MouseEvent;
 import javafx.util.StringConverter;
 import library.data.Identifier;
 import library.data.Library;
+import library.data.LibraryData;
 import library.data.Patron;
 import library.data.PatronType;
+import library.data.RecordFilters;
 
 import java.util.HashSet;
 import java.util.List;
@@ -170,13 +172,15 @@ public class Patrons extends DataViewController<Patron> {
      */
     @Override
     protected Predicate<Patron> getFilterPredicate(String filter) {
-        return (e) -> {
-            String lowerCaseValue = filter.toLowerCase();
-            return e.getFirstName().toLowerCase().contains(lowerCaseValue) ||
-                    e.getLastName().toLowerCase().contains(lowerCaseValue) ||
-                    e.getIdentifier().getId().toLowerCase().contains(lowerCaseValue) ||
-                    e.getPatronType().getName().toLowerCase().contains(lowerCaseValue);
-        };
+        return RecordFilters.patrons(filter);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected boolean shows(LibraryData record) {
+        return record instanceof Patron;
     }
 
     /**
@@ -3,6 +3,7 @@ package library.ui;
 import javafx.beans.binding.Bindings;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
+import javafx.collections.ObservableListBase;
 import javafx.event.ActionEvent;
 import javafx.fxml.FXML;
 import javafx.print.*;
@@ -18,10 +19,12 @@ import javafx.scene.transform.Scale;
 import javafx.stage.Stage;
 import library.data.*;
 
+import java.time.Instant;
 import java.time.LocalDate;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * This class serves as a controller of the Reports view defined in the FXML.
@@ -57,7 +60,7 @@ public class Reports extends BaseController {
     @FXML
     private Spinner<Double> fineRate;
     @FXML
-    private TextArea reportView;
+    private ListView<String> reportView;
     @FXML
     private RadioButton itemSort;
     @FXML
@@ -69,6 +72,35 @@ public class Reports extends BaseController {
     private boolean allBooksCharted = true;
     private Views currentView = Views.CHECKED_OUT;
     private Book selectedBook;
+    private Map<BookStatus, Integer> chartedStatusTotals;
+    private Map<String, Integer> chartedCheckouts;
+    private Map<String, Integer> chartedReturns;
+
+    /**
+     * Shows the current report again after other programs changed the fines of the library. Changes to the other
+     * sections are delivered to {@link #libraryEvents(List)}.
+     *
+     * @param sections {@inheritDoc}
+     */
+    @Override
+    public void libraryChanged(Set<String> sections) {
+        if (sections.contains("FINES")) {
+            setReportContent();
+        }
+    }
+
+    /**
+     * Shows the current report again once for each batch of changes to the library, such as checkouts at another desk
+     *
+     * @param events {@inheritDoc}
+     */
+    @Override
+    public void libraryEvents(List<LibraryEvent> events) {
+        if (startDate == null || startDate.getValue() == null) {
+            return;
+        }
+        setReportContent();
+    }
 
     private void setReportContent() {
         Library library = getLibrary();
@@ -83,9 +115,7 @@ public class Reports extends BaseController {
                 bookList = reportGenerator.getOverdueBooks();
                 break;
             case FINES:
-                reportView.setText(reportGenerator.getFines());
-                reportGenerator.setFineRate(fineRate.getValue());
-                reportGenerator.setFineLimit(fineLimit.getValue());
+                showReport(reportGenerator.pageFines());
                 sortByItem = false;
                 itemSort.setSelected(false);
                 itemSort.setDisable(true);
@@ -94,13 +124,20 @@ public class Reports extends BaseController {
         }
         itemSort.setDisable(false);
 
-        if (sortByItem) {
-            reportView.setText(reportGenerator.formatByItems(bookList));
-        } else {
-            reportView.setText(reportGenerator.formatByPatron(bookList));
-        }
+        showReport(sortByItem ? reportGenerator.pageByItems(bookList) : reportGenerator.pageByPatron(bookList));
 
         Map<BookStatus, Integer> bookStatusTotals = reportGenerator.getBookStatusTotals();
+        Book book = allBooksCharted ? null : selectedBook;
+        Map<String, Integer> checkoutData = reportGenerator.getCheckoutsBetweenDates(startDate.getValue(), endDate.getValue(), book, Transaction.Action.CHECKOUT);
+        Map<String, Integer> returnData = reportGenerator.getCheckoutsBetweenDates(startDate.getValue(), endDate.getValue(), book, Transaction.Action.RETURN);
+        //The report generator returns the same results until the library is modified; skip redrawing unchanged charts
+        if (bookStatusTotals == chartedStatusTotals && checkoutData == chartedCheckouts && returnData == chartedReturns) {
+            return;
+        }
+        chartedStatusTotals = bookStatusTotals;
+        chartedCheckouts = checkoutData;
+        chartedReturns = returnData;
+
         ObservableList<PieChart.Data> bookStatusData = FXCollections.observableArrayList();
 
         //For each entry in the map, create a new data entry and add it to the list
@@ -116,9 +153,6 @@ public class Reports extends BaseController {
 
         ObservableList<XYChart.Data<String, Number>> returnSeries = FXCollections.observableArrayList();
         ObservableList<XYChart.Data<String, Number>> checkoutSeries = FXCollections.observableArrayList();
-        Book book = allBooksCharted ? null : selectedBook;
-        Map<String, Integer> checkoutData = reportGenerator.getCheckoutsBetweenDates(startDate.getValue(), endDate.getValue(), book, Transaction.Action.CHECKOUT);
-        Map<String, Integer> returnData = reportGenerator.getCheckoutsBetweenDates(startDate.getValue(), endDate.getValue(), book, Transaction.Action.RETURN);
         int max = -1;
         for (Map.Entry<String, Integer> e : checkoutData.entrySet()) {
             if (e.getValue() > max) {
@@ -157,6 +191,15 @@ public class Reports extends BaseController {
         setReportContent();
     }
 
+    /**
+     * Shows a report in the report list. Only the pages of the rows the list shows are generated.
+     *
+     * @param report The pages of the report to show
+     */
+    private void showReport(ReportPages report) {
+        reportView.setItems(new ReportLines(report));
+    }
+
     @FXML
     private void checkoutView(ActionEvent event) {
         currentView = Views.CHECKED_OUT;
@@ -166,7 +209,7 @@ public class Reports extends BaseController {
     @FXML
     private void print(ActionEvent event) {
         //Copy the text to an offscreen print area
-        Text reportText = new Text(reportView.getText());
+        Text reportText = new Text(String.join("\n", reportView.getItems()));
         reportText.setFont(Font.font("monospaced"));
         TextFlow printArea = new TextFlow(reportText);
         printArea.setBackground(null);
@@ -222,16 +265,16 @@ public class Reports extends BaseController {
         fineLimit.setValueFactory(new SpinnerValueFactory.DoubleSpinnerValueFactory(1, Double.MAX_VALUE, savedFineLimit));
         fineRate.setValueFactory(new SpinnerValueFactory.DoubleSpinnerValueFactory(0, Double.MAX_VALUE, savedFineRate));
 
-        //Make the reports update when the value of the fee spinners change
+        //The fee spinners set the rate and limit that fines are charged with from then on; charged fines do not change
         fineLimit.getEditor().textProperty().addListener((observable, oldValue, newValue) -> {
             fineLimit.increment(0);
+            reportGenerator.setFineLimit(fineLimit.getValue());
             getInitializer().getPreferenceManager().setValue("fine_limit", fineLimit.getValue());
-            setReportContent();
         });
         fineRate.getEditor().textProperty().addListener((observable, oldValue, newValue) -> {
             fineRate.increment(0);
+            reportGenerator.setFineRate(fineRate.getValue());
             getInitializer().getPreferenceManager().setValue("fine_rate", fineRate.getValue());
-            setReportContent();
         });
 
         startDate.setValue(LocalDate.of(2018, 3, 12));
@@ -247,12 +290,17 @@ public class Reports extends BaseController {
     @FXML
     private void viewFines(ActionEvent event) {
         currentView = Views.FINES;
+        //Fines are charged once a day when they are shown, in case no sweep has charged them yet today
+        Library library = getLibrary();
+        if (!library.isReadOnly()) {
+            ReportGenerator reportGenerator = library.getReportGenerator();
+            library.getFineLedger().accrueIfDue(Instant.now(), reportGenerator.getFineRate(), reportGenerator.getFineLimit());
+        }
         setReportContent();
     }
 
     @FXML
     private void refreshReports(ActionEvent actionEvent) {
-        reportView.clear();
         setReportContent();
     }
 
@@ -307,4 +355,31 @@ public class Reports extends BaseController {
         OVERDUE,
         FINES
     }
+
+    /**
+     * The lines of a report, read from its pages as the list shows them. The list is replaced rather than changed when
+     * the report is shown again.
+     */
+    private static final class ReportLines extends ObservableListBase<String> {
+        private final ReportPages report;
+        private final int size;
+
+        private ReportLines(ReportPages report) {
+            this.report = report;
+            this.size = report.getLineCount();
+        }
+
+        @Override
+        public String get(int index) {
+            if (index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+            }
+            return report.getLine(index);
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
 }
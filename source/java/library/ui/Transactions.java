@@ -5,7 +5,10 @@ import javafx.beans.property.ReadOnlyObjectWrapper;
 import javafx.beans.property.ReadOnlyStringWrapper;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
+import javafx.event.ActionEvent;
 import javafx.fxml.FXML;
+import javafx.scene.control.Alert;
+import javafx.scene.control.Button;
 import javafx.scene.control.ChoiceBox;
 import javafx.scene.control.TableColumn;
 import javafx.scene.control.TableView;
@@ -14,9 +17,11 @@ import javafx.scene.text.Text;
 import javafx.util.StringConverter;
 import library.data.*;
 
+import java.io.UncheckedIOException;
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
 import java.time.format.FormatStyle;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Locale;
 import java.util.function.Predicate;
@@ -35,6 +40,10 @@ public class Transactions extends DataViewController<Transaction> {
             DateTimeFormatter.ofLocalizedDateTime(FormatStyle.SHORT)
                     .withLocale(Locale.US)
                     .withZone(ZoneId.systemDefault());
+    /**
+     * The number of older transactions read from the data file each time older transactions are shown
+     */
+    private static final int OLDER_PAGE_SIZE = 1000;
     /**
      * The TextField that stores the identifier of the Transaction
      */
@@ -75,6 +84,15 @@ public class Transactions extends DataViewController<Transaction> {
      */
     @FXML
     private ChoiceBox<BookStatus> bookStatus;
+    /**
+     * The Button that shows older transactions that are kept in the data file
+     */
+    @FXML
+    private Button loadOlderButton;
+    /**
+     * The number of older transactions that have been added to the table
+     */
+    private int olderShown;
 
     /**
      * {@inheritDoc}
@@ -98,6 +116,9 @@ public class Transactions extends DataViewController<Transaction> {
                 "Checked Out if the book is checked out.");
         manager.registerSpotlight(timestamp, "Timestamp", "The time that the transaction occurred. " +
                 "It is in the format DD-MM-YY HH:MM AM/PM.");
+        manager.registerSpotlight(loadOlderButton, "Load Older", "Shows older transactions. Only recent " +
+                "transactions are loaded when the library is opened if a transaction history limit is set, and " +
+                "archived transactions are read from the archive a month at a time.");
     }
 
     /**
@@ -105,14 +126,15 @@ public class Transactions extends DataViewController<Transaction> {
      */
     @Override
     protected Predicate<Transaction> getFilterPredicate(String filter) {
-        return transaction -> transaction.getIdentifier().getId().toLowerCase().contains(filter)
-                || transaction.getChangedBook().getTitle().toLowerCase().contains(filter)
-                || transaction.getChangedBook().getIsbn().toLowerCase().contains(filter)
-                || transaction.getChangedBook().getAuthor().toLowerCase().contains(filter)
-                || transaction.getChangedPatron().getLastName().toLowerCase().contains(filter)
-                || transaction.getChangedPatron().getFirstName().toLowerCase().contains(filter)
-                || transaction.getChangedPatron().getPatronType().getName().toLowerCase().contains(filter)
-                || transaction.getTimestamp().toString().toLowerCase().contains(filter);
+        return RecordFilters.transactions(filter);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected boolean shows(LibraryData record) {
+        return record instanceof Transaction;
     }
 
     /**
@@ -120,7 +142,57 @@ public class Transactions extends DataViewController<Transaction> {
      */
     @Override
     protected List<Transaction> getDataSource() {
-        return FXCollections.observableList(getLibrary().getTransactions());
+        //Older transactions are added to this copy, not to the transactions of the library
+        olderShown = 0;
+        return new ArrayList<>(getLibrary().getTransactions());
+    }
+
+    /**
+     * Adds the next page of older transactions to the table, reading them from the data file
+     *
+     * @param event The event that triggered this method
+     */
+    @FXML
+    private void loadOlder(ActionEvent event) {
+        Library library = getLibrary();
+        List<Transaction> history = library.getTransactionHistory();
+        int end = library.getOlderTransactionCount() - olderShown;
+        int start = Math.max(0, end - OLDER_PAGE_SIZE);
+        try {
+            dataSource.addAll(0, new ArrayList<>(history.subList(start, end)));
+            olderShown += end - start;
+        } catch (UncheckedIOException e) {
+            Alert alert = new Alert(Alert.AlertType.ERROR);
+            alert.setTitle("Error");
+            alert.setHeaderText("Error loading older transactions!");
+            alert.setContentText(e.getCause().getLocalizedMessage());
+            alert.showAndWait();
+        }
+        loadOlderButton.setDisable(olderShown >= library.getOlderTransactionCount());
+    }
+
+    /**
+     * Adds the transactions recorded since the previous batch to the end of the table, keeping the older transactions
+     * that were shown. Other changes are shown by {@link DataViewController#libraryEvents(List)}.
+     *
+     * @param events {@inheritDoc}
+     */
+    @Override
+    public void libraryEvents(List<LibraryEvent> events) {
+        if (dataSource == null) {
+            return;
+        }
+        List<LibraryEvent> others = new ArrayList<>();
+        List<Transaction> recorded = new ArrayList<>();
+        for (LibraryEvent e : events) {
+            if (e.getType() == LibraryEvent.Type.ADDED && e.getRecord() instanceof Transaction) {
+                recorded.add((Transaction) e.getRecord());
+            } else {
+                others.add(e);
+            }
+        }
+        dataSource.addAll(recorded);
+        super.libraryEvents(others);
     }
 
     /**
@@ -202,6 +274,7 @@ public class Transactions extends DataViewController<Transaction> {
     public void initializeData() {
         super.initializeData();
         table.setPlaceholder(new Text("No transactions exist!"));
+        loadOlderButton.setDisable(getLibrary().getOlderTransactionCount() == 0);
         bookStatus.setItems(FXCollections.observableArrayList(BookStatus.values()));
         bookStatus.setConverter(new StringConverter<BookStatus>() {
             @Override
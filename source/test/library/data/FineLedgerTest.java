@@ -0,0 +1,99 @@
+package library.data;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class FineLedgerTest {
+    private static final Instant NOW = Instant.parse("2024-06-15T12:00:00Z");
+    private static final int LOAN_DAYS = 14;
+
+    private Library library;
+    private FineLedger ledger;
+    private Patron patron;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        library = new Library((LibraryStore) null);
+        PatronType type = new PatronType(new Identifier(2), "Student", LOAN_DAYS, 5);
+        library.getPatronTypes().add(type);
+        patron = new Patron(new Identifier(1), "First", "Last", type);
+        library.getPatrons().add(patron);
+        ledger = library.getFineLedger();
+    }
+
+    private Book checkedOut(int id, long daysLate) {
+        Instant checkOutDate = NOW.minus(Duration.ofDays(LOAN_DAYS + daysLate));
+        Book book = new Book(new Identifier(id), "Title", "Author", "isbn-" + id, BookStatus.CHECKED_OUT, patron,
+                checkOutDate);
+        library.addBooks(Collections.singletonList(book));
+        return book;
+    }
+
+    @Test
+    void accruingAgainAtTheSameTimeChargesNothing() {
+        Book book = checkedOut(1, 10);
+
+        assertEquals(1, ledger.accrue(NOW, 1.5, 60));
+        assertEquals(0, ledger.accrue(NOW, 1.5, 60));
+        assertEquals(1500L, ledger.getLoanFine(book));
+        assertEquals(1500L, ledger.getBalance(patron));
+        assertEquals(1, ledger.getEntries().size());
+    }
+
+    @Test
+    void accruingLaterChargesOnlyTheDifference() {
+        Book book = checkedOut(1, 10);
+        ledger.accrue(NOW, 1.5, 60);
+
+        assertEquals(1, ledger.accrue(NOW.plus(Duration.ofDays(2)), 1.5, 60));
+        assertEquals(1800L, ledger.getLoanFine(book));
+        assertEquals(300L, ledger.getEntries().get(1).getAmountCents());
+    }
+
+    @Test
+    void finesStopAtTheLimit() {
+        Book book = checkedOut(1, 100);
+
+        ledger.accrue(NOW, 1.5, 60);
+        assertEquals(6000L, ledger.getLoanFine(book));
+        assertEquals(0, ledger.accrue(NOW.plus(Duration.ofDays(30)), 1.5, 60));
+        assertEquals(6000L, ledger.getBalance(patron));
+    }
+
+    @Test
+    void loweringTheRateDoesNotLowerChargedFines() {
+        Book book = checkedOut(1, 10);
+        ledger.accrue(NOW, 1.5, 60);
+
+        assertEquals(0, ledger.accrue(NOW.plus(Duration.ofDays(1)), 0.5, 60));
+        assertEquals(1500L, ledger.getLoanFine(book));
+    }
+
+    @Test
+    void accrueIfDueRunsOncePerDay() {
+        checkedOut(1, 10);
+        Book second = checkedOut(2, 3);
+
+        assertEquals(2, ledger.accrueIfDue(NOW, 1.5, 60));
+        assertEquals(0, ledger.accrueIfDue(NOW.plus(Duration.ofMinutes(1)), 1.5, 60));
+        assertEquals(450L, ledger.getLoanFine(second));
+        assertEquals(2, ledger.accrueIfDue(NOW.plus(Duration.ofDays(1)), 1.5, 60));
+        assertEquals(600L, ledger.getLoanFine(second));
+    }
+
+    @Test
+    void booksThatAreNotOverdueAreNotCharged() {
+        Book book = checkedOut(1, 0);
+
+        assertEquals(0, ledger.accrue(NOW, 1.5, 60));
+        assertEquals(0L, ledger.getLoanFine(book));
+        assertEquals(0L, ledger.getBalance(patron));
+    }
+}
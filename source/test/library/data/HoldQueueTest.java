@@ -0,0 +1,159 @@
+package library.data;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class HoldQueueTest {
+    private Library library;
+    private HoldQueue holds;
+    private List<Patron> patrons;
+    private Book first;
+    private Book second;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        library = new Library((LibraryStore) null);
+        holds = library.getHoldQueue();
+        PatronType type = library.getPatronTypes().get(0);
+        patrons = new ArrayList<>();
+        for (int i = 1; i <= 4; i++) {
+            Patron patron = new Patron(new Identifier(i), "First" + i, "Last" + i, type);
+            library.getPatrons().add(patron);
+            patrons.add(patron);
+        }
+        //Two copies of one title, and a copy of another
+        List<Book> books = new ArrayList<>();
+        books.add(new Book(new Identifier(1), "Title", "Author", "9780000000001", BookStatus.AVAILABLE, null, null));
+        books.add(new Book(new Identifier(2), "Title", "Author", "9780000000001", BookStatus.AVAILABLE, null, null));
+        books.add(new Book(new Identifier(3), "Other", "Author", "9780000000002", BookStatus.AVAILABLE, null, null));
+        library.addBooks(books);
+        first = books.get(0);
+        second = books.get(1);
+    }
+
+    private void checkOutBothCopies() {
+        library.checkout(first, patrons.get(0), first.getVersion());
+        library.checkout(second, patrons.get(0), second.getVersion());
+    }
+
+    @Test
+    void holdOnAnAvailableTitleIsReadyRightAway() {
+        Hold hold = library.placeHold(first, patrons.get(1));
+
+        assertNotNull(hold.getReadyBook());
+        assertEquals(BookStatus.ON_HOLD, hold.getReadyBook().getStatus());
+        assertSame(patrons.get(1), hold.getReadyBook().getCurrentPatron());
+        assertEquals(0, holds.getQueueLength(first));
+    }
+
+    @Test
+    void returnedCopyGoesToTheOldestHold() {
+        checkOutBothCopies();
+        Hold older = library.placeHold(first, patrons.get(1));
+        Hold newer = library.placeHold(second, patrons.get(2));
+        assertEquals(2, holds.getQueueLength(first));
+
+        library.returnBook(second, second.getVersion());
+
+        assertSame(second, older.getReadyBook());
+        assertSame(older, holds.getReadyHold(second));
+        assertEquals(BookStatus.ON_HOLD, second.getStatus());
+        assertSame(patrons.get(1), second.getCurrentPatron());
+        assertNull(newer.getReadyBook());
+        assertEquals(1, holds.getQueueLength(first));
+    }
+
+    @Test
+    void cancellingAReadyHoldPassesTheCopyOn() {
+        checkOutBothCopies();
+        Hold older = library.placeHold(first, patrons.get(1));
+        Hold newer = library.placeHold(first, patrons.get(2));
+        library.returnBook(first, first.getVersion());
+
+        library.cancelHold(older);
+
+        assertSame(first, newer.getReadyBook());
+        assertSame(patrons.get(2), first.getCurrentPatron());
+        assertNull(holds.getHold(patrons.get(1), first.getIsbn()));
+        assertEquals(0, holds.getQueueLength(first));
+    }
+
+    @Test
+    void checkingOutTheReadyCopyFillsTheHold() {
+        Hold hold = library.placeHold(first, patrons.get(1));
+        Book copy = hold.getReadyBook();
+
+        library.checkout(copy, patrons.get(1), copy.getVersion());
+
+        assertEquals(BookStatus.CHECKED_OUT, copy.getStatus());
+        assertNull(holds.getHold(patrons.get(1), first.getIsbn()));
+        assertEquals(0, holds.getHolds().size());
+    }
+
+    @Test
+    void aPatronCanOnlyHoldATitleOnce() {
+        checkOutBothCopies();
+        library.placeHold(first, patrons.get(1));
+
+        assertThrows(IllegalArgumentException.class, () -> library.placeHold(second, patrons.get(1)));
+        assertEquals(1, holds.getQueueLength(first));
+    }
+
+    @Test
+    void deletingAPatronCancelsTheirHolds() {
+        checkOutBothCopies();
+        Hold deleted = library.placeHold(first, patrons.get(1));
+        Hold waiting = library.placeHold(first, patrons.get(2));
+        library.returnBook(first, first.getVersion());
+        assertSame(first, deleted.getReadyBook());
+
+        Patron patron = patrons.get(1);
+        library.getPatrons().remove(patron);
+        library.recordRemoved(patron);
+
+        assertEquals(0, holds.getHolds(patron).size());
+        assertSame(first, waiting.getReadyBook());
+        assertSame(patrons.get(2), first.getCurrentPatron());
+    }
+
+    @Test
+    void correctingTheIsbnOfEveryCopyMovesTheQueue() {
+        checkOutBothCopies();
+        Hold hold = library.placeHold(first, patrons.get(1));
+        String corrected = "9780000000009";
+
+        for (Book e : new Book[]{first, second}) {
+            e.setTitleRecord(library.getCatalog().intern("Title", "Author", corrected));
+            library.recordUpdated(e);
+        }
+
+        assertEquals(corrected, hold.getIsbn());
+        assertSame(hold, holds.getHold(patrons.get(1), corrected));
+        assertEquals(1, holds.getQueueLength(first));
+        library.returnBook(first, first.getVersion());
+        assertSame(first, hold.getReadyBook());
+    }
+
+    @Test
+    void correctingTheIsbnOfOneCopyKeepsTheQueueOnTheOtherCopies() {
+        checkOutBothCopies();
+        Hold hold = library.placeHold(second, patrons.get(1));
+
+        first.setTitleRecord(library.getCatalog().intern("Title", "Author", "9780000000009"));
+        library.recordUpdated(first);
+
+        assertEquals("9780000000001", hold.getIsbn());
+        library.returnBook(second, second.getVersion());
+        assertSame(second, hold.getReadyBook());
+    }
+}
@@ -0,0 +1,137 @@
+package library.data;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ReplicationTest {
+    private ExecutorService circulation;
+    private ExecutorService replicaThread;
+    private Library library;
+    private ReplicationPrimary primary;
+    private ReplicationReplica replica;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        circulation = Executors.newSingleThreadExecutor();
+        replicaThread = Executors.newSingleThreadExecutor();
+        library = new Library((LibraryStore) null);
+        PatronType type = library.getPatronTypes().get(0);
+        for (int i = 1; i <= 5; i++) {
+            Patron patron = new Patron(new Identifier(i), "First" + i, "Last" + i, type);
+            library.getPatrons().add(patron);
+            library.recordAdded(patron);
+        }
+        List<Book> books = new ArrayList<>();
+        for (int i = 1; i <= 20; i++) {
+            books.add(new Book(new Identifier(i), "Title " + (i % 7), "Author", "isbn-" + (i % 7), BookStatus.AVAILABLE, null, null));
+        }
+        library.addBooks(books);
+
+        primary = new ReplicationPrimary(library, circulation);
+        primary.start(0);
+        replica = new ReplicationReplica(new InetSocketAddress(InetAddress.getLoopbackAddress(), primary.getPort()), replicaThread);
+        replica.start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        replica.close();
+        primary.close();
+        circulation.shutdownNow();
+        replicaThread.shutdownNow();
+    }
+
+    @Test
+    void replicaConvergesWithPrimary() throws Exception {
+        Random random = new Random(42);
+        for (int i = 0; i < 200; i++) {
+            Book book = library.getBooks().get(random.nextInt(library.getBooks().size()));
+            Patron patron = library.getPatrons().get(random.nextInt(library.getPatrons().size()));
+            circulation.submit(() -> {
+                if (book.getStatus() == BookStatus.AVAILABLE) {
+                    library.checkout(book, patron, book.getVersion());
+                } else if (book.getStatus() == BookStatus.CHECKED_OUT) {
+                    library.returnBook(book, book.getVersion());
+                } else if (library.getHoldQueue().getHold(patron, book.getIsbn()) == null) {
+                    library.placeHold(book, patron);
+                }
+            }).get();
+        }
+        circulation.submit(() -> {
+            Patron patron = library.getPatrons().get(0);
+            patron.setLastName("Renamed");
+            library.recordUpdated(patron);
+        }).get();
+
+        awaitReplica();
+    }
+
+    @Test
+    void rebuiltTransactionsAreNotSentAgain() throws Exception {
+        Book book = library.getBooks().get(0);
+        Patron patron = library.getPatrons().get(0);
+        circulation.submit(() -> library.checkout(book, patron, book.getVersion())).get();
+        awaitReplica();
+
+        circulation.submit(() -> {
+            library.returnBook(book, book.getVersion());
+            //Removing the book makes the library replace its transactions with new copies when they are rebuilt
+            library.getBooks().remove(book);
+            library.recordRemoved(book);
+            library.getTransactions();
+        }).get();
+        awaitReplica();
+        circulation.submit(() -> library.getTransactions()).get();
+        //Give the primary time to send anything it would send for the rebuilt transactions
+        Thread.sleep(ReplicationPrimary.PUBLISH_MILLIS * 5);
+
+        assertEquals(2, replicaThread.submit(() -> replica.getLibrary().getTransactionList().size()).get().intValue());
+    }
+
+    /**
+     * Waits for the replica to have the same records and number of transactions as the primary
+     */
+    private void awaitReplica() throws Exception {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (true) {
+            List<List<String>> expected = circulation.submit(() -> contents(library)).get();
+            List<List<String>> actual = replicaThread.submit(() -> contents(replica.getLibrary())).get();
+            if (expected.equals(actual)) {
+                return;
+            }
+            if (System.nanoTime() > deadline) {
+                assertEquals(expected, actual, "The replica did not catch up");
+            }
+            primary.publish();
+            Thread.sleep(10);
+        }
+    }
+
+    private static List<List<String>> contents(Library library) {
+        List<List<String>> contents = new ArrayList<>();
+        for (String section : new String[]{"TYPES", "PATRONS", "BOOKS", "HOLDS", "FINES"}) {
+            List<String> rows = new ArrayList<>();
+            for (LibraryData e : library.getRecords(section)) {
+                rows.add(Library.formatRecord(e.asData()));
+            }
+            rows.sort(null);
+            contents.add(rows);
+        }
+        contents.add(Collections.singletonList(String.valueOf(library.getTransactionList().size())));
+        return contents;
+    }
+}
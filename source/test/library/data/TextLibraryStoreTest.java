@@ -0,0 +1,121 @@
+package library.data;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TextLibraryStoreTest {
+    private static final int ROWS = TransactionHistory.PAGE_ROWS * 3 + 17;
+    private static final Instant NOW = Instant.now();
+
+    private Path directory;
+    private Library source;
+    private List<String> expected;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        directory = Files.createTempDirectory("library-test");
+        source = new Library((LibraryStore) null);
+        Patron patron = new Patron(new Identifier(1), "Zo\u00eb", "\u00c5ngstr\u00f6m", source.getPatronTypes().get(0));
+        source.getPatrons().add(patron);
+        Book book = new Book(new Identifier(1), "Title", "Author", "isbn-1", BookStatus.AVAILABLE, null, null);
+        source.addBooks(Collections.singletonList(book));
+        //One transaction an hour, so most of them are older than the recent history
+        List<Transaction> transactions = new ArrayList<>();
+        expected = new ArrayList<>();
+        for (int i = 0; i < ROWS; i++) {
+            Transaction.Action action = i % 2 == 0 ? Transaction.Action.CHECKOUT : Transaction.Action.RETURN;
+            Instant timestamp = NOW.minus(Duration.ofHours(ROWS - i));
+            Transaction transaction = new Transaction(new Identifier(i + 1), patron, book, action, timestamp);
+            transactions.add(transaction);
+            expected.add(Library.formatRecord(transaction.asData()));
+        }
+        source.addTransactions(transactions);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        source.close();
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach((e) -> e.toFile().delete());
+        }
+    }
+
+    @Test
+    void olderTransactionsAreReadBackFromTheirPages() throws IOException {
+        source.saveTo(directory);
+
+        //The rows are indexed as they are read, then the index is saved and used instead of the rows
+        for (int i = 0; i < 2; i++) {
+            Library library = new Library(directory, Duration.ofDays(7));
+            try {
+                assertTrue(library.getOlderTransactionCount() > TransactionHistory.PAGE_ROWS);
+                assertEquals(expected, contents(library.getTransactionHistory()));
+                Instant from = NOW.minus(Duration.ofHours(ROWS - 1500));
+                Instant to = NOW.minus(Duration.ofHours(ROWS - 2500));
+                assertEquals(expected.subList(1500, 2500), contents(library.getTransactions(from, to)));
+                library.save();
+            } finally {
+                library.close();
+            }
+        }
+    }
+
+    @Test
+    void pagesOfCrlfRowsAreReadBack() throws IOException {
+        Path file = directory.resolve(TextLibraryStore.DATA_FILE);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        bytes.write("--------TRANSACTIONS\r\n".getBytes(StandardCharsets.UTF_8));
+        for (String e : expected) {
+            bytes.write((e + "\r\n").getBytes(StandardCharsets.UTF_8));
+        }
+        Files.write(file, bytes.toByteArray());
+
+        TransactionHistory history = new TransactionHistory(file);
+        long[] position = new long[1];
+        try (InputStream in = Files.newInputStream(file)) {
+            DataFile.readLines(in, (line, length) -> {
+                if (position[0] > 0) {
+                    String[] data = Library.parseRecord(line);
+                    history.add(position[0], length, data[0], Instant.parse(data[4]), null);
+                }
+                position[0] += length;
+            });
+        }
+        history.end();
+        history.rememberFile();
+
+        assertEquals(Files.size(file), position[0]);
+        assertEquals(ROWS, history.size());
+        List<String> read = new ArrayList<>();
+        for (int i = 0; i < history.size(); i++) {
+            read.add(Library.formatRecord(history.get(i, source).asData()));
+        }
+        assertEquals(expected, read);
+    }
+
+    private static List<String> contents(List<Transaction> transactions) {
+        List<String> rows = new ArrayList<>();
+        for (Transaction e : transactions) {
+            rows.add(Library.formatRecord(e.asData()));
+        }
+        return rows;
+    }
+}